@@ -1,11 +1,12 @@
 package com.capgemini;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class CacheManager {
 
-	private static final Map<String, Cacheable<?>> cache = new HashMap<String, Cacheable<?>>();
+	// Shared by all FTP sessions, which may run on different threads
+	private static final Map<String, Cacheable<?>> cache = new ConcurrentHashMap<String, Cacheable<?>>();
 	
 	public static void cache(Cacheable<?> cacheable) {
 		
@@ -22,4 +23,9 @@ public final class CacheManager {
 		
 		return cacheable;
 	}
+	
+	public static void remove(String id) {
+		
+		cache.remove(id);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.capgemini;
+
+import com.capgemini.ftp.client.apache.client.ServerCapabilities;
+
+public class CachedServerCapabilities implements Cacheable<ServerCapabilities> {
+
+	private final String id;
+	private final ServerCapabilities entity;
+
+	public CachedServerCapabilities(String id, ServerCapabilities entity) {
+
+		this.id = id;
+		this.entity = entity;
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Capabilities do not expire; they are removed when connecting to the
+	 * server fails.
+	 */
+	@Override
+	public boolean isExpired() {
+		return false;
+	}
+
+	@Override
+	public ServerCapabilities getEntity() {
+		return entity;
+	}
+}
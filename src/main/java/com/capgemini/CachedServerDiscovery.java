@@ -0,0 +1,32 @@
+package com.capgemini;
+
+import com.capgemini.ftp.client.apache.client.ServerDiscovery;
+
+public class CachedServerDiscovery implements Cacheable<ServerDiscovery> {
+
+	private final String id;
+	private final ServerDiscovery entity;
+	private final long expiry;
+
+	public CachedServerDiscovery(String id, ServerDiscovery entity, int expiresInMilliseconds) {
+
+		this.id = id;
+		this.entity = entity;
+		this.expiry = System.currentTimeMillis() + expiresInMilliseconds;
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= expiry;
+	}
+
+	@Override
+	public ServerDiscovery getEntity() {
+		return entity;
+	}
+}
@@ -0,0 +1,20 @@
+package com.capgemini.ftp.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Processes the content of a remote file chunk by chunk as it is downloaded
+ * (see
+ * {@link FileTransferBean#downloadToChunkConsumer}).
+ */
+public interface ChunkConsumer {
+
+	/**
+	 * @param chunk
+	 *            the next bytes, between its position and limit. The buffer
+	 *            is reused for the next chunk, so it must not be kept after
+	 *            the call. Throwing aborts the transfer.
+	 */
+	void accept(ByteBuffer chunk) throws IOException;
+}
@@ -0,0 +1,248 @@
+package com.capgemini.ftp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.exception.MonitoredError;
+import com.capgemini.ftp.client.config.FTPClientConfig;
+
+/**
+ * The responsibility of this class is to write downloaded files into a local
+ * directory so that readers of the directory only ever see complete files.
+ * <p>
+ * Each file is written to a hidden temporary file in the same directory,
+ * named "." + fileName + {@value #TEMP_SUFFIX}, and renamed to its final name
+ * once it is complete; being on the same file system, the rename is atomic.
+ * <p>
+ * Whether, and how often, the files are forced to the device before they
+ * are renamed is set by the {@link FsyncPolicy}. With
+ * {@link FsyncPolicy#BATCHED} the files committed since the last
+ * {@link #flush()} are forced and renamed together by the next one, which
+ * {@link #close()} also makes. Until then a committed file is neither
+ * durable nor visible; if the process dies first it is left as a temporary
+ * file, and the download must be made again.
+ * <p>
+ * A failed download is deleted by {@link #discard(StagedFile)}. Temporary
+ * files left by a crash can be removed with
+ * {@link #deleteAbandonedFiles(String)}, e.g. on start up.
+ */
+public class DownloadStaging implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DownloadStaging.class);
+
+	public static final String TEMP_SUFFIX = ".download";
+
+	private final Path directory;
+
+	private final FsyncPolicy fsyncPolicy;
+
+	// committed, not yet flushed files; guarded by this
+	private final List<StagedFile> pending = new ArrayList<StagedFile>();
+
+	public DownloadStaging(String localDir, FsyncPolicy fsyncPolicy) {
+		this.directory = Paths.get(localDir);
+		this.fsyncPolicy = fsyncPolicy;
+	}
+
+	/**
+	 * @return the staging of the local working directory of the transfer,
+	 *         with its <code>ftpLocalFsyncPolicy</code> (NONE by default).
+	 */
+	public static DownloadStaging forTransfer(FTPClientConfig ftpClientConfig) {
+		FsyncPolicy fsyncPolicy = ftpClientConfig.ftpLocalFsyncPolicy == null ? FsyncPolicy.NONE : FsyncPolicy.valueOf(ftpClientConfig.ftpLocalFsyncPolicy);
+		return new DownloadStaging(ftpClientConfig.ftpFilesLocalWorkingDir, fsyncPolicy);
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	/**
+	 * The goal of this method is to create the temporary file a download is
+	 * written to.
+	 *
+	 * @param fileName
+	 *            the final name of the file.
+	 */
+	public StagedFile stage(String fileName) throws IOException {
+		Path target = directory.resolve(fileName);
+		Path temp = directory.resolve("." + fileName + TEMP_SUFFIX);
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		return new StagedFile(target, temp, channel);
+	}
+
+	/**
+	 * The goal of this method is to make a complete download visible under
+	 * its final name, at once or, with {@link FsyncPolicy#BATCHED}, at the
+	 * next {@link #flush()}; until then the file is not durable.
+	 */
+	public void commit(StagedFile file) throws IOException {
+		try {
+			if (fsyncPolicy == FsyncPolicy.PER_FILE) {
+				file.channel.force(true);
+			}
+		} finally {
+			file.channel.close();
+		}
+		if (fsyncPolicy == FsyncPolicy.BATCHED) {
+			synchronized (this) {
+				pending.add(file);
+			}
+			return;
+		}
+		move(file);
+		if (fsyncPolicy == FsyncPolicy.PER_FILE) {
+			syncDirectory();
+		}
+	}
+
+	/**
+	 * Delete the temporary file of a failed download.
+	 */
+	public void discard(StagedFile file) {
+		try {
+			file.channel.close();
+			Files.deleteIfExists(file.temp);
+		} catch (IOException e) {
+			logger.warn("Failed to delete temporary file {}: {}", file.temp, e.getMessage());
+		}
+	}
+
+	/**
+	 * The goal of this method is to force the files committed since the last
+	 * flush to the device, rename them and sync the directory once. Nothing
+	 * to do unless the policy is {@link FsyncPolicy#BATCHED}.
+	 */
+	public void flush() throws IOException {
+		List<StagedFile> batch;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			batch = new ArrayList<StagedFile>(pending);
+			pending.clear();
+		}
+		for (StagedFile file : batch) {
+			// forcing any descriptor of the file writes out all of its data
+			try (FileChannel channel = FileChannel.open(file.temp, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+		}
+		for (StagedFile file : batch) {
+			move(file);
+		}
+		syncDirectory();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * The goal of this method is to delete the temporary files left in the
+	 * directory by downloads that never completed. Must not be called while
+	 * downloads are in progress. Files committed to this staging and waiting
+	 * for the next {@link #flush()} are kept.
+	 *
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @return the number of files deleted.
+	 */
+	public int deleteAbandonedFiles(String correlationId) {
+		List<Path> committed = new ArrayList<Path>();
+		synchronized (this) {
+			for (StagedFile file : pending) {
+				committed.add(file.temp);
+			}
+		}
+		int deleted = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, ".*" + TEMP_SUFFIX)) {
+			for (Path file : files) {
+				if (committed.contains(file)) {
+					continue;
+				}
+				Files.deleteIfExists(file);
+				deleted++;
+			}
+		} catch (IOException e) {
+			MonitoredError.LOCAL_FILE_ACCESS_ERROR.create(correlationId, directory.toString(), "Failed to delete abandoned downloads.", e);
+		}
+		if (deleted > 0) {
+			logger.info("CorrelationId: {} Deleted {} abandoned downloads from {}", correlationId, deleted, directory);
+		}
+		return deleted;
+	}
+
+	private void move(StagedFile file) throws IOException {
+		try {
+			Files.move(file.temp, file.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(file.temp, file.target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*
+	 * Makes the renames durable. Not every platform can open a directory,
+	 * in which case there is nothing more to do.
+	 */
+	private void syncDirectory() {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.debug("Directory {} cannot be synced: {}", directory, e.getMessage());
+		}
+	}
+
+	/**
+	 * A download in progress.
+	 */
+	public static class StagedFile {
+
+		private final Path target;
+
+		private final Path temp;
+
+		private final FileChannel channel;
+
+		private final OutputStream outputStream;
+
+		StagedFile(Path target, Path temp, FileChannel channel) {
+			this.target = target;
+			this.temp = temp;
+			this.channel = channel;
+			this.outputStream = Channels.newOutputStream(channel);
+		}
+
+		/**
+		 * @return the stream to write the download to; it is closed by
+		 *         {@link DownloadStaging#commit(StagedFile)} or
+		 *         {@link DownloadStaging#discard(StagedFile)}.
+		 */
+		public OutputStream getOutputStream() {
+			return outputStream;
+		}
+
+		/**
+		 * @return the path the file gets once committed.
+		 */
+		public Path getTarget() {
+			return target;
+		}
+	}
+}
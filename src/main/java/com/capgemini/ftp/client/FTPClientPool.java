@@ -0,0 +1,309 @@
+package com.capgemini.ftp.client;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.client.KeepAliveScheduler;
+import com.capgemini.ftp.client.config.FTPClientConfig;
+
+/**
+ * The responsibility of this class is to share a bounded number of connected
+ * and logged in FTP sessions to one server, so that work can be spread over
+ * several control connections and sessions are reused instead of logging in
+ * again for each task.
+ * <p>
+ * Sessions are connected lazily through
+ * {@link FileTransferBean#getConnectedFTPClient(String, FTPClientConfig)}.
+ * {@link #borrow()} blocks while all sessions are in use. A borrowed session
+ * must be given back with {@link #release(EnhancedFTPClient)}, or with
+ * {@link #invalidate(EnhancedFTPClient)} if it should not be reused. With
+ * {@link #setKeepAliveInterval(long)} idle sessions are sent a NOOP in the
+ * background so that the server does not drop them between tasks. The NOOPs
+ * wait for their reply, so they are sent from a thread of the pool rather
+ * than from the shared {@link KeepAliveScheduler} thread.
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * <code>
+ *  EnhancedFTPClient ftpClient = pool.borrow();
+ *  try {
+ *    ...
+ *  } finally {
+ *    pool.release(ftpClient);
+ *  }
+ * </code>
+ * </pre>
+ */
+public class FTPClientPool implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(FTPClientPool.class);
+
+	private final String correlationId;
+
+	private final FileTransferBean fileTransferBean;
+
+	private final FTPClientConfig ftpClientConfig;
+
+	private final int maxSize;
+
+	private final Semaphore permits;
+
+	private final Deque<EnhancedFTPClient> idle = new ArrayDeque<EnhancedFTPClient>();
+
+	private final Map<EnhancedFTPClient, Long> releasedAt = new IdentityHashMap<EnhancedFTPClient, Long>();
+
+	private long keepAliveInterval;
+
+	private ScheduledFuture<?> keepAliveTask;
+
+	private ExecutorService keepAliveExecutor;
+
+	private final AtomicBoolean keepingAlive = new AtomicBoolean();
+
+	private boolean closed;
+
+	/**
+	 * @param correlationId
+	 *            for logging purposes.
+	 * @param maxSize
+	 *            the maximum number of sessions open at the same time.
+	 */
+	public FTPClientPool(String correlationId, FileTransferBean fileTransferBean, FTPClientConfig ftpClientConfig, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be at least 1");
+		}
+		this.correlationId = correlationId;
+		this.fileTransferBean = fileTransferBean;
+		this.ftpClientConfig = ftpClientConfig;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * @return an idle session, or a newly connected one if there is none.
+	 */
+	public EnhancedFTPClient borrow() {
+		permits.acquireUninterruptibly();
+		return borrowWithPermit();
+	}
+
+	/**
+	 * Borrow a session, waiting at most the given time for one to become
+	 * free. A caller that already holds sessions of this pool should use this
+	 * method, as {@link #borrow()} would wait forever if it holds them all.
+	 * 
+	 * @param timeoutMillis
+	 *            how long to wait for a session.
+	 * @return an idle session, a newly connected one, or null if none became
+	 *         free in time.
+	 */
+	public EnhancedFTPClient borrow(long timeoutMillis) {
+		try {
+			if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return borrowWithPermit();
+	}
+
+	private EnhancedFTPClient borrowWithPermit() {
+		try {
+			EnhancedFTPClient ftpClient = takeIdle();
+			if (ftpClient == null) {
+				logger.debug("CorrelationId: {} Connecting a new pooled FTP session", correlationId);
+				ftpClient = fileTransferBean.getConnectedFTPClient(correlationId, ftpClientConfig);
+			}
+			return ftpClient;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Give a borrowed session back for reuse. It is disconnected instead if
+	 * it is no longer connected or the pool has been closed.
+	 */
+	public void release(EnhancedFTPClient ftpClient) {
+		boolean keep;
+		synchronized (this) {
+			keep = !closed && ftpClient.isConnected();
+			if (keep) {
+				idle.push(ftpClient);
+				releasedAt.put(ftpClient, System.currentTimeMillis());
+			}
+		}
+		if (!keep) {
+			fileTransferBean.disconnectFTPClient(correlationId, ftpClient);
+		}
+		permits.release();
+	}
+
+	/**
+	 * Give a borrowed session back for disconnecting, e.g. after an I/O
+	 * error left it in an unknown state.
+	 */
+	public void invalidate(EnhancedFTPClient ftpClient) {
+		fileTransferBean.disconnectFTPClient(correlationId, ftpClient);
+		permits.release();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param millis
+	 *            how long a session may stay idle in the pool before it is
+	 *            sent a NOOP, or 0 (the default) to send none. Sessions that
+	 *            do not answer are disconnected.
+	 */
+	public synchronized void setKeepAliveInterval(long millis) {
+		if (keepAliveTask != null) {
+			keepAliveTask.cancel(false);
+			keepAliveTask = null;
+		}
+		keepAliveInterval = millis;
+		if (millis > 0 && !closed) {
+			if (keepAliveExecutor == null) {
+				keepAliveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "ftp-pool-keep-alive");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			final ExecutorService executor = keepAliveExecutor;
+			keepAliveTask = KeepAliveScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					// a run still waiting for a reply is not joined by another one
+					if (keepingAlive.compareAndSet(false, true)) {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									keepIdleSessionsAlive();
+								} finally {
+									keepingAlive.set(false);
+								}
+							}
+						});
+					}
+				}
+			}, millis);
+		}
+	}
+
+	public synchronized long getKeepAliveInterval() {
+		return keepAliveInterval;
+	}
+
+	/**
+	 * @return the number of sessions waiting to be borrowed.
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Disconnect the idle sessions. Sessions still borrowed are disconnected
+	 * when they are released.
+	 */
+	@Override
+	public void close() {
+		List<EnhancedFTPClient> sessions;
+		synchronized (this) {
+			closed = true;
+			sessions = new ArrayList<EnhancedFTPClient>(idle);
+			idle.clear();
+			releasedAt.clear();
+			if (keepAliveTask != null) {
+				keepAliveTask.cancel(false);
+				keepAliveTask = null;
+			}
+			if (keepAliveExecutor != null) {
+				keepAliveExecutor.shutdown();
+				keepAliveExecutor = null;
+			}
+		}
+		for (EnhancedFTPClient ftpClient : sessions) {
+			fileTransferBean.disconnectFTPClient(correlationId, ftpClient);
+		}
+	}
+
+	private synchronized EnhancedFTPClient takeIdle() {
+		if (closed) {
+			throw new IllegalStateException("The FTP client pool has been closed");
+		}
+		while (!idle.isEmpty()) {
+			EnhancedFTPClient ftpClient = idle.pop();
+			releasedAt.remove(ftpClient);
+			if (ftpClient.isConnected()) {
+				return ftpClient;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Run on the pool's keep-alive thread. A session is taken out of the pool, with a
+	 * permit so that borrowers never wait on more sessions than maxSize, for
+	 * the duration of its NOOP only.
+	 */
+	private void keepIdleSessionsAlive() {
+		while (permits.tryAcquire()) {
+			EnhancedFTPClient ftpClient = takeStale();
+			if (ftpClient == null) {
+				permits.release();
+				return;
+			}
+			if (ftpClient.sendIdleKeepAlive()) {
+				release(ftpClient);
+			} else {
+				logger.info("CorrelationId: {} Pooled FTP session did not answer the keep-alive, disconnecting", correlationId);
+				invalidate(ftpClient);
+			}
+		}
+	}
+
+	/*
+	 * Take the idle session released longest ago, if that is at least one
+	 * keep-alive interval ago.
+	 */
+	private synchronized EnhancedFTPClient takeStale() {
+		if (closed || idle.isEmpty()) {
+			return null;
+		}
+		EnhancedFTPClient ftpClient = idle.peekLast();
+		Long released = releasedAt.get(ftpClient);
+		if (released != null && System.currentTimeMillis() - released < keepAliveInterval) {
+			return null;
+		}
+		idle.pollLast();
+		releasedAt.remove(ftpClient);
+		return ftpClient;
+	}
+}
@@ -1,22 +1,45 @@
 package com.capgemini.ftp.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.net.ftp.FTPCmd;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.capgemini.exception.MonitoredError;
 import com.capgemini.ftp.client.apache.EnhancedFTPClientFactory;
 import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.client.PipelinedCommand;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.buffer.ByteBufferPool;
+import com.capgemini.ftp.client.buffer.TransferBuffer;
 import com.capgemini.ftp.client.config.FTPClientConfig;
+import com.capgemini.ftp.client.util.ModificationTimeParser;
 import com.capgemini.ftp.client.util.StopWatch;
+import com.capgemini.ftp.client.watch.FileStabilityGate;
+import com.capgemini.ftp.client.watch.IncrementalPickup;
 
 /**
  * Bean containing utility methods for the FTP handling of files.
@@ -25,6 +48,40 @@ public class FTPFileTransferBean implements FileTransferBean {
 
 	private static final Logger logger = LoggerFactory.getLogger(FTPFileTransferBean.class);
 
+	private static final long DEFAULT_BATCH_BORROW_TIMEOUT = 60000;
+
+	private ListingMode listingMode = ListingMode.LIST;
+
+	private long batchBorrowTimeout = DEFAULT_BATCH_BORROW_TIMEOUT;
+
+	public ListingMode getListingMode() {
+		return listingMode;
+	}
+
+	/**
+	 * @param listingMode
+	 *            how remote directory listings are obtained; defaults to
+	 *            {@link ListingMode#LIST}.
+	 */
+	public void setListingMode(ListingMode listingMode) {
+		this.listingMode = listingMode;
+	}
+
+	public long getBatchBorrowTimeout() {
+		return batchBorrowTimeout;
+	}
+
+	/**
+	 * @param batchBorrowTimeout
+	 *            how long, in milliseconds, pooled batches (moves and deletes)
+	 *            wait for a session of the pool. The caller may hold sessions
+	 *            of the same pool, so a batch must not wait forever; defaults
+	 *            to one minute.
+	 */
+	public void setBatchBorrowTimeout(long batchBorrowTimeout) {
+		this.batchBorrowTimeout = batchBorrowTimeout;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -47,15 +104,39 @@ public class FTPFileTransferBean implements FileTransferBean {
 	 */
 	@Override
 	public Set<String> getRemoteDirFileListing(String correlationId, EnhancedFTPClient ftpClient) {
+		return getRemoteDirFileListing(correlationId, ftpClient, ListingFilter.files());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<String> getRemoteDirFileListing(String correlationId, EnhancedFTPClient ftpClient, ListingFilter filter) {
 		logger.info("CorrelationId: {} Reading a list of files from the FTP server", correlationId);
 		Set<String> filenames = new HashSet<String>();
 		try {
-			FTPFile[] ftpFiles = ftpClient.listFiles();
-			for (FTPFile file : ftpFiles) {
-                if (file.isFile()) {
-                	filenames.add(file.getName());
-                }  
-            }
+			if (listingMode == ListingMode.NAMES && filter.isNameOnly()) {
+				List<String> names = ftpClient.listFileNames(null);
+				if (names == null) {
+					MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Remote directory name listing failed.");
+				}
+				for (String name : names) {
+					if (filter.acceptName(name)) {
+						filenames.add(name);
+					}
+				}
+			} else {
+				FTPFile[] ftpFiles = null;
+				if (listingMode == ListingMode.STAT) {
+					ftpFiles = ftpClient.statListFiles(null, filter);
+				}
+				if (ftpFiles == null) {
+					ftpFiles = ftpClient.listFilesMatching(null, filter);
+				}
+				for (FTPFile file : ftpFiles) {
+					filenames.add(file.getName());
+				}
+			}
 		} catch (IOException e) {
 			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Remote directory file listing failed.", e);
 		}
@@ -72,16 +153,157 @@ public class FTPFileTransferBean implements FileTransferBean {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public Set<String> getLocalDirFileList(String path) {
-		File folder = new File(path);
-		File[] files = folder.listFiles();
-		Set<String> fileList = new HashSet<String>();
-		for (File file : files) {
-			if (file.isFile()) {
-				fileList.add(file.getName());
+	public Map<String, RemoteFileAttributes> getRemoteDirFileAttributes(String correlationId, EnhancedFTPClient ftpClient, String remoteDir,
+			ListingFilter filter) {
+		logger.debug("CorrelationId: {} Reading the attributes of the files in remote directory {}", correlationId, remoteDir);
+		Map<String, RemoteFileAttributes> attributes = new HashMap<String, RemoteFileAttributes>();
+		try {
+			boolean mlsd = ftpClient.isMlstSupported();
+			FTPFile[] files = mlsd ? ftpClient.mlistDir(remoteDir, filter) : ftpClient.listFilesMatching(remoteDir, filter);
+			if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Remote directory listing failed: " + ftpClient.getReplyString());
+			}
+			for (FTPFile file : files) {
+				long modificationTime = mlsd && file.getTimestamp() != null ? file.getTimestamp().getTimeInMillis() : -1;
+				attributes.put(file.getName(), new RemoteFileAttributes(file.getName(), file.getSize(), modificationTime));
+			}
+		} catch (IOException e) {
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Remote directory listing failed.", e);
+		}
+		return attributes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<String> getStableRemoteDirFileListing(String correlationId, EnhancedFTPClient ftpClient, ListingFilter filter,
+			FileStabilityGate stabilityGate) {
+		Map<String, RemoteFileAttributes> files = getRemoteDirFileAttributes(correlationId, ftpClient, null, filter);
+		Set<String> filenames = stabilityGate.observe(files.values(), System.currentTimeMillis());
+		logger.info("CorrelationId: {} {} files are stable, {} may still be being written", correlationId, filenames.size(), stabilityGate.getPendingCount());
+		if (!filenames.isEmpty()) {
+			writeFileListToLog(correlationId, filenames);
+		}
+		return filenames;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<RemoteFileAttributes> getNewRemoteFiles(String correlationId, EnhancedFTPClient ftpClient, ListingFilter filter, IncrementalPickup pickup) {
+		boolean mlsd = false;
+		try {
+			mlsd = ftpClient.isMlstSupported();
+		} catch (IOException e) {
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Failed to read the server features.", e);
+		}
+		Map<String, RemoteFileAttributes> files;
+		if (mlsd) {
+			files = getRemoteDirFileAttributes(correlationId, ftpClient, null, filter);
+		} else {
+			// LIST times are imprecise, so ask MDTM, once per listed version of a file
+			Map<String, RemoteFileAttributes> listed = listWithListTimes(correlationId, ftpClient, filter);
+			Map<String, Long> modificationTimes = new HashMap<String, Long>();
+			List<String> unknown = new ArrayList<String>();
+			for (RemoteFileAttributes file : listed.values()) {
+				Long modificationTime = pickup.getKnownModificationTime(file);
+				if (modificationTime != null) {
+					modificationTimes.put(file.getFileName(), modificationTime);
+				} else {
+					unknown.add(file.getFileName());
+				}
+			}
+			if (!unknown.isEmpty()) {
+				for (RemoteFileAttributes file : getRemoteFileAttributes(correlationId, ftpClient, unknown).values()) {
+					if (file.getModificationTime() != -1) {
+						modificationTimes.put(file.getFileName(), file.getModificationTime());
+					}
+				}
+			}
+			Map<String, RemoteFileAttributes> dated = new HashMap<String, RemoteFileAttributes>();
+			for (RemoteFileAttributes file : listed.values()) {
+				Long modificationTime = modificationTimes.get(file.getFileName());
+				if (modificationTime != null) {
+					dated.put(file.getFileName(), new RemoteFileAttributes(file.getFileName(), file.getSize(), modificationTime));
+				} else {
+					logger.warn("CorrelationId: {} No modification time for {}, not picked up", correlationId, file.getFileName());
+				}
 			}
+			pickup.setKnownModificationTimes(listed.values(), modificationTimes);
+			files = dated;
 		}
-		return fileList;
+		List<RemoteFileAttributes> selected = pickup.select(files.values());
+		logger.info("CorrelationId: {} {} of {} files arrived after the watermark", correlationId, selected.size(), files.size());
+		return selected;
+	}
+
+	/*
+	 * The files of the working directory with the times LIST shows for them,
+	 * or -1 where it shows none. The times are not precise enough to order
+	 * files, but a file replaced under the same name is listed with another
+	 * time (or size) than before.
+	 */
+	private Map<String, RemoteFileAttributes> listWithListTimes(String correlationId, EnhancedFTPClient ftpClient, ListingFilter filter) {
+		Map<String, RemoteFileAttributes> listed = new HashMap<String, RemoteFileAttributes>();
+		try {
+			FTPFile[] files = ftpClient.listFilesMatching(null, filter);
+			if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Remote directory listing failed: " + ftpClient.getReplyString());
+			}
+			for (FTPFile file : files) {
+				long listedTime = file.getTimestamp() != null ? file.getTimestamp().getTimeInMillis() : -1;
+				listed.put(file.getName(), new RemoteFileAttributes(file.getName(), file.getSize(), listedTime));
+			}
+		} catch (IOException e) {
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Remote directory listing failed.", e);
+		}
+		return listed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<String> getRemoteTreeFileListing(String correlationId, FTPClientPool pool, String root, ListingFilter filter, int maxDepth) {
+		final Set<String> paths = new HashSet<String>();
+		new RemoteTreeWalker(pool).filter(filter).maxDepth(maxDepth).walk(correlationId, root, (path, file) -> paths.add(path));
+		if (!paths.isEmpty()) {
+			logger.debug("CorrelationId: {} Retrieved a list of " + paths.size() + " files", correlationId);
+			writeFileListToLog(correlationId, paths);
+		} else {
+			logger.info("CorrelationId: {} No files to transfer", correlationId);
+		}
+		return paths;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Set<String> getLocalDirFileList(String path) {
+		return new HashSet<String>(getLocalDirFileAttributes("n/a", path, null).keySet());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, LocalFileAttributes> getLocalDirFileAttributes(String correlationId, String localDir, String glob) {
+		Map<String, LocalFileAttributes> attributes = new HashMap<String, LocalFileAttributes>();
+		for (LocalFileAttributes file : new LocalTreeScanner().glob(glob).maxDepth(1).scan(correlationId, Paths.get(localDir))) {
+			attributes.put(file.getFileName(), file);
+		}
+		return attributes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<LocalFileAttributes> getLocalTreeFileAttributes(String correlationId, String root, String glob, int maxDepth, int parallelism) {
+		return new LocalTreeScanner().glob(glob).maxDepth(maxDepth).parallelism(parallelism).scan(correlationId, Paths.get(root));
 	}
 
 	/**
@@ -107,6 +329,49 @@ public class FTPFileTransferBean implements FileTransferBean {
 		return size;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, RemoteFileAttributes> getRemoteFileAttributes(String correlationId, EnhancedFTPClient ftpClient, Collection<String> fileNames) {
+		logger.info("CorrelationId: {} Getting attributes of {} remote files", correlationId, fileNames.size());
+		StopWatch sw = new StopWatch();
+		Map<String, RemoteFileAttributes> attributes = new HashMap<String, RemoteFileAttributes>();
+		try {
+			sw.start();
+			List<PipelinedCommand> commands = new ArrayList<PipelinedCommand>(fileNames.size() * 2);
+			for (String fileName : fileNames) {
+				commands.add(new PipelinedCommand(FTPCmd.SIZE, fileName));
+				commands.add(new PipelinedCommand(FTPCmd.MDTM, fileName));
+			}
+			ftpClient.sendPipelined(commands);
+			for (int i = 0; i < commands.size(); i += 2) {
+				PipelinedCommand size = commands.get(i);
+				PipelinedCommand mdtm = commands.get(i + 1);
+				if (!size.isPositiveCompletion()) {
+					logger.debug("CorrelationId: {} No size for {}: {}", correlationId, size.getArgs(), size.getReplyText());
+					continue;
+				}
+				long fileSize;
+				try {
+					fileSize = Long.parseLong(size.getReplyText().trim());
+				} catch (NumberFormatException e) {
+					// one odd reply must not fail the whole batch
+					logger.warn("CorrelationId: {} Unreadable size for {}: {}", correlationId, size.getArgs(), size.getReplyText());
+					continue;
+				}
+				// an unparseable MDTM reply gives -1, as does a failed MDTM
+				long modificationTime = mdtm.isPositiveCompletion() ? ModificationTimeParser.parse(mdtm.getReplyText()) : -1;
+				attributes.put(size.getArgs(), new RemoteFileAttributes(size.getArgs(), fileSize, modificationTime));
+			}
+		} catch (IOException e) {
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Failed to read remote file attributes.", e);
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to get attributes of {} files", correlationId, sw.timeTaken(), attributes.size());
+		return attributes;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -164,6 +429,194 @@ public class FTPFileTransferBean implements FileTransferBean {
 		logger.debug("CorrelationId: {} Took [{}] milliseconds to download the file {} ", correlationId, sw.timeTaken(), fileName);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public TransferBuffer downloadToBuffer(String correlationId, EnhancedFTPClient ftpClient, String fileName, ByteBufferPool bufferPool) {
+		logger.info("CorrelationId: {} Transferring the file {} to memory", correlationId, fileName);
+		StopWatch sw = new StopWatch();
+		sw.start();
+		TransferBuffer buffer = bufferPool.newBuffer();
+		try {
+			boolean retrieved = ftpClient.retrieveFile(fileName, buffer.getOutputStream());
+			if (!retrieved) {
+				buffer.close();
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File could not be downloaded.");
+			}
+		} catch (IOException e) {
+			buffer.close();
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File download error.", e);
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to download the file {} ({} bytes, in memory: {})", correlationId, sw.timeTaken(), fileName,
+				buffer.size(), buffer.isInMemory());
+		return buffer;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long downloadToConsumer(String correlationId, EnhancedFTPClient ftpClient, String fileName, StreamConsumer consumer) {
+		logger.info("CorrelationId: {} Streaming the file {}", correlationId, fileName);
+		StopWatch sw = new StopWatch();
+		sw.start();
+		long size = 0;
+		try {
+			InputStream dataStream = ftpClient.retrieveFileStream(fileName);
+			if (dataStream == null) {
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File could not be downloaded: " + ftpClient.getReplyString());
+			}
+			ConsumerInputStream content = new ConsumerInputStream(dataStream);
+			try {
+				consumer.accept(content);
+				content.skipToEnd();
+			} catch (IOException | RuntimeException e) {
+				abortTransfer(correlationId, ftpClient, dataStream);
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File streaming error.", e);
+			}
+			boolean completed;
+			try {
+				dataStream.close();
+			} finally {
+				// the reply is read even if closing failed, so that the session can go on
+				completed = ftpClient.completePendingCommand();
+			}
+			if (!completed) {
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File could not be downloaded: " + ftpClient.getReplyString());
+			}
+			size = content.count;
+		} catch (IOException e) {
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File download error.", e);
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to stream the file {} ({} bytes)", correlationId, sw.timeTaken(), fileName, size);
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long downloadToChunkConsumer(String correlationId, EnhancedFTPClient ftpClient, String fileName, final ChunkConsumer consumer) {
+		final int chunkSize = ftpClient.getBufferSize() > 0 ? ftpClient.getBufferSize() : ByteBufferPool.DEFAULT_CHUNK_SIZE;
+		return downloadToConsumer(correlationId, ftpClient, fileName, content -> {
+			ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+			int read;
+			while ((read = content.read(chunk.array(), 0, chunkSize)) != -1) {
+				chunk.position(0).limit(read);
+				consumer.accept(chunk);
+			}
+		});
+	}
+
+	/*
+	 * Closing the data connection before its end makes the server abort the
+	 * transfer; its reply is read so that the session can go on.
+	 */
+	private void abortTransfer(String correlationId, EnhancedFTPClient ftpClient, InputStream dataStream) {
+		try {
+			try {
+				dataStream.close();
+			} finally {
+				ftpClient.completePendingCommand();
+			}
+		} catch (IOException e) {
+			logger.warn("CorrelationId: {} Failed to end the aborted transfer: {}", correlationId, e.getMessage());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void uploadFromBuffer(String correlationId, EnhancedFTPClient ftpClient, String fileName, TransferBuffer content) {
+		try (InputStream inputStream = content.getInputStream()) {
+			uploadFromStream(correlationId, ftpClient, fileName, inputStream);
+		} catch (IOException e) {
+			MonitoredError.LOCAL_FILE_ACCESS_ERROR.create(correlationId, fileName, "Failed to read the content to upload.", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void uploadFromBuffer(String correlationId, EnhancedFTPClient ftpClient, String fileName, ByteBuffer content) {
+		byte[] bytes;
+		int offset;
+		if (content.hasArray()) {
+			bytes = content.array();
+			offset = content.arrayOffset() + content.position();
+		} else {
+			bytes = new byte[content.remaining()];
+			content.duplicate().get(bytes);
+			offset = 0;
+		}
+		uploadFromStream(correlationId, ftpClient, fileName, new ByteArrayInputStream(bytes, offset, content.remaining()));
+	}
+
+	private void uploadFromStream(String correlationId, EnhancedFTPClient ftpClient, String fileName, InputStream inputStream) {
+		logger.info("CorrelationId: {} Transferring the file {} from memory", correlationId, fileName);
+		StopWatch sw = new StopWatch();
+		try {
+			sw.start();
+			boolean stored = ftpClient.storeFile(fileName, inputStream);
+			if (!stored) {
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File upload failed.");
+			}
+		} catch (IOException e) {
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File upload error.", e);
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to upload the file {} ", correlationId, sw.timeTaken(), fileName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PrefetchingDownloadIterator prefetchRemoteFiles(String correlationId, FTPClientPool pool, List<RemoteFileAttributes> files, String localDir,
+			int maxFiles, long maxBytes) {
+		return new PrefetchingDownloadIterator(correlationId, pool, files, localDir, maxFiles, maxBytes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void downloadFile(String correlationId, EnhancedFTPClient ftpClient, DownloadStaging staging, String fileName) {
+		logger.info("CorrelationId: {} Transferring the file {} ", correlationId, fileName);
+		StopWatch sw = new StopWatch();
+		sw.start();
+		DownloadStaging.StagedFile stagedFile = null;
+		try {
+			stagedFile = staging.stage(fileName);
+		} catch (IOException e) {
+			MonitoredError.LOCAL_FILE_ACCESS_ERROR.create(correlationId, fileName, "Failed to create the local file.", e);
+		}
+		boolean retrieved = false;
+		try {
+			retrieved = ftpClient.retrieveFile(fileName, stagedFile.getOutputStream());
+		} catch (IOException e) {
+			staging.discard(stagedFile);
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File download error.", e);
+		}
+		if (!retrieved) {
+			staging.discard(stagedFile);
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File could not be downloaded.");
+		}
+		try {
+			staging.commit(stagedFile);
+		} catch (IOException e) {
+			staging.discard(stagedFile);
+			MonitoredError.LOCAL_FILE_ACCESS_ERROR.create(correlationId, fileName, "Failed to complete the local file.", e);
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to download the file {} ", correlationId, sw.timeTaken(), fileName);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -188,6 +641,43 @@ public class FTPFileTransferBean implements FileTransferBean {
 		logger.debug("CorrelationId: {} Took [{}] milliseconds to upload the file {} ", correlationId, sw.timeTaken(), fileName);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void uploadFileAtomically(String correlationId, EnhancedFTPClient ftpClient, String localPath, String fileName, String temporaryName) {
+		logger.info("CorrelationId: {} Transferring the file {} as {}", correlationId, fileName, temporaryName);
+		StopWatch sw = new StopWatch();
+		try {
+			sw.start();
+			File localFile = new File(localPath, fileName);
+			long size = localFile.length();
+			boolean stored;
+			try (FileInputStream inputStream = new FileInputStream(localFile)) {
+				stored = ftpClient.storeFile(temporaryName, inputStream);
+			}
+			if (!stored) {
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File upload failed.");
+			}
+			int sizeReply = ftpClient.sendCommand(FTPCmd.SIZE, temporaryName);
+			String remoteSize = ftpClient.getReplyString().substring(3).trim();
+			if (sizeReply == FTPReply.UNRECOGNIZED_COMMAND || sizeReply == FTPReply.COMMAND_NOT_IMPLEMENTED) {
+				logger.warn("CorrelationId: {} No size check for {}, the server does not support SIZE: {}", correlationId, temporaryName, remoteSize);
+			} else if (!FTPReply.isPositiveCompletion(sizeReply) || !Long.toString(size).equals(remoteSize)) {
+				ftpClient.deleteFile(temporaryName);
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "Uploaded file size check failed: " + remoteSize);
+			}
+			if (!ftpClient.rename(temporaryName, fileName)) {
+				MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File uploaded as " + temporaryName + " but could not be renamed: "
+						+ ftpClient.getReplyString().trim());
+			}
+		} catch (IOException e) {
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File upload error.", e);
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to upload the file {} ", correlationId, sw.timeTaken(), fileName);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -208,6 +698,182 @@ public class FTPFileTransferBean implements FileTransferBean {
 		logger.debug("CorrelationId: {} Took [{}] milliseconds to move file {} to {}", correlationId, sw.timeTaken(), sourcePath, destinationPath);		
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, RemoteFileOutcome> moveRemoteFiles(String correlationId, EnhancedFTPClient ftpClient, Map<String, String> moves) {
+		logger.info("CorrelationId: {} Moving {} remote files", correlationId, moves.size());
+		return runBatch(correlationId, ftpClient, renameCommands(moves), 2);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, RemoteFileOutcome> moveRemoteFiles(String correlationId, FTPClientPool pool, Map<String, String> moves) {
+		logger.info("CorrelationId: {} Moving {} remote files using pooled sessions", correlationId, moves.size());
+		return runBatch(correlationId, pool, renameCommands(moves), 2);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, RemoteFileOutcome> deleteRemoteFiles(String correlationId, EnhancedFTPClient ftpClient, Collection<String> fileNames) {
+		logger.info("CorrelationId: {} Deleting {} remote files", correlationId, fileNames.size());
+		return runBatch(correlationId, ftpClient, deleteCommands(fileNames), 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, RemoteFileOutcome> deleteRemoteFiles(String correlationId, FTPClientPool pool, Collection<String> fileNames) {
+		logger.info("CorrelationId: {} Deleting {} remote files using pooled sessions", correlationId, fileNames.size());
+		return runBatch(correlationId, pool, deleteCommands(fileNames), 1);
+	}
+
+	private List<PipelinedCommand> renameCommands(Map<String, String> moves) {
+		List<PipelinedCommand> commands = new ArrayList<PipelinedCommand>(moves.size() * 2);
+		for (Map.Entry<String, String> move : moves.entrySet()) {
+			commands.add(new PipelinedCommand(FTPCmd.RNFR, move.getKey()));
+			commands.add(new PipelinedCommand(FTPCmd.RNTO, move.getValue()));
+		}
+		return commands;
+	}
+
+	private List<PipelinedCommand> deleteCommands(Collection<String> fileNames) {
+		List<PipelinedCommand> commands = new ArrayList<PipelinedCommand>(fileNames.size());
+		for (String fileName : fileNames) {
+			commands.add(new PipelinedCommand(FTPCmd.DELE, fileName));
+		}
+		return commands;
+	}
+
+	/**
+	 * The goal of this method is to spread a batch over the sessions of the
+	 * pool when the server cannot pipeline commands, so that the round trips
+	 * of the sessions overlap. A server that can pipeline is sent the whole
+	 * batch on one session, which already needs only a few round trips.
+	 */
+	private Map<String, RemoteFileOutcome> runBatch(final String correlationId, final FTPClientPool pool, List<PipelinedCommand> commands, final int commandsPerFile) {
+		int files = commands.size() / commandsPerFile;
+		EnhancedFTPClient ftpClient = pool.borrow(batchBorrowTimeout);
+		if (ftpClient == null) {
+			MonitoredError.FTP_CONNECTION_FAILURE.create(correlationId, "n/a", "No pooled FTP session became free within " + batchBorrowTimeout + " ms.");
+		}
+		int sessions;
+		try {
+			sessions = ftpClient.isPipeliningSupported() ? 1 : Math.min(pool.getMaxSize(), files);
+		} catch (IOException e) {
+			pool.invalidate(ftpClient);
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, "n/a", "Failed to probe the server for pipelining.", e);
+			return null; // Above line will throw an exception
+		}
+		if (sessions <= 1) {
+			try {
+				return runBatch(correlationId, ftpClient, commands, commandsPerFile);
+			} finally {
+				pool.release(ftpClient);
+			}
+		}
+		pool.release(ftpClient);
+
+		Map<String, RemoteFileOutcome> outcomes = new LinkedHashMap<String, RemoteFileOutcome>();
+		ExecutorService executor = Executors.newFixedThreadPool(sessions);
+		try {
+			List<List<PipelinedCommand>> partitions = new ArrayList<List<PipelinedCommand>>();
+			List<Future<Map<String, RemoteFileOutcome>>> futures = new ArrayList<Future<Map<String, RemoteFileOutcome>>>();
+			int filesPerSession = (files + sessions - 1) / sessions;
+			for (int from = 0; from < commands.size(); from += filesPerSession * commandsPerFile) {
+				final List<PipelinedCommand> partition = commands.subList(from, Math.min(commands.size(), from + filesPerSession * commandsPerFile));
+				partitions.add(partition);
+				futures.add(executor.submit(() -> {
+					EnhancedFTPClient session = pool.borrow(batchBorrowTimeout);
+					if (session == null) {
+						throw new IllegalStateException("no pooled FTP session became free within " + batchBorrowTimeout + " ms");
+					}
+					boolean complete = false;
+					try {
+						Map<String, RemoteFileOutcome> result = runBatch(correlationId, session, partition, commandsPerFile);
+						complete = partition.get(partition.size() - 1).getReplyCode() != -1;
+						return result;
+					} finally {
+						if (complete) {
+							pool.release(session);
+						} else {
+							// the batch was cut short by an I/O error, so the session cannot be trusted
+							pool.invalidate(session);
+						}
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					outcomes.putAll(futures.get(i).get());
+				} catch (ExecutionException e) {
+					String reason = "No session: " + e.getCause().getMessage();
+					outcomes.putAll(toOutcomes(partitions.get(i), commandsPerFile, reason));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					MonitoredError.UNHANDLED_TRANSFER_ERROR.create(correlationId, "n/a", "Interrupted while waiting for a batch.", e);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return outcomes;
+	}
+
+	/**
+	 * The goal of this method is to send a batch on one session, pipelined
+	 * where the server allows it. An I/O error ends the batch; the files
+	 * without a reply are reported as failed with the error.
+	 */
+	private Map<String, RemoteFileOutcome> runBatch(String correlationId, EnhancedFTPClient ftpClient, List<PipelinedCommand> commands, int commandsPerFile) {
+		StopWatch sw = new StopWatch();
+		sw.start();
+		String reason = null;
+		try {
+			ftpClient.sendPipelined(commands);
+		} catch (IOException e) {
+			logger.warn("CorrelationId: {} Batch of {} commands was interrupted: {}", correlationId, commands.size(), e.getMessage());
+			reason = "No reply: " + e.getMessage();
+		}
+		Map<String, RemoteFileOutcome> outcomes = toOutcomes(commands, commandsPerFile, reason);
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to process a batch of {} files", correlationId, sw.timeTaken(), outcomes.size());
+		return outcomes;
+	}
+
+	/**
+	 * The outcome of a file is decided by the first of its commands that
+	 * failed; all but its last command may be answered with an intermediate
+	 * reply (e.g. 350 to RNFR).
+	 */
+	private Map<String, RemoteFileOutcome> toOutcomes(List<PipelinedCommand> commands, int commandsPerFile, String reason) {
+		Map<String, RemoteFileOutcome> outcomes = new LinkedHashMap<String, RemoteFileOutcome>();
+		for (int first = 0; first < commands.size(); first += commandsPerFile) {
+			String fileName = commands.get(first).getArgs();
+			RemoteFileOutcome outcome = null;
+			for (int i = first; i < first + commandsPerFile && outcome == null; i++) {
+				PipelinedCommand command = commands.get(i);
+				int code = command.getReplyCode();
+				boolean last = i == first + commandsPerFile - 1;
+				if (code == -1) {
+					outcome = new RemoteFileOutcome(fileName, false, code, reason);
+				} else if (last ? !FTPReply.isPositiveCompletion(code) : !(FTPReply.isPositiveIntermediate(code) || FTPReply.isPositiveCompletion(code))) {
+					outcome = new RemoteFileOutcome(fileName, false, code, command.getReplyText());
+				} else if (last) {
+					outcome = new RemoteFileOutcome(fileName, true, code, command.getReplyText());
+				}
+			}
+			outcomes.put(fileName, outcome);
+		}
+		return outcomes;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -215,6 +881,7 @@ public class FTPFileTransferBean implements FileTransferBean {
 	public void disconnectFTPClient(String correlationId, EnhancedFTPClient ftpClient) {
 		try {
 			if (ftpClient != null && ftpClient.isConnected()) {
+				logger.debug("CorrelationId: {} Data connections used: {}", correlationId, ftpClient.getDataConnectionMetrics());
 				ftpClient.logout();
 				logger.info("CorrelationId: {} The FTP client has now logged out from the FTP server", correlationId);
 			}
@@ -248,6 +915,55 @@ public class FTPFileTransferBean implements FileTransferBean {
 		logger.info("CorrelationId: {} Local file {} deleted.", correlationId, filePath);
 	}
 
+	/**
+	 * The content as handed to a {@link StreamConsumer}: counted, and not
+	 * closed by the consumer, since the data connection is closed here.
+	 */
+	private static class ConsumerInputStream extends FilterInputStream {
+
+		private long count;
+
+		ConsumerInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		void skipToEnd() throws IOException {
+			byte[] buffer = new byte[8192];
+			while (read(buffer, 0, buffer.length) != -1) {
+				// discard what the consumer did not read
+			}
+		}
+	}
+
 	private void writeFileListToLog(String correlationId, Collection<String> fileNames) {
 		StringBuilder msg = new StringBuilder("CorrelationId: %s : FTP Client found the following files on the server:\n");
 		for (String fileName : fileNames) {
@@ -1,9 +1,18 @@
 package com.capgemini.ftp.client;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.buffer.ByteBufferPool;
+import com.capgemini.ftp.client.buffer.TransferBuffer;
 import com.capgemini.ftp.client.config.FTPClientConfig;
+import com.capgemini.ftp.client.watch.FileStabilityGate;
+import com.capgemini.ftp.client.watch.IncrementalPickup;
 
 public interface FileTransferBean {
 
@@ -30,6 +39,101 @@ public interface FileTransferBean {
 	 */
 	Set<String> getRemoteDirFileListing(String correlationId, EnhancedFTPClient ftpClient);
 
+	/**
+	 * The goal of this method is to return the names of the entries of the
+	 * remote working directory accepted by the filter. The filter is applied
+	 * while the listing is parsed, so rejected entries are never built.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param filter
+	 *            Name, type, size and modification time criteria.
+	 * @return Set of filenames.
+	 */
+	Set<String> getRemoteDirFileListing(String correlationId, EnhancedFTPClient ftpClient, ListingFilter filter);
+
+	/**
+	 * The goal of this method is to return the size and modification time of
+	 * the entries of a remote directory accepted by the filter, from a single
+	 * listing. MLSD is used where the server supports MLST; otherwise LIST is
+	 * used and, as LIST reports modification times with a precision that
+	 * changes as files age, they are returned as -1.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param remoteDir
+	 *            The directory to list, or null for the working directory.
+	 * @param filter
+	 *            Name, type, size and modification time criteria.
+	 * @return The attributes keyed by filename.
+	 */
+	Map<String, RemoteFileAttributes> getRemoteDirFileAttributes(String correlationId, EnhancedFTPClient ftpClient, String remoteDir, ListingFilter filter);
+
+	/**
+	 * The goal of this method is to return the names of the files of the
+	 * remote working directory accepted by the filter that the gate finds
+	 * stable, i.e. that are no longer being written. The gate must be given
+	 * every listing of the directory, so the same gate is passed to each
+	 * call; a file is typically returned from the second or a later call on.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param filter
+	 *            Name, type, size and modification time criteria.
+	 * @param stabilityGate
+	 *            Remembers the earlier listings of the directory.
+	 * @return Set of filenames.
+	 */
+	Set<String> getStableRemoteDirFileListing(String correlationId, EnhancedFTPClient ftpClient, ListingFilter filter, FileStabilityGate stabilityGate);
+
+	/**
+	 * The goal of this method is to return the files of the remote working
+	 * directory accepted by the filter that arrived after the watermark of
+	 * the pickup, oldest first. The caller processes them in that order and
+	 * calls {@link IncrementalPickup#advance(RemoteFileAttributes)} after
+	 * each one. With MLSD the listing carries the modification times; other
+	 * servers are asked MDTM only for the files an earlier call did not see
+	 * with the same size and listed time.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param filter
+	 *            Name, type, size and modification time criteria.
+	 * @param pickup
+	 *            The watermark of the transfer.
+	 * @return The new files, oldest first.
+	 */
+	List<RemoteFileAttributes> getNewRemoteFiles(String correlationId, EnhancedFTPClient ftpClient, ListingFilter filter, IncrementalPickup pickup);
+
+	/**
+	 * The goal of this method is to return the paths of the entries accepted
+	 * by the filter in a remote directory and its subdirectories. The
+	 * directories are listed concurrently on the sessions of the pool (see
+	 * {@link RemoteTreeWalker}).
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param pool
+	 *            The sessions to use.
+	 * @param root
+	 *            The directory to start from.
+	 * @param filter
+	 *            Name, type, size and modification time criteria.
+	 * @param maxDepth
+	 *            The number of directory levels to list; 1 lists the root
+	 *            directory only.
+	 * @return Set of full paths.
+	 */
+	Set<String> getRemoteTreeFileListing(String correlationId, FTPClientPool pool, String root, ListingFilter filter, int maxDepth);
+
 	
 	/**
 	 * Get local directory listing of files (only i.e. discounting nested
@@ -40,6 +144,42 @@ public interface FileTransferBean {
 	 * @return list of files in the directory.
 	 */
 	Set<String> getLocalDirFileList(String path);
+
+	/**
+	 * The goal of this method is to return the regular files of a local
+	 * directory whose names match the glob, with their sizes and
+	 * modification times read in the same pass as the listing.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param localDir
+	 *            The directory to list.
+	 * @param glob
+	 *            The pattern of the file names, e.g. "*.xml", or null for
+	 *            all files.
+	 * @return The attributes keyed by filename.
+	 */
+	Map<String, LocalFileAttributes> getLocalDirFileAttributes(String correlationId, String localDir, String glob);
+
+	/**
+	 * The goal of this method is to return the regular files of a local
+	 * directory and its subdirectories whose names match the glob (see
+	 * {@link LocalTreeScanner}).
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param root
+	 *            The directory to start from.
+	 * @param glob
+	 *            The pattern of the file names, or null for all files.
+	 * @param maxDepth
+	 *            The number of directory levels to list; 1 lists the root
+	 *            directory only.
+	 * @param parallelism
+	 *            The number of directories listed at the same time.
+	 * @return The files found, in no particular order.
+	 */
+	List<LocalFileAttributes> getLocalTreeFileAttributes(String correlationId, String root, String glob, int maxDepth, int parallelism);
 	
 	/**
 	 * Get the size in bytes of a remote file.
@@ -54,6 +194,23 @@ public interface FileTransferBean {
 	 */
 	long getRemoteFileSize(String correlationId, EnhancedFTPClient ftpClient, String fileName);
 
+	/**
+	 * Get the size and modification time of several remote files using the
+	 * SIZE and MDTM commands on the control connection. The commands are
+	 * pipelined where the server allows it, so no data connections are opened
+	 * and the cost is a few round trips rather than one per file.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param fileNames
+	 *            The remote filenames.
+	 * @return The attributes keyed by filename. Files whose size could not be
+	 *         read (e.g. they do not exist) are omitted.
+	 */
+	Map<String, RemoteFileAttributes> getRemoteFileAttributes(String correlationId, EnhancedFTPClient ftpClient, Collection<String> fileNames);
+
 	/**
 	 * Download a single file.
 	 * 
@@ -68,6 +225,134 @@ public interface FileTransferBean {
 	 */
 	void downloadFile(String correlationId, EnhancedFTPClient ftpClient, String localPath, String fileName);
 
+	/**
+	 * Download a single file through a {@link DownloadStaging}: the file is
+	 * written under a temporary name and renamed once complete, so readers
+	 * never see a partial file. A failed download leaves nothing behind.
+	 * With {@link FsyncPolicy#BATCHED} the file is neither visible nor
+	 * durable until {@link DownloadStaging#flush()}; the caller must flush
+	 * before recording the file as downloaded, e.g. before archiving it on
+	 * the server.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param staging
+	 *            The local directory and its fsync policy.
+	 * @param fileName
+	 *            Remote filename.
+	 */
+	void downloadFile(String correlationId, EnhancedFTPClient ftpClient, DownloadStaging staging, String fileName);
+
+	/**
+	 * Download a single file into memory, without going through the local
+	 * working directory. The content is held in chunks from the pool, or in
+	 * a spill file if it exceeds the memory ceiling of the pool.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param fileName
+	 *            Remote filename.
+	 * @param bufferPool
+	 *            The memory to use.
+	 * @return The content, to be closed by the caller once used.
+	 */
+	TransferBuffer downloadToBuffer(String correlationId, EnhancedFTPClient ftpClient, String fileName, ByteBufferPool bufferPool);
+
+	/**
+	 * Download a single file straight into a consumer, which processes the
+	 * content while it arrives, e.g. an XML parser, with no local file and
+	 * no buffering of the whole file. The data connection and the transfer
+	 * reply are dealt with here. The consumer runs on the calling thread, so
+	 * the transfer goes no faster than the consumer reads. Content the
+	 * consumer leaves unread is skipped; a consumer that throws aborts the
+	 * transfer.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param fileName
+	 *            Remote filename.
+	 * @param consumer
+	 *            Reads the content.
+	 * @return The number of bytes transferred.
+	 */
+	long downloadToConsumer(String correlationId, EnhancedFTPClient ftpClient, String fileName, StreamConsumer consumer);
+
+	/**
+	 * Download a single file straight into a consumer of chunks, as
+	 * {@link #downloadToConsumer(String, EnhancedFTPClient, String, StreamConsumer)}
+	 * does. The chunks are read into one buffer of the client's buffer size.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param fileName
+	 *            Remote filename.
+	 * @param consumer
+	 *            Receives the chunks in order.
+	 * @return The number of bytes transferred.
+	 */
+	long downloadToChunkConsumer(String correlationId, EnhancedFTPClient ftpClient, String fileName, ChunkConsumer consumer);
+
+	/**
+	 * Upload a single file from memory, without writing a local file first.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param fileName
+	 *            Remote filename.
+	 * @param content
+	 *            The content, e.g. written through
+	 *            {@link TransferBuffer#getOutputStream()}; left open.
+	 */
+	void uploadFromBuffer(String correlationId, EnhancedFTPClient ftpClient, String fileName, TransferBuffer content);
+
+	/**
+	 * Upload a single file from the remaining bytes of a buffer, which are
+	 * left unconsumed.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param fileName
+	 *            Remote filename.
+	 * @param content
+	 *            The content.
+	 */
+	void uploadFromBuffer(String correlationId, EnhancedFTPClient ftpClient, String fileName, ByteBuffer content);
+
+	/**
+	 * The goal of this method is to download remote files ahead of their
+	 * processing (see {@link PrefetchingDownloadIterator}), so that the
+	 * caller processes one file while the next ones are downloaded.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param pool
+	 *            The sessions to download on.
+	 * @param files
+	 *            The remote files, in the order to process them, e.g. from
+	 *            {@link #getNewRemoteFiles}.
+	 * @param localDir
+	 *            The local directory to download into.
+	 * @param maxFiles
+	 *            The most files downloaded ahead.
+	 * @param maxBytes
+	 *            The most bytes downloaded ahead.
+	 * @return The files, to be closed by the caller.
+	 */
+	PrefetchingDownloadIterator prefetchRemoteFiles(String correlationId, FTPClientPool pool, List<RemoteFileAttributes> files, String localDir, int maxFiles,
+			long maxBytes);
+
 	/**
 	 * Upload a single file.
 	 * 
@@ -81,6 +366,29 @@ public interface FileTransferBean {
 	 *            Remote filename.
 	 */
 	public void uploadFile(String correlationId, EnhancedFTPClient ftpClient, String localPath, String fileName);
+
+	/**
+	 * Upload a single file under a temporary name, check its size and rename
+	 * it to its final name, so that the file never appears partially
+	 * written. A file whose size does not match is deleted; a file that
+	 * cannot be renamed is left under its temporary name. The size check is
+	 * skipped, with a warning, on servers that do not implement SIZE. For
+	 * many files see {@link UploadBatch#atomic(String, String)}, which
+	 * pipelines the renames.
+	 * 
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param localPath
+	 *            Local path from where file is being uploaded.
+	 * @param fileName
+	 *            Remote filename.
+	 * @param temporaryName
+	 *            Remote filename while the file is being written, e.g.
+	 *            fileName + ".part".
+	 */
+	public void uploadFileAtomically(String correlationId, EnhancedFTPClient ftpClient, String localPath, String fileName, String temporaryName);
 	
 	/**
 	 * @param correlationId
@@ -103,6 +411,38 @@ public interface FileTransferBean {
 	 */
 	public void moveRemoteFile(String correlationId, EnhancedFTPClient ftpClient, String sourcePath, String destinationPath);
 
+	/**
+	 * Move (rename) several remote files. The RNFR/RNTO commands are
+	 * pipelined where the server allows it. A failure of one file does not
+	 * stop the others.
+	 * 
+	 * @param correlationId
+	 *            For logging.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param moves
+	 *            Full paths of the destination files keyed by the full paths
+	 *            of the source files.
+	 * @return The outcome of each move keyed by source path.
+	 */
+	Map<String, RemoteFileOutcome> moveRemoteFiles(String correlationId, EnhancedFTPClient ftpClient, Map<String, String> moves);
+
+	/**
+	 * Move (rename) several remote files using the sessions of a pool. If the
+	 * server cannot pipeline commands the files are spread over up to
+	 * {@link FTPClientPool#getMaxSize()} sessions working in parallel.
+	 * 
+	 * @param correlationId
+	 *            For logging.
+	 * @param pool
+	 *            The sessions to use.
+	 * @param moves
+	 *            Full paths of the destination files keyed by the full paths
+	 *            of the source files.
+	 * @return The outcome of each move keyed by source path.
+	 */
+	Map<String, RemoteFileOutcome> moveRemoteFiles(String correlationId, FTPClientPool pool, Map<String, String> moves);
+
 	/**
 	 * The goal of this method is to safely close the FTP connection.
 	 * 
@@ -141,6 +481,35 @@ public interface FileTransferBean {
 	 */
 	void deleteRemoteFile(String correlationId, EnhancedFTPClient ftpClient, String fileName);
 
+	/**
+	 * Delete several remote files. The DELE commands are pipelined where the
+	 * server allows it. A failure of one file does not stop the others.
+	 * 
+	 * @param correlationId
+	 *            For logging.
+	 * @param ftpClient
+	 *            Connected EnhancedFTPClient.
+	 * @param fileNames
+	 *            Remote filenames.
+	 * @return The outcome of each delete keyed by filename.
+	 */
+	Map<String, RemoteFileOutcome> deleteRemoteFiles(String correlationId, EnhancedFTPClient ftpClient, Collection<String> fileNames);
+
+	/**
+	 * Delete several remote files using the sessions of a pool. If the server
+	 * cannot pipeline commands the files are spread over up to
+	 * {@link FTPClientPool#getMaxSize()} sessions working in parallel.
+	 * 
+	 * @param correlationId
+	 *            For logging.
+	 * @param pool
+	 *            The sessions to use.
+	 * @param fileNames
+	 *            Remote filenames.
+	 * @return The outcome of each delete keyed by filename.
+	 */
+	Map<String, RemoteFileOutcome> deleteRemoteFiles(String correlationId, FTPClientPool pool, Collection<String> fileNames);
+
 	/**
 	 * Create a local temporary directory
 	 * 
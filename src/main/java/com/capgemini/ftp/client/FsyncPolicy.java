@@ -0,0 +1,30 @@
+package com.capgemini.ftp.client;
+
+/**
+ * When {@link DownloadStaging} forces downloaded files to the storage device
+ * before making them visible under their final names.
+ */
+public enum FsyncPolicy {
+
+	/**
+	 * Never. The files are renamed as soon as they are written; after a
+	 * crash a renamed file may be empty or incomplete.
+	 */
+	NONE,
+
+	/**
+	 * Each file, and its directory after the rename. Safe, but each file
+	 * waits for the device.
+	 */
+	PER_FILE,
+
+	/**
+	 * The files are forced together and renamed at
+	 * {@link DownloadStaging#flush()}, followed by one directory sync, so the
+	 * cost of waiting for the device is shared by the batch. The files are
+	 * only visible, and only durable, after the flush: a file committed but
+	 * not flushed when the process dies is lost and must be downloaded
+	 * again.
+	 */
+	BATCHED
+}
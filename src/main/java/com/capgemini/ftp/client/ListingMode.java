@@ -0,0 +1,28 @@
+package com.capgemini.ftp.client;
+
+/**
+ * How {@link FileTransferBean#getRemoteDirFileListing} obtains the remote
+ * directory listing.
+ */
+public enum ListingMode {
+
+	/**
+	 * LIST, parsed into FTPFile entries. Supports every filter criterion.
+	 */
+	LIST,
+
+	/**
+	 * MLSD restricted to the type fact, so only the names are read and
+	 * nothing is parsed. Servers without MLST are listed with LIST, as NLST
+	 * does not tell files from directories. Listings filtered on size or
+	 * modification time use LIST as well.
+	 */
+	NAMES,
+
+	/**
+	 * STAT on the control connection, which avoids opening a data connection
+	 * for small directories. Falls back to LIST when the server does not
+	 * return a listing for STAT or the directory has grown too large.
+	 */
+	STAT
+}
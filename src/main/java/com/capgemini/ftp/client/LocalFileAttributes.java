@@ -0,0 +1,63 @@
+package com.capgemini.ftp.client;
+
+import java.nio.file.Path;
+
+/**
+ * The responsibility of this class is to hold the attributes of a local file
+ * as read in one pass with the directory listing.
+ */
+public class LocalFileAttributes {
+
+	private final Path path;
+
+	private final String relativePath;
+
+	private final long size;
+
+	private final long modificationTime;
+
+	public LocalFileAttributes(Path path, String relativePath, long size, long modificationTime) {
+		this.path = path;
+		this.relativePath = relativePath;
+		this.size = size;
+		this.modificationTime = modificationTime;
+	}
+
+	/**
+	 * @return the path of the file, including the directory listed.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	public String getFileName() {
+		return path.getFileName().toString();
+	}
+
+	/**
+	 * @return the path from the directory listed, with '/' as separator; the
+	 *         file name for a file directly in it.
+	 */
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	/**
+	 * @return the size in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the modification time in milliseconds since the epoch.
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	@Override
+	public String toString() {
+		return relativePath + " [size=" + size + ", modificationTime=" + modificationTime + "]";
+	}
+}
@@ -0,0 +1,271 @@
+package com.capgemini.ftp.client;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.exception.MonitoredError;
+import com.capgemini.ftp.client.util.StopWatch;
+
+/**
+ * The responsibility of this class is to list the regular files of a local
+ * directory, and optionally of its subdirectories, together with their sizes
+ * and modification times.
+ * <p>
+ * The attributes of each entry are read once, with the listing, through
+ * {@link BasicFileAttributes}, rather than with a <code>File.isFile()</code>
+ * call per entry followed by <code>length()</code> and
+ * <code>lastModified()</code> calls for the files kept; on a network file
+ * system each of those is a round trip. Directories are streamed rather than
+ * read into an array first.
+ * <p>
+ * With a parallelism above 1 each directory is listed by a task of its own,
+ * as {@link RemoteTreeWalker} does for remote trees, which pays off for deep
+ * or wide trees on file systems with a high latency per call.
+ * <p>
+ * Symbolic links are followed, so a link to a regular file is listed as one,
+ * as <code>File.isFile()</code> would have it, under the path of the link. A
+ * link to a directory that is already listed, e.g. one pointing back up the
+ * tree, is skipped so that cycles end. A subdirectory that cannot be listed
+ * is logged and skipped; a root that cannot be listed is an error.
+ * <p>
+ * The files are returned in no particular order.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *  List&lt;LocalFileAttributes&gt; files = new LocalTreeScanner().glob("*.xml").maxDepth(3).parallelism(4)
+ *      .scan(correlationId, Paths.get("/data/outbound"));
+ * </code>
+ * </pre>
+ */
+public class LocalTreeScanner {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalTreeScanner.class);
+
+	private int maxDepth = Integer.MAX_VALUE;
+
+	private PathMatcher matcher;
+
+	private int parallelism = 1;
+
+	/**
+	 * @param glob
+	 *            the pattern the file names must match, e.g. "*.{xml,csv}";
+	 *            all files by default.
+	 */
+	public LocalTreeScanner glob(String glob) {
+		this.matcher = glob == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		return this;
+	}
+
+	/**
+	 * @param maxDepth
+	 *            the number of levels to list; 1 lists the root directory
+	 *            only. Unlimited by default.
+	 */
+	public LocalTreeScanner maxDepth(int maxDepth) {
+		if (maxDepth < 1) {
+			throw new IllegalArgumentException("maxDepth must be at least 1");
+		}
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of directories listed at the same time; 1 (the
+	 *            default) walks the tree on the calling thread.
+	 */
+	public LocalTreeScanner parallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * The goal of this method is to return the regular files of the tree
+	 * whose names match the glob.
+	 *
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param root
+	 *            the directory to start from.
+	 * @return the files found.
+	 */
+	public List<LocalFileAttributes> scan(String correlationId, Path root) {
+		logger.debug("CorrelationId: {} Scanning the local tree under {}", correlationId, root);
+		StopWatch sw = new StopWatch();
+		sw.start();
+		List<LocalFileAttributes> files = parallelism > 1 && maxDepth > 1 ? scanParallel(correlationId, root) : walk(correlationId, root);
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to find {} local files", correlationId, sw.timeTaken(), files.size());
+		return files;
+	}
+
+	private List<LocalFileAttributes> walk(final String correlationId, final Path root) {
+		final List<LocalFileAttributes> files = new ArrayList<LocalFileAttributes>();
+		try {
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					add(root, file, attributes, files);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+					if (file.equals(root)) {
+						throw e;
+					}
+					if (e instanceof FileSystemLoopException) {
+						logger.debug("CorrelationId: {} Skipped symbolic link cycle at {}", correlationId, file);
+						return FileVisitResult.CONTINUE;
+					}
+					logger.warn("CorrelationId: {} Skipped local path {}: {}", correlationId, file, e.toString());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			MonitoredError.LOCAL_FILE_ACCESS_ERROR.create(correlationId, root.toString(), "Local directory listing failed.", e);
+		}
+		return files;
+	}
+
+	private List<LocalFileAttributes> scanParallel(String correlationId, Path root) {
+		List<LocalFileAttributes> files = new ArrayList<LocalFileAttributes>();
+		BlockingQueue<Listing> listings = new LinkedBlockingQueue<Listing>();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		// the directories listed or about to be, so that links cannot lead into a cycle
+		Set<Object> visited = ConcurrentHashMap.newKeySet();
+		try {
+			visited.add(directoryKey(root, Files.readAttributes(root, BasicFileAttributes.class)));
+		} catch (IOException e) {
+			// reported by the listing of the root
+		}
+		int pending = 0;
+		try {
+			submit(executor, root, root, 0, visited, listings);
+			pending++;
+			while (pending > 0) {
+				Listing listing = listings.take();
+				pending--;
+				if (listing.error != null) {
+					if (listing.directory.equals(root)) {
+						MonitoredError.LOCAL_FILE_ACCESS_ERROR.create(correlationId, root.toString(), "Local directory listing failed.", listing.error);
+					}
+					logger.warn("CorrelationId: {} Skipped local directory {}: {}", correlationId, listing.directory, listing.error.toString());
+					continue;
+				}
+				files.addAll(listing.files);
+				for (Path directory : listing.directories) {
+					submit(executor, root, directory, listing.depth + 1, visited, listings);
+					pending++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			MonitoredError.UNHANDLED_TRANSFER_ERROR.create(correlationId, root.toString(), "Interrupted while scanning the local tree.", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return files;
+	}
+
+	private void submit(ExecutorService executor, final Path root, final Path directory, final int depth, final Set<Object> visited,
+			final BlockingQueue<Listing> listings) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				listings.add(list(root, directory, depth, visited));
+			}
+		});
+	}
+
+	/*
+	 * Never throws, so that the scan always receives one listing per
+	 * directory submitted.
+	 */
+	private Listing list(Path root, Path directory, int depth, Set<Object> visited) {
+		Listing listing = new Listing(directory, depth);
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+			for (Path entry : entries) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+				} catch (IOException e) {
+					// a broken link, listed as what it is, as walkFileTree does
+					attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				}
+				if (attributes.isDirectory()) {
+					if (depth + 1 < maxDepth && visited.add(directoryKey(entry, attributes))) {
+						listing.directories.add(entry);
+					}
+				} else {
+					add(root, entry, attributes, listing.files);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			listing.error = e;
+		}
+		return listing;
+	}
+
+	/*
+	 * The file key identifies a directory whatever the path it is reached
+	 * by; where the file system has none, the real path does.
+	 */
+	private static Object directoryKey(Path directory, BasicFileAttributes attributes) throws IOException {
+		Object key = attributes.fileKey();
+		return key != null ? key : directory.toRealPath();
+	}
+
+	private void add(Path root, Path file, BasicFileAttributes attributes, List<LocalFileAttributes> files) {
+		if (attributes.isRegularFile() && (matcher == null || matcher.matches(file.getFileName()))) {
+			String relativePath = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+			files.add(new LocalFileAttributes(file, relativePath, attributes.size(), attributes.lastModifiedTime().toMillis()));
+		}
+	}
+
+	private static class Listing {
+
+		private final Path directory;
+
+		private final int depth;
+
+		private final List<LocalFileAttributes> files = new ArrayList<LocalFileAttributes>();
+
+		private final List<Path> directories = new ArrayList<Path>();
+
+		private Exception error;
+
+		Listing(Path directory, int depth) {
+			this.directory = directory;
+			this.depth = depth;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.capgemini.ftp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The responsibility of this class is to hand a file downloaded ahead by a
+ * {@link PrefetchingDownloadIterator} to the caller. The file is complete
+ * when the caller receives it; closing the handle deletes it and makes room
+ * for the next download.
+ */
+public class PrefetchedFile implements Closeable {
+
+	private final RemoteFileAttributes remoteFile;
+
+	private final Path path;
+
+	private final PrefetchingDownloadIterator owner;
+
+	private boolean closed;
+
+	PrefetchedFile(RemoteFileAttributes remoteFile, Path path, PrefetchingDownloadIterator owner) {
+		this.remoteFile = remoteFile;
+		this.path = path;
+		this.owner = owner;
+	}
+
+	/**
+	 * @return the remote file as listed.
+	 */
+	public RemoteFileAttributes getRemoteFile() {
+		return remoteFile;
+	}
+
+	/**
+	 * @return the local copy, which is deleted by {@link #close()}; move or
+	 *         copy it first to keep it.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Delete the local copy, if still there, and release its share of the
+	 * staging area.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			Files.deleteIfExists(path);
+		} finally {
+			owner.released(this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return remoteFile.getFileName() + " [path=" + path + "]";
+	}
+}
@@ -0,0 +1,291 @@
+package com.capgemini.ftp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.exception.MonitoredError;
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.util.StopWatch;
+
+/**
+ * The responsibility of this class is to download remote files ahead of the
+ * caller, so that processing a file overlaps with downloading the next ones
+ * instead of leaving the network idle.
+ * <p>
+ * The files are downloaded on the sessions of an {@link FTPClientPool} into
+ * a local staging directory, in the order given, and returned by
+ * {@link #next()} in that order once complete. The staging area is bounded:
+ * a download only starts while fewer than the maximum number of files, and
+ * fewer than the maximum number of bytes (by their listed sizes), are held,
+ * counting downloads in progress, downloaded files waiting for the caller
+ * and files handed out but not yet closed. A single file larger than the
+ * byte limit is still downloaded, on its own. Closing a {@link PrefetchedFile}
+ * deletes it and lets the next download start.
+ * <p>
+ * A file that cannot be downloaded makes {@link #next()} throw, through
+ * MonitoredError, for that file only; the iteration may go on with the next
+ * one. {@link #close()} stops the downloads and deletes the files not handed
+ * out. Downloads in progress are not interrupted, which would leave their
+ * sessions in an unknown state; they complete, and their files are deleted.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *  try (PrefetchingDownloadIterator files = new PrefetchingDownloadIterator(correlationId, pool, remoteFiles, stagingDir, 4, 64 * 1024 * 1024)) {
+ *      while (files.hasNext()) {
+ *          try (PrefetchedFile file = files.next()) {
+ *              process(file.getPath());
+ *          }
+ *      }
+ *  }
+ * </code>
+ * </pre>
+ */
+public class PrefetchingDownloadIterator implements Iterator<PrefetchedFile>, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PrefetchingDownloadIterator.class);
+
+	private final String correlationId;
+
+	private final FTPClientPool pool;
+
+	private final List<RemoteFileAttributes> files;
+
+	private final DownloadStaging staging;
+
+	private final int maxFiles;
+
+	private final long maxBytes;
+
+	private final ExecutorService executor;
+
+	// guarded by this, as are the fields below
+	private final Deque<Download> downloads = new ArrayDeque<Download>();
+
+	private int submitted;
+
+	private int returned;
+
+	private int filesHeld;
+
+	private long bytesHeld;
+
+	private boolean closed;
+
+	/**
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param files
+	 *            the remote files to download, in the order to return them;
+	 *            their sizes count against the byte limit.
+	 * @param stagingDir
+	 *            the local directory to download into.
+	 * @param maxFiles
+	 *            the most files held at once, at least 1.
+	 * @param maxBytes
+	 *            the most bytes held at once.
+	 */
+	public PrefetchingDownloadIterator(String correlationId, FTPClientPool pool, List<RemoteFileAttributes> files, String stagingDir, int maxFiles,
+			long maxBytes) {
+		if (maxFiles < 1) {
+			throw new IllegalArgumentException("maxFiles must be at least 1");
+		}
+		this.correlationId = correlationId;
+		this.pool = pool;
+		this.files = new ArrayList<RemoteFileAttributes>(files);
+		this.staging = new DownloadStaging(stagingDir, FsyncPolicy.NONE);
+		this.maxFiles = maxFiles;
+		this.maxBytes = maxBytes;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(pool.getMaxSize(), Math.min(maxFiles, files.size()))));
+		logger.info("CorrelationId: {} Prefetching {} files, up to {} files or {} bytes ahead", correlationId, files.size(), maxFiles, maxBytes);
+		startDownloads();
+	}
+
+	@Override
+	public synchronized boolean hasNext() {
+		return !closed && returned < files.size();
+	}
+
+	/**
+	 * The goal of this method is to return the next file, waiting for its
+	 * download to complete if it has not yet.
+	 *
+	 * @return the downloaded file, to be closed once processed.
+	 */
+	@Override
+	public PrefetchedFile next() {
+		Download download;
+		synchronized (this) {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			startDownloads();
+			download = downloads.poll();
+			returned++;
+		}
+		String fileName = download.remoteFile.getFileName();
+		try {
+			PrefetchedFile file = download.future.get();
+			if (file == null) {
+				release(download.remoteFile);
+				MonitoredError.UNHANDLED_TRANSFER_ERROR.create(correlationId, fileName, "Prefetching was closed.");
+			}
+			return file;
+		} catch (ExecutionException e) {
+			release(download.remoteFile);
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, fileName, "File download error: " + e.getCause().getMessage(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			MonitoredError.UNHANDLED_TRANSFER_ERROR.create(correlationId, fileName, "Interrupted while waiting for a download.", e);
+		}
+		return null; // Above lines will throw an exception
+	}
+
+	/**
+	 * Stop the downloads and delete the files downloaded but not handed out.
+	 * The files handed out are left to their handles. Downloads not started
+	 * are skipped; those in progress are waited for, up to a minute, and
+	 * delete their own files.
+	 */
+	@Override
+	public void close() {
+		List<PrefetchedFile> downloaded = new ArrayList<PrefetchedFile>();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (Download download : downloads) {
+				if (download.file != null) {
+					downloaded.add(download.file);
+				}
+			}
+			downloads.clear();
+		}
+		executor.shutdown();
+		for (PrefetchedFile file : downloaded) {
+			delete(file);
+		}
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	void released(PrefetchedFile file) {
+		release(file.getRemoteFile());
+	}
+
+	private synchronized void release(RemoteFileAttributes remoteFile) {
+		filesHeld--;
+		bytesHeld -= Math.max(0, remoteFile.getSize());
+		startDownloads();
+	}
+
+	/*
+	 * Start as many downloads as the limits allow, in order.
+	 */
+	private synchronized void startDownloads() {
+		while (!closed && submitted < files.size() && filesHeld < maxFiles) {
+			final RemoteFileAttributes remoteFile = files.get(submitted);
+			long size = Math.max(0, remoteFile.getSize());
+			if (filesHeld > 0 && bytesHeld + size > maxBytes) {
+				return;
+			}
+			submitted++;
+			filesHeld++;
+			bytesHeld += size;
+			final Download download = new Download(remoteFile);
+			download.future = executor.submit(() -> download(download));
+			downloads.add(download);
+		}
+	}
+
+	/*
+	 * Returns null, leaving nothing behind, if the iterator is closed before
+	 * the download starts or while it runs.
+	 */
+	private PrefetchedFile download(Download download) throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return null;
+			}
+		}
+		RemoteFileAttributes remoteFile = download.remoteFile;
+		StopWatch sw = new StopWatch();
+		sw.start();
+		String fileName = remoteFile.getFileName();
+		DownloadStaging.StagedFile stagedFile = staging.stage(fileName);
+		boolean retrieved;
+		String reply;
+		try {
+			EnhancedFTPClient ftpClient = pool.borrow();
+			try {
+				retrieved = ftpClient.retrieveFile(fileName, stagedFile.getOutputStream());
+				reply = ftpClient.getReplyString();
+			} catch (IOException | RuntimeException e) {
+				pool.invalidate(ftpClient);
+				throw e;
+			}
+			pool.release(ftpClient);
+			if (!retrieved) {
+				throw new IOException("File could not be downloaded: " + reply.trim());
+			}
+			staging.commit(stagedFile);
+		} catch (IOException | RuntimeException e) {
+			staging.discard(stagedFile);
+			throw e;
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to prefetch the file {}", correlationId, sw.timeTaken(), fileName);
+		PrefetchedFile file = new PrefetchedFile(remoteFile, stagedFile.getTarget(), this);
+		// either close() sees the file and deletes it, or the file sees close()
+		synchronized (this) {
+			if (!closed) {
+				download.file = file;
+				return file;
+			}
+		}
+		delete(file);
+		return null;
+	}
+
+	private void delete(PrefetchedFile file) {
+		try {
+			Files.deleteIfExists(file.getPath());
+		} catch (IOException e) {
+			logger.warn("CorrelationId: {} Failed to delete prefetched file {}: {}", correlationId, file.getPath(), e.getMessage());
+		}
+	}
+
+	private static class Download {
+
+		private final RemoteFileAttributes remoteFile;
+
+		// both guarded by the iterator
+		private Future<PrefetchedFile> future;
+
+		private PrefetchedFile file;
+
+		Download(RemoteFileAttributes remoteFile) {
+			this.remoteFile = remoteFile;
+		}
+	}
+}
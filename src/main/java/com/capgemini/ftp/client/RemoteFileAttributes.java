@@ -0,0 +1,44 @@
+package com.capgemini.ftp.client;
+
+/**
+ * The responsibility of this class is to hold the attributes of a remote file
+ * as reported by the SIZE and MDTM commands.
+ */
+public class RemoteFileAttributes {
+
+	private final String fileName;
+
+	private final long size;
+
+	private final long modificationTime;
+
+	public RemoteFileAttributes(String fileName, long size, long modificationTime) {
+		this.fileName = fileName;
+		this.size = size;
+		this.modificationTime = modificationTime;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the size in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the modification time in milliseconds since the epoch, or -1 if
+	 *         the server did not report it.
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	@Override
+	public String toString() {
+		return fileName + " [size=" + size + ", modificationTime=" + modificationTime + "]";
+	}
+}
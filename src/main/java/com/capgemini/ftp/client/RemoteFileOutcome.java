@@ -0,0 +1,52 @@
+package com.capgemini.ftp.client;
+
+/**
+ * The responsibility of this class is to hold the outcome of an operation on
+ * a single remote file that was performed as part of a batch.
+ */
+public class RemoteFileOutcome {
+
+	private final String fileName;
+
+	private final boolean success;
+
+	private final int replyCode;
+
+	private final String message;
+
+	public RemoteFileOutcome(String fileName, boolean success, int replyCode, String message) {
+		this.fileName = fileName;
+		this.success = success;
+		this.replyCode = replyCode;
+		this.message = message;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * @return the reply code of the last command sent for the file, or -1 if
+	 *         no reply was received.
+	 */
+	public int getReplyCode() {
+		return replyCode;
+	}
+
+	/**
+	 * @return the reply text of the last command sent for the file, or the
+	 *         reason no reply was received.
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return fileName + " [success=" + success + ", replyCode=" + replyCode + ", message=" + message + "]";
+	}
+}
@@ -0,0 +1,257 @@
+package com.capgemini.ftp.client;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.exception.MonitoredError;
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.util.StopWatch;
+
+/**
+ * The responsibility of this class is to enumerate a remote directory tree,
+ * listing its directories concurrently on the sessions of an
+ * {@link FTPClientPool}.
+ * <p>
+ * Each directory is listed by a task of its own (with MLSD where the server
+ * supports MLST, LIST otherwise), so up to {@link FTPClientPool#getMaxSize()}
+ * directories are listed at the same time and the walk of a wide tree takes
+ * about as many round trips as the tree is deep rather than one per
+ * directory. The entries are handed to the {@link Visitor} on the calling
+ * thread, directory by directory, as the listings come in; nothing is
+ * collected unless the visitor does.
+ * <p>
+ * Directories not accepted by the directory filter, beyond the maximum
+ * depth, or that are symbolic links are not descended into. A directory that
+ * cannot be listed, e.g. for lack of permission, is logged, reported to
+ * {@link Visitor#skipped(String, String)} and skipped; an I/O error ends the
+ * walk.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *  new RemoteTreeWalker(pool).maxDepth(3).filter(ListingFilter.glob("*.xml"))
+ *      .walk(correlationId, "/partners", (path, file) -&gt; paths.add(path));
+ * </code>
+ * </pre>
+ */
+public class RemoteTreeWalker {
+
+	private static final Logger logger = LoggerFactory.getLogger(RemoteTreeWalker.class);
+
+	/**
+	 * Receives the entries found by the walk.
+	 */
+	public interface Visitor {
+
+		/**
+		 * @param path
+		 *            the full path of the entry.
+		 * @param file
+		 *            the entry as listed by the server.
+		 */
+		void visit(String path, FTPFile file);
+
+		/**
+		 * Called for a directory that could not be listed, whose entries are
+		 * therefore missing from the walk. Does nothing by default.
+		 *
+		 * @param directory
+		 *            the full path of the directory.
+		 * @param reply
+		 *            the reply of the server to the listing.
+		 */
+		default void skipped(String directory, String reply) {
+		}
+	}
+
+	private final FTPClientPool pool;
+
+	private int maxDepth = Integer.MAX_VALUE;
+
+	private ListingFilter filter = ListingFilter.files();
+
+	private ListingFilter directoryFilter = ListingFilter.all();
+
+	public RemoteTreeWalker(FTPClientPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param maxDepth
+	 *            the number of levels to list; 1 lists the root directory
+	 *            only. Unlimited by default.
+	 */
+	public RemoteTreeWalker maxDepth(int maxDepth) {
+		if (maxDepth < 1) {
+			throw new IllegalArgumentException("maxDepth must be at least 1");
+		}
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * @param filter
+	 *            the entries to hand to the visitor; regular files by
+	 *            default.
+	 */
+	public RemoteTreeWalker filter(ListingFilter filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * @param directoryFilter
+	 *            the subdirectories to descend into; all by default.
+	 */
+	public RemoteTreeWalker directoryFilter(ListingFilter directoryFilter) {
+		this.directoryFilter = directoryFilter;
+		return this;
+	}
+
+	/**
+	 * The goal of this method is to hand every entry of the tree accepted by
+	 * the filter to the visitor.
+	 *
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param root
+	 *            the directory to start from.
+	 * @return the number of directories listed.
+	 */
+	public int walk(String correlationId, String root, Visitor visitor) {
+		logger.info("CorrelationId: {} Walking the remote tree under {}", correlationId, root);
+		StopWatch sw = new StopWatch();
+		sw.start();
+		BlockingQueue<Listing> listings = new LinkedBlockingQueue<Listing>();
+		ExecutorService executor = Executors.newFixedThreadPool(pool.getMaxSize());
+		int listed = 0;
+		int pending = 0;
+		try {
+			submit(executor, root, 0, listings);
+			pending++;
+			while (pending > 0) {
+				Listing listing = listings.take();
+				pending--;
+				listed++;
+				if (listing.error != null) {
+					MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, listing.directory, "Remote directory listing failed.", listing.error);
+				}
+				if (listing.files == null) {
+					logger.warn("CorrelationId: {} Skipped remote directory {}: {}", correlationId, listing.directory, listing.reply);
+					visitor.skipped(listing.directory, listing.reply);
+					continue;
+				}
+				for (FTPFile file : listing.files) {
+					if (file == null || isSelfOrParent(file)) {
+						continue;
+					}
+					String path = childPath(listing.directory, file.getName());
+					if (file.isDirectory() && listing.depth + 1 < maxDepth && directoryFilter.accept(file)) {
+						submit(executor, path, listing.depth + 1, listings);
+						pending++;
+					}
+					if (filter.accept(file)) {
+						visitor.visit(path, file);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			MonitoredError.UNHANDLED_TRANSFER_ERROR.create(correlationId, root, "Interrupted while walking the remote tree.", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		sw.end();
+		logger.info("CorrelationId: {} Took [{}] milliseconds to list {} remote directories", correlationId, sw.timeTaken(), listed);
+		return listed;
+	}
+
+	/*
+	 * MLSD lists the directory itself and its parent as type=cdir and
+	 * type=pdir entries, whose names need not be "." and "..": servers send
+	 * e.g. the full path of the directory instead. LIST only has the names.
+	 */
+	static boolean isSelfOrParent(FTPFile file) {
+		if (".".equals(file.getName()) || "..".equals(file.getName())) {
+			return true;
+		}
+		String raw = file.getRawListing();
+		int separator = raw == null ? -1 : raw.indexOf(' ');
+		if (separator < 0) {
+			return false;
+		}
+		for (String fact : raw.substring(0, separator).split(";")) {
+			if ("type=cdir".equalsIgnoreCase(fact) || "type=pdir".equalsIgnoreCase(fact)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void submit(ExecutorService executor, final String directory, final int depth, final BlockingQueue<Listing> listings) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				listings.add(list(directory, depth));
+			}
+		});
+	}
+
+	/*
+	 * Never throws, so that the walk always receives one listing per
+	 * directory submitted.
+	 */
+	private Listing list(String directory, int depth) {
+		EnhancedFTPClient ftpClient;
+		try {
+			ftpClient = pool.borrow();
+		} catch (RuntimeException e) {
+			return new Listing(directory, depth, null, null, e);
+		}
+		try {
+			FTPFile[] files = ftpClient.isMlstSupported() ? ftpClient.mlistDir(directory) : ftpClient.listFilesMatching(directory, ListingFilter.all());
+			boolean listed = FTPReply.isPositiveCompletion(ftpClient.getReplyCode());
+			Listing listing = new Listing(directory, depth, listed ? files : null, ftpClient.getReplyString(), null);
+			pool.release(ftpClient);
+			return listing;
+		} catch (IOException | RuntimeException e) {
+			pool.invalidate(ftpClient);
+			return new Listing(directory, depth, null, null, e);
+		}
+	}
+
+	private static String childPath(String directory, String name) {
+		return directory.endsWith("/") ? directory + name : directory + "/" + name;
+	}
+
+	private static class Listing {
+
+		private final String directory;
+
+		private final int depth;
+
+		private final FTPFile[] files;
+
+		private final String reply;
+
+		private final Exception error;
+
+		Listing(String directory, int depth, FTPFile[] files, String reply, Exception error) {
+			this.directory = directory;
+			this.depth = depth;
+			this.files = files;
+			this.reply = reply;
+			this.error = error;
+		}
+	}
+}
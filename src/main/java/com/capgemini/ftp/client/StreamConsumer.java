@@ -0,0 +1,18 @@
+package com.capgemini.ftp.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Processes the content of a remote file as it is downloaded (see
+ * {@link FileTransferBean#downloadToConsumer(String, com.capgemini.ftp.client.apache.client.EnhancedFTPClient, String, StreamConsumer)}).
+ */
+public interface StreamConsumer {
+
+	/**
+	 * @param content
+	 *            the content as it arrives, valid during the call only; it
+	 *            need not be closed. Throwing aborts the transfer.
+	 */
+	void accept(InputStream content) throws IOException;
+}
@@ -0,0 +1,370 @@
+package com.capgemini.ftp.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.exception.MonitoredError;
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.client.PipelinedCommand;
+import com.capgemini.ftp.client.util.StopWatch;
+
+/**
+ * The responsibility of this class is to upload a batch of local files over
+ * the sessions of an {@link FTPClientPool}, concurrently, while keeping the
+ * order partners rely on, e.g. a trigger file that must arrive only after
+ * all the data files.
+ * <p>
+ * The files are added in stages: {@link #then()} closes a stage, and the
+ * files of a stage are only sent once every file of the stages before it has
+ * been stored. Within a stage up to {@link FTPClientPool#getMaxSize()} files
+ * are uploaded at the same time, the largest first so that the long
+ * transfers do not end up last on their own. If a file of a stage fails the
+ * later stages are not sent, so a trigger file never announces an
+ * incomplete batch; the files of the failed stage that did succeed are left
+ * in place.
+ * <p>
+ * The outcome and duration of each upload are reported in the
+ * {@link UploadBatchResult}; a failed file does not end the stage.
+ * <p>
+ * In atomic mode (see {@link #atomic(String, String)}) each file is stored
+ * under a temporary name, so partners polling the directory never pick up a
+ * partial file. Once the uploads of a stage are done their sizes are read
+ * back in one pipelined SIZE batch, and the files whose size matches are
+ * renamed to their final names in one pipelined RNFR/RNTO batch, which keeps
+ * the finalisation of a large stage to a few round trips. A file whose size
+ * does not match is deleted; on servers that do not implement SIZE the files
+ * are renamed without a size check, with a warning. A file that cannot be renamed, e.g. because a
+ * file of that name already exists, is left under its temporary name and
+ * reported as failed, so it can be renamed later without sending it again.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *  UploadBatchResult result = new UploadBatch(pool)
+ *      .addAll(fileTransferBean.getLocalDirFileAttributes(correlationId, localDir, "*.xml").values(), "/inbound")
+ *      .then()
+ *      .add(Paths.get(localDir, "batch.done"), "/inbound/batch.done")
+ *      .upload(correlationId);
+ * </code>
+ * </pre>
+ */
+public class UploadBatch {
+
+	private static final Logger logger = LoggerFactory.getLogger(UploadBatch.class);
+
+	private static final Comparator<Upload> LARGEST_FIRST = new Comparator<Upload>() {
+		@Override
+		public int compare(Upload a, Upload b) {
+			return Long.compare(b.size, a.size);
+		}
+	};
+
+	private final FTPClientPool pool;
+
+	private final List<List<Upload>> stages = new ArrayList<List<Upload>>();
+
+	private String temporaryPrefix;
+
+	private String temporarySuffix;
+
+	public UploadBatch(FTPClientPool pool) {
+		this.pool = pool;
+		stages.add(new ArrayList<Upload>());
+	}
+
+	/**
+	 * @param localFile
+	 *            the file to upload.
+	 * @param remotePath
+	 *            the path to store it under.
+	 */
+	public UploadBatch add(File localFile, String remotePath) {
+		current().add(new Upload(localFile, remotePath, localFile.length()));
+		return this;
+	}
+
+	/**
+	 * @param localFile
+	 *            the file to upload, e.g. from
+	 *            {@link FileTransferBean#getLocalDirFileAttributes}.
+	 * @param remoteDir
+	 *            the directory to store it in, under its own name.
+	 */
+	public UploadBatch add(LocalFileAttributes localFile, String remoteDir) {
+		current().add(new Upload(localFile.getPath().toFile(), remotePath(remoteDir, localFile.getFileName()), localFile.getSize()));
+		return this;
+	}
+
+	public UploadBatch add(Path localFile, String remotePath) {
+		return add(localFile.toFile(), remotePath);
+	}
+
+	public UploadBatch addAll(Collection<LocalFileAttributes> localFiles, String remoteDir) {
+		for (LocalFileAttributes localFile : localFiles) {
+			add(localFile, remoteDir);
+		}
+		return this;
+	}
+
+	/**
+	 * Store each file under a temporary name, in the same directory as its
+	 * final path, and rename it once its size has been checked. A prefix
+	 * ending with '/' names a subdirectory, which must exist, of that
+	 * directory.
+	 *
+	 * @param temporaryPrefix
+	 *            put before the file name, e.g. ".", or null.
+	 * @param temporarySuffix
+	 *            put after the file name, e.g. ".part", or null.
+	 */
+	public UploadBatch atomic(String temporaryPrefix, String temporarySuffix) {
+		if (temporaryPrefix == null && temporarySuffix == null) {
+			throw new IllegalArgumentException("A temporary prefix or suffix is needed");
+		}
+		this.temporaryPrefix = temporaryPrefix == null ? "" : temporaryPrefix;
+		this.temporarySuffix = temporarySuffix == null ? "" : temporarySuffix;
+		return this;
+	}
+
+	/**
+	 * Close the current stage: the files added from now on are only sent
+	 * after those added so far have all been stored.
+	 */
+	public UploadBatch then() {
+		if (!current().isEmpty()) {
+			stages.add(new ArrayList<Upload>());
+		}
+		return this;
+	}
+
+	/**
+	 * The goal of this method is to upload the files of the batch, stage by
+	 * stage.
+	 *
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @return the outcome and duration of each upload.
+	 */
+	public UploadBatchResult upload(String correlationId) {
+		UploadBatchResult result = new UploadBatchResult();
+		int largestStage = 0;
+		int files = 0;
+		for (List<Upload> stage : stages) {
+			largestStage = Math.max(largestStage, stage.size());
+			files += stage.size();
+		}
+		if (files == 0) {
+			return result;
+		}
+		logger.info("CorrelationId: {} Uploading {} files in {} stages", correlationId, files, stages.size());
+		StopWatch sw = new StopWatch();
+		sw.start();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(pool.getMaxSize(), largestStage));
+		try {
+			boolean failed = false;
+			for (List<Upload> stage : stages) {
+				if (failed) {
+					for (Upload upload : stage) {
+						result.add(new RemoteFileOutcome(upload.remotePath, false, -1, "Not sent: an earlier stage of the batch failed"), -1);
+					}
+					continue;
+				}
+				failed = !uploadStage(correlationId, executor, stage, result);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		sw.end();
+		result.setTimeTaken(sw.timeTaken());
+		logger.info("CorrelationId: {} Took [{}] milliseconds to upload a batch of {} files, {} failed", correlationId, sw.timeTaken(), files,
+				result.getFailed().size());
+		return result;
+	}
+
+	/*
+	 * Returns true if every file of the stage was stored.
+	 */
+	private boolean uploadStage(String correlationId, ExecutorService executor, List<Upload> stage, UploadBatchResult result) {
+		List<Upload> ordered = new ArrayList<Upload>(stage);
+		Collections.sort(ordered, LARGEST_FIRST);
+		Map<Upload, Future<RemoteFileOutcome>> futures = new LinkedHashMap<Upload, Future<RemoteFileOutcome>>();
+		for (final Upload upload : ordered) {
+			futures.put(upload, executor.submit(() -> {
+				upload.sw.start();
+				EnhancedFTPClient ftpClient = pool.borrow();
+				try {
+					RemoteFileOutcome outcome = store(ftpClient, upload);
+					pool.release(ftpClient);
+					return outcome;
+				} catch (IOException | RuntimeException e) {
+					pool.invalidate(ftpClient);
+					throw e;
+				} finally {
+					upload.sw.end();
+				}
+			}));
+		}
+		Map<Upload, RemoteFileOutcome> outcomes = new LinkedHashMap<Upload, RemoteFileOutcome>();
+		for (Upload upload : stage) {
+			try {
+				outcomes.put(upload, futures.get(upload).get());
+			} catch (ExecutionException e) {
+				outcomes.put(upload, new RemoteFileOutcome(upload.remotePath, false, -1, e.getCause().getMessage()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				MonitoredError.UNHANDLED_TRANSFER_ERROR.create(correlationId, upload.remotePath, "Interrupted while waiting for an upload.", e);
+				return false; // Above line will throw an exception
+			}
+		}
+		if (temporaryPrefix != null) {
+			finalise(correlationId, outcomes);
+		}
+		boolean success = true;
+		for (Upload upload : stage) {
+			RemoteFileOutcome outcome = outcomes.get(upload);
+			if (!outcome.isSuccess()) {
+				logger.warn("CorrelationId: {} Failed to upload {}: {}", correlationId, upload.remotePath, outcome.getMessage());
+				success = false;
+			}
+			logger.debug("CorrelationId: {} Took [{}] milliseconds to upload {} ({} bytes)", correlationId, upload.sw.timeTaken(), upload.remotePath,
+					upload.size);
+			result.add(outcome, upload.sw.timeTaken());
+		}
+		return success;
+	}
+
+	private RemoteFileOutcome store(EnhancedFTPClient ftpClient, Upload upload) throws IOException {
+		boolean stored;
+		// the size checked after an atomic upload is that of the file as sent
+		upload.size = upload.localFile.length();
+		try (InputStream input = new FileInputStream(upload.localFile)) {
+			stored = ftpClient.storeFile(temporaryPrefix != null ? temporaryPath(upload.remotePath) : upload.remotePath, input);
+		}
+		return new RemoteFileOutcome(upload.remotePath, stored, ftpClient.getReplyCode(), ftpClient.getReplyString().trim());
+	}
+
+	/*
+	 * Check the sizes of the files stored under their temporary names and
+	 * rename them, in two pipelined batches on one session.
+	 */
+	private void finalise(String correlationId, Map<Upload, RemoteFileOutcome> outcomes) {
+		List<Upload> stored = new ArrayList<Upload>();
+		for (Map.Entry<Upload, RemoteFileOutcome> outcome : outcomes.entrySet()) {
+			if (outcome.getValue().isSuccess()) {
+				stored.add(outcome.getKey());
+			}
+		}
+		if (stored.isEmpty()) {
+			return;
+		}
+		StopWatch sw = new StopWatch();
+		sw.start();
+		List<PipelinedCommand> sizes = new ArrayList<PipelinedCommand>(stored.size());
+		for (Upload upload : stored) {
+			sizes.add(new PipelinedCommand(FTPCmd.SIZE, temporaryPath(upload.remotePath)));
+		}
+		List<Upload> verified = new ArrayList<Upload>(stored.size());
+		List<PipelinedCommand> renames = new ArrayList<PipelinedCommand>(stored.size() * 2);
+		List<PipelinedCommand> deletes = new ArrayList<PipelinedCommand>();
+		EnhancedFTPClient ftpClient = pool.borrow();
+		try {
+			ftpClient.sendPipelined(sizes);
+			for (int i = 0; i < stored.size(); i++) {
+				Upload upload = stored.get(i);
+				PipelinedCommand size = sizes.get(i);
+				boolean unchecked = size.getReplyCode() == FTPReply.UNRECOGNIZED_COMMAND || size.getReplyCode() == FTPReply.COMMAND_NOT_IMPLEMENTED;
+				if (unchecked) {
+					logger.warn("CorrelationId: {} No size check for {}, the server does not support SIZE: {}", correlationId,
+							temporaryPath(upload.remotePath), size.getReplyText());
+				}
+				if (unchecked || size.isPositiveCompletion() && Long.toString(upload.size).equals(size.getReplyText().trim())) {
+					verified.add(upload);
+					renames.add(new PipelinedCommand(FTPCmd.RNFR, temporaryPath(upload.remotePath)));
+					renames.add(new PipelinedCommand(FTPCmd.RNTO, upload.remotePath));
+				} else {
+					outcomes.put(upload, new RemoteFileOutcome(upload.remotePath, false, size.getReplyCode(), "Size check failed: " + size.getReplyText()));
+					deletes.add(new PipelinedCommand(FTPCmd.DELE, temporaryPath(upload.remotePath)));
+				}
+			}
+			renames.addAll(deletes);
+			ftpClient.sendPipelined(renames);
+			pool.release(ftpClient);
+		} catch (IOException e) {
+			pool.invalidate(ftpClient);
+			logger.warn("CorrelationId: {} Finalisation of {} uploads was interrupted: {}", correlationId, stored.size(), e.getMessage());
+		}
+		for (int i = 0; i < verified.size(); i++) {
+			Upload upload = verified.get(i);
+			PipelinedCommand rnto = renames.get(i * 2 + 1);
+			if (rnto.getReplyCode() == -1) {
+				outcomes.put(upload, new RemoteFileOutcome(upload.remotePath, false, -1, "No reply to the rename of " + temporaryPath(upload.remotePath)));
+			} else if (!rnto.isPositiveCompletion()) {
+				outcomes.put(upload, new RemoteFileOutcome(upload.remotePath, false, rnto.getReplyCode(), "Left as " + temporaryPath(upload.remotePath) + ": "
+						+ renames.get(i * 2).getReplyText() + " / " + rnto.getReplyText()));
+			} else {
+				outcomes.put(upload, new RemoteFileOutcome(upload.remotePath, true, rnto.getReplyCode(), rnto.getReplyText()));
+			}
+		}
+		for (Upload upload : stored) {
+			if (!verified.contains(upload) && outcomes.get(upload).isSuccess()) {
+				// the SIZE batch itself failed
+				outcomes.put(upload, new RemoteFileOutcome(upload.remotePath, false, -1, "No size check for " + temporaryPath(upload.remotePath)));
+			}
+		}
+		sw.end();
+		logger.debug("CorrelationId: {} Took [{}] milliseconds to finalise {} uploads", correlationId, sw.timeTaken(), stored.size());
+	}
+
+	private String temporaryPath(String remotePath) {
+		int slash = remotePath.lastIndexOf('/');
+		return remotePath.substring(0, slash + 1) + temporaryPrefix + remotePath.substring(slash + 1) + temporarySuffix;
+	}
+
+	private List<Upload> current() {
+		return stages.get(stages.size() - 1);
+	}
+
+	private static String remotePath(String remoteDir, String fileName) {
+		if (remoteDir == null || remoteDir.isEmpty()) {
+			return fileName;
+		}
+		return remoteDir.endsWith("/") ? remoteDir + fileName : remoteDir + "/" + fileName;
+	}
+
+	private static class Upload {
+
+		private final File localFile;
+
+		private final String remotePath;
+
+		private long size;
+
+		private final StopWatch sw = new StopWatch();
+
+		Upload(File localFile, String remotePath, long size) {
+			this.localFile = localFile;
+			this.remotePath = remotePath;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.capgemini.ftp.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The responsibility of this class is to report what an {@link UploadBatch}
+ * did: the outcome of each file and the time its upload took.
+ */
+public class UploadBatchResult {
+
+	private final Map<String, RemoteFileOutcome> outcomes = new LinkedHashMap<String, RemoteFileOutcome>();
+
+	private final Map<String, Long> timesTaken = new LinkedHashMap<String, Long>();
+
+	private long timeTaken;
+
+	UploadBatchResult() {
+	}
+
+	/**
+	 * @return the outcome of each file, keyed by remote path, stage by stage.
+	 */
+	public Map<String, RemoteFileOutcome> getOutcomes() {
+		return Collections.unmodifiableMap(outcomes);
+	}
+
+	/**
+	 * @return the outcomes of the files that were not uploaded, including
+	 *         those not sent because an earlier stage failed.
+	 */
+	public List<RemoteFileOutcome> getFailed() {
+		List<RemoteFileOutcome> failed = new ArrayList<RemoteFileOutcome>();
+		for (RemoteFileOutcome outcome : outcomes.values()) {
+			if (!outcome.isSuccess()) {
+				failed.add(outcome);
+			}
+		}
+		return failed;
+	}
+
+	public boolean isSuccess() {
+		return getFailed().isEmpty();
+	}
+
+	/**
+	 * @return the milliseconds the upload of the file took, or -1 if it was
+	 *         not sent.
+	 */
+	public long getTimeTaken(String remotePath) {
+		Long time = timesTaken.get(remotePath);
+		return time == null ? -1 : time;
+	}
+
+	/**
+	 * @return the milliseconds the whole batch took.
+	 */
+	public long getTimeTaken() {
+		return timeTaken;
+	}
+
+	void add(RemoteFileOutcome outcome, long time) {
+		outcomes.put(outcome.getFileName(), outcome);
+		if (time >= 0) {
+			timesTaken.put(outcome.getFileName(), time);
+		}
+	}
+
+	void setTimeTaken(long timeTaken) {
+		this.timeTaken = timeTaken;
+	}
+}
@@ -37,6 +37,8 @@ import com.capgemini.CachedKeyStore;
 import com.capgemini.exception.MonitoredError;
 import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
 import com.capgemini.ftp.client.apache.client.EnhancedFTPSClient;
+import com.capgemini.ftp.client.apache.client.ServerCapabilities;
+import com.capgemini.ftp.client.apache.client.ServerDiscovery;
 import com.capgemini.ftp.client.config.FTPClientConfig;
 
 import com.capgemini.rest.AuthorizedRestTemplate;
@@ -86,6 +88,36 @@ public class EnhancedFTPClientFactory {
     }
     
 
+	/**
+	 * The goal of this method is to fill the discovery cache (SYST and FEAT)
+	 * for the configured server, typically at startup, so that the sessions
+	 * that follow skip these commands. Does nothing if the discovery cache is
+	 * disabled in the config.
+	 * 
+	 * @param correlationId
+	 *            for logging purposes.
+	 */
+	public void primeDiscoveryCache(String correlationId, FTPClientConfig ftpClientConfig) {
+		if (ftpClientConfig.ftpDiscoveryCacheTimeToLive <= 0) {
+			return;
+		}
+		EnhancedFTPClient client = getConnectedClient(correlationId, ftpClientConfig);
+		try {
+			client.discoverServer();
+			logger.info("CorrelationId: {} Discovered FTP server {}: system type {}", correlationId, ftpClientConfig.ftpServerList, client.getSystemType());
+			client.logout();
+		} catch (IOException ioe) {
+			MonitoredError.FTP_CONNECTION_FAILURE.create(correlationId, "n/a", "When discovering the FTP server", ioe);
+		} finally {
+			try {
+				client.disconnect();
+			} catch (IOException ioe) {
+				logger.warn("CorrelationId: {} There was a problem when disconnecting from the FTP server: " + ioe.getMessage(), correlationId);
+			}
+		}
+	}
+	
+
     /**
      * Connect a FTP/FTPS client.
      */
@@ -132,6 +164,10 @@ public class EnhancedFTPClientFactory {
 						throw ex;
 					}                
 	                logger.info("CorrelationId: {} FTP Connection error was: {}", correlationId, ex);
+					// the server may have been replaced or reconfigured, so learn its capabilities again
+					int port = ftpClientConfig.ftpPort > 0 ? ftpClientConfig.ftpPort : ftpClient.getDefaultPort();
+					ServerCapabilities.invalidate(ftpServer, port);
+					ServerDiscovery.invalidate(ftpServer, port);
 					logger.info("CorrelationId: {} FTP Connection error : retrying after {} milliseconds", correlationId, ftpClientConfig.ftpRetrySleep);
 					waitToRetry(ftpClientConfig);				
 				}
@@ -192,6 +228,10 @@ public class EnhancedFTPClientFactory {
 		ftpClient.setPassiveNatWorkaround(false);
 		ftpClient.setControlKeepAliveTimeout(DEFAULT_KEEP_ALIVE_MESSAGE_INTERVAL);
 		ftpClient.setControlKeepAliveReplyTimeout(DEFAULT_KEEP_ALIVE_REPLY_TIMEOUT);
+		ftpClient.setFastListParsing(ftpsClientConfig.ftpFastListParsing);
+		ftpClient.setSpeculativeDataConnections(ftpsClientConfig.ftpSpeculativeDataConnections);
+		ftpClient.setDiscoveryCacheTimeToLive(ftpsClientConfig.ftpDiscoveryCacheTimeToLive);
+		ftpClient.setByteReplyDecoding(ftpsClientConfig.ftpByteReplyDecoding);
 	}
 
 	
@@ -202,6 +242,13 @@ public class EnhancedFTPClientFactory {
 	private void applyCommonPostLoginSettingsTo(EnhancedFTPClient ftpClient, FTPClientConfig ftpsClientConfig) throws IOException, SSLException {		
         logger.debug("FTP client file type being set to binary file type.");
 		ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+		if (ftpsClientConfig.ftpBlockTransferMode) {
+			if (ftpClient.setFileTransferMode(FTP.BLOCK_TRANSFER_MODE)) {
+				logger.debug("FTP client transfer mode set to block mode.");
+			} else {
+				logger.debug("FTP server does not support block mode, using stream mode.");
+			}
+		}
 	}
 
 	
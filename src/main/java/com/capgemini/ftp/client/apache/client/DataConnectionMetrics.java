@@ -0,0 +1,97 @@
+package com.capgemini.ftp.client.apache.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The responsibility of this class is to count how the data connections of
+ * an {@link EnhancedFTPClient} were obtained, so that the effect of
+ * connection reuse can be monitored.
+ */
+public class DataConnectionMetrics {
+
+	private final AtomicLong opened = new AtomicLong();
+
+	private final AtomicLong reused = new AtomicLong();
+
+	private final AtomicLong prepared = new AtomicLong();
+
+	private final AtomicLong preparedUsed = new AtomicLong();
+
+	private final AtomicLong preparedDiscarded = new AtomicLong();
+
+	void connectionOpened() {
+		opened.incrementAndGet();
+	}
+
+	void connectionReused() {
+		reused.incrementAndGet();
+	}
+
+	void connectionPrepared() {
+		prepared.incrementAndGet();
+	}
+
+	void preparedConnectionUsed() {
+		preparedUsed.incrementAndGet();
+	}
+
+	void preparedConnectionDiscarded() {
+		preparedDiscarded.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of data connections established (each one costing
+	 *         a PASV/PORT exchange, a TCP connect and for FTPS a TLS
+	 *         handshake).
+	 */
+	public long getConnectionsOpened() {
+		return opened.get();
+	}
+
+	/**
+	 * @return the number of transfers that used a MODE B data connection
+	 *         kept open from a previous transfer, i.e. the handshakes
+	 *         avoided.
+	 */
+	public long getConnectionsReused() {
+		return reused.get();
+	}
+
+	/**
+	 * @return the number of passive data connections negotiated and connected
+	 *         while the previous transfer was completing.
+	 */
+	public long getConnectionsPrepared() {
+		return prepared.get();
+	}
+
+	/**
+	 * @return the number of transfers that used a prepared connection, each
+	 *         saving the PASV/EPSV round trip and the TCP connect from the
+	 *         transfer's own latency.
+	 */
+	public long getPreparedConnectionsUsed() {
+		return preparedUsed.get();
+	}
+
+	/**
+	 * @return the number of prepared connections closed unused.
+	 */
+	public long getPreparedConnectionsDiscarded() {
+		return preparedDiscarded.get();
+	}
+
+	public void reset() {
+		opened.set(0);
+		reused.set(0);
+		prepared.set(0);
+		preparedUsed.set(0);
+		preparedDiscarded.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "DataConnectionMetrics [opened=" + opened + ", reused=" + reused + ", prepared=" + prepared + ", preparedUsed="
+				+ preparedUsed + ", preparedDiscarded=" + preparedDiscarded + "]";
+	}
+}
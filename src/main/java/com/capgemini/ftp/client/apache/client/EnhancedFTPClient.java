@@ -21,11 +21,16 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -34,13 +39,18 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 
 import org.apache.commons.net.MalformedServerReplyException;
 import org.apache.commons.net.ftp.Configurable;
@@ -48,6 +58,7 @@ import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClientConfig;
 import org.apache.commons.net.ftp.FTPCmd;
 import org.apache.commons.net.ftp.FTPCommand;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
 import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPFileEntryParser;
 import org.apache.commons.net.ftp.FTPFileFilter;
@@ -58,8 +69,8 @@ import org.apache.commons.net.ftp.parser.DefaultFTPFileEntryParserFactory;
 import org.apache.commons.net.ftp.parser.FTPFileEntryParserFactory;
 import org.apache.commons.net.ftp.parser.MLSxEntryParser;
 import org.apache.commons.net.io.CRLFLineReader;
-import org.apache.commons.net.io.CopyStreamAdapter;
 import org.apache.commons.net.io.CopyStreamEvent;
+import org.apache.commons.net.io.CopyStreamException;
 import org.apache.commons.net.io.CopyStreamListener;
 import org.apache.commons.net.io.FromNetASCIIInputStream;
 import org.apache.commons.net.io.ToNetASCIIOutputStream;
@@ -67,6 +78,15 @@ import org.apache.commons.net.io.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.capgemini.ftp.client.apache.client.ServerCapabilities.ServerCapability;
+import com.capgemini.ftp.client.apache.io.BlockModeInputStream;
+import com.capgemini.ftp.client.apache.io.BlockModeOutputStream;
+import com.capgemini.ftp.client.apache.parser.FastFTPFileEntryParserFactory;
+import com.capgemini.ftp.client.apache.parser.FastListEntryParser;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.apache.parser.NameListReader;
+import com.capgemini.ftp.client.apache.parser.RawListEntry;
+
 /**
  * The responsibility of this class to to enhance the basic 
  * Apache FTPClient class with functionality necessary to support operation
@@ -425,23 +445,109 @@ implements Configurable
     // Most FTP servers don't seem to support concurrent control and data connection usage
     private int __controlKeepAliveReplyTimeout=1000;
 
+    // Keep-alive NOOPs are written by the KeepAliveScheduler thread while a transfer runs.
+    // The fields below are guarded by __keepAliveLock.
+    private final Object __keepAliveLock = new Object();
+    private boolean __keepAliveActive;
+    private int __keepAliveRepliesPending;
+    private long __keepAlivesSent;
+    private ScheduledFuture<?> __keepAliveTask;
+
     /**
      * Enable or disable replacement of internal IP in passive mode. Default enabled.
      */
     private boolean __passiveNatWorkaround = true;
 
-    /** Pattern for PASV mode responses. Groups: (n,n,n,n),(n),(n) */
-    private static final java.util.regex.Pattern __PARMS_PAT;
-    static {
-        __PARMS_PAT = java.util.regex.Pattern.compile(
-                "(\\d{1,3},\\d{1,3},\\d{1,3},\\d{1,3}),(\\d{1,3}),(\\d{1,3})");
-    }
+    // Whether replies are read by __replyDecoder instead of _controlInput_
+    private boolean __byteReplyDecoding;
+
+    // Decoder of the replies on the socket it was created for
+    private ReplyDecoder __replyDecoder;
+    private Socket __replyDecoderSocket;
+    private Charset __replyCharset;
+    private String __replyEncoding;
 
     /** Controls the automatic server encoding detection (only UTF-8 supported). */
     private boolean __autodetectEncoding = false;
 
     /** Map of FEAT responses. If null, has not been initialised. */
-    private HashMap<String, Set<String>> __featuresMap;
+    private Map<String, Set<String>> __featuresMap;
+
+    // Whether a login has succeeded on this connection; servers may hide features until then
+    private boolean __loggedIn;
+
+    // Whether __featuresMap was read before login, and so is read again after it
+    private boolean __featuresBeforeLogin;
+
+    // How long (ms) SYST and FEAT results are shared with other sessions to the same server; 0 to disable
+    private int __discoveryCacheTimeToLive;
+
+    /** Default number of commands that may be outstanding in a pipelined batch. */
+    public static final int DEFAULT_PIPELINE_DEPTH = 16;
+
+    /** Default time (ms) to wait for the second reply when probing for pipelining support. */
+    public static final int DEFAULT_PIPELINE_PROBE_TIMEOUT = 2000;
+
+    /** Time (ms) to wait for a late probe reply when no reply timeout has been set. */
+    public static final int DEFAULT_PIPELINE_PROBE_DRAIN_TIMEOUT = 30000;
+
+    /** Default largest directory, in entries, that is listed over the control connection with STAT. */
+    public static final int DEFAULT_STAT_LISTING_MAX_ENTRIES = 200;
+
+    /** Time (ms) after which a speculatively opened data connection is no longer used. */
+    public static final int PREPARED_DATA_CONNECTION_MAX_AGE = 10000;
+
+    // Maximum number of commands sent before their replies are read. 1 or less disables pipelining.
+    private int __pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+    // How long to wait for the probe reply before deciding the server does not tolerate pipelining
+    private int __pipelineProbeTimeout = DEFAULT_PIPELINE_PROBE_TIMEOUT;
+
+    /** Whether the server answers pipelined commands. If null, has not been probed. */
+    private Boolean __pipeliningSupported;
+
+    // Whether OPTS MLST has restricted MLSD and MLST entries to the type fact on this connection
+    private boolean __mlstTypeOnlyRequested;
+
+    // The facts requested again after a name-only listing if FEAT does not name the defaults
+    private static final String __MLST_ENTRY_FACTS = "type;size;modify;perm;unix.mode;";
+
+    // Line buffer shared by name-only listings, grown as needed
+    private char[] __nameListBuffer;
+
+    // Directories with more entries than this are listed with LIST rather than STAT
+    private int __statListingMaxEntries = DEFAULT_STAT_LISTING_MAX_ENTRIES;
+
+    /** Whether the server returns directory listings for STAT. If null, has not been tried. */
+    private Boolean __statListingSupported;
+
+    // Entry count of the last listing of each pathname, used to choose between STAT and LIST;
+    // relative pathnames are forgotten when the working directory changes
+    private HashMap<String, Integer> __listingSizes;
+
+    // MODE B data connection kept open after the EOF block of the previous transfer
+    private Socket __blockModeDataSocket;
+
+    // MODE B data connection whose EOF block has been seen, kept once the transfer reply is positive
+    private Socket __pendingBlockModeDataSocket;
+
+    /** Whether the server accepts a transfer command on a kept MODE B connection. If null, has not been tried. */
+    private Boolean __blockModeReuseSupported;
+
+    // Whether the last data connection returned by _openDataConnection_ was a kept MODE B connection
+    private boolean __dataConnectionReused;
+
+    private final DataConnectionMetrics __dataConnectionMetrics = new DataConnectionMetrics();
+
+    // Whether to negotiate and connect the next passive data connection while a transfer completes
+    private boolean __speculativeDataConnections;
+
+    // Passive data connection opened in completePendingCommand for the next transfer
+    private Socket __preparedDataSocket;
+    private long __preparedDataSocketTime;
+
+    // What the server is known to support; shared with other sessions to the same server once connected
+    private ServerCapabilities __capabilities;
 
     private static class PropertiesSingleton {
 
@@ -521,7 +627,23 @@ implements Configurable
         __entryParser        = null;
         __entryParserKey    = "";
         __featuresMap = null;
-
+        __loggedIn = false;
+        __featuresBeforeLogin = false;
+        __pipeliningSupported = null;
+        __mlstTypeOnlyRequested = false;
+        __statListingSupported = null;
+        __listingSizes = new HashMap<String, Integer>();
+        Util.closeQuietly(__blockModeDataSocket);
+        __blockModeDataSocket = null;
+        Util.closeQuietly(__pendingBlockModeDataSocket);
+        __pendingBlockModeDataSocket = null;
+        __blockModeReuseSupported = null;
+        __dataConnectionReused = false;
+        __discardPreparedDataSocket();
+        __capabilities = new ServerCapabilities();
+        synchronized (__keepAliveLock) {
+            __keepAliveRepliesPending = 0;
+        }
     }
 
     /**
@@ -543,34 +665,29 @@ implements Configurable
     // package protected for access by test cases
     static String __parsePathname(String reply)
     {
-        String param = reply.substring(REPLY_CODE_LEN + 1);
-        if (param.startsWith("\"")) {
-            StringBuilder sb = new StringBuilder();
-            boolean quoteSeen = false;
-            // start after initial quote
-            for(int i=1; i < param.length(); i++) {
-                char ch = param.charAt(i);
-                if (ch=='"') {
-                    if (quoteSeen) {
-                        sb.append(ch);
-                        quoteSeen=false;
-                    } else {
-                        // don't output yet, in case doubled
-                        quoteSeen=true;
+        int start = REPLY_CODE_LEN + 1;
+        if (reply.length() > start && reply.charAt(start) == '"') {
+            // only copy characters when a doubled quote has to be collapsed
+            StringBuilder sb = null;
+            int from = start + 1; // start after initial quote
+            int i = from;
+            while (i < reply.length()) {
+                if (reply.charAt(i) != '"') {
+                    i++;
+                } else if (i + 1 < reply.length() && reply.charAt(i + 1) == '"') {
+                    if (sb == null) {
+                        sb = new StringBuilder();
                     }
-                } else {
-                    if (quoteSeen) { // found lone trailing quote within string
-                        return sb.toString();
-                    }
-                    sb.append(ch); // just another character
+                    sb.append(reply, from, i + 1); // keep one of the doubled quotes
+                    i += 2;
+                    from = i;
+                } else { // found lone trailing quote
+                    return sb == null ? reply.substring(from, i) : sb.append(reply, from, i).toString();
                 }
             }
-            if (quoteSeen) { // found lone trailing quote at end of string
-                return sb.toString();
-            }
         }
         // malformed reply, return all after reply code and space
-        return param;
+        return reply.substring(start);
     }
 
     /**
@@ -579,8 +696,8 @@ implements Configurable
     protected void _parsePassiveModeReply(String reply)
     throws MalformedServerReplyException
     {
-        java.util.regex.Matcher m = __PARMS_PAT.matcher(reply);
-        if (!m.find()) {
+        int[] tuple = new int[6];
+        if (!ReplyDecoder.parsePassiveTuple(reply, tuple)) {
             throw new MalformedServerReplyException(
                     "Could not parse passive host information.\nServer Reply: " + reply);
         }
@@ -589,21 +706,11 @@ implements Configurable
             __passiveHost = getConnectionRemoteHost();
             logger.debug("Skipping host in PASV reply. Setting passiveHost to: {}", getConnectionRemoteHost());
         } else {
-            __passiveHost = m.group(1).replace(',', '.'); // Fix up to look like IP address
+            __passiveHost = tuple[0] + "." + tuple[1] + "." + tuple[2] + "." + tuple[3];
             logger.debug("Using host from PASV reply. Setting passiveHost to: {}", __passiveHost);
         }
-        
-        try
-        {
-            int oct1 = Integer.parseInt(m.group(2));
-            int oct2 = Integer.parseInt(m.group(3));
-            __passivePort = (oct1 << 8) | oct2;
-        }
-        catch (NumberFormatException e)
-        {
-            throw new MalformedServerReplyException(
-                    "Could not parse passive port information.\nServer Reply: " + reply);
-        }
+
+        __passivePort = (tuple[4] << 8) | tuple[5];
 
         if (__passiveNatWorkaround) {
             try {
@@ -630,33 +737,12 @@ implements Configurable
     protected void _parseExtendedPassiveModeReply(String reply)
     throws MalformedServerReplyException
     {
-        reply = reply.substring(reply.indexOf('(') + 1,
-                reply.indexOf(')')).trim();
-
-        char delim1, delim2, delim3, delim4;
-        delim1 = reply.charAt(0);
-        delim2 = reply.charAt(1);
-        delim3 = reply.charAt(2);
-        delim4 = reply.charAt(reply.length()-1);
-
-        if (!(delim1 == delim2) || !(delim2 == delim3)
-                || !(delim3 == delim4)) {
-            throw new MalformedServerReplyException(
-                    "Could not parse extended passive host information.\nServer Reply: " + reply);
-        }
-
-        int port;
-        try
-        {
-            port = Integer.parseInt(reply.substring(3, reply.length()-1));
-        }
-        catch (NumberFormatException e)
-        {
+        int port = ReplyDecoder.parseExtendedPassivePort(reply);
+        if (port < 0) {
             throw new MalformedServerReplyException(
                     "Could not parse extended passive host information.\nServer Reply: " + reply);
         }
 
-
         // in EPSV mode, the passive host address is implicit
         __passiveHost = getRemoteAddress().getHostAddress();
         __passivePort = port;
@@ -680,38 +766,33 @@ implements Configurable
             return false;
         }
 
-        OutputStream output = getBufferedOutputStream(socket.getOutputStream());
+        OutputStream dataOutput = __getDataOutputStream(socket);
+        OutputStream output = getBufferedOutputStream(dataOutput);
 
         if (__fileType == ASCII_FILE_TYPE) {
             output = new ToNetASCIIOutputStream(output);
         }
 
-        CSL csl = null;
-        if (__controlKeepAliveTimeout > 0) {
-            csl = new CSL(this, __controlKeepAliveTimeout, __controlKeepAliveReplyTimeout);
-        }
+        __startControlKeepAlive();
 
         // Treat everything else as binary for now
         try
         {
             Util.copyStream(local, output, getBufferSize(),
-                    CopyStreamEvent.UNKNOWN_STREAM_SIZE, __mergeListeners(csl),
+                    CopyStreamEvent.UNKNOWN_STREAM_SIZE, __copyStreamListener,
                     false);
         }
         catch (IOException e)
         {
-            Util.closeQuietly(socket); // ignore close errors here
-            if (csl != null) {
-                csl.cleanUp(); // fetch any outstanding keepalive replies
-            }
+            __stopControlKeepAlive();
+            __releaseDataConnection(socket, null); // ignore close errors here
+            __readRepliesAfterFailedTransfer();
             throw e;
         }
 
-        output.close(); // ensure the file is fully written
-        socket.close(); // done writing the file
-        if (csl != null) {
-            csl.cleanUp(); // fetch any outstanding keepalive replies
-        }
+        output.close(); // ensure the file is fully written (in MODE B, sends the EOF block)
+        __releaseDataConnection(socket, dataOutput); // done writing the file
+        __stopControlKeepAlive(); // replies to its NOOPs are read with the transfer reply
         // Get the transfer response
         boolean ok = completePendingCommand();
         return ok;
@@ -735,7 +816,8 @@ implements Configurable
             return null;
         }
 
-        OutputStream output = socket.getOutputStream();
+        OutputStream dataOutput = __getDataOutputStream(socket);
+        OutputStream output = dataOutput;
         if (__fileType == ASCII_FILE_TYPE) {
             // We buffer ascii transfers because the buffering has to
             // be interposed between ToNetASCIIOutputSream and the underlying
@@ -748,6 +830,9 @@ implements Configurable
             output = new ToNetASCIIOutputStream(output);
 
         }
+        if (dataOutput instanceof BlockModeOutputStream) {
+            return __blockModeDataOutputStream(socket, output, (BlockModeOutputStream) dataOutput);
+        }
         return new org.apache.commons.net.io.SocketOutputStream(socket, output);
     }
 
@@ -825,11 +910,43 @@ implements Configurable
     protected Socket _openDataConnection_(String command, String arg)
     throws IOException
     {
+        __dataConnectionReused = false;
         if (__dataConnectionMode != ACTIVE_LOCAL_DATA_CONNECTION_MODE &&
                 __dataConnectionMode != PASSIVE_LOCAL_DATA_CONNECTION_MODE) {
             return null;
         }
 
+        if (__blockModeDataSocket != null) {
+            Socket socket = __blockModeDataSocket;
+            __blockModeDataSocket = null;
+            if (__fileTransferMode == BLOCK_TRANSFER_MODE && __isKeptDataConnectionUsable(socket)) {
+                if ((__restartOffset > 0) && !restart(__restartOffset)) {
+                    __blockModeDataSocket = socket;
+                    return null;
+                }
+                int reply = sendCommand(command, arg);
+                if (FTPReply.isPositivePreliminary(reply)) {
+                    __blockModeReuseSupported = Boolean.TRUE;
+                    __dataConnectionReused = true;
+                    __dataConnectionMetrics.connectionReused();
+                    return socket;
+                }
+                if (reply != FTPReply.CANNOT_OPEN_DATA_CONNECTION && reply != FTPReply.TRANSFER_ABORTED) {
+                    // The command itself was refused (e.g. no such file); the connection is still usable
+                    __blockModeDataSocket = socket;
+                    return null;
+                }
+                // The server expects a new data connection for every transfer, so
+                // MODE B framing costs without saving anything: revert to stream mode
+                logger.debug("Server does not reuse MODE B data connections: {}", getReplyString());
+                __blockModeReuseSupported = Boolean.FALSE;
+                if (FTPReply.isPositiveCompletion(mode(STREAM_TRANSFER_MODE))) {
+                    __fileTransferMode = STREAM_TRANSFER_MODE;
+                }
+            }
+            Util.closeQuietly(socket);
+        }
+
         final boolean isInet6Address = getRemoteAddress() instanceof Inet6Address;
 
         Socket socket;
@@ -899,47 +1016,32 @@ implements Configurable
             // and the client is coming from another internal network.
             // In that case the data connection after PASV command would fail,
             // while EPSV would make the client succeed by taking just the port.
-            boolean attemptEPSV = isUseEPSVwithIPv4() || isInet6Address;
-            if (attemptEPSV && epsv() == FTPReply.ENTERING_EPSV_MODE)
-            {
-                _parseExtendedPassiveModeReply(_replyLines.get(0));
-            }
-            else
+            boolean attemptEPSV = __isAttemptEPSV();
+            socket = __takePreparedDataSocket();
+            if (socket == null)
             {
-                if (isInet6Address) {
-                    return null; // Must use EPSV for IPV6
+                if (__speculativeDataConnections && __pipeliningSupported == null) {
+                    // Probe now, while no reply is outstanding, so that completePendingCommand can pipeline
+                    isPipeliningSupported();
                 }
-                // If EPSV failed on IPV4, revert to PASV
-                if (pasv() != FTPReply.ENTERING_PASSIVE_MODE) {
-                    return null;
+                if (attemptEPSV && __enterExtendedPassiveMode())
+                {
+                    _parseExtendedPassiveModeReply(_replyLines.get(0));
                 }
-                _parsePassiveModeReply(_replyLines.get(0));
-            }
-
-            socket = _socketFactory_.createSocket();
-            if (__receiveDataSocketBufferSize > 0) {
-                logger.debug("Setting receiveDataSocketBufferSize to: {}", __receiveDataSocketBufferSize);                
-                socket.setReceiveBufferSize(__receiveDataSocketBufferSize);
-            }
-            if (__sendDataSocketBufferSize > 0) {
-                logger.debug("Setting sendDataSocketBufferSize to: {}", __sendDataSocketBufferSize);                
-                socket.setSendBufferSize(__sendDataSocketBufferSize);
-            }
-            if (__passiveLocalHost != null) {
-                logger.debug("Binding socket to passiveLocalHost: {}", __passiveLocalHost);
-                socket.bind(new InetSocketAddress(__passiveLocalHost, 0));
-            }
-
-            // For now, let's just use the data timeout value for waiting for
-            // the data connection.  It may be desirable to let this be a
-            // separately configurable value.  In any case, we really want
-            // to allow preventing the accept from blocking indefinitely.
-            if (__dataTimeout >= 0) {
-                socket.setSoTimeout(__dataTimeout);
+                else
+                {
+                    if (isInet6Address) {
+                        return null; // Must use EPSV for IPV6
+                    }
+                    // If EPSV failed on IPV4, revert to PASV
+                    if (pasv() != FTPReply.ENTERING_PASSIVE_MODE) {
+                        return null;
+                    }
+                    _parsePassiveModeReply(_replyLines.get(0));
+                }
+                socket = __connectPassiveDataSocket();
             }
 
-            logger.debug("Connecting to host: {} on port {} ", __passiveHost, __passivePort);
-            socket.connect(new InetSocketAddress(__passiveHost, __passivePort), connectTimeout);
             if ((__restartOffset > 0) && !restart(__restartOffset))
             {
                 socket.close();
@@ -962,22 +1064,404 @@ implements Configurable
                     " is not same as server " + getRemoteAddress().getHostAddress());
         }
 
+        __dataConnectionMetrics.connectionOpened();
+        return socket;
+    }
+
+    /**
+     * Create and connect the socket for a passive data connection to the
+     * address given in the last PASV/EPSV reply.
+     */
+    private Socket __connectPassiveDataSocket() throws IOException
+    {
+        Socket socket = _socketFactory_.createSocket();
+        if (__receiveDataSocketBufferSize > 0) {
+            logger.debug("Setting receiveDataSocketBufferSize to: {}", __receiveDataSocketBufferSize);                
+            socket.setReceiveBufferSize(__receiveDataSocketBufferSize);
+        }
+        if (__sendDataSocketBufferSize > 0) {
+            logger.debug("Setting sendDataSocketBufferSize to: {}", __sendDataSocketBufferSize);                
+            socket.setSendBufferSize(__sendDataSocketBufferSize);
+        }
+        if (__passiveLocalHost != null) {
+            logger.debug("Binding socket to passiveLocalHost: {}", __passiveLocalHost);
+            socket.bind(new InetSocketAddress(__passiveLocalHost, 0));
+        }
+
+        // For now, let's just use the data timeout value for waiting for
+        // the data connection.  It may be desirable to let this be a
+        // separately configurable value.  In any case, we really want
+        // to allow preventing the accept from blocking indefinitely.
+        if (__dataTimeout >= 0) {
+            socket.setSoTimeout(__dataTimeout);
+        }
+
+        logger.debug("Connecting to host: {} on port {} ", __passiveHost, __passivePort);
+        socket.connect(new InetSocketAddress(__passiveHost, __passivePort), connectTimeout);
+        return socket;
+    }
+
+    /*
+     * Take the SYST and FEAT results from the discovery cache, if enabled and
+     * fresh, so that they are not queried again on this connection.
+     */
+    private void __applyCachedDiscovery()
+    {
+        if (__discoveryCacheTimeToLive <= 0) {
+            return;
+        }
+        ServerDiscovery discovery = ServerDiscovery.forServer(__connectionRemoteHost, getRemotePort());
+        if (discovery == null) {
+            return;
+        }
+        if (discovery.getSystemType() != null) {
+            __systemName = discovery.getSystemType();
+        }
+        if (discovery.getFeatures() != null) {
+            __featuresMap = discovery.getFeatures();
+            __capabilities.setFeatures(__featuresMap);
+        }
+    }
+
+    /**
+     * Query SYST and FEAT now, unless already known, so that the results are
+     * available to later sessions through the discovery cache.
+     *
+     * @throws IOException if an I/O error occurs while sending a command or
+     *      receiving a reply.
+     * @see #setDiscoveryCacheTimeToLive(int)
+     */
+    public void discoverServer() throws IOException
+    {
+        getSystemType();
+        initFeatureMap();
+    }
+
+    /**
+     * Set how long the results of SYST and FEAT are shared with other
+     * connections to the same server (host and port). While they are fresh a
+     * new connection neither sends these commands nor the SYST that parser
+     * auto-detection would otherwise need.
+     *
+     * @param timeToLive in milliseconds; 0 (the default) disables the cache.
+     *      Takes effect from the next connection.
+     */
+    public void setDiscoveryCacheTimeToLive(int timeToLive)
+    {
+        __discoveryCacheTimeToLive = timeToLive;
+    }
+
+    /**
+     * @return how long (ms) SYST and FEAT results are shared; 0 if disabled.
+     */
+    public int getDiscoveryCacheTimeToLive()
+    {
+        return __discoveryCacheTimeToLive;
+    }
+
+    /*
+     * EPSV is required for IPv6. For IPv4 it is tried if enabled, unless the
+     * server is known to refuse it.
+     */
+    private boolean __isAttemptEPSV()
+    {
+        if (getRemoteAddress() instanceof Inet6Address) {
+            return true;
+        }
+        return isUseEPSVwithIPv4() && !Boolean.FALSE.equals(__capabilities.get(ServerCapability.EPSV));
+    }
+
+    /*
+     * Send EPSV and record whether the server accepted it.
+     */
+    private boolean __enterExtendedPassiveMode() throws IOException
+    {
+        int reply = epsv();
+        __recordEpsvReply(reply);
+        return reply == FTPReply.ENTERING_EPSV_MODE;
+    }
+
+    /*
+     * Only a syntax error or an unimplemented command shows the server lacks
+     * EPSV; other failures (e.g. 421, 425) say nothing about it.
+     */
+    private void __recordEpsvReply(int reply)
+    {
+        if (reply == FTPReply.ENTERING_EPSV_MODE) {
+            __capabilities.set(ServerCapability.EPSV, true);
+        } else if (reply == FTPReply.UNRECOGNIZED_COMMAND
+                || reply == FTPReply.SYNTAX_ERROR_IN_ARGUMENTS
+                || reply == FTPReply.COMMAND_NOT_IMPLEMENTED) {
+            __capabilities.set(ServerCapability.EPSV, false);
+        }
+    }
+
+    /**
+     * @return what is known about the capabilities of the connected server.
+     *      The instance is shared by all connections to the same server.
+     */
+    public ServerCapabilities getServerCapabilities()
+    {
+        return __capabilities;
+    }
+
+    /**
+     * Take the data connection prepared by {@link #completePendingCommand()},
+     * if there is one that is still fresh.
+     *
+     * @return the connected socket, or null if a new connection must be
+     *      negotiated.
+     */
+    private Socket __takePreparedDataSocket()
+    {
+        Socket socket = __preparedDataSocket;
+        if (socket == null) {
+            return null;
+        }
+        __preparedDataSocket = null;
+        if (socket.isClosed() || System.currentTimeMillis() - __preparedDataSocketTime > PREPARED_DATA_CONNECTION_MAX_AGE) {
+            Util.closeQuietly(socket);
+            __dataConnectionMetrics.preparedConnectionDiscarded();
+            return null;
+        }
+        __dataConnectionMetrics.preparedConnectionUsed();
         return socket;
     }
 
+    private void __discardPreparedDataSocket()
+    {
+        if (__preparedDataSocket != null) {
+            Util.closeQuietly(__preparedDataSocket);
+            __preparedDataSocket = null;
+            __dataConnectionMetrics.preparedConnectionDiscarded();
+        }
+    }
+
+    /*
+     * Whether completePendingCommand should negotiate the next data connection.
+     * This needs a server known to accept pipelined commands, passive mode and
+     * no other connection waiting to be used.
+     */
+    private boolean __shouldPrepareDataConnection()
+    {
+        return __speculativeDataConnections
+                && __dataConnectionMode == PASSIVE_LOCAL_DATA_CONNECTION_MODE
+                && Boolean.TRUE.equals(__pipeliningSupported)
+                && __preparedDataSocket == null
+                && __blockModeDataSocket == null
+                && __pendingBlockModeDataSocket == null;
+    }
+
+    /*
+     * Read the PASV/EPSV reply sent ahead by completePendingCommand and connect
+     * to the address it gives. A failure to connect only means there is no
+     * prepared connection; protocol errors on the control connection are thrown.
+     */
+    private void __prepareDataConnection(boolean epsv) throws IOException
+    {
+        int reply = getReply();
+        if (epsv) {
+            __recordEpsvReply(reply);
+        }
+        if (epsv && reply == FTPReply.ENTERING_EPSV_MODE) {
+            _parseExtendedPassiveModeReply(_replyLines.get(0));
+        } else if (!epsv && reply == FTPReply.ENTERING_PASSIVE_MODE) {
+            _parsePassiveModeReply(_replyLines.get(0));
+        } else {
+            logger.debug("Speculative passive request refused: {}", getReplyString());
+            return;
+        }
+        try {
+            __preparedDataSocket = __connectPassiveDataSocket();
+            __preparedDataSocketTime = System.currentTimeMillis();
+            __dataConnectionMetrics.connectionPrepared();
+        } catch (IOException e) {
+            logger.debug("Speculative data connection failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the socket returned by the last call to
+     *      {@link #_openDataConnection_(String, String)} is a MODE B data
+     *      connection kept from a previous transfer. Such a socket is already
+     *      initialised (e.g. its TLS handshake is done).
+     */
+    protected boolean isDataConnectionReused()
+    {
+        return __dataConnectionReused;
+    }
+
+    /**
+     * Returns the input stream of a data connection, removing the MODE B
+     * framing if block mode is in use.
+     */
+    private InputStream __getDataInputStream(Socket socket) throws IOException
+    {
+        if (__fileTransferMode == BLOCK_TRANSFER_MODE) {
+            return new BlockModeInputStream(socket.getInputStream());
+        }
+        return socket.getInputStream();
+    }
+
+    /**
+     * Returns the output stream of a data connection, adding the MODE B
+     * framing if block mode is in use.
+     */
+    private OutputStream __getDataOutputStream(Socket socket) throws IOException
+    {
+        if (__fileTransferMode == BLOCK_TRANSFER_MODE) {
+            int blockLength = __bufferSize > 0 ? __bufferSize : BlockModeOutputStream.DEFAULT_BLOCK_LENGTH;
+            return new BlockModeOutputStream(socket.getOutputStream(), blockLength);
+        }
+        return socket.getOutputStream();
+    }
+
+    /**
+     * Finish with a data connection. In MODE B a connection whose data stream
+     * reached the EOF block is held until {@link #completePendingCommand()}
+     * reads a positive transfer reply, and then kept for the next transfer;
+     * otherwise it is closed.
+     *
+     * @param socket the data connection
+     * @param dataStream the stream returned by __getDataInputStream or
+     *      __getDataOutputStream, or null if the transfer failed
+     */
+    private void __releaseDataConnection(Socket socket, Closeable dataStream)
+    {
+        boolean endOfFile = (dataStream instanceof BlockModeInputStream && ((BlockModeInputStream) dataStream).isEndOfFile())
+                || (dataStream instanceof BlockModeOutputStream && ((BlockModeOutputStream) dataStream).isEndOfFile());
+        if (endOfFile && __fileTransferMode == BLOCK_TRANSFER_MODE && !Boolean.FALSE.equals(__blockModeReuseSupported)) {
+            __pendingBlockModeDataSocket = socket;
+            return;
+        }
+        Util.closeQuietly(socket);
+    }
+
+    /**
+     * Keep the MODE B data connection of the transfer that just ended if its
+     * reply was positive; close it otherwise.
+     */
+    private void __settleBlockModeDataConnection(int reply)
+    {
+        Socket socket = __pendingBlockModeDataSocket;
+        if (socket == null) {
+            return;
+        }
+        __pendingBlockModeDataSocket = null;
+        if (FTPReply.isPositiveCompletion(reply) && __fileTransferMode == BLOCK_TRANSFER_MODE) {
+            __blockModeDataSocket = socket;
+        } else {
+            Util.closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Check that a kept MODE B connection can carry another transfer. The
+     * server sends nothing between transfers, so data or the end of the
+     * stream mean it has closed or lost track of the connection.
+     */
+    private boolean __isKeptDataConnectionUsable(Socket socket)
+    {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        int timeout = -1;
+        try {
+            timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            socket.getInputStream().read();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            logger.debug("Kept MODE B data connection failed: {}", e.getMessage());
+            return false;
+        } finally {
+            if (timeout >= 0 && !socket.isClosed()) {
+                try {
+                    socket.setSoTimeout(timeout);
+                } catch (IOException e) {
+                    // The socket is closed below if it cannot be used
+                }
+            }
+        }
+    }
+
+    /**
+     * Wrap the stream returned by {@link #retrieveFileStream(String)} in
+     * MODE B. Closing it after the EOF block leaves the connection to
+     * {@link #completePendingCommand()}; closing it earlier closes the
+     * connection, which aborts the transfer as it would in stream mode.
+     */
+    private InputStream __blockModeDataInputStream(final Socket socket, InputStream input,
+            final BlockModeInputStream dataInput)
+    {
+        return new FilterInputStream(input) {
+            @Override
+            public void close() throws IOException
+            {
+                if (dataInput.isEndOfFile()) {
+                    super.close();
+                    __releaseDataConnection(socket, dataInput);
+                } else {
+                    __releaseDataConnection(socket, null);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap the stream returned by {@link #storeFileStream(String)} in MODE B.
+     * Closing it sends the EOF block and leaves the connection to
+     * {@link #completePendingCommand()}.
+     */
+    private OutputStream __blockModeDataOutputStream(final Socket socket, OutputStream output,
+            final BlockModeOutputStream dataOutput)
+    {
+        return new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException
+            {
+                out.write(buffer, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                try {
+                    out.close();
+                } finally {
+                    __releaseDataConnection(socket, dataOutput);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the counts of data connections opened and reused by this
+     *      client, accumulated across connections to the server.
+     */
+    public DataConnectionMetrics getDataConnectionMetrics()
+    {
+        return __dataConnectionMetrics;
+    }
+
 
     @Override
     protected void _connectAction_() throws IOException
     {
         super._connectAction_(); // sets up _input_ and _output_
         __initDefaults();
+        __capabilities = ServerCapabilities.forServer(__connectionRemoteHost, getRemotePort());
+        __applyCachedDiscovery();
         // must be after super._connectAction_(), because otherwise we get an
         // Exception claiming we're not connected
         if ( __autodetectEncoding )
         {
             ArrayList<String> oldReplyLines = new ArrayList<String> (_replyLines);
             int oldReplyCode = _replyCode;
-            if ( hasFeature("UTF8") || hasFeature("UTF-8")) // UTF8 appears to be the default
+            Boolean utf8 = __capabilities.get(ServerCapability.UTF8);
+            if ( utf8 != null ? utf8.booleanValue() : (hasFeature("UTF8") || hasFeature("UTF-8"))) // UTF8 appears to be the default
             {
                  setControlEncoding("UTF-8");
                  _controlInput_ =
@@ -1021,6 +1505,29 @@ implements Configurable
         __parserFactory = parserFactory;
     }
 
+    /**
+     * Choose between the commons-net regex based listing parsers and the
+     * single pass {@link com.capgemini.ftp.client.apache.parser.FastListEntryParser}
+     * for UNIX and Windows servers. Other system types always use the
+     * commons-net parsers.
+     *
+     * @param enabled true to use the fast parser where possible.
+     */
+    public void setFastListParsing(boolean enabled) {
+        __parserFactory = enabled ? new FastFTPFileEntryParserFactory() : new DefaultFTPFileEntryParserFactory();
+        // Discard the cached parser so the next listing uses the new factory
+        __entryParser = null;
+        __entryParserKey = "";
+    }
+
+    /**
+     * @return true if the fast listing parser is in use.
+     * @see #setFastListParsing(boolean)
+     */
+    public boolean isFastListParsing() {
+        return __parserFactory instanceof FastFTPFileEntryParserFactory;
+    }
+
 
     /**
      * Closes the connection to the FTP server and restores
@@ -1082,7 +1589,7 @@ implements Configurable
         user(username);
 
         if (FTPReply.isPositiveCompletion(_replyCode)) {
-            return true;
+            return __loginCompleted();
         }
 
         // If we get here, we either have an error code, or an intermmediate
@@ -1091,7 +1598,10 @@ implements Configurable
             return false;
         }
 
-        return FTPReply.isPositiveCompletion(pass(password));
+        if (!FTPReply.isPositiveCompletion(pass(password))) {
+            return false;
+        }
+        return __loginCompleted();
     }
 
 
@@ -1118,7 +1628,7 @@ implements Configurable
         user(username);
 
         if (FTPReply.isPositiveCompletion(_replyCode)) {
-            return true;
+            return __loginCompleted();
         }
 
         // If we get here, we either have an error code, or an intermmediate
@@ -1130,14 +1640,31 @@ implements Configurable
         pass(password);
 
         if (FTPReply.isPositiveCompletion(_replyCode)) {
-            return true;
+            return __loginCompleted();
         }
 
         if (!FTPReply.isPositiveIntermediate(_replyCode)) {
             return false;
         }
 
-        return FTPReply.isPositiveCompletion(acct(account));
+        if (!FTPReply.isPositiveCompletion(acct(account))) {
+            return false;
+        }
+        return __loginCompleted();
+    }
+
+    /*
+     * Record a successful login. Features read before it may be incomplete
+     * (or FEAT refused), so they are read again when next needed.
+     */
+    private boolean __loginCompleted()
+    {
+        __loggedIn = true;
+        if (__featuresBeforeLogin) {
+            __featuresMap = null;
+            __featuresBeforeLogin = false;
+        }
+        return true;
     }
 
     /**
@@ -1173,7 +1700,11 @@ implements Configurable
      */
     public boolean changeWorkingDirectory(String pathname) throws IOException
     {
-        return FTPReply.isPositiveCompletion(cwd(pathname));
+        if (!FTPReply.isPositiveCompletion(cwd(pathname))) {
+            return false;
+        }
+        __forgetRelativeListingSizes();
+        return true;
     }
 
 
@@ -1191,7 +1722,25 @@ implements Configurable
      */
     public boolean changeToParentDirectory() throws IOException
     {
-        return FTPReply.isPositiveCompletion(cdup());
+        if (!FTPReply.isPositiveCompletion(cdup())) {
+            return false;
+        }
+        __forgetRelativeListingSizes();
+        return true;
+    }
+
+    /**
+     * Drop the listing sizes recorded for pathnames relative to the previous
+     * working directory.
+     */
+    private void __forgetRelativeListingSizes()
+    {
+        Iterator<String> pathnames = __listingSizes.keySet().iterator();
+        while (pathnames.hasNext()) {
+            if (!pathnames.next().startsWith("/")) {
+                pathnames.remove();
+            }
+        }
     }
 
 
@@ -1668,9 +2217,21 @@ implements Configurable
      */
     public boolean setFileTransferMode(int mode) throws IOException
     {
-        if (FTPReply.isPositiveCompletion(mode(mode)))
+        if (mode == DEFLATE_TRANSFER_MODE && Boolean.FALSE.equals(__capabilities.get(ServerCapability.MODE_Z))) {
+            return false;
+        }
+        boolean accepted = FTPReply.isPositiveCompletion(mode(mode));
+        if (mode == DEFLATE_TRANSFER_MODE) {
+            __capabilities.set(ServerCapability.MODE_Z, accepted);
+        }
+        if (accepted)
         {
             __fileTransferMode = mode;
+            if (mode != BLOCK_TRANSFER_MODE) {
+                // A kept MODE B connection cannot carry stream mode data
+                Util.closeQuietly(__blockModeDataSocket);
+                __blockModeDataSocket = null;
+            }
             return true;
         }
         return false;
@@ -1858,7 +2419,29 @@ implements Configurable
      */
     public boolean completePendingCommand() throws IOException
     {
-        return FTPReply.isPositiveCompletion(getReply());
+        if (!__shouldPrepareDataConnection()) {
+            int reply = __getTransferReply();
+            __settleBlockModeDataConnection(reply);
+            return FTPReply.isPositiveCompletion(reply);
+        }
+
+        // Ask for the next passive address while the transfer reply is still on its way
+        boolean epsv = __isAttemptEPSV();
+        __writeCommand(epsv ? FTPCmd.EPSV.getCommand() : FTPCmd.PASV.getCommand(), null);
+        _controlOutput_.flush();
+        int reply = __getTransferReply();
+
+        // Callers look at the transfer reply, so restore it once the passive reply is read
+        ArrayList<String> replyLines = new ArrayList<String>(_replyLines);
+        try {
+            __prepareDataConnection(epsv);
+        } finally {
+            _replyCode = reply;
+            _replyLines.clear();
+            _replyLines.addAll(replyLines);
+            _newReplyString = true;
+        }
+        return FTPReply.isPositiveCompletion(reply);
     }
 
 
@@ -1899,36 +2482,53 @@ implements Configurable
     protected boolean _retrieveFile(String command, String remote, OutputStream local)
     throws IOException
     {
+        long restartOffset = __restartOffset;
         Socket socket = _openDataConnection_(command, remote);
 
         if (socket == null) {
             return false;
         }
+        boolean reused = __dataConnectionReused;
 
-        InputStream input = getBufferedInputStream(socket.getInputStream());
+        InputStream dataInput = __getDataInputStream(socket);
+        InputStream input = getBufferedInputStream(dataInput);
         if (__fileType == ASCII_FILE_TYPE) {
             input = new FromNetASCIIInputStream(input);
         }
 
-        CSL csl = null;
-        if (__controlKeepAliveTimeout > 0) {
-            csl = new CSL(this, __controlKeepAliveTimeout, __controlKeepAliveReplyTimeout);
-        }
+        __startControlKeepAlive();
 
         // Treat everything else as binary for now
+        boolean copied = false;
+        boolean retry = false;
         try
         {
             Util.copyStream(input, local, getBufferSize(),
-                    CopyStreamEvent.UNKNOWN_STREAM_SIZE, __mergeListeners(csl),
+                    CopyStreamEvent.UNKNOWN_STREAM_SIZE, __copyStreamListener,
                     false);
+            copied = true;
+        } catch (CopyStreamException e) {
+            if (!reused || e.getTotalBytesTransferred() > 0) {
+                throw e;
+            }
+            logger.debug("Kept MODE B data connection failed before any data: {}", e.getMessage());
+            retry = true;
         } finally {
+            __stopControlKeepAlive(); // replies to its NOOPs are read with the transfer reply
             Util.closeQuietly(input);
-            Util.closeQuietly(socket);
-            if (csl != null) {
-                csl.cleanUp(); // fetch any outstanding keepalive replies
+            __releaseDataConnection(socket, dataInput);
+            if (!copied && !retry) {
+                __readRepliesAfterFailedTransfer();
             }
         }
 
+        if (retry) {
+            // Nothing was written to local, so the file can be asked for again on a new connection
+            completePendingCommand();
+            __restartOffset = restartOffset;
+            return _retrieveFile(command, remote, local);
+        }
+
         // Get the transfer response
         boolean ok = completePendingCommand();
         return ok;
@@ -1978,7 +2578,8 @@ implements Configurable
             return null;
         }
 
-        InputStream input = socket.getInputStream();
+        InputStream dataInput = __getDataInputStream(socket);
+        InputStream input = dataInput;
         if (__fileType == ASCII_FILE_TYPE) {
             // We buffer ascii transfers because the buffering has to
             // be interposed between FromNetASCIIOutputSream and the underlying
@@ -1990,6 +2591,9 @@ implements Configurable
             input = getBufferedInputStream(input);
             input = new FromNetASCIIInputStream(input);
         }
+        if (dataInput instanceof BlockModeInputStream) {
+            return __blockModeDataInputStream(socket, input, (BlockModeInputStream) dataInput);
+        }
         return new org.apache.commons.net.io.SocketInputStream(socket, input);
     }
 
@@ -2371,31 +2975,42 @@ implements Configurable
         if (__featuresMap == null) {
             // Don't create map here, because next line may throw exception
             boolean success = FTPReply.isPositiveCompletion(feat());
-            // we init the map here, so we don't keep trying if we know the command will fail
-            __featuresMap = new HashMap<String, Set<String>>();
-            if (!success) {
-                return false;
-            }
-            for (String l : getReplyStrings()) {
-                if (l.startsWith(" ")) { // it's a FEAT entry
-                    String key;
-                    String value="";
-                    int varsep = l.indexOf(' ', 1);
-                    if (varsep > 0) {
-                        key = l.substring(1, varsep);
-                        value = l.substring(varsep+1);
-                    } else {
-                        key = l.substring(1);
-                    }
-                    key = key.toUpperCase(Locale.ENGLISH);
-                    Set<String> entries = __featuresMap.get(key);
-                    if (entries == null) {
-                        entries = new HashSet<String>();
-                        __featuresMap.put(key, entries);
+            HashMap<String, Set<String>> features = new HashMap<String, Set<String>>();
+            if (success) {
+                for (String l : getReplyStrings()) {
+                    if (l.startsWith(" ")) { // it's a FEAT entry
+                        String key;
+                        String value="";
+                        int varsep = l.indexOf(' ', 1);
+                        if (varsep > 0) {
+                            key = l.substring(1, varsep);
+                            value = l.substring(varsep+1);
+                        } else {
+                            key = l.substring(1);
+                        }
+                        key = key.toUpperCase(Locale.ENGLISH);
+                        Set<String> entries = features.get(key);
+                        if (entries == null) {
+                            entries = new HashSet<String>();
+                            features.put(key, entries);
+                        }
+                        entries.add(value);
                     }
-                    entries.add(value);
                 }
             }
+            // we init the map here, so we don't keep trying if we know the command will fail
+            __featuresMap = features;
+            if (!__loggedIn) {
+                // Only shared once the features the logged in user sees are known
+                __featuresBeforeLogin = true;
+                return success;
+            }
+            __capabilities.setFeatures(features);
+            if (__discoveryCacheTimeToLive > 0) {
+                ServerDiscovery.forStoring(__connectionRemoteHost, getRemotePort(), __discoveryCacheTimeToLive)
+                    .setFeatures(features);
+            }
+            return success;
         }
         return true;
     }
@@ -2414,57 +3029,304 @@ implements Configurable
      * @exception IOException  If an I/O error occurs while either sending a
      *      command to the server or receiving a reply from the server.
      */
-    public boolean allocate(int bytes, int recordSize) throws IOException
+    public boolean allocate(int bytes, int recordSize) throws IOException
+    {
+        return FTPReply.isPositiveCompletion(allo(bytes, recordSize));
+    }
+
+
+    /**
+     * Issue a command and wait for the reply.
+     * <p>
+     * Should only be used with commands that return replies on the
+     * command channel - do not use for LIST, NLST, MLSD etc.
+     * <p>
+     * @param command  The command to invoke
+     * @param params  The parameters string, may be {@code null}
+     * @return True if successfully completed, false if not, in which case
+     * call {@link #getReplyCode()} or {@link #getReplyString()}
+     * to get the reason.
+     *
+     * @exception IOException  If an I/O error occurs while either sending a
+     *      command to the server or receiving a reply from the server.
+     * @since 3.0
+     */
+    public boolean doCommand(String command, String params) throws IOException
+    {
+        return FTPReply.isPositiveCompletion(sendCommand(command, params));
+    }
+
+    /**
+     * Issue a command and wait for the reply, returning it as an array of strings.
+     * <p>
+     * Should only be used with commands that return replies on the
+     * command channel - do not use for LIST, NLST, MLSD etc.
+     * <p>
+     * @param command  The command to invoke
+     * @param params  The parameters string, may be {@code null}
+     * @return The array of replies, or {@code null} if the command failed, in which case
+     * call {@link #getReplyCode()} or {@link #getReplyString()}
+     * to get the reason.
+     *
+     * @exception IOException  If an I/O error occurs while either sending a
+     *      command to the server or receiving a reply from the server.
+     * @since 3.0
+     */
+    public String[] doCommandAsStrings(String command, String params) throws IOException
+    {
+        boolean success = FTPReply.isPositiveCompletion(sendCommand(command, params));
+        if (success){
+            return getReplyStrings();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Send a batch of commands that are answered on the control connection
+     * (e.g. SIZE, MDTM, DELE, RNFR/RNTO) and record each reply on its
+     * {@link PipelinedCommand}.
+     * <p>
+     * Where the server tolerates it, up to {@link #getPipelineDepth()} commands
+     * are written before their replies are read, so a batch of N commands costs
+     * roughly N / depth round trips rather than N. Otherwise, or if pipelining
+     * has been disabled, the commands are sent with strict request/response.
+     * <p>
+     * Should only be used with commands that return replies on the
+     * command channel - do not use for LIST, NLST, RETR, STOR etc.
+     *
+     * @param commands the commands to send, in order.
+     * @exception FTPConnectionClosedException
+     *      If the FTP server prematurely closes the connection as a result
+     *      of the client being idle or some other reason causing the server
+     *      to send FTP reply code 421.  This exception may be caught either
+     *      as an IOException or independently as itself.
+     * @exception IOException  If an I/O error occurs while either sending a
+     *      command to the server or receiving a reply from the server.
+     */
+    public void sendPipelined(List<PipelinedCommand> commands) throws IOException
+    {
+        if (commands.size() < 2 || !isPipeliningSupported()) {
+            for (PipelinedCommand command : commands) {
+                int reply = sendCommand(command.getCommand(), command.getArgs());
+                command.setReply(reply, getReplyString());
+            }
+            return;
+        }
+
+        int sent = 0;
+        int received = 0;
+        while (received < commands.size()) {
+            // Top the window up once half of it has been answered, so that
+            // commands go out in batches rather than one write per reply.
+            if (sent < commands.size() && sent - received <= __pipelineDepth / 2) {
+                while (sent < commands.size() && sent - received < __pipelineDepth) {
+                    PipelinedCommand command = commands.get(sent++);
+                    __writeCommand(command.getCommand(), command.getArgs());
+                }
+                _controlOutput_.flush();
+            }
+            PipelinedCommand command = commands.get(received++);
+            int reply = getReply();
+            command.setReply(reply, getReplyString());
+        }
+    }
+
+    /**
+     * Whether the server answers commands that are sent before the reply to
+     * the previous one has been read. The first call probes the server with a
+     * pair of NOOP commands; the result is cached for the session.
+     *
+     * @return {@code true} if commands can be pipelined on this connection.
+     * @throws IOException If an I/O error occurs while probing the server.
+     */
+    public boolean isPipeliningSupported() throws IOException
+    {
+        if (__pipelineDepth <= 1) {
+            return false;
+        }
+        if (__pipeliningSupported == null) {
+            __pipeliningSupported = Boolean.valueOf(__probePipelining());
+            logger.debug("Server pipelining support: {}", __pipeliningSupported);
+        }
+        return __pipeliningSupported.booleanValue();
+    }
+
+    /*
+     * Send two NOOPs back to back. A server that reads one command per packet
+     * (or discards unread input after each reply) never answers the second.
+     * A slow server may still answer it after the probe timeout, so its reply
+     * is waited for with the reply timeout; otherwise every later reply on the
+     * session would be read one command late. A server that never answers
+     * leaves the session out of step, so it is disconnected.
+     */
+    private boolean __probePipelining() throws IOException
+    {
+        __writeCommand(FTPCmd.NOOP.getCommand(), null);
+        __writeCommand(FTPCmd.NOOP.getCommand(), null);
+        _controlOutput_.flush();
+        getReply();
+        int soTimeout = getSoTimeout();
+        setSoTimeout(__pipelineProbeTimeout);
+        try {
+            getReply();
+            return true;
+        } catch (SocketTimeoutException e) {
+            setSoTimeout(soTimeout > 0 ? soTimeout : DEFAULT_PIPELINE_PROBE_DRAIN_TIMEOUT);
+            try {
+                getReply();
+            } catch (SocketTimeoutException late) {
+                disconnect();
+                throw new FTPConnectionClosedException("No reply to the pipelining probe; connection closed.");
+            }
+            return false;
+        } finally {
+            if (isConnected()) {
+                setSoTimeout(soTimeout);
+            }
+        }
+    }
+
+    /**
+     * Sends a command and waits for the reply as {@link FTP#sendCommand(String, String)}
+     * does, reading the reply with a {@link ReplyDecoder} when byte reply
+     * decoding is enabled.
+     */
+    @Override
+    public int sendCommand(String command, String args) throws IOException
+    {
+        if (!__byteReplyDecoding) {
+            return super.sendCommand(command, args);
+        }
+        try {
+            __writeCommand(command, args);
+            _controlOutput_.flush();
+        } catch (SocketException e) {
+            if (!isConnected()) {
+                throw new FTPConnectionClosedException("Connection unexpectedly closed.");
+            }
+            throw e;
+        }
+        __decodeReply(true);
+        return _replyCode;
+    }
+
+    /**
+     * Fetches a reply from the FTP server as {@link FTP#getReply()} does,
+     * reading it with a {@link ReplyDecoder} when byte reply decoding is
+     * enabled.
+     */
+    @Override
+    public int getReply() throws IOException
+    {
+        if (!__byteReplyDecoding) {
+            return super.getReply();
+        }
+        __decodeReply(true);
+        return _replyCode;
+    }
+
+    @Override
+    protected void __getReplyNoReport() throws IOException
+    {
+        if (!__byteReplyDecoding) {
+            super.__getReplyNoReport();
+            return;
+        }
+        __decodeReply(false);
+    }
+
+    /*
+     * Read a reply straight from the control socket. The decoder is replaced
+     * when the socket is, e.g. once TLS has been negotiated; this happens
+     * between replies, so the old decoder must not hold any further bytes.
+     */
+    private void __decodeReply(boolean reportReply) throws IOException
+    {
+        if (__replyDecoder == null || __replyDecoderSocket != _socket_) {
+            if (__replyDecoder != null && __replyDecoder.hasBufferedInput()) {
+                throw new MalformedServerReplyException(
+                        "Unexpected data on the control connection before it was replaced.");
+            }
+            __replyDecoder = new ReplyDecoder(__getReplyInputStream());
+            __replyDecoderSocket = _socket_;
+        }
+        String encoding = getControlEncoding();
+        if (__replyCharset == null || !encoding.equals(__replyEncoding)) {
+            __replyCharset = Charset.forName(encoding);
+            __replyEncoding = encoding;
+        }
+        _newReplyString = true;
+        _replyLines.clear();
+        _replyCode = __replyDecoder.readReply(_replyLines, __replyCharset, isStrictMultilineParsing());
+        if (reportReply) {
+            fireReplyReceived(_replyCode, getReplyString());
+        }
+        if (_replyCode == FTPReply.SERVICE_NOT_AVAILABLE) {
+            throw new FTPConnectionClosedException("FTP response 421 received.  Server closed connection.");
+        }
+    }
+
+    /*
+     * The control socket input, preceded by whatever the commons-net line
+     * reader has buffered beyond the replies it read (e.g. the greeting).
+     */
+    private InputStream __getReplyInputStream() throws IOException
     {
-        return FTPReply.isPositiveCompletion(allo(bytes, recordSize));
+        InputStream input = _socket_.getInputStream();
+        if (_controlInput_ == null || !_controlInput_.ready()) {
+            return input;
+        }
+        StringBuilder pending = new StringBuilder();
+        while (_controlInput_.ready()) {
+            int ch = _controlInput_.read();
+            if (ch < 0) {
+                break;
+            }
+            pending.append((char) ch);
+        }
+        byte[] bytes = pending.toString().getBytes(getControlEncoding());
+        return new SequenceInputStream(new ByteArrayInputStream(bytes), input);
     }
 
-
     /**
-     * Issue a command and wait for the reply.
-     * <p>
-     * Should only be used with commands that return replies on the
-     * command channel - do not use for LIST, NLST, MLSD etc.
-     * <p>
-     * @param command  The command to invoke
-     * @param params  The parameters string, may be {@code null}
-     * @return True if successfully completed, false if not, in which case
-     * call {@link #getReplyCode()} or {@link #getReplyString()}
-     * to get the reason.
+     * Enable or disable reading the replies of the control connection with a
+     * {@link ReplyDecoder}, which decodes them from the socket bytes with
+     * reused buffers instead of through a <code>BufferedReader</code>.
+     * Set it before connecting. Default is false.
      *
-     * @exception IOException  If an I/O error occurs while either sending a
-     *      command to the server or receiving a reply from the server.
-     * @since 3.0
+     * @param byteReplyDecoding true to enable
      */
-    public boolean doCommand(String command, String params) throws IOException
+    public void setByteReplyDecoding(boolean byteReplyDecoding)
     {
-        return FTPReply.isPositiveCompletion(sendCommand(command, params));
+        __byteReplyDecoding = byteReplyDecoding;
     }
 
     /**
-     * Issue a command and wait for the reply, returning it as an array of strings.
-     * <p>
-     * Should only be used with commands that return replies on the
-     * command channel - do not use for LIST, NLST, MLSD etc.
-     * <p>
-     * @param command  The command to invoke
-     * @param params  The parameters string, may be {@code null}
-     * @return The array of replies, or {@code null} if the command failed, in which case
-     * call {@link #getReplyCode()} or {@link #getReplyString()}
-     * to get the reason.
-     *
-     * @exception IOException  If an I/O error occurs while either sending a
-     *      command to the server or receiving a reply from the server.
-     * @since 3.0
+     * @return true if replies are read with a {@link ReplyDecoder}.
      */
-    public String[] doCommandAsStrings(String command, String params) throws IOException
+    public boolean isByteReplyDecoding()
     {
-        boolean success = FTPReply.isPositiveCompletion(sendCommand(command, params));
-        if (success){
-            return getReplyStrings();
-        } else {
-            return null;
+        return __byteReplyDecoding;
+    }
+
+    /*
+     * Write a command to the control connection without flushing it or
+     * waiting for the reply.
+     */
+    private void __writeCommand(String command, String args) throws IOException
+    {
+        if (_controlOutput_ == null) {
+            throw new IOException("Connection is not open");
+        }
+        StringBuilder message = new StringBuilder(command);
+        if (args != null) {
+            message.append(' ').append(args);
         }
+        message.append(NETASCII_EOL);
+        String text = message.toString();
+        _controlOutput_.write(text);
+        fireCommandSent(command, text);
     }
 
     /**
@@ -2477,6 +3339,7 @@ implements Configurable
      */
     public FTPFile mlistFile(String pathname) throws IOException
     {
+        __restoreMlstFacts();
         boolean success = FTPReply.isPositiveCompletion(sendCommand(FTPCmd.MLST, pathname));
         if (success){
             String entry = getReplyStrings()[1].substring(1); // skip leading space for parser
@@ -2760,6 +3623,10 @@ implements Configurable
             if (FTPReply.isPositiveCompletion(syst())) {
                 // Assume that response is not empty here (cannot be null)
                 __systemName = _replyLines.get(_replyLines.size() - 1).substring(4);
+                if (__discoveryCacheTimeToLive > 0) {
+                    ServerDiscovery.forStoring(__connectionRemoteHost, getRemotePort(), __discoveryCacheTimeToLive)
+                        .setSystemType(__systemName);
+                }
             } else {
                 // Check if the user has provided a default for when the SYST command fails
                 String systDefault = System.getProperty(FTP_SYSTEM_TYPE_DEFAULT);
@@ -2876,8 +3743,9 @@ implements Configurable
             return null;
         }
 
+        InputStream input = __getDataInputStream(socket);
         BufferedReader reader =
-            new BufferedReader(new InputStreamReader(socket.getInputStream(), getControlEncoding()));
+            new BufferedReader(new InputStreamReader(input, getControlEncoding()));
 
         ArrayList<String> results = new ArrayList<String>();
         String line;
@@ -2886,7 +3754,7 @@ implements Configurable
         }
 
         reader.close();
-        socket.close();
+        __releaseDataConnection(socket, input);
 
         if (completePendingCommand())
         {
@@ -2924,6 +3792,117 @@ implements Configurable
         return listNames(null);
     }
 
+    /**
+     * @return true if the server supports MLST and MLSD, as learned from any
+     *      connection to it, or from FEAT if not known yet.
+     * @throws IOException
+     */
+    public boolean isMlstSupported() throws IOException
+    {
+        Boolean mlst = __capabilities.get(ServerCapability.MLST);
+        return mlst != null ? mlst.booleanValue() : hasFeature("MLST");
+    }
+
+    /**
+     * Obtain the names of the files in a directory without parsing a LIST
+     * reply.
+     * <p>
+     * If the server supports MLST the listing is read with MLSD, after asking
+     * for the type fact only with <code>OPTS MLST type;</code>. That option is
+     * sent once per connection: the default facts are requested again only
+     * before the next MLSD or MLST that needs them, so repeated name-only
+     * listings cost no extra round trips. The lines are
+     * read into a char buffer kept by this client, so the only objects created
+     * per entry are the returned names.
+     * <p>
+     * NLST cannot tell files from directories, so servers without MLST are
+     * listed with {@link #listFilesMatching(String, ListingFilter)} instead.
+     * <p>
+     * Only the names of regular files are returned.
+     *
+     * @param pathname The directory to list, may be null for the current
+     *      working directory.
+     * @return The list of names, or null if the listing could not be obtained.
+     * @exception IOException  If an I/O error occurs while either sending a
+     *      command to the server or receiving a reply from the server.
+     */
+    public List<String> listFileNames(String pathname) throws IOException
+    {
+        if (!isMlstSupported()) {
+            FTPFile[] files = listFilesMatching(pathname, ListingFilter.files());
+            if (!FTPReply.isPositiveCompletion(getReplyCode())) {
+                return null;
+            }
+            List<String> names = new ArrayList<String>(files.length);
+            for (FTPFile file : files) {
+                names.add(file.getName());
+            }
+            return names;
+        }
+
+        if (!__mlstTypeOnlyRequested) {
+            // The reply does not matter; the type fact is found among all facts as well
+            sendCommand("OPTS", "MLST type;");
+            __mlstTypeOnlyRequested = true;
+        }
+        Socket socket = _openDataConnection_(FTPCmd.MLSD, pathname);
+        if (socket == null) {
+            return null;
+        }
+
+        List<String> names = new ArrayList<String>();
+        InputStream input = null;
+        try {
+            input = __getDataInputStream(socket);
+            NameListReader reader = new NameListReader(
+                    new InputStreamReader(input, getControlEncoding()), __nameListBuffer);
+            while (reader.next()) {
+                String name = reader.getMlsdFileName();
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+            __nameListBuffer = reader.getLineBuffer();
+        }
+        finally {
+            __releaseDataConnection(socket, input);
+        }
+
+        return completePendingCommand() ? names : null;
+    }
+
+    /**
+     * Requests the default MLST facts again if {@link #listFileNames(String)}
+     * left the server sending the type fact only.
+     */
+    private void __restoreMlstFacts() throws IOException
+    {
+        if (__mlstTypeOnlyRequested) {
+            sendCommand("OPTS", "MLST " + __getDefaultMlstFacts());
+            __mlstTypeOnlyRequested = false;
+        }
+    }
+
+    /**
+     * @return the MLST facts the server sends by default, which FEAT marks
+     *      with an asterisk, or {@link #__MLST_ENTRY_FACTS} if FEAT does not
+     *      list them.
+     */
+    private String __getDefaultMlstFacts() throws IOException
+    {
+        String facts = featureValue("MLST");
+        if (facts == null) {
+            return __MLST_ENTRY_FACTS;
+        }
+        StringBuilder defaults = new StringBuilder();
+        for (String fact : facts.split(";")) {
+            if (fact.endsWith("*")) {
+                defaults.append(fact, 0, fact.length() - 1).append(';');
+            }
+        }
+        return defaults.length() > 0 ? defaults.toString() : __MLST_ENTRY_FACTS;
+    }
+
 
 
     /**
@@ -3042,6 +4021,164 @@ implements Configurable
 
     }
 
+    /**
+     * Version of {@link #listFiles(String, FTPFileFilter)} which applies the
+     * filter as early as the parser allows.
+     * <p>
+     * With the {@link FastListEntryParser} (see {@link #setFastListParsing(boolean)})
+     * each line is scanned and tested against the filter before an FTPFile is
+     * built, so entries that are filtered out are never constructed or retained.
+     * Other parsers build every entry and filter afterwards.
+     * <p>
+     * If the filter asks for it, its glob is appended to the pathname and sent
+     * to the server as the LIST argument.
+     *
+     * @param pathname the initial path, may be null
+     * @param filter the filter, non-null
+     * @return the list of FTPFile entries accepted by the filter.
+     * @throws IOException
+     */
+    public FTPFile[] listFilesMatching(String pathname, ListingFilter filter)
+    throws IOException
+    {
+        String listPathname = pathname;
+        String serverGlob = filter.getServerGlob();
+        if (serverGlob != null) {
+            listPathname = pathname == null ? serverGlob : pathname + "/" + serverGlob;
+        }
+
+        FTPFileEntryParser parser = __getEntryParser(null);
+        List<FTPFile> files = new ArrayList<FTPFile>();
+        int entries = 0;
+        if (!(parser instanceof FastListEntryParser)) {
+            for (FTPFile file : initiateListParsing(parser, listPathname).getFiles()) {
+                entries++;
+                if (filter.accept(file)) {
+                    files.add(file);
+                }
+            }
+            __listingSizes.put(String.valueOf(listPathname), Integer.valueOf(entries));
+            return files.toArray(new FTPFile[files.size()]);
+        }
+
+        Socket socket = _openDataConnection_(FTPCmd.LIST, getListArguments(listPathname));
+        if (socket == null)
+        {
+            return new FTPFile[0];
+        }
+
+        InputStream input = null;
+        try {
+            input = __getDataInputStream(socket);
+            FastListEntryParser fastParser = (FastListEntryParser) parser;
+            RawListEntry entry = new RawListEntry();
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(input, getControlEncoding()));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (fastParser.scan(line, entry)) {
+                    entries++;
+                    if (filter.accept(entry)) {
+                        files.add(entry.toFTPFile());
+                    }
+                }
+            }
+        }
+        finally {
+            __releaseDataConnection(socket, input);
+        }
+
+        completePendingCommand();
+        __listingSizes.put(String.valueOf(listPathname), Integer.valueOf(entries));
+        return files.toArray(new FTPFile[files.size()]);
+    }
+
+    /**
+     * Version of {@link #listFilesMatching(String, ListingFilter)} which reads
+     * the listing from the reply to <code>STAT pathname</code> on the control
+     * connection, saving the data connection (and for FTPS its TLS handshake).
+     * <p>
+     * STAT is only used while it is worthwhile: if the server did not return a
+     * listing for an earlier STAT on this connection, or the last listing of
+     * the same pathname had more entries than {@link #setStatListingMaxEntries(int)},
+     * null is returned and the caller should use LIST instead. Only a reply
+     * refusing the command (500, 501 or 502) marks STAT as unsupported; other
+     * failures, e.g. 550 for a missing directory, return null for this call
+     * only. Until a STAT reply has parsed as a listing on this connection,
+     * null is also returned when none of its lines parses as an entry, as the
+     * reply is then not known to be a listing; once one has, such a reply is
+     * an empty directory.
+     *
+     * @param pathname the directory to list, may be null for the current
+     *      working directory
+     * @param filter the filter, non-null
+     * @return the list of FTPFile entries accepted by the filter, or null if
+     *      the listing should be obtained with LIST.
+     * @throws IOException
+     */
+    public FTPFile[] statListFiles(String pathname, ListingFilter filter)
+    throws IOException
+    {
+        String listPathname = pathname;
+        String serverGlob = filter.getServerGlob();
+        if (serverGlob != null) {
+            listPathname = pathname == null ? serverGlob : pathname + "/" + serverGlob;
+        }
+
+        Integer lastSize = __listingSizes.get(String.valueOf(listPathname));
+        if (Boolean.FALSE.equals(__statListingSupported)
+                || (lastSize != null && lastSize.intValue() > __statListingMaxEntries)) {
+            return null;
+        }
+
+        FTPFileEntryParser parser = __getEntryParser(null);
+        // Without an argument STAT reports the session status rather than a listing
+        int reply = stat(listPathname == null ? "." : listPathname);
+        if (!FTPReply.isPositiveCompletion(reply)) {
+            if (reply == FTPReply.UNRECOGNIZED_COMMAND
+                    || reply == FTPReply.SYNTAX_ERROR_IN_ARGUMENTS
+                    || reply == FTPReply.COMMAND_NOT_IMPLEMENTED) {
+                __statListingSupported = Boolean.FALSE;
+            }
+            return null;
+        }
+
+        // The first and last lines carry the reply code, the lines in between are the listing
+        String[] lines = getReplyStrings();
+        List<FTPFile> files = new ArrayList<FTPFile>();
+        int entries = 0;
+        RawListEntry entry = new RawListEntry();
+        for (int i = 1; i < lines.length - 1; i++) {
+            String line = lines[i];
+            if (line.length() > 0 && line.charAt(0) == ' ') {
+                line = line.substring(1);
+            }
+            if (parser instanceof FastListEntryParser) {
+                if (((FastListEntryParser) parser).scan(line, entry)) {
+                    entries++;
+                    if (filter.accept(entry)) {
+                        files.add(entry.toFTPFile());
+                    }
+                }
+            } else {
+                FTPFile file = parser.parseFTPEntry(line);
+                if (file != null) {
+                    entries++;
+                    if (filter.accept(file)) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+
+        if (entries == 0 && !Boolean.TRUE.equals(__statListingSupported)) {
+            return null;
+        }
+        __statListingSupported = Boolean.TRUE;
+        __listingSizes.put(String.valueOf(listPathname), Integer.valueOf(entries));
+        return files.toArray(new FTPFile[files.size()]);
+    }
+
     /**
      * Using the default system autodetect mechanism, obtain a
      * list of directories contained in the current working directory.
@@ -3276,6 +4413,15 @@ implements Configurable
     public FTPListParseEngine initiateListParsing(
             String parserKey, String pathname)
     throws IOException
+    {
+        return initiateListParsing(__getEntryParser(parserKey), pathname);
+    }
+
+    /**
+     * Resolve the entry parser for the given key, the configuration or the
+     * SYST reply, in that order.
+     */
+    private FTPFileEntryParser __getEntryParser(String parserKey) throws IOException
     {
         // We cache the value to avoid creation of a new object every
         // time a file listing is generated.
@@ -3316,8 +4462,7 @@ implements Configurable
             }
         }
 
-        return initiateListParsing(__entryParser, pathname);
-
+        return __entryParser;
     }
 
     /**
@@ -3346,11 +4491,13 @@ implements Configurable
             return engine;
         }
 
+        InputStream input = null;
         try {
-            engine.readServerList(socket.getInputStream(), getControlEncoding());
+            input = __getDataInputStream(socket);
+            engine.readServerList(input, getControlEncoding());
         }
         finally {
-            Util.closeQuietly(socket);
+            __releaseDataConnection(socket, input);
         }
 
         completePendingCommand();
@@ -3366,6 +4513,7 @@ implements Configurable
      */
     private FTPListParseEngine initiateMListParsing(String pathname) throws IOException
     {
+        __restoreMlstFacts();
         Socket socket = _openDataConnection_(FTPCmd.MLSD, pathname);
         FTPListParseEngine engine = new FTPListParseEngine(MLSxEntryParser.getInstance());
         if (socket == null)
@@ -3373,11 +4521,13 @@ implements Configurable
             return engine;
         }
 
+        InputStream input = null;
         try {
-            engine.readServerList(socket.getInputStream(), getControlEncoding());
+            input = __getDataInputStream(socket);
+            engine.readServerList(input, getControlEncoding());
         }
         finally {
-            Util.closeQuietly(socket);
+            __releaseDataConnection(socket, input);
             completePendingCommand();
         }
         return engine;
@@ -3672,6 +4822,81 @@ implements Configurable
         return __controlKeepAliveReplyTimeout;
     }
 
+    /**
+     * Set the maximum number of commands that {@link #sendPipelined(List)}
+     * sends before reading their replies.
+     *
+     * @param depth the pipeline depth; 1 or less disables pipelining.
+     */
+    public void setPipelineDepth(int depth) {
+        __pipelineDepth = depth;
+    }
+
+    /**
+     * @return the maximum number of outstanding pipelined commands.
+     */
+    public int getPipelineDepth() {
+        return __pipelineDepth;
+    }
+
+    /**
+     * Set how long to wait for the second reply when probing whether the
+     * server supports pipelined commands.
+     *
+     * @param timeout number of milliseconds to wait (defaults to 2000)
+     */
+    public void setPipelineProbeTimeout(int timeout) {
+        __pipelineProbeTimeout = timeout;
+    }
+
+    /**
+     * Set the largest directory, in entries, for which {@link #statListFiles(String, ListingFilter)}
+     * is used. Beyond this size a data connection is cheaper than a long
+     * reply on the control connection.
+     *
+     * @param maxEntries the maximum number of entries (defaults to 200)
+     */
+    public void setStatListingMaxEntries(int maxEntries) {
+        __statListingMaxEntries = maxEntries;
+    }
+
+    /**
+     * @return the largest directory, in entries, listed with STAT.
+     */
+    public int getStatListingMaxEntries() {
+        return __statListingMaxEntries;
+    }
+
+    /**
+     * Enable or disable speculative data connections. When enabled (and the
+     * server accepts pipelined commands), {@link #completePendingCommand()}
+     * sends PASV/EPSV before the reply to the finished transfer has arrived
+     * and connects to the returned address, so that the next passive transfer
+     * only has to send its command. For FTPS only the TCP connection is
+     * prepared; the TLS handshake still follows the transfer command.
+     * <p>
+     * A prepared connection that is not used within
+     * {@link #PREPARED_DATA_CONNECTION_MAX_AGE} milliseconds, or at all, is
+     * closed. This is intended for batches of transfers; for single transfers
+     * it costs an unused passive connection.
+     *
+     * @param enabled true to prepare the next data connection.
+     */
+    public void setSpeculativeDataConnections(boolean enabled) {
+        __speculativeDataConnections = enabled;
+        if (!enabled) {
+            __discardPreparedDataSocket();
+        }
+    }
+
+    /**
+     * @return true if data connections are prepared speculatively.
+     * @see #setSpeculativeDataConnections(boolean)
+     */
+    public boolean isSpeculativeDataConnections() {
+        return __speculativeDataConnections;
+    }
+
     /**
      * Enable or disable passive mode NAT workaround.
      * If enabled, a site-local PASV mode reply address will be replaced with the
@@ -3702,74 +4927,181 @@ implements Configurable
         return new BufferedInputStream(inputStream);
     }
 
-    // @since 3.0
-    private static class CSL implements CopyStreamListener {
-
-        private final EnhancedFTPClient parent;
-        private final long idle;
-        private final int currentSoTimeout;
-
-        private long time = System.currentTimeMillis();
-        private int notAcked;
+    /*
+     * Have the KeepAliveScheduler write a NOOP on the control connection every
+     * keep-alive interval until __stopControlKeepAlive(). Only the writes
+     * happen on the scheduler thread; the replies are counted and read by
+     * __getTransferReply() on the thread that owns the session.
+     */
+    private void __startControlKeepAlive()
+    {
+        if (__controlKeepAliveTimeout <= 0) {
+            return;
+        }
+        synchronized (__keepAliveLock) {
+            __keepAliveActive = true;
+        }
+        __keepAliveTask = KeepAliveScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                __sendControlKeepAlive();
+            }
+        }, __controlKeepAliveTimeout);
+    }
 
-        CSL(EnhancedFTPClient parent, long idleTime, int maxWait) throws SocketException {
-            this.idle = idleTime;
-            this.parent = parent;
-            this.currentSoTimeout = parent.getSoTimeout();
-            parent.setSoTimeout(maxWait);
+    private void __sendControlKeepAlive()
+    {
+        synchronized (__keepAliveLock) {
+            if (!__keepAliveActive) {
+                return;
+            }
+            try {
+                __writeCommand(FTPCmd.NOOP.getCommand(), null);
+                _controlOutput_.flush();
+                __keepAliveRepliesPending++;
+                __keepAlivesSent++;
+            } catch (IOException e) {
+                // the transfer will fail on its own if the connection is gone
+                logger.debug("Control keep-alive failed: {}", e.getMessage());
+                __keepAliveActive = false;
+            }
         }
+    }
 
-//        @Override
-        public void bytesTransferred(CopyStreamEvent event) {
-            bytesTransferred(event.getTotalBytesTransferred(), event.getBytesTransferred(), event.getStreamSize());
+    /*
+     * After this returns no keep-alive NOOP is being or will be written.
+     */
+    private void __stopControlKeepAlive()
+    {
+        if (__keepAliveTask == null) {
+            return;
+        }
+        __keepAliveTask.cancel(false);
+        __keepAliveTask = null;
+        synchronized (__keepAliveLock) {
+            __keepAliveActive = false;
         }
+    }
 
-//        @Override
-        public void bytesTransferred(long totalBytesTransferred,
-                int bytesTransferred, long streamSize) {
-            long now = System.currentTimeMillis();
-            if (now - time > idle) {
+    /*
+     * Read the reply to a transfer command along with the replies to the
+     * keep-alive NOOPs sent during the transfer. Servers answer the NOOPs
+     * either during the transfer or after the transfer reply, so 200 replies
+     * are passed over until the transfer reply (never 200) arrives and the
+     * remaining ones are read after it. _replyCode and _replyLines are left
+     * with the transfer reply.
+     */
+    private int __getTransferReply() throws IOException
+    {
+        int pending;
+        synchronized (__keepAliveLock) {
+            pending = __keepAliveRepliesPending;
+            __keepAliveRepliesPending = 0;
+        }
+        try {
+            int reply = getReply();
+            while (pending > 0 && reply == FTPReply.COMMAND_OK) {
+                pending--;
+                reply = getReply();
+            }
+            if (pending > 0) {
+                ArrayList<String> replyLines = new ArrayList<String>(_replyLines);
                 try {
-                    parent.__noop();
-                } catch (SocketTimeoutException e) {
-                    notAcked++;
-                } catch (IOException e) {
+                    while (pending > 0) {
+                        __getReplyNoReport();
+                        pending--;
+                    }
+                } finally {
+                    _replyCode = reply;
+                    _replyLines.clear();
+                    _replyLines.addAll(replyLines);
+                    _newReplyString = true;
                 }
-                time = now;
             }
+            return reply;
+        } catch (IOException e) {
+            if (pending > 0) {
+                // Unread NOOP replies would be taken for the replies to later commands
+                logger.debug("Keep-alive replies left unread, disconnecting: {}", e.getMessage());
+                __disconnectQuietly();
+            }
+            throw e;
         }
+    }
 
-        void cleanUp() throws IOException {
+    /*
+     * After a failed transfer, read its reply along with the replies to the
+     * keep-alive NOOPs sent during it, as completePendingCommand does, so that
+     * they are not taken for the replies to later commands. The data
+     * connection is closed by then, so the server ends the transfer; if the
+     * replies do not arrive within the keep-alive reply timeout the session
+     * is disconnected.
+     */
+    private void __readRepliesAfterFailedTransfer()
+    {
+        synchronized (__keepAliveLock) {
+            if (__keepAliveRepliesPending == 0) {
+                return;
+            }
+        }
+        try {
+            int soTimeout = getSoTimeout();
+            setSoTimeout(__controlKeepAliveReplyTimeout);
             try {
-                while(notAcked-- > 0) {
-                    parent.__getReplyNoReport();
-                }
+                __getTransferReply();
             } finally {
-                parent.setSoTimeout(currentSoTimeout);
+                if (isConnected()) {
+                    setSoTimeout(soTimeout);
+                }
             }
+        } catch (IOException e) {
+            logger.debug("Failed to read the replies of a failed transfer: {}", e.getMessage());
+            __disconnectQuietly();
         }
+    }
 
+    private void __disconnectQuietly()
+    {
+        try {
+            disconnect();
+        } catch (IOException e) {
+            // the connection is being dropped anyway
+        }
     }
 
     /**
-     * Merge two copystream listeners, either or both of which may be null.
+     * Send a NOOP to keep an idle session alive, waiting at most the
+     * control keep-alive reply timeout for the reply. Must not be called
+     * while a transfer is in progress.
      *
-     * @param local the listener used by this class, may be null
-     * @return a merged listener or a single listener or null
-     * @since 3.0
+     * @return true if the server answered the NOOP.
+     * @see #setControlKeepAliveReplyTimeout(int)
      */
-    private CopyStreamListener __mergeListeners(CopyStreamListener local) {
-        if (local == null) {
-            return __copyStreamListener;
+    public boolean sendIdleKeepAlive()
+    {
+        try {
+            int soTimeout = getSoTimeout();
+            setSoTimeout(__controlKeepAliveReplyTimeout);
+            try {
+                return sendNoOp();
+            } finally {
+                setSoTimeout(soTimeout);
+            }
+        } catch (IOException e) {
+            logger.debug("Idle keep-alive failed: {}", e.getMessage());
+            return false;
         }
-        if (__copyStreamListener == null) {
-            return local;
+    }
+
+    /**
+     * @return the number of keep-alive NOOPs sent during transfers on this
+     *      client.
+     */
+    public long getControlKeepAlivesSent()
+    {
+        synchronized (__keepAliveLock) {
+            return __keepAlivesSent;
         }
-        // Both are non-null
-        CopyStreamAdapter merged = new CopyStreamAdapter();
-        merged.addCopyStreamListener(local);
-        merged.addCopyStreamListener(__copyStreamListener);
-        return merged;
     }
 
     /**
@@ -3837,7 +5169,7 @@ implements Configurable
      *  The remote hostname or IP address on which the connection was originally
      *  made.
      */
-    protected String getConnectionRemoteHost() {
+    public String getConnectionRemoteHost() {
         return __connectionRemoteHost;
     }   
     
@@ -608,6 +608,10 @@ public class EnhancedFTPSClient extends EnhancedFTPClient {
     protected Socket _openDataConnection_(String command, String arg)
             throws IOException {
         Socket socket = super._openDataConnection_(command, arg);
+        if (isDataConnectionReused()) {
+            // A kept MODE B connection has completed its handshake already
+            return socket;
+        }
         _prepareDataSocket_(socket);
         if (socket instanceof SSLSocket) {
             SSLSocket sslSocket = (SSLSocket)socket;
@@ -0,0 +1,58 @@
+package com.capgemini.ftp.client.apache.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The responsibility of this class is to run the control connection
+ * keep-alive tasks of all FTP sessions on one background thread, so that
+ * neither the data copy loop of a transfer nor a pooled session waiting to
+ * be borrowed has to do it itself.
+ * <p>
+ * Tasks must be short; they send a NOOP and return without waiting for its
+ * reply, or hand blocking work to a thread of their own. The thread is a
+ * daemon and does not keep the JVM alive.
+ */
+public final class KeepAliveScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(KeepAliveScheduler.class);
+
+	private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "ftp-keep-alive");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private KeepAliveScheduler() {
+	}
+
+	/**
+	 * Run a task every interval until it is cancelled through the returned
+	 * future. The first run is one interval from now.
+	 * 
+	 * @param interval
+	 *            in milliseconds.
+	 */
+	public static ScheduledFuture<?> schedule(final Runnable task, long interval) {
+		return executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// not rethrown, as that would stop the task being run again
+					logger.warn("Keep-alive task failed", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+}
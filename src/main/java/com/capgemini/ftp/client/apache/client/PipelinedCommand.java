@@ -0,0 +1,84 @@
+package com.capgemini.ftp.client.apache.client;
+
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPReply;
+
+/**
+ * The responsibility of this class is to hold a single control channel
+ * command that is sent as part of a pipelined batch, together with the reply
+ * the server gave to it.
+ * <p>
+ * Instances are filled in by
+ * {@link EnhancedFTPClient#sendPipelined(java.util.List)} and must not be
+ * reused across batches.
+ */
+public class PipelinedCommand {
+
+	private static final int REPLY_CODE_LEN = 3;
+
+	private final String command;
+
+	private final String args;
+
+	private int replyCode = -1;
+
+	private String replyString;
+
+	public PipelinedCommand(FTPCmd command, String args) {
+		this(command.getCommand(), args);
+	}
+
+	public PipelinedCommand(String command, String args) {
+		this.command = command;
+		this.args = args;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public String getArgs() {
+		return args;
+	}
+
+	/**
+	 * @return the reply code, or -1 if no reply has been received yet.
+	 */
+	public int getReplyCode() {
+		return replyCode;
+	}
+
+	/**
+	 * @return the full reply text including the reply code, or null if no
+	 *         reply has been received yet.
+	 */
+	public String getReplyString() {
+		return replyString;
+	}
+
+	/**
+	 * @return the reply text following the reply code and separator, with
+	 *         surrounding white space removed, or null if no reply has been
+	 *         received yet.
+	 */
+	public String getReplyText() {
+		if (replyString == null || replyString.length() <= REPLY_CODE_LEN) {
+			return null;
+		}
+		return replyString.substring(REPLY_CODE_LEN + 1).trim();
+	}
+
+	public boolean isPositiveCompletion() {
+		return FTPReply.isPositiveCompletion(replyCode);
+	}
+
+	void setReply(int replyCode, String replyString) {
+		this.replyCode = replyCode;
+		this.replyString = replyString;
+	}
+
+	@Override
+	public String toString() {
+		return args == null ? command : command + " " + args;
+	}
+}
@@ -0,0 +1,235 @@
+package com.capgemini.ftp.client.apache.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.commons.net.MalformedServerReplyException;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+
+/**
+ * The responsibility of this class is to read the replies of the control
+ * connection straight from its bytes, in place of the
+ * <code>BufferedReader</code> that commons-net reads them through.
+ * <p>
+ * The bytes are read in chunks into a buffer and each line is collected in a
+ * line buffer; both are kept for the life of the connection. The reply code
+ * and the continuation of a multi-line reply are decided on the bytes, so the
+ * only objects created per reply are the Strings of its lines, which the
+ * client exposes through <code>getReplyStrings()</code>. As with the
+ * commons-net <code>CRLFLineReader</code> a line ends at CRLF only.
+ * <p>
+ * The static methods parse the address tuples of PASV and EPSV replies
+ * without regular expressions. Instances are not thread safe.
+ */
+public class ReplyDecoder {
+
+	private static final int REPLY_CODE_LEN = 3;
+
+	private static final int MAX_TUPLE_DIGITS = 3;
+
+	private static final int BUFFER_SIZE = 4096;
+
+	private static final byte CR = '\r';
+
+	private static final byte LF = '\n';
+
+	private final InputStream input;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private int position;
+
+	private int limit;
+
+	private byte[] line = new byte[256];
+
+	private int length;
+
+	public ReplyDecoder(InputStream input) {
+		this.input = input;
+	}
+
+	/**
+	 * The goal of this method is to read a complete reply, following the
+	 * continuation lines of a multi-line reply.
+	 *
+	 * @param lines
+	 *            receives the lines of the reply, without line terminators.
+	 * @param charset
+	 *            the control encoding.
+	 * @param strict
+	 *            true to end a multi-line reply only at a line starting with
+	 *            the same reply code followed by a space, as with
+	 *            <code>setStrictMultilineParsing(true)</code>.
+	 * @return the reply code.
+	 */
+	public int readReply(List<String> lines, Charset charset, boolean strict) throws IOException {
+		if (!readLine()) {
+			throw new FTPConnectionClosedException("Connection closed without indication.");
+		}
+		String first = new String(line, 0, length, charset);
+		if (length < REPLY_CODE_LEN) {
+			throw new MalformedServerReplyException("Truncated server reply: " + first);
+		}
+		int code = 0;
+		for (int i = 0; i < REPLY_CODE_LEN; i++) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new MalformedServerReplyException("Could not parse response code.\nServer Reply: " + first);
+			}
+			code = code * 10 + digit;
+		}
+		lines.add(first);
+		if (length > REPLY_CODE_LEN && line[REPLY_CODE_LEN] == '-') {
+			byte c0 = line[0];
+			byte c1 = line[1];
+			byte c2 = line[2];
+			do {
+				if (!readLine()) {
+					throw new FTPConnectionClosedException("Connection closed without indication.");
+				}
+				lines.add(new String(line, 0, length, charset));
+			} while (strict ? !isLastLine(c0, c1, c2) : !isLastLineLenient());
+		}
+		return code;
+	}
+
+	/**
+	 * @return true if bytes beyond the last reply have been read from the
+	 *         stream; they are lost if the decoder is replaced.
+	 */
+	public boolean hasBufferedInput() {
+		return position < limit;
+	}
+
+	private boolean isLastLine(byte c0, byte c1, byte c2) {
+		return length > REPLY_CODE_LEN && line[0] == c0 && line[1] == c1 && line[2] == c2 && line[REPLY_CODE_LEN] == ' ';
+	}
+
+	private boolean isLastLineLenient() {
+		return length > REPLY_CODE_LEN && line[REPLY_CODE_LEN] != '-' && line[0] >= '0' && line[0] <= '9';
+	}
+
+	/*
+	 * Read the next line, without its CRLF, into the line buffer. Returns
+	 * false at the end of the stream if nothing was read.
+	 */
+	private boolean readLine() throws IOException {
+		length = 0;
+		boolean read = false;
+		while (true) {
+			if (position == limit) {
+				limit = input.read(buffer, 0, BUFFER_SIZE);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return read;
+				}
+			}
+			read = true;
+			int start = position;
+			while (position < limit) {
+				if (buffer[position++] == LF) {
+					boolean crlf = position - 1 > start ? buffer[position - 2] == CR : length > 0 && line[length - 1] == CR;
+					if (crlf) {
+						append(start, position - 1 - start);
+						length--;
+						return true;
+					}
+				}
+			}
+			append(start, limit - start);
+		}
+	}
+
+	private void append(int offset, int count) {
+		if (length + count > line.length) {
+			byte[] grown = new byte[Math.max(line.length * 2, length + count)];
+			System.arraycopy(line, 0, grown, 0, length);
+			line = grown;
+		}
+		System.arraycopy(buffer, offset, line, length, count);
+		length += count;
+	}
+
+	/**
+	 * The goal of this method is to find the first <code>h1,h2,h3,h4,p1,p2</code>
+	 * tuple of one to three digit numbers in a PASV reply.
+	 *
+	 * @param values
+	 *            receives the six numbers.
+	 * @return false if the reply holds no such tuple.
+	 */
+	public static boolean parsePassiveTuple(String reply, int[] values) {
+		int end = reply.length();
+		for (int start = 0; start < end; start++) {
+			int i = start;
+			int group = 0;
+			while (group < values.length) {
+				int value = 0;
+				int digits = 0;
+				while (digits < MAX_TUPLE_DIGITS && i < end && isDigit(reply.charAt(i))) {
+					value = value * 10 + reply.charAt(i++) - '0';
+					digits++;
+				}
+				if (digits == 0) {
+					break;
+				}
+				values[group++] = value;
+				if (group < values.length) {
+					if (i == end || reply.charAt(i) != ',') {
+						break;
+					}
+					i++;
+				}
+			}
+			if (group == values.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The goal of this method is to read the port of an EPSV reply, e.g.
+	 * <code>229 Entering Extended Passive Mode (|||6446|)</code>.
+	 *
+	 * @return the port, or -1 if the reply is malformed.
+	 */
+	public static int parseExtendedPassivePort(String reply) {
+		int open = reply.indexOf('(');
+		int end = reply.indexOf(')');
+		if (open < 0 || end < open) {
+			return -1;
+		}
+		int start = open + 1;
+		while (start < end && Character.isWhitespace(reply.charAt(start))) {
+			start++;
+		}
+		while (end > start && Character.isWhitespace(reply.charAt(end - 1))) {
+			end--;
+		}
+		if (end - start < 5) {
+			return -1;
+		}
+		char delimiter = reply.charAt(start);
+		if (reply.charAt(start + 1) != delimiter || reply.charAt(start + 2) != delimiter || reply.charAt(end - 1) != delimiter) {
+			return -1;
+		}
+		int port = 0;
+		for (int i = start + 3; i < end - 1; i++) {
+			char c = reply.charAt(i);
+			if (!isDigit(c) || port > 0xffff) {
+				return -1;
+			}
+			port = port * 10 + c - '0';
+		}
+		return port > 0xffff ? -1 : port;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
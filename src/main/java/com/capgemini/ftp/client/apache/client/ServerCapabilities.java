@@ -0,0 +1,95 @@
+package com.capgemini.ftp.client.apache.client;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.capgemini.CacheManager;
+import com.capgemini.CachedServerCapabilities;
+import com.capgemini.Cacheable;
+
+/**
+ * The responsibility of this class is to remember what an FTP server has
+ * been found to support, so that every session and pooled connection to the
+ * same server uses the right command the first time instead of learning it
+ * again through a failed round trip.
+ * <p>
+ * One instance is shared per server endpoint (host and port) through the
+ * {@link CacheManager}. Answers are recorded from FEAT replies and from the
+ * replies to the commands themselves (e.g. EPSV, MODE Z). The entry is
+ * removed with {@link #invalidate(String, int)} when connecting to the server
+ * fails, as the server may have been replaced or reconfigured.
+ */
+public class ServerCapabilities {
+
+	private static final String CACHE_ID_PREFIX = "ftp-capabilities:";
+
+	private final Map<ServerCapability, Boolean> capabilities = new ConcurrentHashMap<ServerCapability, Boolean>();
+
+	/**
+	 * The capabilities the client records.
+	 */
+	public enum ServerCapability {
+		EPSV, MLST, MODE_Z, UTF8
+	}
+
+	/**
+	 * @return the shared capabilities of the given server, created empty if
+	 *         nothing is known about it yet.
+	 */
+	public static synchronized ServerCapabilities forServer(String host, int port) {
+		String id = cacheId(host, port);
+		Cacheable<?> cached = CacheManager.retrieve(id);
+		if (cached != null) {
+			return (ServerCapabilities) cached.getEntity();
+		}
+		ServerCapabilities capabilities = new ServerCapabilities();
+		CacheManager.cache(new CachedServerCapabilities(id, capabilities));
+		return capabilities;
+	}
+
+	/**
+	 * Forget what is known about the given server.
+	 */
+	public static synchronized void invalidate(String host, int port) {
+		CacheManager.remove(cacheId(host, port));
+	}
+
+	private static String cacheId(String host, int port) {
+		return CACHE_ID_PREFIX + host + ":" + port;
+	}
+
+	/**
+	 * @return TRUE or FALSE if the capability has been recorded, or null if
+	 *         it is not known yet.
+	 */
+	public Boolean get(ServerCapability capability) {
+		return capabilities.get(capability);
+	}
+
+	public void set(ServerCapability capability, boolean supported) {
+		capabilities.put(capability, Boolean.valueOf(supported));
+	}
+
+	/**
+	 * The goal of this method is to record the capabilities that a FEAT reply
+	 * answers. MODE Z is only recorded when listed, as servers often support
+	 * it without announcing it.
+	 * 
+	 * @param features
+	 *            the parsed FEAT reply, keyed by upper case feature name.
+	 */
+	public void setFeatures(Map<String, Set<String>> features) {
+		set(ServerCapability.MLST, features.containsKey("MLST"));
+		set(ServerCapability.UTF8, features.containsKey("UTF8") || features.containsKey("UTF-8"));
+		Set<String> modes = features.get("MODE");
+		if (modes != null && modes.contains("Z")) {
+			set(ServerCapability.MODE_Z, true);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ServerCapabilities " + capabilities;
+	}
+}
@@ -0,0 +1,98 @@
+package com.capgemini.ftp.client.apache.client;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.capgemini.CacheManager;
+import com.capgemini.CachedServerDiscovery;
+import com.capgemini.Cacheable;
+
+/**
+ * The responsibility of this class is to hold the results of the discovery
+ * commands (SYST and FEAT) for an FTP server, so that sessions to the same
+ * server can skip these round trips while the results are fresh.
+ * <p>
+ * One instance is kept per server endpoint (host and port) in the
+ * {@link CacheManager} and expires a fixed time after the first result was
+ * stored. The system type selects the listing parser; every session still
+ * creates its own parser from it, as parsers are not thread safe. The
+ * features are kept unmodifiable and are used as the feature map of the
+ * session.
+ */
+public class ServerDiscovery {
+
+	private static final String CACHE_ID_PREFIX = "ftp-discovery:";
+
+	private volatile String systemType;
+
+	private volatile Map<String, Set<String>> features;
+
+	/**
+	 * @return the cached discovery results of the given server, or null if
+	 *         there are none or they have expired.
+	 */
+	public static ServerDiscovery forServer(String host, int port) {
+		Cacheable<?> cached = CacheManager.retrieve(cacheId(host, port));
+		return cached == null ? null : (ServerDiscovery) cached.getEntity();
+	}
+
+	/**
+	 * @return the discovery results of the given server to record into,
+	 *         created with the given time to live if there are none.
+	 */
+	public static synchronized ServerDiscovery forStoring(String host, int port, int timeToLive) {
+		ServerDiscovery discovery = forServer(host, port);
+		if (discovery == null) {
+			discovery = new ServerDiscovery();
+			CacheManager.cache(new CachedServerDiscovery(cacheId(host, port), discovery, timeToLive));
+		}
+		return discovery;
+	}
+
+	/**
+	 * Forget the discovery results of the given server.
+	 */
+	public static void invalidate(String host, int port) {
+		CacheManager.remove(cacheId(host, port));
+	}
+
+	private static String cacheId(String host, int port) {
+		return CACHE_ID_PREFIX + host + ":" + port;
+	}
+
+	/**
+	 * @return the reply text of SYST, or null if it has not been discovered.
+	 */
+	public String getSystemType() {
+		return systemType;
+	}
+
+	public void setSystemType(String systemType) {
+		this.systemType = systemType;
+	}
+
+	/**
+	 * @return the parsed FEAT reply keyed by upper case feature name (empty
+	 *         if the server refused FEAT), or null if it has not been
+	 *         discovered.
+	 */
+	public Map<String, Set<String>> getFeatures() {
+		return features;
+	}
+
+	public void setFeatures(Map<String, Set<String>> features) {
+		Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> feature : features.entrySet()) {
+			copy.put(feature.getKey(), Collections.unmodifiableSet(new HashSet<String>(feature.getValue())));
+		}
+		this.features = Collections.unmodifiableMap(copy);
+	}
+
+	@Override
+	public String toString() {
+		return "ServerDiscovery [systemType=" + systemType + ", features=" + features + "]";
+	}
+}
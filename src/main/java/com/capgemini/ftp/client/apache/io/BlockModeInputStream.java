@@ -0,0 +1,160 @@
+package com.capgemini.ftp.client.apache.io;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.net.MalformedServerReplyException;
+
+/**
+ * The responsibility of this class is to remove the MODE B (block mode)
+ * framing defined in RFC 959 section 3.4.2 from a data connection.
+ * <p>
+ * Each block starts with a three byte header: a descriptor and a 16 bit byte
+ * count. The end of the file is marked by the EOF descriptor rather than by
+ * closing the connection, so the connection can carry further transfers.
+ * Closing this stream therefore does not close the underlying stream; any
+ * unread blocks up to the end of the file are skipped so that the connection
+ * is left positioned at the start of the next transfer.
+ */
+public class BlockModeInputStream extends FilterInputStream {
+
+	private final byte[] header = new byte[BlockModeOutputStream.HEADER_LENGTH];
+
+	private final byte[] skipBuffer = new byte[1024];
+
+	// Bytes of the current block not yet read
+	private int remaining;
+
+	private int descriptor;
+
+	private boolean endOfFile;
+
+	private boolean closed;
+
+	public BlockModeInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextData()) {
+			return -1;
+		}
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Data connection closed inside a block");
+		}
+		remaining--;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (!nextData()) {
+			return -1;
+		}
+		int count = in.read(buffer, offset, Math.min(length, remaining));
+		if (count < 0) {
+			throw new EOFException("Data connection closed inside a block");
+		}
+		remaining -= count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return endOfFile ? 0 : Math.min(remaining, in.available());
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			int count = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n - skipped));
+			if (count < 0) {
+				break;
+			}
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Skip to the end of the file, leaving the underlying stream open.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		while (read(skipBuffer, 0, skipBuffer.length) >= 0) {
+			// discard the rest of the file
+		}
+	}
+
+	/**
+	 * @return true once the EOF block has been read, i.e. the connection can
+	 *         be used for the next transfer.
+	 */
+	public boolean isEndOfFile() {
+		return endOfFile;
+	}
+
+	/**
+	 * The goal of this method is to position the stream on data, reading
+	 * block headers as needed.
+	 * 
+	 * @return false at the end of the file.
+	 */
+	private boolean nextData() throws IOException {
+		while (remaining == 0) {
+			if (endOfFile || (descriptor & BlockModeOutputStream.DESCRIPTOR_EOF) != 0) {
+				endOfFile = true;
+				return false;
+			}
+			readHeader();
+			if ((descriptor & BlockModeOutputStream.DESCRIPTOR_RESTART_MARKER) != 0) {
+				// Restart markers are not file data
+				skipBlock();
+			}
+		}
+		return true;
+	}
+
+	private void readHeader() throws IOException {
+		int read = 0;
+		while (read < header.length) {
+			int count = in.read(header, read, header.length - read);
+			if (count < 0) {
+				if (read == 0) {
+					throw new EOFException("Data connection closed before the EOF block");
+				}
+				throw new MalformedServerReplyException("Truncated block header");
+			}
+			read += count;
+		}
+		descriptor = header[0] & 0xff;
+		remaining = ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+	}
+
+	private void skipBlock() throws IOException {
+		while (remaining > 0) {
+			int count = in.read(skipBuffer, 0, Math.min(skipBuffer.length, remaining));
+			if (count < 0) {
+				throw new EOFException("Data connection closed inside a block");
+			}
+			remaining -= count;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.capgemini.ftp.client.apache.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The responsibility of this class is to add the MODE B (block mode) framing
+ * defined in RFC 959 section 3.4.2 to a data connection.
+ * <p>
+ * Data is collected into blocks of up to 65535 bytes. Closing this stream
+ * writes the last block with the EOF descriptor and flushes, but does not
+ * close the underlying stream, so the connection can carry further transfers.
+ */
+public class BlockModeOutputStream extends FilterOutputStream {
+
+	static final int HEADER_LENGTH = 3;
+
+	static final int MAX_BLOCK_LENGTH = 0xffff;
+
+	/** Block length used when no buffer size has been configured. */
+	public static final int DEFAULT_BLOCK_LENGTH = 32768;
+
+	/** End of record. */
+	static final int DESCRIPTOR_EOR = 0x80;
+
+	/** End of file. */
+	static final int DESCRIPTOR_EOF = 0x40;
+
+	/** Restart marker. */
+	static final int DESCRIPTOR_RESTART_MARKER = 0x10;
+
+	private final byte[] block;
+
+	private int length;
+
+	private boolean endOfFile;
+
+	public BlockModeOutputStream(OutputStream out) {
+		this(out, MAX_BLOCK_LENGTH);
+	}
+
+	/**
+	 * @param blockLength
+	 *            the largest block to send, at most 65535 bytes.
+	 */
+	public BlockModeOutputStream(OutputStream out, int blockLength) {
+		super(out);
+		block = new byte[HEADER_LENGTH + Math.min(Math.max(blockLength, 1), MAX_BLOCK_LENGTH)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (HEADER_LENGTH + length == block.length) {
+			writeBlock(0);
+		}
+		block[HEADER_LENGTH + length++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int count) throws IOException {
+		ensureOpen();
+		while (count > 0) {
+			if (HEADER_LENGTH + length == block.length) {
+				writeBlock(0);
+			}
+			int chunk = Math.min(count, block.length - HEADER_LENGTH - length);
+			System.arraycopy(buffer, offset, block, HEADER_LENGTH + length, chunk);
+			length += chunk;
+			offset += chunk;
+			count -= chunk;
+		}
+	}
+
+	/**
+	 * Send the data collected so far as a block. The block is not marked as
+	 * the end of the file.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!endOfFile && length > 0) {
+			writeBlock(0);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Send the remaining data in the EOF block, leaving the underlying stream
+	 * open.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (endOfFile) {
+			return;
+		}
+		writeBlock(DESCRIPTOR_EOF);
+		endOfFile = true;
+		out.flush();
+	}
+
+	/**
+	 * @return true once the EOF block has been written, i.e. the connection
+	 *         can be used for the next transfer.
+	 */
+	public boolean isEndOfFile() {
+		return endOfFile;
+	}
+
+	private void writeBlock(int descriptor) throws IOException {
+		block[0] = (byte) descriptor;
+		block[1] = (byte) (length >>> 8);
+		block[2] = (byte) length;
+		out.write(block, 0, HEADER_LENGTH + length);
+		length = 0;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (endOfFile) {
+			throw new IOException("Stream closed");
+		}
+	}
+}
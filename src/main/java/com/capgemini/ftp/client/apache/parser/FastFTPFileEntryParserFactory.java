@@ -0,0 +1,53 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import java.util.Locale;
+
+import org.apache.commons.net.ftp.FTPClientConfig;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
+import org.apache.commons.net.ftp.parser.DefaultFTPFileEntryParserFactory;
+import org.apache.commons.net.ftp.parser.FTPFileEntryParserFactory;
+import org.apache.commons.net.ftp.parser.ParserInitializationException;
+
+/**
+ * The responsibility of this class is to supply a {@link FastListEntryParser}
+ * for UNIX and Windows servers, delegating every other system type (and
+ * explicit parser class names) to the commons-net
+ * {@link DefaultFTPFileEntryParserFactory}.
+ */
+public class FastFTPFileEntryParserFactory implements FTPFileEntryParserFactory {
+
+	private final FTPFileEntryParserFactory delegate = new DefaultFTPFileEntryParserFactory();
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FTPFileEntryParser createFileEntryParser(String key) throws ParserInitializationException {
+		if (isFastParserKey(key)) {
+			return new FastListEntryParser();
+		}
+		return delegate.createFileEntryParser(key);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FTPFileEntryParser createFileEntryParser(FTPClientConfig config) throws ParserInitializationException {
+		if (isFastParserKey(config.getServerSystemKey())) {
+			return new FastListEntryParser(config);
+		}
+		return delegate.createFileEntryParser(config);
+	}
+
+	/*
+	 * Same key matching as the default factory uses for its UNIX and NT parsers.
+	 */
+	private boolean isFastParserKey(String key) {
+		if (key == null || key.indexOf('.') >= 0) {
+			return false;
+		}
+		String ukey = key.toUpperCase(Locale.ENGLISH);
+		return ukey.indexOf("UNIX") >= 0 || ukey.indexOf("TYPE: L8") >= 0 || ukey.indexOf("WIN") >= 0;
+	}
+}
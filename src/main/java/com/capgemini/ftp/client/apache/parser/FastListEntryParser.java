@@ -0,0 +1,373 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import java.util.TimeZone;
+
+import org.apache.commons.net.ftp.FTPClientConfig;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileEntryParserImpl;
+
+/**
+ * The responsibility of this class is to parse the common UNIX
+ * (<code>ls -l</code>) and Windows/IIS (MS-DOS style) LIST formats in a
+ * single pass over each line, without regular expressions.
+ * <p>
+ * The regex based parsers supplied with commons-net allocate a Matcher, a
+ * substring per field and a Calendar for every line. This parser records the
+ * field positions in a reusable {@link RawListEntry}, creates Strings only
+ * for the fields of the returned {@link FTPFile} and resolves the timestamp
+ * only when it is asked for.
+ * <p>
+ * The format is detected per line, so listings from Windows servers running
+ * in UNIX listing mode are handled too. Lines that cannot be parsed (e.g. the
+ * <code>total</code> line) yield null, as with the commons-net parsers.
+ * <p>
+ * Like the commons-net parsers, instances are not thread safe.
+ */
+public class FastListEntryParser extends FTPFileEntryParserImpl {
+
+	private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+
+	// Width of the size column in IIS listings, which "<DIR>" is padded to
+	private static final int DIR_COLUMN_WIDTH = 14;
+
+	private final TimeZone timeZone;
+
+	private final RawListEntry entry = new RawListEntry();
+
+	// Date of the line being scanned; copied to the entry only once the whole
+	// line has been scanned, so a failed scan leaves the entry's date alone
+	private int scannedYear;
+	private int scannedMonth;
+	private int scannedDay;
+	private int scannedHour;
+	private int scannedMinute;
+
+	public FastListEntryParser() {
+		this(TimeZone.getDefault());
+	}
+
+	public FastListEntryParser(TimeZone timeZone) {
+		this.timeZone = timeZone;
+	}
+
+	/**
+	 * Create a parser using the server time zone from the supplied
+	 * configuration, if any.
+	 */
+	public FastListEntryParser(FTPClientConfig config) {
+		this(config != null && config.getServerTimeZoneId() != null ? TimeZone.getTimeZone(config.getServerTimeZoneId()) : TimeZone.getDefault());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FTPFile parseFTPEntry(String listEntry) {
+		if (!scan(listEntry, entry)) {
+			return null;
+		}
+		return entry.toFTPFile();
+	}
+
+	/**
+	 * The goal of this method is to record the positions of the fields of a
+	 * LIST line in the supplied entry without creating any objects.
+	 * 
+	 * @param line
+	 *            the LIST line.
+	 * @param target
+	 *            the entry to fill; its previous contents are discarded.
+	 * @return true if the line is a file entry, false if it could not be
+	 *         parsed.
+	 */
+	public boolean scan(String line, RawListEntry target) {
+		if (line == null || line.length() < 10) {
+			return false;
+		}
+		target.reset(line);
+		target.timeZone = timeZone;
+		if (isDigit(line.charAt(0))) {
+			return scanWindows(line, target);
+		}
+		return scanUnix(line, target);
+	}
+
+	/*
+	 * -rw-r--r--   1 owner group       7406 Mar 14 10:20 file1.xml
+	 * drwxr-xr-x   2 owner group       4096 Mar 14  2016 archive
+	 * lrwxrwxrwx   1 owner group         11 2017-03-14 10:20 latest -> file1.xml
+	 */
+	private boolean scanUnix(String line, RawListEntry target) {
+		int length = line.length();
+		switch (line.charAt(0)) {
+		case 'd':
+			target.type = FTPFile.DIRECTORY_TYPE;
+			break;
+		case 'l':
+			target.type = FTPFile.SYMBOLIC_LINK_TYPE;
+			break;
+		case '-':
+		case 'f':
+		case 'b':
+		case 'c':
+			target.type = FTPFile.FILE_TYPE;
+			break;
+		default:
+			return false;
+		}
+		target.permissionsStart = 1;
+
+		// Token boundaries between the permissions and the date; at most
+		// links, owner, group and size are expected, a few extra are tolerated.
+		int[] starts = target.tokenStarts;
+		int[] ends = target.tokenEnds;
+		int tokens = 0;
+		int pos = skipToken(line, 0);
+		while (true) {
+			pos = skipSpaces(line, pos);
+			if (pos >= length) {
+				return false;
+			}
+			int dateEnd = scanUnixDate(line, pos);
+			if (dateEnd > 0 && tokens > 0 && isNumber(line, starts[tokens - 1], ends[tokens - 1])) {
+				pos = dateEnd;
+				break;
+			}
+			if (tokens == starts.length) {
+				return false;
+			}
+			starts[tokens] = pos;
+			pos = skipToken(line, pos);
+			ends[tokens++] = pos;
+		}
+
+		target.size = parseLong(line, starts[tokens - 1], ends[tokens - 1]);
+		int first = 0;
+		if (tokens > 1 && isNumber(line, starts[0], ends[0])) {
+			target.links = (int) parseLong(line, starts[0], ends[0]);
+			first = 1;
+		}
+		if (first < tokens - 1) {
+			target.userStart = starts[first];
+			target.userEnd = ends[first];
+		}
+		if (first + 1 < tokens - 1) {
+			target.groupStart = starts[first + 1];
+			target.groupEnd = ends[first + 1];
+		}
+
+		// Only the single separator space; names may start with spaces
+		int nameStart = pos + 1;
+		if (nameStart >= length) {
+			return false;
+		}
+		setDate(target);
+		target.nameStart = nameStart;
+		target.nameEnd = length;
+		if (target.type == FTPFile.SYMBOLIC_LINK_TYPE) {
+			int arrow = line.indexOf(" -> ", nameStart);
+			if (arrow > 0) {
+				target.nameEnd = arrow;
+				target.linkStart = arrow + 4;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Scan "Mmm dd hh:mm", "Mmm dd yyyy" or "yyyy-mm-dd hh:mm" starting at pos.
+	 * Returns the position after the date, or -1 if there is no date here.
+	 */
+	private int scanUnixDate(String line, int pos) {
+		int length = line.length();
+		if (pos + 3 <= length && isDigit(line.charAt(pos))) {
+			// ISO style: yyyy-mm-dd hh:mm
+			if (pos + 16 > length || line.charAt(pos + 4) != '-' || line.charAt(pos + 7) != '-' || line.charAt(pos + 10) != ' ') {
+				return -1;
+			}
+			if (!isNumber(line, pos, pos + 4) || !isNumber(line, pos + 5, pos + 7) || !isNumber(line, pos + 8, pos + 10)) {
+				return -1;
+			}
+			int timeEnd = scanTime(line, pos + 11);
+			if (timeEnd < 0) {
+				return -1;
+			}
+			scannedYear = (int) parseLong(line, pos, pos + 4);
+			scannedMonth = (int) parseLong(line, pos + 5, pos + 7) - 1;
+			scannedDay = (int) parseLong(line, pos + 8, pos + 10);
+			return timeEnd;
+		}
+		int month = month(line, pos);
+		if (month < 0 || pos + 3 >= length || line.charAt(pos + 3) != ' ') {
+			return -1;
+		}
+		int dayStart = skipSpaces(line, pos + 3);
+		int dayEnd = skipToken(line, dayStart);
+		if (dayEnd - dayStart < 1 || dayEnd - dayStart > 2 || !isNumber(line, dayStart, dayEnd)) {
+			return -1;
+		}
+		int yearOrTime = skipSpaces(line, dayEnd);
+		int end = skipToken(line, yearOrTime);
+		if (end - yearOrTime == 4 && isNumber(line, yearOrTime, end)) {
+			scannedYear = (int) parseLong(line, yearOrTime, end);
+			scannedHour = 0;
+			scannedMinute = 0;
+		} else if (scanTime(line, yearOrTime) == end) {
+			scannedYear = RawListEntry.UNKNOWN;
+		} else {
+			return -1;
+		}
+		scannedMonth = month;
+		scannedDay = (int) parseLong(line, dayStart, dayEnd);
+		return end;
+	}
+
+	/*
+	 * 03-14-17  10:20AM                 7406 file1.xml
+	 * 03-14-2017  10:20PM       <DIR>          archive
+	 */
+	private boolean scanWindows(String line, RawListEntry target) {
+		int length = line.length();
+		if (line.charAt(2) != '-' || line.charAt(5) != '-' || !isNumber(line, 0, 2) || !isNumber(line, 3, 5)) {
+			return false;
+		}
+		int yearEnd = skipToken(line, 6);
+		int yearDigits = yearEnd - 6;
+		if ((yearDigits != 2 && yearDigits != 4) || !isNumber(line, 6, yearEnd)) {
+			return false;
+		}
+		int year = (int) parseLong(line, 6, yearEnd);
+		if (yearDigits == 2) {
+			year += year < 70 ? 2000 : 1900;
+		}
+		scannedYear = year;
+		scannedMonth = (int) parseLong(line, 0, 2) - 1;
+		scannedDay = (int) parseLong(line, 3, 5);
+
+		int timeStart = skipSpaces(line, yearEnd);
+		int pos = scanTime(line, timeStart);
+		if (pos < 0) {
+			return false;
+		}
+		if (pos + 2 <= length && (line.charAt(pos + 1) == 'M' || line.charAt(pos + 1) == 'm')) {
+			char amPm = Character.toUpperCase(line.charAt(pos));
+			if (amPm == 'P' && scannedHour < 12) {
+				scannedHour += 12;
+			} else if (amPm == 'A' && scannedHour == 12) {
+				scannedHour = 0;
+			}
+			pos += 2;
+		}
+
+		int sizeStart = skipSpaces(line, pos);
+		int sizeEnd = skipToken(line, sizeStart);
+		if (sizeEnd == sizeStart) {
+			return false;
+		}
+		// The name follows a single separator space; IIS pads <DIR> to the
+		// width of the size column, so names may still start with spaces
+		int nameStart;
+		if (line.startsWith("<DIR>", sizeStart)) {
+			target.type = FTPFile.DIRECTORY_TYPE;
+			target.size = 0;
+			nameStart = sizeStart + DIR_COLUMN_WIDTH + 1;
+			if (nameStart > length || skipSpaces(line, sizeEnd) < nameStart - 1) {
+				nameStart = skipSpaces(line, sizeEnd);
+			}
+		} else if (isNumber(line, sizeStart, sizeEnd)) {
+			target.type = FTPFile.FILE_TYPE;
+			target.size = parseLong(line, sizeStart, sizeEnd);
+			nameStart = sizeEnd + 1;
+		} else {
+			return false;
+		}
+		if (nameStart >= length) {
+			return false;
+		}
+		setDate(target);
+		target.nameStart = nameStart;
+		target.nameEnd = length;
+		return true;
+	}
+
+	/*
+	 * Scan "h:mm" or "hh:mm" at pos, returning the position after it or -1.
+	 */
+	private int scanTime(String line, int pos) {
+		int length = line.length();
+		int colon = pos;
+		while (colon < length && isDigit(line.charAt(colon))) {
+			colon++;
+		}
+		if (colon == pos || colon - pos > 2 || colon + 3 > length || line.charAt(colon) != ':'
+				|| !isDigit(line.charAt(colon + 1)) || !isDigit(line.charAt(colon + 2))) {
+			return -1;
+		}
+		scannedHour = (int) parseLong(line, pos, colon);
+		scannedMinute = (line.charAt(colon + 1) - '0') * 10 + (line.charAt(colon + 2) - '0');
+		return colon + 3;
+	}
+
+	private void setDate(RawListEntry target) {
+		target.year = scannedYear;
+		target.month = scannedMonth;
+		target.day = scannedDay;
+		target.hour = scannedHour;
+		target.minute = scannedMinute;
+	}
+
+	private static int month(String line, int pos) {
+		if (pos + 3 > line.length()) {
+			return -1;
+		}
+		char c0 = Character.toLowerCase(line.charAt(pos));
+		char c1 = Character.toLowerCase(line.charAt(pos + 1));
+		char c2 = Character.toLowerCase(line.charAt(pos + 2));
+		for (int i = 0; i < MONTHS.length(); i += 3) {
+			if (MONTHS.charAt(i) == c0 && MONTHS.charAt(i + 1) == c1 && MONTHS.charAt(i + 2) == c2) {
+				return i / 3;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipSpaces(String line, int pos) {
+		int length = line.length();
+		while (pos < length && line.charAt(pos) == ' ') {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int skipToken(String line, int pos) {
+		int length = line.length();
+		while (pos < length && line.charAt(pos) != ' ') {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static boolean isDigit(char ch) {
+		return ch >= '0' && ch <= '9';
+	}
+
+	private static boolean isNumber(String line, int start, int end) {
+		if (start >= end) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (!isDigit(line.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseLong(String line, int start, int end) {
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			value = value * 10 + (line.charAt(i) - '0');
+		}
+		return value;
+	}
+}
@@ -0,0 +1,256 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import java.util.regex.Pattern;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileFilter;
+
+/**
+ * The responsibility of this class is to select the entries of a remote
+ * directory listing by name, type, size and modification time.
+ * <p>
+ * When the listing is parsed by the {@link FastListEntryParser} the filter is
+ * applied to the scanned {@link RawListEntry}, before an {@link FTPFile} is
+ * built, so unwanted entries cost no more than the scan of their line. The
+ * cheap checks (type, size) are made first, the name next and the
+ * modification time, which needs a Calendar, last and only when a time bound
+ * has been set. With other parsers the filter is applied to the parsed
+ * {@link FTPFile} instead.
+ * <p>
+ * Names can be matched by a glob (<code>*</code> and <code>?</code>) or a
+ * regular expression, both case sensitive. A glob can also be sent to the
+ * server as the LIST argument (see {@link #passGlobToServer(boolean)}); the
+ * filter is still applied to the result, so servers that ignore the argument
+ * give the same answer.
+ * <p>
+ * Example: <code>ListingFilter.glob("*.xml").type(EntryType.FILE).minSize(1)</code>
+ */
+public class ListingFilter implements FTPFileFilter {
+
+	public enum EntryType {
+		ANY, FILE, DIRECTORY
+	}
+
+	private final String glob;
+
+	private final Pattern pattern;
+
+	private EntryType type = EntryType.ANY;
+
+	private long minSize = Long.MIN_VALUE;
+
+	private long maxSize = Long.MAX_VALUE;
+
+	private long modifiedAfter = Long.MIN_VALUE;
+
+	private long modifiedBefore = Long.MAX_VALUE;
+
+	private boolean serverGlob;
+
+	private ListingFilter(String glob, Pattern pattern) {
+		this.glob = glob;
+		this.pattern = pattern;
+	}
+
+	/**
+	 * @return a filter accepting every entry.
+	 */
+	public static ListingFilter all() {
+		return new ListingFilter(null, null);
+	}
+
+	/**
+	 * @return a filter accepting regular files only.
+	 */
+	public static ListingFilter files() {
+		return all().type(EntryType.FILE);
+	}
+
+	/**
+	 * @param glob
+	 *            the name pattern, where <code>*</code> matches any run of
+	 *            characters and <code>?</code> a single character.
+	 * @return a filter accepting entries whose name matches the glob.
+	 */
+	public static ListingFilter glob(String glob) {
+		return new ListingFilter(glob, null);
+	}
+
+	/**
+	 * @param regex
+	 *            a regular expression the whole name must match.
+	 * @return a filter accepting entries whose name matches the expression.
+	 */
+	public static ListingFilter regex(String regex) {
+		return new ListingFilter(null, Pattern.compile(regex));
+	}
+
+	public ListingFilter type(EntryType type) {
+		this.type = type;
+		return this;
+	}
+
+	/**
+	 * @param minSize
+	 *            the smallest accepted size in bytes (inclusive).
+	 */
+	public ListingFilter minSize(long minSize) {
+		this.minSize = minSize;
+		return this;
+	}
+
+	/**
+	 * @param maxSize
+	 *            the largest accepted size in bytes (inclusive).
+	 */
+	public ListingFilter maxSize(long maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * @param modifiedAfter
+	 *            milliseconds since the epoch; only entries modified at or
+	 *            after this time are accepted.
+	 */
+	public ListingFilter modifiedAfter(long modifiedAfter) {
+		this.modifiedAfter = modifiedAfter;
+		return this;
+	}
+
+	/**
+	 * @param modifiedBefore
+	 *            milliseconds since the epoch; only entries modified before
+	 *            this time are accepted.
+	 */
+	public ListingFilter modifiedBefore(long modifiedBefore) {
+		this.modifiedBefore = modifiedBefore;
+		return this;
+	}
+
+	/**
+	 * @param serverGlob
+	 *            true to send the glob to the server as the LIST argument so
+	 *            that it can leave out non-matching entries itself.
+	 */
+	public ListingFilter passGlobToServer(boolean serverGlob) {
+		this.serverGlob = serverGlob;
+		return this;
+	}
+
+	/**
+	 * @return the glob to send to the server, or null if the server should
+	 *         list the whole directory.
+	 */
+	public String getServerGlob() {
+		return serverGlob ? glob : null;
+	}
+
+	/**
+	 * The goal of this method is to decide on a scanned listing line, before
+	 * any field of it is copied.
+	 */
+	public boolean accept(RawListEntry entry) {
+		if (!acceptType(entry.type) || !acceptSize(entry.size)) {
+			return false;
+		}
+		if (glob != null && !matchGlob(entry.line, entry.nameStart, entry.nameEnd)) {
+			return false;
+		}
+		if (pattern != null && !pattern.matcher(entry.getNameSequence()).matches()) {
+			return false;
+		}
+		return !hasTimeBounds() || acceptTime(entry.getTimeInMillis());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean accept(FTPFile file) {
+		if (file == null || !acceptType(file.getType()) || !acceptSize(file.getSize())) {
+			return false;
+		}
+		if (!acceptName(file.getName())) {
+			return false;
+		}
+		if (!hasTimeBounds()) {
+			return true;
+		}
+		return file.getTimestamp() != null && acceptTime(file.getTimestamp().getTimeInMillis());
+	}
+
+	/**
+	 * @return true if the name matches the glob or regular expression, if
+	 *         any.
+	 */
+	public boolean acceptName(String name) {
+		if (glob != null && !matchGlob(name, 0, name.length())) {
+			return false;
+		}
+		return pattern == null || pattern.matcher(name).matches();
+	}
+
+	/**
+	 * @return true if the filter can be decided for a regular file from its
+	 *         name alone, i.e. a name-only listing is sufficient.
+	 */
+	public boolean isNameOnly() {
+		return type != EntryType.DIRECTORY && minSize == Long.MIN_VALUE && maxSize == Long.MAX_VALUE && !hasTimeBounds();
+	}
+
+	private boolean acceptType(int fileType) {
+		switch (type) {
+		case FILE:
+			return fileType == FTPFile.FILE_TYPE;
+		case DIRECTORY:
+			return fileType == FTPFile.DIRECTORY_TYPE;
+		default:
+			return true;
+		}
+	}
+
+	private boolean acceptSize(long size) {
+		return size >= minSize && size <= maxSize;
+	}
+
+	private boolean hasTimeBounds() {
+		return modifiedAfter != Long.MIN_VALUE || modifiedBefore != Long.MAX_VALUE;
+	}
+
+	private boolean acceptTime(long time) {
+		return time >= modifiedAfter && time < modifiedBefore;
+	}
+
+	/**
+	 * Match the glob against the characters start (inclusive) to end
+	 * (exclusive) of the supplied string. A '*' is retried from the last
+	 * star position only, which keeps the match linear for the usual
+	 * patterns such as <code>*.xml</code> or <code>ORDER_*_??.csv</code>.
+	 */
+	private boolean matchGlob(String name, int start, int end) {
+		int g = 0;
+		int n = start;
+		int starGlob = -1;
+		int starName = -1;
+		int globLength = glob.length();
+		while (n < end) {
+			if (g < globLength && (glob.charAt(g) == '?' || glob.charAt(g) == name.charAt(n))) {
+				g++;
+				n++;
+			} else if (g < globLength && glob.charAt(g) == '*') {
+				starGlob = g++;
+				starName = n;
+			} else if (starGlob >= 0) {
+				g = starGlob + 1;
+				n = ++starName;
+			} else {
+				return false;
+			}
+		}
+		while (g < globLength && glob.charAt(g) == '*') {
+			g++;
+		}
+		return g == globLength;
+	}
+}
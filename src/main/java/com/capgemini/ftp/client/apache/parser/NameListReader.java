@@ -0,0 +1,141 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * The responsibility of this class is to read the lines of a NLST or MLSD
+ * listing into a single, reusable char buffer and to create a String only for
+ * the names that are wanted.
+ * <p>
+ * The line buffer is supplied by the caller so that it can be kept across
+ * listings; it is grown when a line does not fit and the grown buffer is
+ * available from {@link #getLineBuffer()}. Instances are not thread safe.
+ */
+public class NameListReader {
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private static final char[] TYPE_FACT = { 't', 'y', 'p', 'e', '=' };
+
+	private static final char[] FILE_TYPE = { 'f', 'i', 'l', 'e' };
+
+	private final Reader reader;
+
+	private final char[] chunk = new char[CHUNK_SIZE];
+
+	private int chunkPosition;
+
+	private int chunkLimit;
+
+	private char[] line;
+
+	private int length;
+
+	public NameListReader(Reader reader, char[] lineBuffer) {
+		this.reader = reader;
+		this.line = lineBuffer == null || lineBuffer.length == 0 ? new char[256] : lineBuffer;
+	}
+
+	/**
+	 * The goal of this method is to read the next line, without its line
+	 * terminator, into the line buffer.
+	 *
+	 * @return false at the end of the listing.
+	 */
+	public boolean next() throws IOException {
+		length = 0;
+		boolean read = false;
+		while (true) {
+			if (chunkPosition == chunkLimit) {
+				chunkLimit = reader.read(chunk, 0, CHUNK_SIZE);
+				chunkPosition = 0;
+				if (chunkLimit <= 0) {
+					chunkLimit = 0;
+					return read;
+				}
+			}
+			read = true;
+			char c = chunk[chunkPosition++];
+			if (c == '\n') {
+				if (length > 0 && line[length - 1] == '\r') {
+					length--;
+				}
+				return true;
+			}
+			if (length == line.length) {
+				char[] grown = new char[line.length * 2];
+				System.arraycopy(line, 0, grown, 0, length);
+				line = grown;
+			}
+			line[length++] = c;
+		}
+	}
+
+	/**
+	 * @return the current line as a name (NLST format), or null for a blank
+	 *         line.
+	 */
+	public String getName() {
+		return length == 0 ? null : new String(line, 0, length);
+	}
+
+	/**
+	 * The goal of this method is to return the name of the current MLSD
+	 * entry if it is a regular file. Only the <code>type</code> fact is
+	 * inspected, so the server may send any other facts too.
+	 *
+	 * @return the name, or null if the entry is not a file or the line is not
+	 *         a valid MLSD entry.
+	 */
+	public String getMlsdFileName() {
+		int separator = indexOf(' ', 0);
+		if (separator < 0 || separator == length - 1) {
+			return null;
+		}
+		int factStart = 0;
+		while (factStart < separator) {
+			int factEnd = indexOf(';', factStart);
+			if (factEnd < 0 || factEnd > separator) {
+				factEnd = separator;
+			}
+			if (regionMatchesIgnoreCase(factStart, TYPE_FACT)) {
+				int valueStart = factStart + TYPE_FACT.length;
+				if (factEnd - valueStart != FILE_TYPE.length || !regionMatchesIgnoreCase(valueStart, FILE_TYPE)) {
+					return null;
+				}
+				return new String(line, separator + 1, length - separator - 1);
+			}
+			factStart = factEnd + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the line buffer, which may have been replaced by a larger one.
+	 */
+	public char[] getLineBuffer() {
+		return line;
+	}
+
+	private int indexOf(char c, int from) {
+		for (int i = from; i < length; i++) {
+			if (line[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean regionMatchesIgnoreCase(int offset, char[] lowerCase) {
+		if (offset + lowerCase.length > length) {
+			return false;
+		}
+		for (int i = 0; i < lowerCase.length; i++) {
+			if (Character.toLowerCase(line[offset + i]) != lowerCase[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
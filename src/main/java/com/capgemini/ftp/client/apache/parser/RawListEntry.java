@@ -0,0 +1,235 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * The responsibility of this class is to hold the fields of a single LIST line
+ * as offsets into the original line, as scanned by
+ * {@link FastListEntryParser#scan(String, RawListEntry)}.
+ * <p>
+ * No substrings are created while scanning, so a single instance can be
+ * reused for every line of a listing and only the entries that are actually
+ * wanted pay for building an {@link FTPFile}. Instances are not thread safe.
+ */
+public class RawListEntry {
+
+	static final int UNKNOWN = -1;
+
+	String line;
+	int type;
+	long size;
+	int links;
+	int permissionsStart;
+	int userStart;
+	int userEnd;
+	int groupStart;
+	int groupEnd;
+	int nameStart;
+	int nameEnd;
+	int linkStart;
+
+	// Date fields; year is UNKNOWN for "recent" UNIX listings that only show the time
+	int year;
+	int month;
+	int day;
+	int hour;
+	int minute;
+
+	TimeZone timeZone;
+
+	// Scratch space for the parser, kept here so scanning allocates nothing
+	final int[] tokenStarts = new int[6];
+	final int[] tokenEnds = new int[6];
+
+	void reset(String line) {
+		this.line = line;
+		type = FTPFile.UNKNOWN_TYPE;
+		size = UNKNOWN;
+		links = 0;
+		permissionsStart = UNKNOWN;
+		userStart = userEnd = UNKNOWN;
+		groupStart = groupEnd = UNKNOWN;
+		nameStart = nameEnd = UNKNOWN;
+		linkStart = UNKNOWN;
+		// The date fields are only replaced once a line has been scanned successfully
+	}
+
+	/**
+	 * @return the raw listing line.
+	 */
+	public String getLine() {
+		return line;
+	}
+
+	/**
+	 * @return one of the {@link FTPFile} type constants.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	public boolean isFile() {
+		return type == FTPFile.FILE_TYPE;
+	}
+
+	public boolean isDirectory() {
+		return type == FTPFile.DIRECTORY_TYPE;
+	}
+
+	/**
+	 * @return the size in bytes, or -1 if the listing did not include one.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the name; a new String is created on every call.
+	 */
+	public String getName() {
+		return line.substring(nameStart, nameEnd);
+	}
+
+	public int getNameLength() {
+		return nameEnd - nameStart;
+	}
+
+	/**
+	 * @return the character at the given position of the name.
+	 */
+	public char nameCharAt(int index) {
+		return line.charAt(nameStart + index);
+	}
+
+	/**
+	 * @return true if the name ends with the given suffix (case insensitive),
+	 *         checked without creating a substring.
+	 */
+	public boolean nameEndsWithIgnoreCase(String suffix) {
+		int length = suffix.length();
+		return length <= getNameLength() && line.regionMatches(true, nameEnd - length, suffix, 0, length);
+	}
+
+	/**
+	 * @return a view of the name for matching with
+	 *         {@link java.util.regex.Pattern}, without copying it.
+	 */
+	public CharSequence getNameSequence() {
+		return line.subSequence(nameStart, nameEnd);
+	}
+
+	/**
+	 * The goal of this method is to calculate the modification time. This is
+	 * only done on demand as it is the most expensive part of a listing line.
+	 * 
+	 * @return the time in milliseconds since the epoch.
+	 */
+	public long getTimeInMillis() {
+		return getTimestamp().getTimeInMillis();
+	}
+
+	/**
+	 * @return the modification time as a new Calendar.
+	 */
+	public Calendar getTimestamp() {
+		return toCalendar(timeZone, year, month, day, hour, minute);
+	}
+
+	/**
+	 * The goal of this method is to build the {@link FTPFile} for the scanned
+	 * line. The timestamp is resolved lazily by the returned object.
+	 */
+	public FTPFile toFTPFile() {
+		LazyTimestampFTPFile file = new LazyTimestampFTPFile(timeZone, year, month, day, hour, minute);
+		file.setRawListing(line);
+		file.setType(type);
+		file.setSize(size);
+		file.setHardLinkCount(links);
+		if (userStart != UNKNOWN) {
+			file.setUser(line.substring(userStart, userEnd));
+		}
+		if (groupStart != UNKNOWN) {
+			file.setGroup(line.substring(groupStart, groupEnd));
+		}
+		file.setName(getName());
+		if (linkStart != UNKNOWN) {
+			file.setLink(line.substring(linkStart));
+		}
+		if (permissionsStart != UNKNOWN) {
+			int p = permissionsStart;
+			for (int access = FTPFile.USER_ACCESS; access <= FTPFile.WORLD_ACCESS; access++) {
+				file.setPermission(access, FTPFile.READ_PERMISSION, line.charAt(p++) != '-');
+				file.setPermission(access, FTPFile.WRITE_PERMISSION, line.charAt(p++) != '-');
+				char execute = line.charAt(p++);
+				file.setPermission(access, FTPFile.EXECUTE_PERMISSION, execute != '-' && !Character.isUpperCase(execute));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Listings without a year show files modified within the last six months,
+	 * so the year is the current one unless that would put the file more than
+	 * a day into the future.
+	 */
+	static Calendar toCalendar(TimeZone timeZone, int year, int month, int day, int hour, int minute) {
+		Calendar calendar = new GregorianCalendar(timeZone);
+		if (year == UNKNOWN) {
+			long now = calendar.getTimeInMillis();
+			int currentYear = calendar.get(Calendar.YEAR);
+			calendar.clear();
+			calendar.set(currentYear, month, day, hour, minute, 0);
+			if (calendar.getTimeInMillis() > now + 24L * 60 * 60 * 1000) {
+				calendar.add(Calendar.YEAR, -1);
+			}
+		} else {
+			calendar.clear();
+			calendar.set(year, month, day, hour, minute, 0);
+		}
+		return calendar;
+	}
+
+	/**
+	 * An {@link FTPFile} that only builds its timestamp when it is asked for.
+	 */
+	static class LazyTimestampFTPFile extends FTPFile {
+
+		private static final long serialVersionUID = 1L;
+
+		private final TimeZone timeZone;
+		private final int year;
+		private final int month;
+		private final int day;
+		private final int hour;
+		private final int minute;
+		private boolean resolved;
+
+		LazyTimestampFTPFile(TimeZone timeZone, int year, int month, int day, int hour, int minute) {
+			this.timeZone = timeZone;
+			this.year = year;
+			this.month = month;
+			this.day = day;
+			this.hour = hour;
+			this.minute = minute;
+		}
+
+		@Override
+		public Calendar getTimestamp() {
+			if (!resolved) {
+				resolved = true;
+				super.setTimestamp(toCalendar(timeZone, year, month, day, hour, minute));
+			}
+			return super.getTimestamp();
+		}
+
+		@Override
+		public void setTimestamp(Calendar date) {
+			resolved = true;
+			super.setTimestamp(date);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.capgemini.ftp.client.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The responsibility of this class is to lend out the memory that
+ * {@link TransferBuffer}s hold file contents in, so that transferring many
+ * small files does not allocate, and leave to the garbage collector, a new
+ * buffer for each.
+ * <p>
+ * Memory is lent in chunks of a fixed size, so a small file only takes one
+ * chunk while a larger one takes several; chunks are kept for reuse up to a
+ * maximum count, beyond which returned chunks are dropped. A buffer holds at
+ * most the memory ceiling in memory; above it, it spills its content to a
+ * file in the spill directory.
+ * <p>
+ * A pool is safe for use by concurrent transfers and is normally shared by
+ * all the transfers of an application.
+ */
+public class ByteBufferPool {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private final int chunkSize;
+
+	private final int maxPooledChunks;
+
+	private final long memoryCeiling;
+
+	private final Path spillDir;
+
+	private final ConcurrentLinkedDeque<ByteBuffer> chunks = new ConcurrentLinkedDeque<ByteBuffer>();
+
+	private final AtomicInteger pooledChunks = new AtomicInteger();
+
+	/**
+	 * @param chunkSize
+	 *            the size in bytes of each chunk.
+	 * @param maxPooledChunks
+	 *            the most chunks kept for reuse.
+	 * @param memoryCeiling
+	 *            the most bytes a buffer holds in memory.
+	 * @param spillDir
+	 *            the directory of the files of larger buffers, or null for
+	 *            the default temporary directory.
+	 */
+	public ByteBufferPool(int chunkSize, int maxPooledChunks, long memoryCeiling, String spillDir) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be at least 1");
+		}
+		this.chunkSize = chunkSize;
+		this.maxPooledChunks = maxPooledChunks;
+		this.memoryCeiling = memoryCeiling;
+		this.spillDir = spillDir == null ? Paths.get(System.getProperty("java.io.tmpdir")) : Paths.get(spillDir);
+	}
+
+	/**
+	 * @return an empty buffer drawing on this pool, to be closed once used.
+	 */
+	public TransferBuffer newBuffer() {
+		return new TransferBuffer(this);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public long getMemoryCeiling() {
+		return memoryCeiling;
+	}
+
+	public Path getSpillDir() {
+		return spillDir;
+	}
+
+	/**
+	 * @return the number of chunks waiting for reuse.
+	 */
+	public int getPooledCount() {
+		return pooledChunks.get();
+	}
+
+	/*
+	 * Chunks are heap buffers, so their content can be read through their
+	 * arrays without copying.
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer chunk = chunks.pollFirst();
+		if (chunk == null) {
+			return ByteBuffer.allocate(chunkSize);
+		}
+		pooledChunks.decrementAndGet();
+		return chunk;
+	}
+
+	void release(ByteBuffer chunk) {
+		chunk.clear();
+		if (pooledChunks.incrementAndGet() <= maxPooledChunks) {
+			// most recently used first, as it is the most likely to be in the cache
+			chunks.offerFirst(chunk);
+		} else {
+			pooledChunks.decrementAndGet();
+		}
+	}
+}
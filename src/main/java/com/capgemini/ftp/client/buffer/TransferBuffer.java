@@ -0,0 +1,198 @@
+package com.capgemini.ftp.client.buffer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The responsibility of this class is to hold the content of a file being
+ * transferred in memory, in chunks from a {@link ByteBufferPool}, and to move
+ * it to a file once it grows beyond the memory ceiling of the pool, so that
+ * small files never touch the disk and large ones cannot exhaust the heap.
+ * <p>
+ * The content is written through {@link #getOutputStream()} and read, as
+ * often as needed, through {@link #getInputStream()} once written. Closing
+ * the buffer returns its chunks to the pool or deletes its file, so it must
+ * be closed once the content has been used. A buffer is not safe for use by
+ * concurrent threads.
+ */
+public class TransferBuffer implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransferBuffer.class);
+
+	private final ByteBufferPool pool;
+
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+	private final OutputStream outputStream = new ContentOutputStream();
+
+	private long size;
+
+	private Path spillFile;
+
+	private OutputStream spillStream;
+
+	private boolean closed;
+
+	TransferBuffer(ByteBufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the stream to write the content to; closing it is not needed.
+	 */
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * @return a stream over the content written so far.
+	 */
+	public InputStream getInputStream() throws IOException {
+		checkOpen();
+		if (spillFile != null) {
+			spillStream.flush();
+			return Files.newInputStream(spillFile);
+		}
+		List<InputStream> streams = new ArrayList<InputStream>(chunks.size());
+		for (ByteBuffer chunk : chunks) {
+			streams.add(new ByteArrayInputStream(chunk.array(), chunk.arrayOffset(), chunk.position()));
+		}
+		return new SequenceInputStream(Collections.enumeration(streams));
+	}
+
+	/**
+	 * @return a copy of the content; only for content known to fit in an
+	 *         array.
+	 */
+	public byte[] toByteArray() throws IOException {
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException("Content too large for an array: " + size + " bytes");
+		}
+		byte[] content = new byte[(int) size];
+		int offset = 0;
+		try (InputStream input = getInputStream()) {
+			int read;
+			while (offset < content.length && (read = input.read(content, offset, content.length - offset)) != -1) {
+				offset += read;
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * @return the number of bytes written.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return true while the content has not been spilled to a file.
+	 */
+	public boolean isInMemory() {
+		return spillFile == null;
+	}
+
+	/**
+	 * Return the chunks to the pool or delete the file.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		releaseChunks();
+		if (spillFile != null) {
+			try {
+				spillStream.close();
+				Files.deleteIfExists(spillFile);
+			} catch (IOException e) {
+				logger.warn("Failed to delete spill file {}: {}", spillFile, e.getMessage());
+			}
+		}
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		if (spillFile == null && size + len > pool.getMemoryCeiling()) {
+			spill();
+		}
+		size += len;
+		if (spillFile != null) {
+			spillStream.write(b, off, len);
+			return;
+		}
+		while (len > 0) {
+			ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			if (chunk == null || !chunk.hasRemaining()) {
+				chunk = pool.acquire();
+				chunks.add(chunk);
+			}
+			int n = Math.min(len, chunk.remaining());
+			chunk.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void spill() throws IOException {
+		spillFile = Files.createTempFile(pool.getSpillDir(), "transfer", ".spill");
+		spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile), pool.getChunkSize());
+		for (ByteBuffer chunk : chunks) {
+			spillStream.write(chunk.array(), chunk.arrayOffset(), chunk.position());
+		}
+		releaseChunks();
+		logger.debug("Transfer buffer of {} bytes spilled to {}", size, spillFile);
+	}
+
+	private void releaseChunks() {
+		for (ByteBuffer chunk : chunks) {
+			pool.release(chunk);
+		}
+		chunks.clear();
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Transfer buffer closed");
+		}
+	}
+
+	private class ContentOutputStream extends OutputStream {
+
+		private final byte[] single = new byte[1];
+
+		@Override
+		public void write(int b) throws IOException {
+			single[0] = (byte) b;
+			TransferBuffer.this.write(single, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			TransferBuffer.this.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (spillStream != null) {
+				spillStream.flush();
+			}
+		}
+	}
+}
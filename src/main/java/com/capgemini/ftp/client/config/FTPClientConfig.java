@@ -35,6 +35,14 @@ public class FTPClientConfig {
 			this.ccsPassword = (String) map.get("ccsPassword");
 			
 			this.keyStoreCacheTimeToLive = (Integer) map.get("keyStoreCacheTimeToLive");
+			
+			this.ftpFastListParsing = Boolean.TRUE.equals(map.get("ftpFastListParsing"));	//Use the single pass UNIX/Windows LIST parser
+			this.ftpBlockTransferMode = Boolean.TRUE.equals(map.get("ftpBlockTransferMode"));	//Try MODE B, keeping the data connection open between transfers
+			this.ftpSpeculativeDataConnections = Boolean.TRUE.equals(map.get("ftpSpeculativeDataConnections"));	//Prepare the next passive connection while a transfer completes
+			this.ftpDiscoveryCacheTimeToLive = map.get("ftpDiscoveryCacheTimeToLive") == null ? 0 : (Integer) map.get("ftpDiscoveryCacheTimeToLive");	//Share SYST/FEAT results per server, 0 to disable
+			this.ftpByteReplyDecoding = Boolean.TRUE.equals(map.get("ftpByteReplyDecoding"));	//Decode control connection replies from bytes with reused buffers
+			this.ftpPickupWatermarkFile = (String) map.get("ftpPickupWatermarkFile");	//Local file keeping the newest file picked up, for incremental pickup
+			this.ftpLocalFsyncPolicy = (String) map.get("ftpLocalFsyncPolicy");	//NONE, PER_FILE or BATCHED, see FsyncPolicy
 		}
 	}
 
@@ -81,5 +89,19 @@ public class FTPClientConfig {
 	public String ccsPassword;
 	
 	public int keyStoreCacheTimeToLive;	//milliseconds
+	
+	public boolean ftpFastListParsing;
+	
+	public boolean ftpBlockTransferMode;
+	
+	public boolean ftpSpeculativeDataConnections;
+	
+	public int ftpDiscoveryCacheTimeToLive;	//milliseconds
+	
+	public boolean ftpByteReplyDecoding;
+	
+	public String ftpPickupWatermarkFile;
+	
+	public String ftpLocalFsyncPolicy;
 
 }
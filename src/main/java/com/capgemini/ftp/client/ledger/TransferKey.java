@@ -0,0 +1,88 @@
+package com.capgemini.ftp.client.ledger;
+
+import com.capgemini.ftp.client.RemoteFileAttributes;
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+
+/**
+ * The responsibility of this class is to identify one version of a remote
+ * file in the {@link TransferLedger}: the server, the path, the size and the
+ * modification time. A file replaced on the server under the same name has a
+ * different key and is picked up again.
+ */
+public final class TransferKey {
+
+	private final String server;
+
+	private final String path;
+
+	private final long size;
+
+	private final long modificationTime;
+
+	/**
+	 * @param server
+	 *            identifies the server, e.g. <code>host:port</code>.
+	 * @param path
+	 *            the path of the file on the server.
+	 * @param modificationTime
+	 *            in milliseconds since the epoch, or -1 if not known.
+	 */
+	public TransferKey(String server, String path, long size, long modificationTime) {
+		if (server == null || path == null) {
+			throw new IllegalArgumentException("server and path are required");
+		}
+		this.server = server;
+		this.path = path;
+		this.size = size;
+		this.modificationTime = modificationTime;
+	}
+
+	/**
+	 * @return the key of a file on the server the client is connected to.
+	 */
+	public static TransferKey of(EnhancedFTPClient ftpClient, String path, RemoteFileAttributes attributes) {
+		String server = ftpClient.getConnectionRemoteHost() + ":" + ftpClient.getRemotePort();
+		return new TransferKey(server, path, attributes.getSize(), attributes.getModificationTime());
+	}
+
+	public String getServer() {
+		return server;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TransferKey)) {
+			return false;
+		}
+		TransferKey other = (TransferKey) obj;
+		return size == other.size && modificationTime == other.modificationTime && path.equals(other.path) && server.equals(other.server);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = server.hashCode();
+		result = 31 * result + path.hashCode();
+		result = 31 * result + (int) (size ^ (size >>> 32));
+		return 31 * result + (int) (modificationTime ^ (modificationTime >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return server + " " + path + " [size=" + size + ", modificationTime=" + modificationTime + "]";
+	}
+}
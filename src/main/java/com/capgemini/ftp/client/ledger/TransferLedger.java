@@ -0,0 +1,523 @@
+package com.capgemini.ftp.client.ledger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The responsibility of this class is to remember, across restarts, how far
+ * each remote file got through its pickup (see {@link TransferState}), so that
+ * a restarted service resumes where it stopped instead of downloading
+ * everything again.
+ * <p>
+ * The ledger lives in a local directory and is made of two files:
+ * <ul>
+ * <li><code>ledger.log</code>, a memory-mapped, append-only log with one
+ * record per state change. Each record carries a CRC-32, so a record torn by
+ * a crash ends the replay instead of corrupting it.</li>
+ * <li><code>ledger.index</code>, the latest state of every file, written
+ * when the log is full. The log then starts again empty under a new epoch;
+ * the epoch is part of the checksum of every record, so the records of an
+ * earlier epoch left in the log are never replayed.</li>
+ * </ul>
+ * On opening, the index is read and the log replayed on top of it into an
+ * in-memory map, which answers all queries.
+ * <p>
+ * {@link #record(TransferKey, TransferState)} only updates the map and queues
+ * the record, so it adds nothing measurable to a transfer. A background
+ * thread appends the queued records to the log and forces them to disk once
+ * for all the records that queued up while the previous force was running
+ * (group commit). Before a step that cannot be repeated safely, e.g. moving
+ * the remote file to its archive, call {@link #sync()} (or use
+ * {@link #recordDurably(TransferKey, TransferState)}) to wait until the
+ * records made so far are on disk.
+ * <p>
+ * Files stay in the ledger until they are forgotten, so a long running
+ * service should call {@link #forget(TransferState)} from time to time, e.g.
+ * for {@link TransferState#ARCHIVED} files once they have left the server.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *  TransferKey key = TransferKey.of(ftpClient, fileName, attributes);
+ *  if (ledger.needsDownload(key)) {
+ *    ledger.record(key, TransferState.DOWNLOADING);
+ *    fileTransferBean.downloadFile(correlationId, ftpClient, localPath, fileName);
+ *    ledger.recordDurably(key, TransferState.DOWNLOADED);
+ *  }
+ *  if (ledger.getState(key) == TransferState.DOWNLOADED) {
+ *    fileTransferBean.moveRemoteFile(correlationId, ftpClient, fileName, archivePath);
+ *    ledger.record(key, TransferState.ARCHIVED);
+ *  }
+ * </code>
+ * </pre>
+ * <p>
+ * Only one process may open a ledger directory at a time. Instances are
+ * thread safe.
+ */
+public class TransferLedger implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransferLedger.class);
+
+	public static final int DEFAULT_LOG_CAPACITY = 8 * 1024 * 1024;
+
+	static final String LOG_FILE = "ledger.log";
+
+	static final String INDEX_FILE = "ledger.index";
+
+	private static final int LOG_MAGIC = 0x46544c47;
+
+	private static final int INDEX_MAGIC = 0x4654494e;
+
+	// magic (int), epoch (long)
+	static final int LOG_HEADER_SIZE = 12;
+
+	// length (int), checksum (int)
+	static final int RECORD_HEADER_SIZE = 8;
+
+	private static final int MAX_BATCH = 4096;
+
+	private static final Record CLOSE = new Record(null, null, 0);
+
+	private final Path directory;
+
+	private final Map<TransferKey, TransferState> states = new ConcurrentHashMap<TransferKey, TransferState>();
+
+	private final BlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+
+	private final FileChannel channel;
+
+	private final MappedByteBuffer log;
+
+	private final Thread writer;
+
+	private final Object commitLock = new Object();
+
+	private final CRC32 crc = new CRC32();
+
+	private final ByteBuffer epochBytes = ByteBuffer.allocate(8);
+
+	private long epoch;
+
+	// guarded by this
+	private long enqueued;
+
+	private boolean closed;
+
+	// guarded by commitLock
+	private long committed;
+
+	// set by the writer thread if it stopped
+	private volatile IOException failure;
+
+	private TransferLedger(Path directory, int logCapacity) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		readIndex();
+		channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(logCapacity, channel.size()));
+			if (log.getInt(0) == LOG_MAGIC && log.getLong(4) == epoch) {
+				replay();
+			} else {
+				// a new log, or one whose records are all in the index already
+				startLog();
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeRecords();
+			}
+		}, "transfer-ledger-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Open the ledger in a directory, creating it if it does not exist.
+	 */
+	public static TransferLedger open(Path directory) throws IOException {
+		return new TransferLedger(directory, DEFAULT_LOG_CAPACITY);
+	}
+
+	/**
+	 * @param logCapacity
+	 *            the size in bytes of the log; when it is full the ledger
+	 *            writes its index and starts the log again.
+	 */
+	public static TransferLedger open(Path directory, int logCapacity) throws IOException {
+		if (logCapacity <= LOG_HEADER_SIZE) {
+			throw new IllegalArgumentException("logCapacity too small: " + logCapacity);
+		}
+		return new TransferLedger(directory, logCapacity);
+	}
+
+	/**
+	 * @return the last recorded state of the file, or null if none.
+	 */
+	public TransferState getState(TransferKey key) {
+		return states.get(key);
+	}
+
+	/**
+	 * @return true if the file has not been downloaded yet: it is new, was
+	 *         only discovered, failed or was interrupted while downloading.
+	 */
+	public boolean needsDownload(TransferKey key) {
+		TransferState state = states.get(key);
+		return state != TransferState.DOWNLOADED && state != TransferState.ARCHIVED;
+	}
+
+	/**
+	 * @return the files whose last recorded state is the one given, e.g.
+	 *         {@link TransferState#DOWNLOADED} to finish archiving after a
+	 *         restart.
+	 */
+	public List<TransferKey> getKeys(TransferState state) {
+		List<TransferKey> keys = new ArrayList<TransferKey>();
+		for (Map.Entry<TransferKey, TransferState> entry : states.entrySet()) {
+			if (entry.getValue() == state) {
+				keys.add(entry.getKey());
+			}
+		}
+		return keys;
+	}
+
+	public int size() {
+		return states.size();
+	}
+
+	/**
+	 * Record a new state of a file. The state is visible to the queries at
+	 * once; it is written to disk in the background.
+	 */
+	public void record(TransferKey key, TransferState state) {
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("The transfer ledger has been closed");
+			}
+			states.put(key, state);
+			if (failure == null) {
+				queue.add(new Record(key, state, ++enqueued));
+			}
+		}
+	}
+
+	/**
+	 * The goal of this method is to keep the ledger from growing without
+	 * bound: the files whose last recorded state is the one given are
+	 * removed, and the ledger is compacted in the background so that they
+	 * are not read back on the next open. Call {@link #sync()} to wait for
+	 * the compaction.
+	 *
+	 * @return the number of files forgotten.
+	 */
+	public int forget(TransferState state) {
+		int forgotten = 0;
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("The transfer ledger has been closed");
+			}
+			for (Map.Entry<TransferKey, TransferState> entry : states.entrySet()) {
+				if (entry.getValue() == state && states.remove(entry.getKey(), state)) {
+					forgotten++;
+				}
+			}
+			// records queued before are appended first, so none of them brings a forgotten file back
+			if (forgotten > 0 && failure == null) {
+				// a record without a key asks the writer for a compaction
+				queue.add(new Record(null, null, ++enqueued));
+			}
+		}
+		logger.debug("Forgot {} {} files in the transfer ledger in {}", forgotten, state, directory);
+		return forgotten;
+	}
+
+	/**
+	 * Record a new state of a file and wait until it is on disk.
+	 */
+	public void recordDurably(TransferKey key, TransferState state) throws IOException {
+		record(key, state);
+		sync();
+	}
+
+	/**
+	 * Wait until all the states recorded so far are on disk.
+	 *
+	 * @throws IOException
+	 *             if the ledger could not be written.
+	 */
+	public void sync() throws IOException {
+		long target;
+		synchronized (this) {
+			target = enqueued;
+		}
+		synchronized (commitLock) {
+			while (committed < target && failure == null) {
+				try {
+					commitLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the transfer ledger");
+				}
+			}
+			if (failure != null) {
+				throw new IOException("The transfer ledger could not be written", failure);
+			}
+		}
+	}
+
+	/**
+	 * Write the outstanding records and close the files.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.add(CLOSE);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		synchronized (commitLock) {
+			if (failure != null) {
+				throw new IOException("The transfer ledger could not be written", failure);
+			}
+		}
+	}
+
+	/*
+	 * Run by the writer thread; the only thread that touches the log after
+	 * the constructor.
+	 */
+	private void writeRecords() {
+		List<Record> batch = new ArrayList<Record>();
+		boolean closing = false;
+		while (!closing) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			long sequence = 0;
+			try {
+				for (Record record : batch) {
+					if (record == CLOSE) {
+						closing = true;
+					} else if (record.key == null) {
+						compact();
+						sequence = record.sequence;
+					} else {
+						append(record);
+						sequence = record.sequence;
+					}
+				}
+				if (sequence > 0) {
+					log.force();
+				}
+			} catch (IOException | RuntimeException e) {
+				logger.error("Failed to write the transfer ledger in {}", directory, e);
+				synchronized (commitLock) {
+					failure = e instanceof IOException ? (IOException) e : new IOException(e);
+					commitLock.notifyAll();
+				}
+				return;
+			}
+			batch.clear();
+			if (sequence > 0) {
+				synchronized (commitLock) {
+					committed = sequence;
+					commitLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	private void append(Record record) throws IOException {
+		byte[] server = record.key.getServer().getBytes(StandardCharsets.UTF_8);
+		byte[] path = record.key.getPath().getBytes(StandardCharsets.UTF_8);
+		int length = 1 + 8 + 8 + 4 + server.length + 4 + path.length;
+		if (log.remaining() < RECORD_HEADER_SIZE + length) {
+			compact();
+			if (log.remaining() < RECORD_HEADER_SIZE + length) {
+				throw new IOException("Transfer ledger record larger than the log: " + record.key);
+			}
+		}
+		int start = log.position();
+		log.position(start + RECORD_HEADER_SIZE);
+		log.put((byte) record.state.ordinal());
+		log.putLong(record.key.getSize());
+		log.putLong(record.key.getModificationTime());
+		log.putInt(server.length);
+		log.put(server);
+		log.putInt(path.length);
+		log.put(path);
+		log.putInt(start, length);
+		log.putInt(start + 4, checksum(start + RECORD_HEADER_SIZE, length));
+	}
+
+	private void replay() {
+		int position = LOG_HEADER_SIZE;
+		int records = 0;
+		while (position + RECORD_HEADER_SIZE <= log.capacity()) {
+			int length = log.getInt(position);
+			if (length <= 0 || length > log.capacity() - position - RECORD_HEADER_SIZE) {
+				break;
+			}
+			int body = position + RECORD_HEADER_SIZE;
+			if (log.getInt(position + 4) != checksum(body, length)) {
+				break;
+			}
+			log.position(body);
+			int state = log.get();
+			long size = log.getLong();
+			long modificationTime = log.getLong();
+			String server = getString();
+			String path = getString();
+			states.put(new TransferKey(server, path, size, modificationTime), TransferState.valueOf(state));
+			position = body + length;
+			records++;
+		}
+		log.position(position);
+		logger.debug("Replayed {} transfer ledger records from {}", records, directory);
+	}
+
+	private String getString() {
+		byte[] bytes = new byte[log.getInt()];
+		log.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * The checksum of a record covers the epoch, so that the records of an
+	 * earlier epoch do not pass for records of the current one.
+	 */
+	private int checksum(int offset, int length) {
+		crc.reset();
+		epochBytes.clear();
+		epochBytes.putLong(0, epoch);
+		crc.update(epochBytes);
+		ByteBuffer body = log.duplicate();
+		body.limit(offset + length).position(offset);
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+
+	/*
+	 * Write the latest state of every file to the index under the next epoch,
+	 * then start the log again under that epoch. A crash in between leaves
+	 * the log under the old epoch, which is then ignored.
+	 */
+	private void compact() throws IOException {
+		long next = epoch + 1;
+		List<Map.Entry<TransferKey, TransferState>> entries = new ArrayList<Map.Entry<TransferKey, TransferState>>(states.entrySet());
+		Path index = directory.resolve(INDEX_FILE);
+		Path temp = Files.createTempFile(directory, INDEX_FILE, ".tmp");
+		try {
+			try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+				output.writeInt(INDEX_MAGIC);
+				output.writeLong(next);
+				output.writeInt(entries.size());
+				for (Map.Entry<TransferKey, TransferState> entry : entries) {
+					output.writeUTF(entry.getKey().getServer());
+					output.writeUTF(entry.getKey().getPath());
+					output.writeLong(entry.getKey().getSize());
+					output.writeLong(entry.getKey().getModificationTime());
+					output.writeByte(entry.getValue().ordinal());
+				}
+				output.flush();
+				file.getFD().sync();
+			}
+			try {
+				Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		epoch = next;
+		startLog();
+		logger.debug("Compacted the transfer ledger in {} to {} entries", directory, entries.size());
+	}
+
+	private void startLog() {
+		log.putInt(0, LOG_MAGIC);
+		log.putLong(4, epoch);
+		log.position(LOG_HEADER_SIZE);
+		log.force();
+	}
+
+	private void readIndex() throws IOException {
+		Path index = directory.resolve(INDEX_FILE);
+		if (!Files.exists(index)) {
+			return;
+		}
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+			if (input.readInt() != INDEX_MAGIC) {
+				throw new IOException("Not a transfer ledger index: " + index);
+			}
+			epoch = input.readLong();
+			int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				String server = input.readUTF();
+				String path = input.readUTF();
+				long size = input.readLong();
+				long modificationTime = input.readLong();
+				states.put(new TransferKey(server, path, size, modificationTime), TransferState.valueOf(input.readByte()));
+			}
+		}
+	}
+
+	private static class Record {
+
+		private final TransferKey key;
+
+		private final TransferState state;
+
+		private final long sequence;
+
+		Record(TransferKey key, TransferState state, long sequence) {
+			this.key = key;
+			this.state = state;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.capgemini.ftp.client.ledger;
+
+/**
+ * The states a remote file goes through as it is picked up, in the order they
+ * are normally recorded in the {@link TransferLedger}.
+ */
+public enum TransferState {
+
+	/**
+	 * Found on the server; nothing has been done with it yet.
+	 */
+	DISCOVERED,
+
+	/**
+	 * The download has started. A file found in this state after a restart
+	 * was interrupted and must be downloaded again.
+	 */
+	DOWNLOADING,
+
+	/**
+	 * The local copy is complete; the remote file has not been archived yet.
+	 */
+	DOWNLOADED,
+
+	/**
+	 * The remote file has been moved to its archive. Nothing is left to do.
+	 */
+	ARCHIVED,
+
+	/**
+	 * The last attempt failed; the file may be tried again.
+	 */
+	FAILED;
+
+	private static final TransferState[] VALUES = values();
+
+	static TransferState valueOf(int ordinal) {
+		return VALUES[ordinal];
+	}
+}
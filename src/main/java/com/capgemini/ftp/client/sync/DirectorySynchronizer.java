@@ -0,0 +1,559 @@
+package com.capgemini.ftp.client.sync;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.exception.MonitoredError;
+import com.capgemini.ftp.client.DownloadStaging;
+import com.capgemini.ftp.client.FTPClientPool;
+import com.capgemini.ftp.client.FileTransferBean;
+import com.capgemini.ftp.client.FsyncPolicy;
+import com.capgemini.ftp.client.LocalFileAttributes;
+import com.capgemini.ftp.client.LocalTreeScanner;
+import com.capgemini.ftp.client.RemoteFileAttributes;
+import com.capgemini.ftp.client.RemoteFileOutcome;
+import com.capgemini.ftp.client.RemoteTreeWalker;
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.util.StopWatch;
+
+/**
+ * The responsibility of this class is to keep a local and a remote directory
+ * tree in step, transferring only the files that changed since the last
+ * synchronization as recorded in a {@link SyncManifest}.
+ * <p>
+ * Each synchronization takes one snapshot of the remote tree, walked with a
+ * {@link RemoteTreeWalker} (MLSD, or LIST where the server does not support
+ * MLST), and one of the local tree, scanned with a {@link LocalTreeScanner},
+ * and compares both with the manifest in hash maps keyed by the path of each
+ * file relative to the top directory, e.g. <code>2017/03/orders.xml</code>.
+ * Files are
+ * transferred in parallel on the sessions of an {@link FTPClientPool}, so the
+ * cost of a synchronization beyond the two listings is proportional to the
+ * number of changed files. Checksums are only computed for files being
+ * transferred, where they are taken from the stream on its way through, and
+ * for local files whose modification time changed but whose size did not.
+ * <p>
+ * A file is considered changed when its size or modification time differs
+ * from the manifest. Remote modification times are only compared when taken
+ * from MLSD, since LIST reports them with a precision that changes as files
+ * age; with LIST only the sizes of remote files are compared.
+ * <p>
+ * Downloads are staged through a {@link DownloadStaging}, so a local file is
+ * only replaced once its new version is complete. Files that fail are
+ * reported in the {@link SyncResult} and left out of the manifest, so the
+ * next synchronization tries them again.
+ * <p>
+ * Directories missing on the target side are created as files are
+ * transferred into them; directories are never deleted, even when the
+ * mirror modes delete all the files they contained. A source directory that
+ * cannot be listed, e.g. for lack of permission, is skipped: its files are
+ * neither deleted from the target side nor forgotten by the manifest.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *  SyncManifest manifest = SyncManifest.load(Paths.get(localDir, ".sync-manifest"));
+ *  SyncResult result = new DirectorySynchronizer(fileTransferBean, pool)
+ *      .synchronize(correlationId, "/outbound", localDir, manifest, SyncMode.DOWNLOAD_CHANGED);
+ * </code>
+ * </pre>
+ */
+public class DirectorySynchronizer {
+
+	private static final Logger logger = LoggerFactory.getLogger(DirectorySynchronizer.class);
+
+	private final FileTransferBean fileTransferBean;
+
+	private final FTPClientPool pool;
+
+	public DirectorySynchronizer(FileTransferBean fileTransferBean, FTPClientPool pool) {
+		this.fileTransferBean = fileTransferBean;
+		this.pool = pool;
+	}
+
+	/**
+	 * The goal of this method is to bring the target side of the mode up to
+	 * date with its source side and to save the manifest afterwards.
+	 *
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param remoteDir
+	 *            the top remote directory, or null for the working directory
+	 *            of the sessions.
+	 * @param localDir
+	 *            the top local directory.
+	 * @param manifest
+	 *            the state of the last synchronization of these directories.
+	 *            The file of the manifest may be kept in the local directory;
+	 *            it is never synchronized.
+	 * @param mode
+	 *            the direction, and whether to delete files missing from the
+	 *            source side.
+	 * @return what was transferred, deleted or failed.
+	 */
+	public SyncResult synchronize(String correlationId, String remoteDir, String localDir, SyncManifest manifest, SyncMode mode) {
+		logger.info("CorrelationId: {} Synchronizing remote directory {} and local directory {} ({})", correlationId, remoteDir, localDir, mode);
+		StopWatch sw = new StopWatch();
+		sw.start();
+		RemoteTree remoteTree = listRemoteTree(correlationId, remoteDir);
+		Map<String, RemoteFileAttributes> remoteFiles = remoteTree.files;
+		Map<String, LocalFileAttributes> localFiles = listLocalFiles(correlationId, localDir);
+		localFiles.remove(manifest.getPath().getFileName().toString());
+
+		SyncResult result = new SyncResult(mode);
+		List<String> changed;
+		if (mode.isDownload()) {
+			manifest.removeAll(missingFromRemote(remoteTree, manifest.getFileNames()));
+			changed = downloadsNeeded(correlationId, localDir, manifest, remoteFiles, localFiles);
+			result.setUnchanged(remoteFiles.size() - changed.size());
+		} else {
+			manifest.removeAll(missingFromLocal(localDir, localFiles, manifest.getFileNames()));
+			changed = uploadsNeeded(correlationId, localDir, manifest, remoteFiles, localFiles);
+			result.setUnchanged(localFiles.size() - changed.size());
+			createRemoteDirectories(correlationId, remoteDir, remoteTree.directories, changed);
+		}
+		logger.info("CorrelationId: {} {} files changed, {} unchanged", correlationId, changed.size(), result.getUnchanged());
+
+		transferAll(correlationId, remoteDir, localDir, manifest, remoteFiles, localFiles, changed, mode.isDownload(), result);
+		if (mode == SyncMode.MIRROR_TO_LOCAL) {
+			deleteLocalFiles(correlationId, localDir, missingFromRemote(remoteTree, localFiles.keySet()), result);
+		} else if (mode == SyncMode.MIRROR_TO_REMOTE) {
+			deleteRemoteFiles(correlationId, remoteDir, missingFromLocal(localDir, localFiles, remoteFiles.keySet()), result);
+		}
+
+		try {
+			manifest.save();
+		} catch (IOException e) {
+			MonitoredError.LOCAL_FILE_ACCESS_ERROR.create(correlationId, manifest.getPath().toString(), "Failed to save the sync manifest.", e);
+		}
+		sw.end();
+		logger.info("CorrelationId: {} Took [{}] milliseconds to synchronize: {}", correlationId, sw.timeTaken(), result);
+		return result;
+	}
+
+	private List<String> downloadsNeeded(String correlationId, String localDir, SyncManifest manifest, Map<String, RemoteFileAttributes> remoteFiles,
+			Map<String, LocalFileAttributes> localFiles) {
+		List<String> changed = new ArrayList<String>();
+		for (RemoteFileAttributes remoteFile : remoteFiles.values()) {
+			String fileName = remoteFile.getFileName();
+			ManifestEntry entry = manifest.get(fileName);
+			if (entry == null || remoteChanged(entry, remoteFile) || localChanged(correlationId, localDir, manifest, entry, localFiles.get(fileName))) {
+				changed.add(fileName);
+			}
+		}
+		return changed;
+	}
+
+	private List<String> uploadsNeeded(String correlationId, String localDir, SyncManifest manifest, Map<String, RemoteFileAttributes> remoteFiles,
+			Map<String, LocalFileAttributes> localFiles) {
+		List<String> changed = new ArrayList<String>();
+		for (LocalFileAttributes localFile : localFiles.values()) {
+			String fileName = localFile.getRelativePath();
+			ManifestEntry entry = manifest.get(fileName);
+			if (entry == null || localChanged(correlationId, localDir, manifest, entry, localFile) || remoteChanged(entry, remoteFiles.get(fileName))) {
+				changed.add(fileName);
+			}
+		}
+		return changed;
+	}
+
+	private boolean remoteChanged(ManifestEntry entry, RemoteFileAttributes remoteFile) {
+		if (remoteFile == null || remoteFile.getSize() != entry.getSize()) {
+			return true;
+		}
+		return remoteFile.getModificationTime() != -1 && entry.getRemoteModificationTime() != -1
+				&& remoteFile.getModificationTime() != entry.getRemoteModificationTime();
+	}
+
+	/*
+	 * A local file that was only touched, i.e. has the same size and checksum
+	 * as in the manifest, is not changed; its new modification time is
+	 * recorded so that the checksum is not computed again next time.
+	 */
+	private boolean localChanged(String correlationId, String localDir, SyncManifest manifest, ManifestEntry entry, LocalFileAttributes localFile) {
+		if (localFile == null || localFile.getSize() != entry.getSize()) {
+			return true;
+		}
+		if (localFile.getModificationTime() == entry.getLocalModificationTime()) {
+			return false;
+		}
+		try {
+			if (checksum(localFile.getPath().toFile()) != entry.getChecksum()) {
+				return true;
+			}
+		} catch (IOException e) {
+			logger.warn("CorrelationId: {} Could not read {} to compare its checksum: {}", correlationId, localFile.getRelativePath(), e.getMessage());
+			return true;
+		}
+		manifest.put(entry.withLocalModificationTime(localFile.getModificationTime()));
+		return false;
+	}
+
+	private void transferAll(final String correlationId, final String remoteDir, final String localDir, SyncManifest manifest,
+			final Map<String, RemoteFileAttributes> remoteFiles, final Map<String, LocalFileAttributes> localFiles, List<String> fileNames,
+			final boolean download, SyncResult result) {
+		if (fileNames.isEmpty()) {
+			return;
+		}
+		final Map<String, ManifestEntry> transferred = new ConcurrentHashMap<String, ManifestEntry>();
+		Map<String, Future<RemoteFileOutcome>> futures = new LinkedHashMap<String, Future<RemoteFileOutcome>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(pool.getMaxSize(), fileNames.size()));
+		try {
+			for (final String fileName : fileNames) {
+				futures.put(fileName, executor.submit(() -> {
+					EnhancedFTPClient ftpClient = pool.borrow();
+					try {
+						RemoteFileOutcome outcome = download ? download(ftpClient, remoteDir, localDir, remoteFiles.get(fileName), transferred)
+								: upload(ftpClient, remoteDir, localDir, localFiles.get(fileName), transferred);
+						pool.release(ftpClient);
+						return outcome;
+					} catch (IOException | RuntimeException e) {
+						pool.invalidate(ftpClient);
+						throw e;
+					}
+				}));
+			}
+			for (Map.Entry<String, Future<RemoteFileOutcome>> future : futures.entrySet()) {
+				RemoteFileOutcome outcome;
+				try {
+					outcome = future.getValue().get();
+				} catch (ExecutionException e) {
+					outcome = new RemoteFileOutcome(future.getKey(), false, -1, e.getCause().getMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					MonitoredError.UNHANDLED_TRANSFER_ERROR.create(correlationId, future.getKey(), "Interrupted while waiting for a transfer.", e);
+					return; // Above line will throw an exception
+				}
+				if (!outcome.isSuccess()) {
+					logger.warn("CorrelationId: {} Failed to synchronize {}: {}", correlationId, outcome.getFileName(), outcome.getMessage());
+					result.addFailed(outcome);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		if (!download) {
+			recordRemoteModificationTimes(correlationId, remoteDir, transferred, result);
+		}
+		for (String fileName : fileNames) {
+			ManifestEntry entry = transferred.get(fileName);
+			if (entry != null) {
+				manifest.put(entry);
+				result.addTransferred(fileName);
+			} else {
+				manifest.remove(fileName);
+			}
+		}
+	}
+
+	/*
+	 * The file is written to a temporary file next to it and renamed over the
+	 * local one once complete, so a failed download leaves the previous
+	 * version in place.
+	 */
+	private RemoteFileOutcome download(EnhancedFTPClient ftpClient, String remoteDir, String localDir, RemoteFileAttributes remoteFile,
+			Map<String, ManifestEntry> transferred) throws IOException {
+		String fileName = remoteFile.getFileName();
+		Path target = Paths.get(localDir, fileName);
+		Files.createDirectories(target.getParent());
+		DownloadStaging staging = new DownloadStaging(target.getParent().toString(), FsyncPolicy.NONE);
+		DownloadStaging.StagedFile stagedFile = staging.stage(target.getFileName().toString());
+		CRC32 crc = new CRC32();
+		boolean retrieved;
+		boolean committed = false;
+		try {
+			// not closed here: commit and discard close the staged file
+			OutputStream output = new CheckedOutputStream(stagedFile.getOutputStream(), crc);
+			retrieved = ftpClient.retrieveFile(remotePath(remoteDir, fileName), output);
+			if (retrieved) {
+				staging.commit(stagedFile);
+				committed = true;
+			}
+		} finally {
+			if (!committed) {
+				staging.discard(stagedFile);
+			}
+		}
+		if (!retrieved) {
+			return new RemoteFileOutcome(fileName, false, ftpClient.getReplyCode(), ftpClient.getReplyString().trim());
+		}
+		File file = stagedFile.getTarget().toFile();
+		transferred.put(fileName, new ManifestEntry(fileName, file.length(), remoteFile.getModificationTime(), file.lastModified(), crc.getValue()));
+		return new RemoteFileOutcome(fileName, true, ftpClient.getReplyCode(), ftpClient.getReplyString().trim());
+	}
+
+	/*
+	 * The size and modification time are taken from the listing made before
+	 * the upload; if the file changes while it is uploaded the next
+	 * synchronization sees it as changed and uploads it again.
+	 */
+	private RemoteFileOutcome upload(EnhancedFTPClient ftpClient, String remoteDir, String localDir, LocalFileAttributes localFile,
+			Map<String, ManifestEntry> transferred) throws IOException {
+		String fileName = localFile.getRelativePath();
+		CRC32 crc = new CRC32();
+		boolean stored;
+		try (InputStream input = new CheckedInputStream(new FileInputStream(localFile.getPath().toFile()), crc)) {
+			stored = ftpClient.storeFile(remotePath(remoteDir, fileName), input);
+		}
+		if (!stored) {
+			return new RemoteFileOutcome(fileName, false, ftpClient.getReplyCode(), ftpClient.getReplyString().trim());
+		}
+		transferred.put(fileName, new ManifestEntry(fileName, localFile.getSize(), -1, localFile.getModificationTime(), crc.getValue()));
+		return new RemoteFileOutcome(fileName, true, ftpClient.getReplyCode(), ftpClient.getReplyString().trim());
+	}
+
+	/*
+	 * Read back the size and modification time of the uploaded files in one
+	 * pipelined SIZE/MDTM batch. A size that differs from the local one fails
+	 * the file. If the batch itself fails the entries are kept without a
+	 * remote modification time, so only sizes are compared next time.
+	 */
+	private void recordRemoteModificationTimes(String correlationId, String remoteDir, Map<String, ManifestEntry> transferred, SyncResult result) {
+		if (transferred.isEmpty()) {
+			return;
+		}
+		Map<String, String> fileNames = new HashMap<String, String>();
+		for (String fileName : transferred.keySet()) {
+			fileNames.put(remotePath(remoteDir, fileName), fileName);
+		}
+		Map<String, RemoteFileAttributes> attributes;
+		EnhancedFTPClient ftpClient = pool.borrow();
+		try {
+			attributes = fileTransferBean.getRemoteFileAttributes(correlationId, ftpClient, fileNames.keySet());
+			pool.release(ftpClient);
+		} catch (RuntimeException e) {
+			pool.invalidate(ftpClient);
+			logger.warn("CorrelationId: {} Could not read back the uploaded files: {}", correlationId, e.getMessage());
+			return;
+		}
+		for (Map.Entry<String, String> fileName : fileNames.entrySet()) {
+			ManifestEntry entry = transferred.get(fileName.getValue());
+			RemoteFileAttributes remoteFile = attributes.get(fileName.getKey());
+			if (remoteFile == null || remoteFile.getSize() != entry.getSize()) {
+				transferred.remove(fileName.getValue());
+				result.addFailed(new RemoteFileOutcome(fileName.getValue(), false, -1,
+						"Remote size " + (remoteFile == null ? "unknown" : remoteFile.getSize()) + " differs from local size " + entry.getSize()));
+			} else {
+				transferred.put(fileName.getValue(), new ManifestEntry(entry.getFileName(), entry.getSize(), remoteFile.getModificationTime(),
+						entry.getLocalModificationTime(), entry.getChecksum()));
+			}
+		}
+	}
+
+	/*
+	 * Parents first, so that nested directories can be created. A directory
+	 * that cannot be created is logged; the uploads into it then fail and are
+	 * reported.
+	 */
+	private void createRemoteDirectories(String correlationId, String remoteDir, Set<String> existing, List<String> fileNames) {
+		Set<String> missing = new TreeSet<String>();
+		for (String fileName : fileNames) {
+			for (int slash = fileName.indexOf('/'); slash > 0; slash = fileName.indexOf('/', slash + 1)) {
+				String directory = fileName.substring(0, slash);
+				if (!existing.contains(directory)) {
+					missing.add(directory);
+				}
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		EnhancedFTPClient ftpClient = pool.borrow();
+		try {
+			for (String directory : missing) {
+				if (!ftpClient.makeDirectory(remotePath(remoteDir, directory))) {
+					logger.warn("CorrelationId: {} Could not create remote directory {}: {}", correlationId, directory, ftpClient.getReplyString().trim());
+				}
+			}
+			pool.release(ftpClient);
+		} catch (IOException | RuntimeException e) {
+			pool.invalidate(ftpClient);
+			logger.warn("CorrelationId: {} Could not create remote directories: {}", correlationId, e.getMessage());
+		}
+	}
+
+	private void deleteLocalFiles(String correlationId, String localDir, List<String> fileNames, SyncResult result) {
+		for (String fileName : fileNames) {
+			if (new File(localDir, fileName).delete()) {
+				logger.debug("CorrelationId: {} Deleted local file {}", correlationId, fileName);
+				result.addDeleted(fileName);
+			} else {
+				result.addFailed(new RemoteFileOutcome(fileName, false, -1, "Local file could not be deleted."));
+			}
+		}
+	}
+
+	private void deleteRemoteFiles(String correlationId, String remoteDir, List<String> fileNames, SyncResult result) {
+		if (fileNames.isEmpty()) {
+			return;
+		}
+		Map<String, String> paths = new LinkedHashMap<String, String>();
+		for (String fileName : fileNames) {
+			paths.put(remotePath(remoteDir, fileName), fileName);
+		}
+		Map<String, RemoteFileOutcome> outcomes = fileTransferBean.deleteRemoteFiles(correlationId, pool, paths.keySet());
+		for (RemoteFileOutcome outcome : outcomes.values()) {
+			String fileName = paths.get(outcome.getFileName());
+			if (outcome.isSuccess()) {
+				result.addDeleted(fileName);
+			} else {
+				result.addFailed(new RemoteFileOutcome(fileName, false, outcome.getReplyCode(), outcome.getMessage()));
+			}
+		}
+	}
+
+	/*
+	 * Regular files only, keyed by path relative to the top directory.
+	 * Modification times are only kept from MLSD, see the class comment.
+	 */
+	private RemoteTree listRemoteTree(String correlationId, String remoteDir) {
+		boolean mlst = false;
+		EnhancedFTPClient ftpClient = pool.borrow();
+		try {
+			mlst = ftpClient.isMlstSupported();
+			pool.release(ftpClient);
+		} catch (IOException | RuntimeException e) {
+			pool.invalidate(ftpClient);
+			MonitoredError.FTP_COMMUNICATION_FAILURE.create(correlationId, remoteDir, "Failed to read the server features.", e);
+		}
+		final boolean modificationTimes = mlst;
+		String root = remoteDir == null ? "." : remoteDir;
+		final String prefix = root.endsWith("/") ? root : root + "/";
+		final RemoteTree tree = new RemoteTree();
+		new RemoteTreeWalker(pool).filter(ListingFilter.all()).walk(correlationId, root, new RemoteTreeWalker.Visitor() {
+			@Override
+			public void visit(String path, FTPFile file) {
+				String relativePath = path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+				if (file.isFile()) {
+					long modificationTime = modificationTimes && file.getTimestamp() != null ? file.getTimestamp().getTimeInMillis() : -1;
+					tree.files.put(relativePath, new RemoteFileAttributes(relativePath, file.getSize(), modificationTime));
+				} else if (file.isDirectory()) {
+					tree.directories.add(relativePath);
+				}
+			}
+
+			@Override
+			public void skipped(String directory, String reply) {
+				// the top directory itself is recorded as ""
+				tree.skipped.add(directory.startsWith(prefix) ? directory.substring(prefix.length()) : "");
+			}
+		});
+		logger.debug("CorrelationId: {} Listed {} remote files", correlationId, tree.files.size());
+		return tree;
+	}
+
+	/*
+	 * Regular files only, keyed by path relative to the top directory.
+	 */
+	private Map<String, LocalFileAttributes> listLocalFiles(String correlationId, String localDir) {
+		Map<String, LocalFileAttributes> localFiles = new HashMap<String, LocalFileAttributes>();
+		for (LocalFileAttributes localFile : new LocalTreeScanner().scan(correlationId, Paths.get(localDir))) {
+			localFiles.put(localFile.getRelativePath(), localFile);
+		}
+		return localFiles;
+	}
+
+	/*
+	 * The files that are not in the remote tree, leaving out those under a
+	 * directory the walk skipped, whose absence proves nothing.
+	 */
+	private static List<String> missingFromRemote(RemoteTree remoteTree, Collection<String> fileNames) {
+		List<String> missing = new ArrayList<String>();
+		for (String fileName : fileNames) {
+			if (!remoteTree.files.containsKey(fileName) && !under(fileName, remoteTree.skipped)) {
+				missing.add(fileName);
+			}
+		}
+		return missing;
+	}
+
+	/*
+	 * The files that are not in the local tree, leaving out those under a
+	 * directory that exists but cannot be read, which the scan skipped.
+	 */
+	private static List<String> missingFromLocal(String localDir, Map<String, LocalFileAttributes> localFiles, Collection<String> fileNames) {
+		List<String> missing = new ArrayList<String>();
+		for (String fileName : fileNames) {
+			if (!localFiles.containsKey(fileName) && !underUnreadableDirectory(localDir, fileName)) {
+				missing.add(fileName);
+			}
+		}
+		return missing;
+	}
+
+	private static boolean under(String fileName, Collection<String> directories) {
+		for (String directory : directories) {
+			if (directory.isEmpty() || fileName.startsWith(directory + "/")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean underUnreadableDirectory(String localDir, String fileName) {
+		Path root = Paths.get(localDir);
+		for (Path directory = root.resolve(fileName).getParent(); directory != null && directory.startsWith(root); directory = directory.getParent()) {
+			if (Files.isDirectory(directory) && !Files.isReadable(directory)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String remotePath(String remoteDir, String fileName) {
+		if (remoteDir == null) {
+			return fileName;
+		}
+		return remoteDir.endsWith("/") ? remoteDir + fileName : remoteDir + "/" + fileName;
+	}
+
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		try (InputStream input = new FileInputStream(file)) {
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static class RemoteTree {
+
+		private final Map<String, RemoteFileAttributes> files = new HashMap<String, RemoteFileAttributes>();
+
+		private final Set<String> directories = new HashSet<String>();
+
+		private final List<String> skipped = new ArrayList<String>();
+	}
+}
@@ -0,0 +1,74 @@
+package com.capgemini.ftp.client.sync;
+
+/**
+ * The responsibility of this class is to hold the state of one file as it was
+ * when it was last synchronized: its size, the modification times of the
+ * remote and the local copy, and the CRC-32 checksum of its content.
+ */
+public class ManifestEntry {
+
+	private final String fileName;
+
+	private final long size;
+
+	private final long remoteModificationTime;
+
+	private final long localModificationTime;
+
+	private final long checksum;
+
+	public ManifestEntry(String fileName, long size, long remoteModificationTime, long localModificationTime, long checksum) {
+		this.fileName = fileName;
+		this.size = size;
+		this.remoteModificationTime = remoteModificationTime;
+		this.localModificationTime = localModificationTime;
+		this.checksum = checksum;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the size in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the modification time of the remote file in milliseconds since
+	 *         the epoch, or -1 if the server did not report it.
+	 */
+	public long getRemoteModificationTime() {
+		return remoteModificationTime;
+	}
+
+	/**
+	 * @return the modification time of the local file in milliseconds since
+	 *         the epoch.
+	 */
+	public long getLocalModificationTime() {
+		return localModificationTime;
+	}
+
+	/**
+	 * @return the CRC-32 of the content.
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return a copy of this entry with another local modification time.
+	 */
+	ManifestEntry withLocalModificationTime(long localModificationTime) {
+		return new ManifestEntry(fileName, size, remoteModificationTime, localModificationTime, checksum);
+	}
+
+	@Override
+	public String toString() {
+		return fileName + " [size=" + size + ", remoteModificationTime=" + remoteModificationTime + ", localModificationTime=" + localModificationTime
+				+ ", checksum=" + Long.toHexString(checksum) + "]";
+	}
+}
@@ -0,0 +1,173 @@
+package com.capgemini.ftp.client.sync;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The responsibility of this class is to remember, between runs, the state of
+ * each file of a directory as it was when it was last synchronized, so that
+ * the next synchronization only has to transfer what changed since.
+ * <p>
+ * The manifest is kept in memory as a map keyed by filename and stored as a
+ * UTF-8 text file with one tab separated line per file:
+ * <code>size, remote modification time, local modification time, checksum
+ * (hex), name</code>. The name comes last so that it may itself contain tabs.
+ * {@link #save()} writes a new file next to the old one and renames it over
+ * it, so a crash never leaves a half written manifest.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class SyncManifest {
+
+	private static final String HEADER = "# sync manifest v1";
+
+	private static final char SEPARATOR = '\t';
+
+	private static final int FIELDS = 5;
+
+	private final Path path;
+
+	private final Map<String, ManifestEntry> entries;
+
+	private boolean modified;
+
+	private SyncManifest(Path path, Map<String, ManifestEntry> entries) {
+		this.path = path;
+		this.entries = entries;
+	}
+
+	/**
+	 * @param path
+	 *            the manifest file; if it does not exist the manifest starts
+	 *            empty and the file is created by {@link #save()}.
+	 * @throws IOException
+	 *             if the file exists but cannot be read or is not a manifest.
+	 */
+	public static SyncManifest load(Path path) throws IOException {
+		Map<String, ManifestEntry> entries = new HashMap<String, ManifestEntry>();
+		if (Files.exists(path)) {
+			try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+				String line = reader.readLine();
+				if (line != null && !HEADER.equals(line)) {
+					throw new IOException("Not a sync manifest: " + path);
+				}
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) {
+						ManifestEntry entry = parse(line);
+						entries.put(entry.getFileName(), entry);
+					}
+				}
+			}
+		}
+		return new SyncManifest(path, entries);
+	}
+
+	private static ManifestEntry parse(String line) throws IOException {
+		String[] fields = line.split(String.valueOf(SEPARATOR), FIELDS);
+		if (fields.length != FIELDS) {
+			throw new IOException("Malformed sync manifest line: " + line);
+		}
+		try {
+			return new ManifestEntry(fields[4], Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+					Long.parseLong(fields[3], 16));
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed sync manifest line: " + line, e);
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the entry of the file, or null if it has not been synchronized.
+	 */
+	public ManifestEntry get(String fileName) {
+		return entries.get(fileName);
+	}
+
+	public void put(ManifestEntry entry) {
+		entries.put(entry.getFileName(), entry);
+		modified = true;
+	}
+
+	public void remove(String fileName) {
+		if (entries.remove(fileName) != null) {
+			modified = true;
+		}
+	}
+
+	public void removeAll(Collection<String> fileNames) {
+		for (String fileName : fileNames) {
+			remove(fileName);
+		}
+	}
+
+	/**
+	 * @return the names of the synchronized files.
+	 */
+	public Set<String> getFileNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return true if entries have been changed since the manifest was loaded
+	 *         or last saved.
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Write the manifest to its file if it has been modified.
+	 */
+	public void save() throws IOException {
+		if (!modified) {
+			return;
+		}
+		Path parent = path.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				writer.write(HEADER);
+				writer.newLine();
+				for (ManifestEntry entry : entries.values()) {
+					writer.write(Long.toString(entry.getSize()));
+					writer.write(SEPARATOR);
+					writer.write(Long.toString(entry.getRemoteModificationTime()));
+					writer.write(SEPARATOR);
+					writer.write(Long.toString(entry.getLocalModificationTime()));
+					writer.write(SEPARATOR);
+					writer.write(Long.toHexString(entry.getChecksum()));
+					writer.write(SEPARATOR);
+					writer.write(entry.getFileName());
+					writer.newLine();
+				}
+			}
+			try {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		modified = false;
+	}
+}
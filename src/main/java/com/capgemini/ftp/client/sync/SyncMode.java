@@ -0,0 +1,41 @@
+package com.capgemini.ftp.client.sync;
+
+/**
+ * What a {@link DirectorySynchronizer} does with the differences between a
+ * remote directory, a local directory and the {@link SyncManifest} of the
+ * last synchronization.
+ */
+public enum SyncMode {
+
+	/**
+	 * Download the remote files that are new or changed since the last
+	 * synchronization, or whose local copy is missing or has been changed.
+	 */
+	DOWNLOAD_CHANGED,
+
+	/**
+	 * Upload the local files that are new or changed since the last
+	 * synchronization, or whose remote copy is missing or has been changed.
+	 */
+	UPLOAD_CHANGED,
+
+	/**
+	 * As {@link #DOWNLOAD_CHANGED}, and delete the local files that are not
+	 * in the remote directory.
+	 */
+	MIRROR_TO_LOCAL,
+
+	/**
+	 * As {@link #UPLOAD_CHANGED}, and delete the remote files that are not
+	 * in the local directory.
+	 */
+	MIRROR_TO_REMOTE;
+
+	boolean isDownload() {
+		return this == DOWNLOAD_CHANGED || this == MIRROR_TO_LOCAL;
+	}
+
+	boolean isMirror() {
+		return this == MIRROR_TO_LOCAL || this == MIRROR_TO_REMOTE;
+	}
+}
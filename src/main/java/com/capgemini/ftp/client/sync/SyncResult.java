@@ -0,0 +1,91 @@
+package com.capgemini.ftp.client.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.capgemini.ftp.client.RemoteFileOutcome;
+
+/**
+ * The responsibility of this class is to report what a synchronization did:
+ * the files transferred and deleted, the files that failed and the number
+ * of files found unchanged.
+ */
+public class SyncResult {
+
+	private final SyncMode mode;
+
+	private final List<String> transferred = new ArrayList<String>();
+
+	private final List<String> deleted = new ArrayList<String>();
+
+	private final Map<String, RemoteFileOutcome> failed = new LinkedHashMap<String, RemoteFileOutcome>();
+
+	private int unchanged;
+
+	SyncResult(SyncMode mode) {
+		this.mode = mode;
+	}
+
+	public SyncMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the names of the files downloaded or uploaded.
+	 */
+	public List<String> getTransferred() {
+		return Collections.unmodifiableList(transferred);
+	}
+
+	/**
+	 * @return the names of the files deleted by a mirror.
+	 */
+	public List<String> getDeleted() {
+		return Collections.unmodifiableList(deleted);
+	}
+
+	/**
+	 * @return the outcome of each file that could not be transferred or
+	 *         deleted, keyed by filename. They are tried again by the next
+	 *         synchronization.
+	 */
+	public Map<String, RemoteFileOutcome> getFailed() {
+		return Collections.unmodifiableMap(failed);
+	}
+
+	/**
+	 * @return the number of files that needed no transfer.
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	public boolean isSuccess() {
+		return failed.isEmpty();
+	}
+
+	void addTransferred(String fileName) {
+		transferred.add(fileName);
+	}
+
+	void addDeleted(String fileName) {
+		deleted.add(fileName);
+	}
+
+	void addFailed(RemoteFileOutcome outcome) {
+		failed.put(outcome.getFileName(), outcome);
+	}
+
+	void setUnchanged(int unchanged) {
+		this.unchanged = unchanged;
+	}
+
+	@Override
+	public String toString() {
+		return mode + " [transferred=" + transferred.size() + ", deleted=" + deleted.size() + ", failed=" + failed.size() + ", unchanged=" + unchanged
+				+ "]";
+	}
+}
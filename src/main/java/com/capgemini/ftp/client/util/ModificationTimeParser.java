@@ -0,0 +1,74 @@
+package com.capgemini.ftp.client.util;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * The responsibility of this utility class is to convert the
+ * <code>YYYYMMDDhhmmss[.sss]</code> timestamps returned by the MDTM command and
+ * the MLSx <code>modify</code> fact into epoch milliseconds.
+ * <p>
+ * The timestamps are in GMT as required by RFC 3659.
+ */
+public final class ModificationTimeParser {
+
+	private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+	private ModificationTimeParser() {
+	}
+
+	/**
+	 * The goal of this method is to parse a timestamp, optionally preceded by
+	 * the MDTM reply code (e.g. <code>213 20170314102000</code>).
+	 * 
+	 * @param value
+	 *            the timestamp or MDTM reply.
+	 * @return the time in milliseconds since the epoch, or -1 if the value
+	 *         could not be parsed.
+	 */
+	public static long parse(String value) {
+		if (value == null) {
+			return -1;
+		}
+		String timestamp = value.trim();
+		int space = timestamp.lastIndexOf(' ');
+		if (space >= 0) {
+			timestamp = timestamp.substring(space + 1);
+		}
+		if (timestamp.length() < 14) {
+			return -1;
+		}
+		for (int i = 0; i < 14; i++) {
+			if (!Character.isDigit(timestamp.charAt(i))) {
+				return -1;
+			}
+		}
+		Calendar calendar = new GregorianCalendar(GMT);
+		calendar.clear();
+		calendar.set(digits(timestamp, 0, 4), digits(timestamp, 4, 6) - 1, digits(timestamp, 6, 8),
+				digits(timestamp, 8, 10), digits(timestamp, 10, 12), digits(timestamp, 12, 14));
+		int millis = 0;
+		if (timestamp.length() > 15 && timestamp.charAt(14) == '.') {
+			// Fractions of a second may have any number of digits; keep three
+			int scale = 100;
+			for (int i = 15; i < timestamp.length() && scale > 0; i++) {
+				char ch = timestamp.charAt(i);
+				if (!Character.isDigit(ch)) {
+					break;
+				}
+				millis += (ch - '0') * scale;
+				scale /= 10;
+			}
+		}
+		return calendar.getTimeInMillis() + millis;
+	}
+
+	private static int digits(String value, int start, int end) {
+		int result = 0;
+		for (int i = start; i < end; i++) {
+			result = result * 10 + (value.charAt(i) - '0');
+		}
+		return result;
+	}
+}
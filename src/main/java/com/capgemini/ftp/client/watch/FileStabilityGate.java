@@ -0,0 +1,148 @@
+package com.capgemini.ftp.client.watch;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.capgemini.ftp.client.FileTransferBean;
+import com.capgemini.ftp.client.RemoteFileAttributes;
+
+/**
+ * The responsibility of this class is to hold back remote files that may
+ * still be being written by the partner, so that they are not downloaded
+ * half complete.
+ * <p>
+ * The gate is fed the successive listings of a directory (see
+ * {@link FileTransferBean#getRemoteDirFileAttributes}) and declares a file
+ * stable once its size and modification time have stayed the same for a
+ * number of listings, or for a quiet period, whichever is configured and
+ * comes first. The check costs nothing beyond the listing the poll makes
+ * anyway; there is no SIZE or MDTM command per file. Where the server only
+ * supports LIST, modification times are not known and only the sizes are
+ * compared.
+ * <p>
+ * The quiet period is measured from the listing that first saw the current
+ * size and modification time, by the local clock, so the clock of the server
+ * does not matter.
+ * <p>
+ * Used by a {@link RemoteDirectoryWatcher} through
+ * {@link RemoteDirectoryWatcher#setStabilityGate(FileStabilityGate)}, or
+ * directly:
+ *
+ * <pre>
+ * <code>
+ *  FileStabilityGate gate = FileStabilityGate.observations(3);
+ *  ...
+ *  Map&lt;String, RemoteFileAttributes&gt; files = fileTransferBean.getRemoteDirFileAttributes(correlationId, ftpClient, null, filter);
+ *  for (String fileName : gate.observe(files.values(), System.currentTimeMillis())) {
+ *    ...
+ *  }
+ * </code>
+ * </pre>
+ */
+public class FileStabilityGate {
+
+	private final int requiredObservations;
+
+	private final long quietPeriod;
+
+	private Map<String, Observation> observations = new HashMap<String, Observation>();
+
+	private int pending;
+
+	/**
+	 * @param requiredObservations
+	 *            the number of successive listings that must show the same
+	 *            size and modification time, or 0 to use the quiet period
+	 *            only.
+	 * @param quietPeriod
+	 *            in milliseconds, how long the size and modification time
+	 *            must have stayed the same, or 0 to count listings only.
+	 */
+	public FileStabilityGate(int requiredObservations, long quietPeriod) {
+		if (requiredObservations < 0 || quietPeriod < 0 || (requiredObservations == 0 && quietPeriod == 0)) {
+			throw new IllegalArgumentException("A number of observations or a quiet period is required");
+		}
+		this.requiredObservations = requiredObservations;
+		this.quietPeriod = quietPeriod;
+	}
+
+	/**
+	 * @return a gate declaring files stable once the given number of
+	 *         successive listings showed them unchanged.
+	 */
+	public static FileStabilityGate observations(int requiredObservations) {
+		return new FileStabilityGate(requiredObservations, 0);
+	}
+
+	/**
+	 * @return a gate declaring files stable once they have not changed for
+	 *         the given number of milliseconds.
+	 */
+	public static FileStabilityGate quietPeriod(long quietPeriod) {
+		return new FileStabilityGate(0, quietPeriod);
+	}
+
+	/**
+	 * The goal of this method is to record a new listing of the directory
+	 * and tell which of its files are stable. Files missing from the listing
+	 * are forgotten.
+	 *
+	 * @param listing
+	 *            every file of the directory, as listed now.
+	 * @param now
+	 *            the time of the listing in milliseconds.
+	 * @return the names of the stable files, including those already
+	 *         declared stable by earlier listings.
+	 */
+	public synchronized Set<String> observe(Collection<RemoteFileAttributes> listing, long now) {
+		Set<String> stable = new HashSet<String>();
+		Map<String, Observation> next = new HashMap<String, Observation>(listing.size() * 4 / 3 + 1);
+		for (RemoteFileAttributes file : listing) {
+			Observation observation = observations.get(file.getFileName());
+			if (observation == null || observation.size != file.getSize() || observation.modificationTime != file.getModificationTime()) {
+				observation = new Observation(file.getSize(), file.getModificationTime(), now);
+			} else {
+				observation.count++;
+			}
+			next.put(file.getFileName(), observation);
+			if (isStable(observation, now)) {
+				stable.add(file.getFileName());
+			}
+		}
+		observations = next;
+		pending = next.size() - stable.size();
+		return stable;
+	}
+
+	/**
+	 * @return the number of files of the last listing that are not stable
+	 *         yet.
+	 */
+	public synchronized int getPendingCount() {
+		return pending;
+	}
+
+	private boolean isStable(Observation observation, long now) {
+		return (requiredObservations > 0 && observation.count >= requiredObservations) || (quietPeriod > 0 && now - observation.since >= quietPeriod);
+	}
+
+	private static class Observation {
+
+		private final long size;
+
+		private final long modificationTime;
+
+		private final long since;
+
+		private int count = 1;
+
+		Observation(long size, long modificationTime, long since) {
+			this.size = size;
+			this.modificationTime = modificationTime;
+			this.since = since;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package com.capgemini.ftp.client.watch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.capgemini.ftp.client.RemoteFileAttributes;
+import com.capgemini.ftp.client.config.FTPClientConfig;
+
+/**
+ * The responsibility of this class is to remember the newest remote file a
+ * transfer has processed, its high-watermark, so that each poll returns only
+ * the files that arrived since.
+ * <p>
+ * The watermark is the newest modification time processed, together with
+ * the names of the files processed at that time, as several files often
+ * share a modification time to the second and may arrive in any order of
+ * their names. A file is new if it is later than the watermark, or as old
+ * and not among those names. The watermark is kept in a small properties
+ * file, one per configured transfer (see <code>ftpPickupWatermarkFile</code>),
+ * replaced atomically on each {@link #advance(RemoteFileAttributes)}.
+ * <p>
+ * The modification times come from MLSD where the server supports it. For
+ * other servers {@link com.capgemini.ftp.client.FileTransferBean#getNewRemoteFiles}
+ * asks MDTM for the files it has not seen before and keeps the answers
+ * here, so after the first poll only new arrivals cost a command. An answer
+ * is only reused while the file is listed with the same size and time; a
+ * file replaced under the same name is asked again.
+ * <p>
+ * Files must be processed, and the watermark advanced, in the order
+ * {@link #select(Collection)} returns them; a file that fails must stop the
+ * run, or the watermark would pass it. A file that arrives with a
+ * modification time older than the watermark, e.g. uploaded with its
+ * original time preserved, is not picked up.
+ */
+public class IncrementalPickup {
+
+	private static final String MODIFICATION_TIME = "modificationTime";
+
+	// separated by '/', which a file name cannot contain
+	private static final String FILE_NAMES = "fileNames";
+
+	private static final Comparator<RemoteFileAttributes> ORDER = new Comparator<RemoteFileAttributes>() {
+		@Override
+		public int compare(RemoteFileAttributes a, RemoteFileAttributes b) {
+			int result = Long.compare(a.getModificationTime(), b.getModificationTime());
+			return result != 0 ? result : a.getFileName().compareTo(b.getFileName());
+		}
+	};
+
+	private final Path path;
+
+	private long modificationTime = Long.MIN_VALUE;
+
+	// the files processed at the watermark modification time
+	private Set<String> fileNames = new TreeSet<String>();
+
+	// modification times read with MDTM, by name
+	private Map<String, KnownModificationTime> knownModificationTimes = new HashMap<String, KnownModificationTime>();
+
+	private IncrementalPickup(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * @param path
+	 *            the watermark file; if it does not exist every file is new.
+	 */
+	public static IncrementalPickup load(Path path) throws IOException {
+		IncrementalPickup pickup = new IncrementalPickup(path);
+		if (Files.exists(path)) {
+			Properties properties = new Properties();
+			try (InputStream input = Files.newInputStream(path)) {
+				properties.load(input);
+			}
+			try {
+				pickup.modificationTime = Long.parseLong(properties.getProperty(MODIFICATION_TIME));
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed pickup watermark: " + path, e);
+			}
+			for (String fileName : properties.getProperty(FILE_NAMES, "").split("/")) {
+				if (!fileName.isEmpty()) {
+					pickup.fileNames.add(fileName);
+				}
+			}
+		}
+		return pickup;
+	}
+
+	/**
+	 * @return the pickup of the transfer, from its
+	 *         <code>ftpPickupWatermarkFile</code>.
+	 */
+	public static IncrementalPickup forTransfer(FTPClientConfig ftpClientConfig) throws IOException {
+		if (ftpClientConfig.ftpPickupWatermarkFile == null) {
+			throw new IllegalArgumentException("ftpPickupWatermarkFile is not configured");
+		}
+		return load(Paths.get(ftpClientConfig.ftpPickupWatermarkFile));
+	}
+
+	/**
+	 * @return the modification time of the newest file processed, or
+	 *         Long.MIN_VALUE if none.
+	 */
+	public synchronized long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * @return the names of the files processed with the newest modification
+	 *         time, sorted, or an empty set if none.
+	 */
+	public synchronized Set<String> getFileNames() {
+		return Collections.unmodifiableSet(new TreeSet<String>(fileNames));
+	}
+
+	/**
+	 * @return true if the file is newer than the watermark, or as old and
+	 *         not processed yet.
+	 */
+	public synchronized boolean isNew(RemoteFileAttributes file) {
+		if (file.getModificationTime() != modificationTime) {
+			return file.getModificationTime() > modificationTime;
+		}
+		return !fileNames.contains(file.getFileName());
+	}
+
+	/**
+	 * @return the new files, oldest first.
+	 */
+	public List<RemoteFileAttributes> select(Collection<RemoteFileAttributes> files) {
+		List<RemoteFileAttributes> selected = new ArrayList<RemoteFileAttributes>();
+		for (RemoteFileAttributes file : files) {
+			if (isNew(file)) {
+				selected.add(file);
+			}
+		}
+		Collections.sort(selected, ORDER);
+		return selected;
+	}
+
+	/**
+	 * Move the watermark to a processed file and store it. The watermark
+	 * never moves back.
+	 */
+	public synchronized void advance(RemoteFileAttributes file) throws IOException {
+		if (!isNew(file)) {
+			return;
+		}
+		Set<String> names = new TreeSet<String>();
+		if (file.getModificationTime() == modificationTime) {
+			names.addAll(fileNames);
+		}
+		names.add(file.getFileName());
+		StringBuilder joined = new StringBuilder();
+		for (String name : names) {
+			if (joined.length() > 0) {
+				joined.append('/');
+			}
+			joined.append(name);
+		}
+		Properties properties = new Properties();
+		properties.setProperty(MODIFICATION_TIME, Long.toString(file.getModificationTime()));
+		properties.setProperty(FILE_NAMES, joined.toString());
+		Path parent = path.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream output = Files.newOutputStream(temp)) {
+				properties.store(output, "Incremental pickup watermark");
+			}
+			try {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		modificationTime = file.getModificationTime();
+		fileNames = names;
+	}
+
+	/**
+	 * @param listed
+	 *            the file as listed, with the size and time of the listing.
+	 * @return the modification time read earlier for the file, or null if
+	 *         there is none or the file was listed with another size or time
+	 *         then.
+	 */
+	public synchronized Long getKnownModificationTime(RemoteFileAttributes listed) {
+		KnownModificationTime known = knownModificationTimes.get(listed.getFileName());
+		if (known == null || known.size != listed.getSize() || known.listedTime != listed.getModificationTime()) {
+			return null;
+		}
+		return known.modificationTime;
+	}
+
+	/**
+	 * Replace the remembered modification times with those of the current
+	 * listing, so that names no longer listed are forgotten.
+	 *
+	 * @param listed
+	 *            the files as listed.
+	 * @param modificationTimes
+	 *            their modification times, by name; files without one are
+	 *            not remembered.
+	 */
+	public synchronized void setKnownModificationTimes(Collection<RemoteFileAttributes> listed, Map<String, Long> modificationTimes) {
+		Map<String, KnownModificationTime> known = new HashMap<String, KnownModificationTime>();
+		for (RemoteFileAttributes file : listed) {
+			Long modificationTime = modificationTimes.get(file.getFileName());
+			if (modificationTime != null) {
+				known.put(file.getFileName(), new KnownModificationTime(file.getSize(), file.getModificationTime(), modificationTime));
+			}
+		}
+		knownModificationTimes = known;
+	}
+
+	private static class KnownModificationTime {
+
+		private final long size;
+
+		private final long listedTime;
+
+		private final long modificationTime;
+
+		KnownModificationTime(long size, long listedTime, long modificationTime) {
+			this.size = size;
+			this.listedTime = listedTime;
+			this.modificationTime = modificationTime;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package com.capgemini.ftp.client.watch;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.capgemini.ftp.client.FileTransferBean;
+import com.capgemini.ftp.client.RemoteFileAttributes;
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.config.FTPClientConfig;
+import com.capgemini.ftp.client.watch.RemoteFileEvent.Type;
+
+/**
+ * The responsibility of this class is to watch a remote directory and tell
+ * {@link RemoteFileListener}s which files were created, modified or deleted,
+ * in place of the sleep, connect, list and compare loop of each service.
+ * <p>
+ * The watcher keeps one session open between polls and reconnects only after
+ * an error. Each poll is a single listing (see
+ * {@link FileTransferBean#getRemoteDirFileAttributes}), compared with the
+ * previous one through their hash maps, so a poll costs time proportional to
+ * the number of files. A file is modified when its size or modification time
+ * changed.
+ * <p>
+ * The interval between polls adapts: it drops to the minimum as soon as a
+ * poll finds changes, since more files tend to follow, and doubles after
+ * each poll that finds none, or fails, up to the maximum. A busy directory
+ * is picked up quickly and an idle one costs the partner server few
+ * listings.
+ * <p>
+ * With a {@link FileStabilityGate} (see
+ * {@link #setStabilityGate(FileStabilityGate)}) new and changed files are
+ * only reported once the gate finds them stable; until then a changed file
+ * keeps its last stable attributes, and the interval does not grow while
+ * files are waiting to become stable.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * <code>
+ *  RemoteDirectoryWatcher watcher = new RemoteDirectoryWatcher(correlationId, fileTransferBean, ftpClientConfig, null);
+ *  watcher.addListener(events -&gt; ...);
+ *  watcher.start();
+ *  ...
+ *  watcher.close();
+ * </code>
+ * </pre>
+ */
+public class RemoteDirectoryWatcher implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(RemoteDirectoryWatcher.class);
+
+	public static final long DEFAULT_MIN_POLL_INTERVAL = 1000;
+
+	public static final long DEFAULT_MAX_POLL_INTERVAL = 60000;
+
+	private final String correlationId;
+
+	private final FileTransferBean fileTransferBean;
+
+	private final FTPClientConfig ftpClientConfig;
+
+	private final String remoteDir;
+
+	private final List<RemoteFileListener> listeners = new CopyOnWriteArrayList<RemoteFileListener>();
+
+	// held across a poll and its notification, so that polls are reported in order
+	private final Object pollLock = new Object();
+
+	private ListingFilter filter = ListingFilter.files();
+
+	private FileStabilityGate stabilityGate;
+
+	private boolean reportExistingFiles = true;
+
+	private long minPollInterval = DEFAULT_MIN_POLL_INTERVAL;
+
+	private long maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+
+	private long pollInterval = DEFAULT_MIN_POLL_INTERVAL;
+
+	private ScheduledExecutorService executor;
+
+	// guarded by this, as are the fields below
+	private EnhancedFTPClient ftpClient;
+
+	private Map<String, RemoteFileAttributes> snapshot;
+
+	/**
+	 * @param correlationId
+	 *            For logging purposes.
+	 * @param remoteDir
+	 *            the directory to watch, or null for the working directory.
+	 */
+	public RemoteDirectoryWatcher(String correlationId, FileTransferBean fileTransferBean, FTPClientConfig ftpClientConfig, String remoteDir) {
+		this.correlationId = correlationId;
+		this.fileTransferBean = fileTransferBean;
+		this.ftpClientConfig = ftpClientConfig;
+		this.remoteDir = remoteDir;
+	}
+
+	public void addListener(RemoteFileListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(RemoteFileListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @param filter
+	 *            the entries to watch; regular files by default.
+	 */
+	public synchronized void setFilter(ListingFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @param stabilityGate
+	 *            holds back the files still being written, or null (the
+	 *            default) to report every change at once.
+	 */
+	public synchronized void setStabilityGate(FileStabilityGate stabilityGate) {
+		this.stabilityGate = stabilityGate;
+	}
+
+	/**
+	 * @param reportExistingFiles
+	 *            true (the default) to report the files found by the first
+	 *            poll as created.
+	 */
+	public synchronized void setReportExistingFiles(boolean reportExistingFiles) {
+		this.reportExistingFiles = reportExistingFiles;
+	}
+
+	/**
+	 * @param minPollInterval
+	 *            in milliseconds, the interval after a poll that found
+	 *            changes; must be positive.
+	 */
+	public synchronized void setMinPollInterval(long minPollInterval) {
+		if (minPollInterval <= 0) {
+			throw new IllegalArgumentException("minPollInterval must be positive: " + minPollInterval);
+		}
+		this.minPollInterval = minPollInterval;
+		this.pollInterval = Math.max(pollInterval, minPollInterval);
+	}
+
+	/**
+	 * @param maxPollInterval
+	 *            in milliseconds, the longest interval between polls of an
+	 *            idle directory; must be positive.
+	 */
+	public synchronized void setMaxPollInterval(long maxPollInterval) {
+		if (maxPollInterval <= 0) {
+			throw new IllegalArgumentException("maxPollInterval must be positive: " + maxPollInterval);
+		}
+		this.maxPollInterval = maxPollInterval;
+		this.pollInterval = Math.min(pollInterval, maxPollInterval);
+	}
+
+	/**
+	 * @return the interval in milliseconds before the next poll.
+	 */
+	public synchronized long getPollInterval() {
+		return pollInterval;
+	}
+
+	/**
+	 * Start polling in the background; the first poll is made at once.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			throw new IllegalStateException("The watcher has already been started");
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "remote-directory-watcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		schedule(0);
+	}
+
+	/**
+	 * Stop polling and close the session. A poll in progress is completed
+	 * first.
+	 */
+	@Override
+	public void close() {
+		ScheduledExecutorService stopping;
+		synchronized (this) {
+			stopping = executor;
+			if (stopping != null) {
+				stopping.shutdown();
+			}
+		}
+		if (stopping != null) {
+			try {
+				stopping.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			disconnect();
+		}
+	}
+
+	/**
+	 * The goal of this method is to list the directory once, compare the
+	 * listing with the previous one and notify the listeners of the changes.
+	 * Called by the background thread after {@link #start()}, it may also be
+	 * called directly to poll on demand.
+	 * <p>
+	 * The listeners are called without the lock of the watcher, so they may
+	 * use it, e.g. to change its settings, from any thread.
+	 *
+	 * @return the changes, which are empty if there were none.
+	 */
+	public List<RemoteFileEvent> poll() {
+		synchronized (pollLock) {
+			List<RemoteFileEvent> events = listChanges();
+			if (!events.isEmpty()) {
+				logger.info("CorrelationId: {} {} changes in remote directory {}", correlationId, events.size(), remoteDir);
+				// iterates over a snapshot of the listeners
+				for (RemoteFileListener listener : listeners) {
+					try {
+						listener.onChanges(events);
+					} catch (RuntimeException e) {
+						logger.error("CorrelationId: {} Remote file listener failed", correlationId, e);
+					}
+				}
+			}
+			return events;
+		}
+	}
+
+	private synchronized List<RemoteFileEvent> listChanges() {
+		Map<String, RemoteFileAttributes> current;
+		try {
+			if (ftpClient == null || !ftpClient.isConnected()) {
+				ftpClient = fileTransferBean.getConnectedFTPClient(correlationId, ftpClientConfig);
+			}
+			current = fileTransferBean.getRemoteDirFileAttributes(correlationId, ftpClient, remoteDir, filter);
+		} catch (RuntimeException e) {
+			// reported by MonitoredError; the next poll reconnects
+			disconnect();
+			pollInterval = Math.min(maxPollInterval, pollInterval * 2);
+			throw e;
+		}
+		boolean pending = false;
+		if (stabilityGate != null) {
+			current = stableView(current);
+			pending = stabilityGate.getPendingCount() > 0;
+		}
+		List<RemoteFileEvent> events;
+		if (snapshot != null) {
+			events = diff(snapshot, current);
+		} else if (reportExistingFiles) {
+			events = diff(Collections.<String, RemoteFileAttributes> emptyMap(), current);
+		} else {
+			events = Collections.emptyList();
+		}
+		snapshot = current;
+		if (!events.isEmpty()) {
+			pollInterval = minPollInterval;
+		} else if (!pending) {
+			pollInterval = Math.min(maxPollInterval, pollInterval * 2);
+		}
+		return events;
+	}
+
+	/**
+	 * @return the events that turn the previous listing into the current
+	 *         one, in one pass over each.
+	 */
+	static List<RemoteFileEvent> diff(Map<String, RemoteFileAttributes> previous, Map<String, RemoteFileAttributes> current) {
+		List<RemoteFileEvent> events = new ArrayList<RemoteFileEvent>();
+		int created = 0;
+		for (RemoteFileAttributes file : current.values()) {
+			RemoteFileAttributes before = previous.get(file.getFileName());
+			if (before == null) {
+				events.add(new RemoteFileEvent(Type.CREATED, file));
+				created++;
+			} else if (before.getSize() != file.getSize() || before.getModificationTime() != file.getModificationTime()) {
+				events.add(new RemoteFileEvent(Type.MODIFIED, file));
+			}
+		}
+		// unless files are missing from the current listing there is no need to look for them
+		if (previous.size() > current.size() - created) {
+			for (RemoteFileAttributes file : previous.values()) {
+				if (!current.containsKey(file.getFileName())) {
+					events.add(new RemoteFileEvent(Type.DELETED, file));
+				}
+			}
+		}
+		return events;
+	}
+
+	/*
+	 * The listing as it should be reported: stable files as listed, unstable
+	 * files as last reported, and new unstable files not at all.
+	 */
+	private Map<String, RemoteFileAttributes> stableView(Map<String, RemoteFileAttributes> current) {
+		Set<String> stable = stabilityGate.observe(current.values(), System.currentTimeMillis());
+		Map<String, RemoteFileAttributes> view = new HashMap<String, RemoteFileAttributes>();
+		for (RemoteFileAttributes file : current.values()) {
+			if (stable.contains(file.getFileName())) {
+				view.put(file.getFileName(), file);
+			} else if (snapshot != null && snapshot.containsKey(file.getFileName())) {
+				view.put(file.getFileName(), snapshot.get(file.getFileName()));
+			}
+		}
+		return view;
+	}
+
+	private void pollAndReschedule() {
+		try {
+			poll();
+		} catch (RuntimeException e) {
+			logger.warn("CorrelationId: {} Poll of remote directory {} failed, next in {} ms", correlationId, remoteDir, getPollInterval());
+		}
+		schedule(getPollInterval());
+	}
+
+	private synchronized void schedule(long delay) {
+		if (!executor.isShutdown()) {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					pollAndReschedule();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void disconnect() {
+		if (ftpClient != null) {
+			fileTransferBean.disconnectFTPClient(correlationId, ftpClient);
+			ftpClient = null;
+		}
+	}
+}
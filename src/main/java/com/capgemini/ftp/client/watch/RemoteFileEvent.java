@@ -0,0 +1,44 @@
+package com.capgemini.ftp.client.watch;
+
+import com.capgemini.ftp.client.RemoteFileAttributes;
+
+/**
+ * The responsibility of this class is to describe a change of a remote
+ * directory seen by a {@link RemoteDirectoryWatcher} between two polls.
+ */
+public class RemoteFileEvent {
+
+	public enum Type {
+		CREATED, MODIFIED, DELETED
+	}
+
+	private final Type type;
+
+	private final RemoteFileAttributes attributes;
+
+	public RemoteFileEvent(Type type, RemoteFileAttributes attributes) {
+		this.type = type;
+		this.attributes = attributes;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getFileName() {
+		return attributes.getFileName();
+	}
+
+	/**
+	 * @return the attributes of the file as listed by the poll, or as last
+	 *         listed for a deleted file.
+	 */
+	public RemoteFileAttributes getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + attributes;
+	}
+}
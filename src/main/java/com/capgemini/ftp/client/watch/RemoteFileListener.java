@@ -0,0 +1,18 @@
+package com.capgemini.ftp.client.watch;
+
+import java.util.List;
+
+/**
+ * Receives the changes seen by a {@link RemoteDirectoryWatcher}.
+ */
+public interface RemoteFileListener {
+
+	/**
+	 * Called on the thread of the watcher once per poll that found changes.
+	 * The next poll waits until all listeners have returned.
+	 *
+	 * @param events
+	 *            the changes, in no particular order.
+	 */
+	void onChanges(List<RemoteFileEvent> events);
+}
@@ -0,0 +1,89 @@
+package com.capgemini.ftp.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.capgemini.ftp.client.DownloadStaging.StagedFile;
+
+public class DownloadStagingTest {
+
+	private static final byte[] CONTENT = "<xml/>".getBytes();
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("staging");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	private StagedFile write(DownloadStaging staging, String fileName) throws IOException {
+		StagedFile file = staging.stage(fileName);
+		file.getOutputStream().write(CONTENT);
+		return file;
+	}
+
+	@Test
+	public void testFileOnlyVisibleOnceCommitted() throws IOException {
+		DownloadStaging staging = new DownloadStaging(dir.toString(), FsyncPolicy.PER_FILE);
+		StagedFile file = write(staging, "a.xml");
+		assertFalse(Files.exists(dir.resolve("a.xml")));
+		staging.commit(file);
+		assertArrayEquals(CONTENT, Files.readAllBytes(dir.resolve("a.xml")));
+		assertFalse(Files.exists(dir.resolve(".a.xml" + DownloadStaging.TEMP_SUFFIX)));
+	}
+
+	@Test
+	public void testStagedFileReplacesEarlierLeftover() throws IOException {
+		Files.write(dir.resolve(".a.xml" + DownloadStaging.TEMP_SUFFIX), new byte[4096]);
+		DownloadStaging staging = new DownloadStaging(dir.toString(), FsyncPolicy.NONE);
+		StagedFile file = write(staging, "a.xml");
+		assertEquals(CONTENT.length, Files.size(dir.resolve(".a.xml" + DownloadStaging.TEMP_SUFFIX)));
+		staging.commit(file);
+		assertArrayEquals(CONTENT, Files.readAllBytes(dir.resolve("a.xml")));
+	}
+
+	@Test
+	public void testBatchedFilesVisibleAfterFlush() throws IOException {
+		DownloadStaging staging = new DownloadStaging(dir.toString(), FsyncPolicy.BATCHED);
+		staging.commit(write(staging, "a.xml"));
+		staging.commit(write(staging, "b.xml"));
+		assertFalse(Files.exists(dir.resolve("a.xml")));
+		// committed files waiting for the flush are not abandoned
+		assertEquals(0, staging.deleteAbandonedFiles("test"));
+		staging.close();
+		assertTrue(Files.exists(dir.resolve("a.xml")));
+		assertTrue(Files.exists(dir.resolve("b.xml")));
+	}
+
+	@Test
+	public void testDiscardAndAbandonedFiles() throws IOException {
+		DownloadStaging staging = new DownloadStaging(dir.toString(), FsyncPolicy.NONE);
+		staging.discard(write(staging, "a.xml"));
+		assertFalse(Files.exists(dir.resolve(".a.xml" + DownloadStaging.TEMP_SUFFIX)));
+		write(staging, "b.xml").getOutputStream().close();
+		Files.write(dir.resolve("c.xml"), CONTENT);
+		assertEquals(1, staging.deleteAbandonedFiles("test"));
+		assertTrue(Files.exists(dir.resolve("c.xml")));
+	}
+}
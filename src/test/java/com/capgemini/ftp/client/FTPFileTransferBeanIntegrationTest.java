@@ -1,21 +1,31 @@
 package com.capgemini.ftp.client;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.net.ftp.FTPFile;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.FtpServerFactory;
 import org.apache.ftpserver.ftplet.Authentication;
@@ -43,7 +53,15 @@ import org.springframework.util.StringUtils;
 import com.capgemini.ftp.client.FTPFileTransferBean;
 import com.capgemini.ftp.client.FileTransferBean;
 import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.apache.parser.ListingFilter.EntryType;
+import com.capgemini.ftp.client.buffer.ByteBufferPool;
+import com.capgemini.ftp.client.buffer.TransferBuffer;
 import com.capgemini.ftp.client.config.FTPClientConfig;
+import com.capgemini.ftp.client.sync.DirectorySynchronizer;
+import com.capgemini.ftp.client.sync.SyncManifest;
+import com.capgemini.ftp.client.sync.SyncMode;
+import com.capgemini.ftp.client.sync.SyncResult;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
@@ -77,6 +95,10 @@ public class FTPFileTransferBeanIntegrationTest {
 
 	private static final int FTP_PORT = 2221;
 
+	// User whose downloads are throttled by the FTP server, in bytes per second
+	private static final String SLOW_USER = "slow";
+	private static final int SLOW_USER_DOWNLOAD_RATE = 20000;
+
 	protected TestAppender testAppender;
 
 	FtpServer ftpServer;
@@ -117,6 +139,92 @@ public class FTPFileTransferBeanIntegrationTest {
 		}
 	}
 
+	@Test
+	public void testGetRemoteDirListingWithFilter() throws Exception {
+		ftpServer.start();
+		try {
+			FTPClientConfig clientConfig = createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR);
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, clientConfig);
+			Set<String> files = fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient, ListingFilter.glob("file2*").type(EntryType.FILE));
+			Set<String> largeFiles = fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient, ListingFilter.files().minSize(10000));
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+			assertEquals(1, files.size());
+			assertTrue(CollectionUtils.contains(files.iterator(), "file2.xml"));
+			assertTrue(largeFiles.isEmpty());
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testGetRemoteDirListingNamesOnly() throws Exception {
+		ftpServer.start();
+		try {
+			FTPFileTransferBean namesOnlyBean = new FTPFileTransferBean();
+			namesOnlyBean.setListingMode(ListingMode.NAMES);
+			FTPClientConfig clientConfig = createBaseFTPClientConfig(TEMP_REMOTE_DIR);
+			EnhancedFTPClient ftpClient = namesOnlyBean.getConnectedFTPClient(CORRELATION_ID, clientConfig);
+			Set<String> files = namesOnlyBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient);
+			Set<String> xmlFiles = namesOnlyBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient, ListingFilter.glob("*.xml"));
+			// The name-only listing must not leave MLSD sending the type fact only
+			FTPFile[] entries = ftpClient.mlistDir();
+			namesOnlyBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+			assertEquals(1, files.size());
+			assertTrue(CollectionUtils.contains(files.iterator(), "readme.txt"));
+			assertTrue(xmlFiles.isEmpty());
+			for (FTPFile entry : entries) {
+				assertTrue(entry.getName(), entry.getSize() >= 0);
+			}
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testGetRemoteDirListingOverControlConnection() throws Exception {
+		ftpServer.start();
+		try {
+			FTPFileTransferBean statBean = new FTPFileTransferBean();
+			statBean.setListingMode(ListingMode.STAT);
+			FTPClientConfig clientConfig = createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR);
+			EnhancedFTPClient ftpClient = statBean.getConnectedFTPClient(CORRELATION_ID, clientConfig);
+			Set<String> files = statBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient);
+			// the last reply is the one to STAT (211 to 213), not the 226 ending a LIST
+			int reply = ftpClient.getReplyCode();
+			assertTrue("Listed with reply " + reply, reply >= 211 && reply <= 213);
+			ftpClient.setStatListingMaxEntries(1);
+			Set<String> filesByList = statBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient);
+			assertEquals(226, ftpClient.getReplyCode());
+			statBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+			assertEquals(2, countXMLFiles(files));
+			assertTrue(CollectionUtils.contains(files.iterator(), FILENAME_01));
+			assertEquals(files, filesByList);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testGetRemoteTreeListing() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(FTPSERVER_FILES_ROOT), 3);
+		try {
+			String root = "/" + FTPSERVER_FILES_ROOT;
+			Set<String> paths = fileTransferBean.getRemoteTreeFileListing(CORRELATION_ID, pool, root, ListingFilter.glob("*.xml"), Integer.MAX_VALUE);
+			assertEquals(3, paths.size());
+			assertTrue(paths.contains(root + "/scenario_02/" + FILENAME_01));
+			paths = fileTransferBean.getRemoteTreeFileListing(CORRELATION_ID, pool, root, ListingFilter.files(), Integer.MAX_VALUE);
+			assertTrue(paths.contains(root + "/temp/archive/readme.txt"));
+			paths = fileTransferBean.getRemoteTreeFileListing(CORRELATION_ID, pool, root, ListingFilter.files(), 2);
+			assertFalse(paths.contains(root + "/temp/archive/readme.txt"));
+			assertTrue(paths.contains(root + "/temp/readme.txt"));
+			assertTrue(fileTransferBean.getRemoteTreeFileListing(CORRELATION_ID, pool, root, ListingFilter.files(), 1).isEmpty());
+		} finally {
+			pool.close();
+			ftpServer.stop();
+		}
+	}
+
 	@Test
 	public void testGetRemoteFileSize() throws Exception {
 		ftpServer.start();
@@ -131,6 +239,25 @@ public class FTPFileTransferBeanIntegrationTest {
 		}
 	}
 
+	@Test
+	public void testGetRemoteFileAttributes() throws Exception {
+		ftpServer.start();
+		try {
+			FTPClientConfig clientConfig = createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR);
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, clientConfig);
+			Map<String, RemoteFileAttributes> attributes = fileTransferBean.getRemoteFileAttributes(CORRELATION_ID, ftpClient,
+					Arrays.asList(FILENAME_01, "file2.xml", UNKNOWN_FILENAME));
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+			assertEquals(2, attributes.size());
+			assertEquals(7406, attributes.get(FILENAME_01).getSize());
+			assertEquals(7406, attributes.get("file2.xml").getSize());
+			assertTrue(attributes.get(FILENAME_01).getModificationTime() > 0);
+			assertFalse(attributes.containsKey(UNKNOWN_FILENAME));
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
 	@Test
 	public void testCheckRemoteFileExistSuccess() throws Exception {
 		ftpServer.start();
@@ -206,6 +333,49 @@ public class FTPFileTransferBeanIntegrationTest {
 		}
 	}
 
+	@Test
+	public void testDownloadMultipleFilesWithBlockModeFallback() throws Exception {
+		ftpServer.start();
+		try {
+			FTPClientConfig clientConfig = createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR);
+			clientConfig.ftpBlockTransferMode = true; // The embedded server only supports stream mode
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, clientConfig);
+			Set<String> files = fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient);
+			for (String file : files) {
+				fileTransferBean.downloadFile(CORRELATION_ID, ftpClient, TEMP_LOCAL_DIR, file);
+			}
+			files = fileTransferBean.getLocalDirFileList(TEMP_LOCAL_DIR);
+			assertEquals(2, countXMLFiles(files));
+			assertEquals(3, ftpClient.getDataConnectionMetrics().getConnectionsOpened());
+			assertEquals(0, ftpClient.getDataConnectionMetrics().getConnectionsReused());
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testDownloadMultipleFilesWithSpeculativeDataConnections() throws Exception {
+		ftpServer.start();
+		try {
+			FTPClientConfig clientConfig = createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR);
+			clientConfig.ftpSpeculativeDataConnections = true;
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, clientConfig);
+			Set<String> files = fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient);
+			for (String file : files) {
+				fileTransferBean.downloadFile(CORRELATION_ID, ftpClient, TEMP_LOCAL_DIR, file);
+			}
+			files = fileTransferBean.getLocalDirFileList(TEMP_LOCAL_DIR);
+			assertEquals(2, countXMLFiles(files));
+			// The listing negotiates its own connection; each download uses the one prepared before it
+			assertEquals(2, ftpClient.getDataConnectionMetrics().getPreparedConnectionsUsed());
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+			assertEquals(1, ftpClient.getDataConnectionMetrics().getPreparedConnectionsDiscarded());
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
 	@Test
 	public void testRenameRemoteFile() throws Exception {
 		ftpServer.start();
@@ -274,6 +444,338 @@ public class FTPFileTransferBeanIntegrationTest {
 		}
 	}
 
+	@Test
+	public void testMoveRemoteFiles() throws Exception {
+		ftpServer.start();
+		try {
+			createTempFile(TEMP_REMOTE_DIR + "/newfile1.xml");
+			createTempFile(TEMP_REMOTE_DIR + "/newfile2.xml");
+			FTPClientConfig clientConfig = createBaseFTPClientConfig(TEMP_REMOTE_DIR);
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, clientConfig);
+			Map<String, String> moves = new LinkedHashMap<String, String>();
+			moves.put("newfile1.xml", "archive/newfile1_archived.xml");
+			moves.put(UNKNOWN_FILENAME, "archive/unknown_archived.xml");
+			moves.put("newfile2.xml", "archive/newfile2_archived.xml");
+			Map<String, RemoteFileOutcome> outcomes = fileTransferBean.moveRemoteFiles(CORRELATION_ID, ftpClient, moves);
+			assertEquals(3, outcomes.size());
+			assertTrue(outcomes.get("newfile1.xml").isSuccess());
+			assertFalse(outcomes.get(UNKNOWN_FILENAME).isSuccess());
+			assertEquals(550, outcomes.get(UNKNOWN_FILENAME).getReplyCode());
+			assertTrue(outcomes.get("newfile2.xml").isSuccess());
+			Set<String> files = fileTransferBean.getLocalDirFileList(TEMP_REMOTE_DIR);
+			assertEquals(0, countXMLFiles(files));
+			files = fileTransferBean.getLocalDirFileList(TEMP_REMOTE_ARCHIVE_DIR);
+			assertEquals(2, countXMLFiles(files));
+			assertTrue(CollectionUtils.contains(files.iterator(), "newfile2_archived.xml"));
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testDeleteRemoteFilesUsingPool() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(TEMP_REMOTE_DIR), 2);
+		try {
+			List<String> fileNames = new ArrayList<String>();
+			for (int i = 0; i < 5; i++) {
+				createTempFile(TEMP_REMOTE_DIR + "/newfile" + i + ".xml");
+				fileNames.add("newfile" + i + ".xml");
+			}
+			fileNames.add(UNKNOWN_FILENAME);
+			Map<String, RemoteFileOutcome> outcomes = fileTransferBean.deleteRemoteFiles(CORRELATION_ID, pool, fileNames);
+			assertEquals(6, outcomes.size());
+			assertFalse(outcomes.get(UNKNOWN_FILENAME).isSuccess());
+			for (int i = 0; i < 5; i++) {
+				assertTrue(outcomes.get("newfile" + i + ".xml").isSuccess());
+			}
+			assertEquals(0, countXMLFiles(fileTransferBean.getLocalDirFileList(TEMP_REMOTE_DIR)));
+			assertTrue(pool.getIdleCount() >= 1);
+		} finally {
+			pool.close();
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testSynchronizeDownloadsChangedFilesOnly() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR), 2);
+		Path manifestPath = Paths.get(TEMP_LOCAL_DIR, ".sync-manifest");
+		try {
+			DirectorySynchronizer synchronizer = new DirectorySynchronizer(fileTransferBean, pool);
+			SyncResult result = synchronizer.synchronize(CORRELATION_ID, null, TEMP_LOCAL_DIR, SyncManifest.load(manifestPath), SyncMode.DOWNLOAD_CHANGED);
+			assertTrue(result.isSuccess());
+			assertEquals(2, result.getTransferred().size());
+			assertEquals(2, countXMLFiles(fileTransferBean.getLocalDirFileList(TEMP_LOCAL_DIR)));
+			assertEquals(0, new File(TEMP_LOCAL_DIR).list((dir, name) -> name.endsWith(DownloadStaging.TEMP_SUFFIX)).length);
+
+			SyncManifest manifest = SyncManifest.load(manifestPath);
+			assertEquals(2, manifest.size());
+			result = synchronizer.synchronize(CORRELATION_ID, null, TEMP_LOCAL_DIR, manifest, SyncMode.DOWNLOAD_CHANGED);
+			assertTrue(result.getTransferred().isEmpty());
+			assertEquals(2, result.getUnchanged());
+
+			new File(TEMP_LOCAL_DIR, FILENAME_01).delete();
+			result = synchronizer.synchronize(CORRELATION_ID, null, TEMP_LOCAL_DIR, manifest, SyncMode.DOWNLOAD_CHANGED);
+			assertEquals(Arrays.asList(FILENAME_01), result.getTransferred());
+		} finally {
+			pool.close();
+			ftpServer.stop();
+			Files.deleteIfExists(manifestPath);
+		}
+	}
+
+	@Test
+	public void testSynchronizeCoversSubdirectories() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(TEMP_REMOTE_DIR), 2);
+		Path source = Files.createTempDirectory("sync-source");
+		Path target = Files.createTempDirectory("sync-target");
+		try {
+			Files.createDirectories(source.resolve("tree/nested"));
+			FileUtils.copyFile(new File(SCENARIO_01_LOCAL_DIR, FILENAME_01), source.resolve("tree/nested/" + FILENAME_01).toFile());
+			DirectorySynchronizer synchronizer = new DirectorySynchronizer(fileTransferBean, pool);
+			SyncResult result = synchronizer.synchronize(CORRELATION_ID, null, source.toString(), SyncManifest.load(source.resolve(".sync-manifest")),
+					SyncMode.UPLOAD_CHANGED);
+			assertTrue(result.isSuccess());
+			assertEquals(Arrays.asList("tree/nested/" + FILENAME_01), result.getTransferred());
+			assertTrue(new File(TEMP_REMOTE_DIR, "tree/nested/" + FILENAME_01).isFile());
+
+			result = synchronizer.synchronize(CORRELATION_ID, "tree", target.toString(), SyncManifest.load(target.resolve(".sync-manifest")),
+					SyncMode.DOWNLOAD_CHANGED);
+			assertTrue(result.isSuccess());
+			assertEquals(Arrays.asList("nested/" + FILENAME_01), result.getTransferred());
+			assertTrue(FileUtils.contentEquals(new File(SCENARIO_01_LOCAL_DIR, FILENAME_01), target.resolve("nested/" + FILENAME_01).toFile()));
+		} finally {
+			pool.close();
+			ftpServer.stop();
+			FileUtils.deleteDirectory(new File(TEMP_REMOTE_DIR, "tree"));
+			FileUtils.deleteDirectory(source.toFile());
+			FileUtils.deleteDirectory(target.toFile());
+		}
+	}
+
+	@Test
+	public void testUploadBatchSendsTriggerFileLast() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(TEMP_REMOTE_DIR), 2);
+		try {
+			Map<String, LocalFileAttributes> dataFiles = fileTransferBean.getLocalDirFileAttributes(CORRELATION_ID, SCENARIO_01_LOCAL_DIR, "*.xml");
+			createTempFile(TEMP_LOCAL_DIR + "/trigger.xml");
+			UploadBatchResult result = new UploadBatch(pool).addAll(dataFiles.values(), null).then()
+					.add(new File(TEMP_LOCAL_DIR, "trigger.xml"), "trigger.xml").upload(CORRELATION_ID);
+			assertTrue(result.isSuccess());
+			assertEquals(dataFiles.size() + 1, result.getOutcomes().size());
+			assertTrue(result.getTimeTaken(FILENAME_01) >= 0);
+			assertEquals(dataFiles.size() + 1, countXMLFiles(fileTransferBean.getLocalDirFileList(TEMP_REMOTE_DIR)));
+		} finally {
+			pool.close();
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testUploadBatchHoldsBackTriggerFileAfterFailure() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(TEMP_REMOTE_DIR), 2);
+		try {
+			createTempFile(TEMP_LOCAL_DIR + "/trigger.xml");
+			UploadBatchResult result = new UploadBatch(pool).add(new File(TEMP_LOCAL_DIR, UNKNOWN_FILENAME), UNKNOWN_FILENAME).then()
+					.add(new File(TEMP_LOCAL_DIR, "trigger.xml"), "trigger.xml").upload(CORRELATION_ID);
+			assertFalse(result.isSuccess());
+			assertEquals(2, result.getFailed().size());
+			assertEquals(-1, result.getTimeTaken("trigger.xml"));
+			assertEquals(0, countXMLFiles(fileTransferBean.getLocalDirFileList(TEMP_REMOTE_DIR)));
+		} finally {
+			pool.close();
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testAtomicUploadBatch() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(TEMP_REMOTE_DIR), 2);
+		try {
+			Map<String, LocalFileAttributes> dataFiles = fileTransferBean.getLocalDirFileAttributes(CORRELATION_ID, SCENARIO_01_LOCAL_DIR, "*.xml");
+			UploadBatchResult result = new UploadBatch(pool).atomic(null, ".part").addAll(dataFiles.values(), null).upload(CORRELATION_ID);
+			assertTrue(result.isSuccess());
+			Set<String> files = fileTransferBean.getLocalDirFileList(TEMP_REMOTE_DIR);
+			assertEquals(dataFiles.size(), countXMLFiles(files));
+			assertTrue(files.containsAll(dataFiles.keySet()));
+			assertFalse(files.contains(FILENAME_01 + ".part"));
+		} finally {
+			pool.close();
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testUploadFileAtomically() throws Exception {
+		ftpServer.start();
+		try {
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, createBaseFTPClientConfig(TEMP_REMOTE_DIR));
+			fileTransferBean.uploadFileAtomically(CORRELATION_ID, ftpClient, SCENARIO_01_LOCAL_DIR, FILENAME_01, FILENAME_01 + ".part");
+			Set<String> files = fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient);
+			assertEquals(1, countXMLFiles(files));
+			assertTrue(files.contains(FILENAME_01));
+			assertFalse(files.contains(FILENAME_01 + ".part"));
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testPrefetchRemoteFiles() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR), 2);
+		try {
+			EnhancedFTPClient ftpClient = pool.borrow();
+			List<RemoteFileAttributes> remoteFiles = new ArrayList<RemoteFileAttributes>(
+					fileTransferBean.getRemoteDirFileAttributes(CORRELATION_ID, ftpClient, null, ListingFilter.glob("*.xml")).values());
+			pool.release(ftpClient);
+			List<String> processed = new ArrayList<String>();
+			try (PrefetchingDownloadIterator files = fileTransferBean.prefetchRemoteFiles(CORRELATION_ID, pool, remoteFiles, TEMP_LOCAL_DIR, 1, 1)) {
+				while (files.hasNext()) {
+					try (PrefetchedFile file = files.next()) {
+						assertEquals(file.getRemoteFile().getSize(), Files.size(file.getPath()));
+						processed.add(file.getRemoteFile().getFileName());
+					}
+				}
+			}
+			assertEquals(remoteFiles.size(), processed.size());
+			assertEquals(0, countXMLFiles(fileTransferBean.getLocalDirFileList(TEMP_LOCAL_DIR)));
+		} finally {
+			pool.close();
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testClosingPrefetchDeletesFilesNotHandedOut() throws Exception {
+		ftpServer.start();
+		FTPClientPool pool = new FTPClientPool(CORRELATION_ID, fileTransferBean, createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR), 2);
+		try {
+			EnhancedFTPClient ftpClient = pool.borrow();
+			List<RemoteFileAttributes> remoteFiles = new ArrayList<RemoteFileAttributes>(
+					fileTransferBean.getRemoteDirFileAttributes(CORRELATION_ID, ftpClient, null, ListingFilter.glob("*.xml")).values());
+			pool.release(ftpClient);
+			PrefetchingDownloadIterator files = fileTransferBean.prefetchRemoteFiles(CORRELATION_ID, pool, remoteFiles, TEMP_LOCAL_DIR, 2, Long.MAX_VALUE);
+			PrefetchedFile first = files.next();
+			// the second file is downloading or downloaded
+			files.close();
+			assertEquals(1, countXMLFiles(fileTransferBean.getLocalDirFileList(TEMP_LOCAL_DIR)));
+			assertTrue(Files.exists(first.getPath()));
+			first.close();
+			assertEquals(0, countXMLFiles(fileTransferBean.getLocalDirFileList(TEMP_LOCAL_DIR)));
+			// the sessions were not interrupted mid-transfer
+			ftpClient = pool.borrow();
+			assertEquals(2, countXMLFiles(fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient)));
+			pool.release(ftpClient);
+		} finally {
+			pool.close();
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testDownloadToBufferAndUploadFromBuffer() throws Exception {
+		ftpServer.start();
+		ByteBufferPool bufferPool = new ByteBufferPool(ByteBufferPool.DEFAULT_CHUNK_SIZE, 4, 1024 * 1024, TEMP_LOCAL_DIR);
+		try {
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR));
+			byte[] content;
+			try (TransferBuffer buffer = fileTransferBean.downloadToBuffer(CORRELATION_ID, ftpClient, FILENAME_01, bufferPool)) {
+				assertTrue(buffer.isInMemory());
+				content = buffer.toByteArray();
+				assertEquals(new File(SCENARIO_02_REMOTE_DIR, FILENAME_01).length(), content.length);
+			}
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+
+			ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, createBaseFTPClientConfig(TEMP_REMOTE_DIR));
+			fileTransferBean.uploadFromBuffer(CORRELATION_ID, ftpClient, "newfile.xml", ByteBuffer.wrap(content));
+			assertArrayEquals(content, Files.readAllBytes(Paths.get(TEMP_REMOTE_DIR, "newfile.xml")));
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testDownloadToConsumer() throws Exception {
+		ftpServer.start();
+		try {
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR));
+			byte[] expected = Files.readAllBytes(Paths.get(SCENARIO_02_REMOTE_DIR, FILENAME_01));
+			final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+			long size = fileTransferBean.downloadToConsumer(CORRELATION_ID, ftpClient, FILENAME_01, content -> IOUtils.copy(content, streamed));
+			assertEquals(expected.length, size);
+			assertArrayEquals(expected, streamed.toByteArray());
+
+			final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+			size = fileTransferBean.downloadToChunkConsumer(CORRELATION_ID, ftpClient, FILENAME_01,
+					chunk -> chunks.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining()));
+			assertEquals(expected.length, size);
+			assertArrayEquals(expected, chunks.toByteArray());
+
+			// a consumer reading only part of the file
+			size = fileTransferBean.downloadToConsumer(CORRELATION_ID, ftpClient, FILENAME_01, content -> content.read());
+			assertEquals(expected.length, size);
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testDownloadToFailingConsumerLeavesSessionUsable() throws Exception {
+		ftpServer.start();
+		try {
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, createBaseFTPClientConfig(SCENARIO_02_REMOTE_DIR));
+			try {
+				fileTransferBean.downloadToConsumer(CORRELATION_ID, ftpClient, FILENAME_01, content -> {
+					throw new IOException("Malformed content");
+				});
+				fail("The consumer failure should have been reported");
+			} catch (RuntimeException e) {
+				// expected
+			}
+			assertEquals(2, countXMLFiles(fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient)));
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
+	@Test
+	public void testKeepAliveDuringSlowDownloadLeavesSessionUsable() throws Exception {
+		byte[] content = new byte[60000];
+		Arrays.fill(content, (byte) 'x');
+		Files.write(Paths.get(TEMP_REMOTE_DIR, "slow.xml"), content);
+		ftpServer.start();
+		try {
+			// the "slow" user downloads at 20000 bytes per second, so a NOOP is sent every second of the transfer
+			EnhancedFTPClient ftpClient = fileTransferBean.getConnectedFTPClient(CORRELATION_ID, createFTPClientConfig(TEMP_REMOTE_DIR, SLOW_USER));
+			ftpClient.setControlKeepAliveTimeout(1);
+			ByteArrayOutputStream local = new ByteArrayOutputStream();
+			assertTrue(ftpClient.retrieveFile("slow.xml", local));
+			assertTrue(ftpClient.getControlKeepAlivesSent() > 0);
+			assertEquals(content.length, local.size());
+			// the NOOP replies must not be taken for the replies to the next commands
+			assertEquals("/" + TEMP_REMOTE_DIR, ftpClient.printWorkingDirectory());
+			assertEquals(1, countXMLFiles(fileTransferBean.getRemoteDirFileListing(CORRELATION_ID, ftpClient)));
+			local.reset();
+			assertTrue(ftpClient.retrieveFile("slow.xml", local));
+			assertEquals(content.length, local.size());
+			fileTransferBean.disconnectFTPClient(CORRELATION_ID, ftpClient);
+		} finally {
+			ftpServer.stop();
+		}
+	}
+
 	@Test
 	public void testUploadFile() throws Exception {
 		ftpServer.start();
@@ -434,11 +936,15 @@ public class FTPFileTransferBeanIntegrationTest {
 	}
 	
 	private static FTPClientConfig createBaseFTPClientConfig(String remoteDir) {
+		return createFTPClientConfig(remoteDir, "test");
+	}
+
+	private static FTPClientConfig createFTPClientConfig(String remoteDir, String user) {
 		Map<String, Object> map = new HashMap<String, Object>();
 		map.put("ftpServerList", "localhost");
 		map.put("ftpPort", FTP_PORT);
-		map.put("ftpUser", "test");
-		map.put("ftpPassword", "test");
+		map.put("ftpUser", user);
+		map.put("ftpPassword", user);
 		map.put("ftpRetryCount", 3);
 		map.put("ftpRetrySleep", 1000);
 		map.put("ftpFilesLocalWorkingDir", TEMP_LOCAL_DIR);
@@ -490,7 +996,7 @@ public class FTPFileTransferBeanIntegrationTest {
 			int maxLoginPerIP = 0;
 			authorities.add(new ConcurrentLoginPermission(maxLogin, maxLoginPerIP));
 			int uploadRate = 0;
-			int downloadRate = 0;
+			int downloadRate = SLOW_USER.equals(userName) ? SLOW_USER_DOWNLOAD_RATE : 0;
 			authorities.add(new TransferRatePermission(downloadRate, uploadRate));
 			user.setAuthorities(authorities);
 			user.setMaxIdleTime(0);
@@ -550,4 +1056,4 @@ public class FTPFileTransferBeanIntegrationTest {
 			return "admin".equals(s);
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
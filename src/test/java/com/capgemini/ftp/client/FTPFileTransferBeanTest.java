@@ -0,0 +1,196 @@
+package com.capgemini.ftp.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.capgemini.ftp.client.apache.client.EnhancedFTPClient;
+import com.capgemini.ftp.client.apache.client.ScriptedFTPServer;
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+import com.capgemini.ftp.client.watch.IncrementalPickup;
+
+/**
+ * Tests of {@link FTPFileTransferBean} against servers that behave in ways
+ * the embedded server does not, e.g. without MLST.
+ */
+public class FTPFileTransferBeanTest {
+
+	private static final String CORRELATION_ID = "correlationid";
+
+	private final FileTransferBean fileTransferBean = new FTPFileTransferBean();
+
+	private ScriptedFTPServer server;
+
+	private EnhancedFTPClient client;
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("bean");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (client != null && client.isConnected()) {
+			client.disconnect();
+		}
+		if (server != null) {
+			server.close();
+		}
+		Files.deleteIfExists(dir.resolve("pickup.watermark"));
+		Files.deleteIfExists(dir.resolve("a.xml"));
+		Files.deleteIfExists(dir);
+	}
+
+	private void connect(ScriptedFTPServer.Script script) throws Exception {
+		server = new ScriptedFTPServer(script);
+		client = new EnhancedFTPClient();
+		client.setDefaultTimeout(5000);
+		client.connect("127.0.0.1", server.getPort());
+		client.login("user", "password");
+		client.enterLocalPassiveMode();
+	}
+
+	/*
+	 * Answers PASV and LIST with the listing given, and lets the script
+	 * answer the rest.
+	 */
+	private static ScriptedFTPServer.Script listing(final String[] lines, final ScriptedFTPServer.Script rest) {
+		final Socket[] data = new Socket[1];
+		return (command, args, session) -> {
+			if ("PASV".equals(command)) {
+				try (ServerSocket dataServer = session.passive()) {
+					data[0] = dataServer.accept();
+				}
+				return true;
+			}
+			if ("LIST".equals(command)) {
+				session.reply("150 Opening data connection");
+				for (String line : lines) {
+					data[0].getOutputStream().write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+				}
+				data[0].close();
+				session.reply("226 Transfer complete");
+				return true;
+			}
+			return rest.handle(command, args, session);
+		};
+	}
+
+	@Test
+	public void testFileReplacedUnderTheSameNameIsPickedUpWithoutMlst() throws Exception {
+		final String[] lines = { "-rw-r--r--   1 user group       10 Mar 14 10:00 a.xml" };
+		final String[] mdtm = { "213 20160314100000" };
+		final int[] mdtms = new int[1];
+		connect(listing(lines, (command, args, session) -> {
+			switch (command) {
+			case "SIZE":
+				session.reply("213 10");
+				return true;
+			case "MDTM":
+				mdtms[0]++;
+				session.reply(mdtm[0]);
+				return true;
+			default:
+				return false;
+			}
+		}));
+		IncrementalPickup pickup = IncrementalPickup.load(dir.resolve("pickup.watermark"));
+
+		List<RemoteFileAttributes> selected = fileTransferBean.getNewRemoteFiles(CORRELATION_ID, client, ListingFilter.files(), pickup);
+		assertEquals(1, selected.size());
+		long firstVersion = selected.get(0).getModificationTime();
+		pickup.advance(selected.get(0));
+		assertTrue(fileTransferBean.getNewRemoteFiles(CORRELATION_ID, client, ListingFilter.files(), pickup).isEmpty());
+		// the second poll used the known modification time
+		assertEquals(1, mdtms[0]);
+
+		// replaced with a file of the same size, which LIST shows with another time
+		lines[0] = "-rw-r--r--   1 user group       10 Mar 14 10:05 a.xml";
+		mdtm[0] = "213 20160314100500";
+		selected = fileTransferBean.getNewRemoteFiles(CORRELATION_ID, client, ListingFilter.files(), pickup);
+		assertEquals(2, mdtms[0]);
+		assertEquals(1, selected.size());
+		assertEquals(firstVersion + 5 * 60 * 1000, selected.get(0).getModificationTime());
+		assertNull(server.getFailure());
+	}
+
+	@Test
+	public void testAtomicUploadIsRenamedWithoutSizeCheckWhereSizeIsNotImplemented() throws Exception {
+		Files.write(dir.resolve("a.xml"), new byte[10]);
+		final List<String> commands = new ArrayList<String>();
+		final Socket[] data = new Socket[1];
+		connect((command, args, session) -> {
+			commands.add(command);
+			switch (command) {
+			case "PASV":
+				try (ServerSocket dataServer = session.passive()) {
+					data[0] = dataServer.accept();
+				}
+				return true;
+			case "STOR":
+				session.reply("150 Opening data connection");
+				try (InputStream input = data[0].getInputStream()) {
+					while (input.read() != -1) {
+						// discard the upload
+					}
+				}
+				session.reply("226 Transfer complete");
+				return true;
+			case "RNFR":
+				session.reply("350 Ready for RNTO");
+				return true;
+			case "RNTO":
+				session.reply("250 Renamed");
+				return true;
+			default:
+				// SIZE is answered with 502
+				return false;
+			}
+		});
+		fileTransferBean.uploadFileAtomically(CORRELATION_ID, client, dir.toString(), "a.xml", "a.xml.part");
+		assertTrue(commands.contains("SIZE"));
+		assertTrue(commands.contains("RNTO"));
+		assertFalse(commands.contains("DELE"));
+		assertNull(server.getFailure());
+	}
+
+	@Test
+	public void testUnreadableSizeOrModificationTimeSkipsOnlyThatFile() throws Exception {
+		connect((command, args, session) -> {
+			switch (command) {
+			case "SIZE":
+				session.reply("a.xml".equals(args) ? "213 about 10 bytes" : "213 10");
+				return true;
+			case "MDTM":
+				session.reply("b.xml".equals(args) ? "213 yesterday" : "213 20160314100000");
+				return true;
+			default:
+				return false;
+			}
+		});
+		Map<String, RemoteFileAttributes> attributes = fileTransferBean.getRemoteFileAttributes(CORRELATION_ID, client, Arrays.asList("a.xml", "b.xml", "c.xml"));
+		assertEquals(2, attributes.size());
+		assertEquals(-1, attributes.get("b.xml").getModificationTime());
+		assertEquals(10, attributes.get("c.xml").getSize());
+		assertNull(server.getFailure());
+	}
+}
@@ -0,0 +1,101 @@
+package com.capgemini.ftp.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalTreeScannerTest {
+
+	private Path root;
+
+	@Before
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("scan");
+		Files.write(root.resolve("a.xml"), new byte[3]);
+		Files.write(root.resolve("b.txt"), new byte[1]);
+		Files.createDirectories(root.resolve("sub/deeper"));
+		Files.write(root.resolve("sub/c.xml"), new byte[5]);
+		Files.write(root.resolve("sub/deeper/d.xml"), new byte[7]);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static Set<String> relativePaths(List<LocalFileAttributes> files) {
+		Set<String> paths = new HashSet<String>();
+		for (LocalFileAttributes file : files) {
+			paths.add(file.getRelativePath());
+		}
+		return paths;
+	}
+
+	@Test
+	public void testDirectoryOnly() {
+		List<LocalFileAttributes> files = new LocalTreeScanner().maxDepth(1).scan("test", root);
+		assertEquals(new HashSet<String>(Arrays.asList("a.xml", "b.txt")), relativePaths(files));
+	}
+
+	@Test
+	public void testGlobAndAttributes() {
+		List<LocalFileAttributes> files = new LocalTreeScanner().glob("*.xml").maxDepth(1).scan("test", root);
+		assertEquals(1, files.size());
+		assertEquals("a.xml", files.get(0).getFileName());
+		assertEquals(3, files.get(0).getSize());
+	}
+
+	@Test
+	public void testTree() {
+		Set<String> expected = new HashSet<String>(Arrays.asList("a.xml", "sub/c.xml", "sub/deeper/d.xml"));
+		assertEquals(expected, relativePaths(new LocalTreeScanner().glob("*.xml").scan("test", root)));
+		assertEquals(expected, relativePaths(new LocalTreeScanner().glob("*.xml").parallelism(3).scan("test", root)));
+	}
+
+	@Test
+	public void testMaxDepth() {
+		Set<String> expected = new HashSet<String>(Arrays.asList("a.xml", "sub/c.xml"));
+		assertEquals(expected, relativePaths(new LocalTreeScanner().glob("*.xml").maxDepth(2).scan("test", root)));
+		assertEquals(expected, relativePaths(new LocalTreeScanner().glob("*.xml").maxDepth(2).parallelism(3).scan("test", root)));
+	}
+
+	@Test
+	public void testLinksAreFollowedWithoutCycles() throws IOException {
+		Files.createSymbolicLink(root.resolve("link.xml"), root.resolve("a.xml"));
+		Files.createSymbolicLink(root.resolve("broken.xml"), root.resolve("missing.xml"));
+		Files.createSymbolicLink(root.resolve("sub/deeper/loop"), root);
+		Set<String> expected = new HashSet<String>(Arrays.asList("a.xml", "link.xml", "sub/c.xml", "sub/deeper/d.xml"));
+		assertEquals(expected, relativePaths(new LocalTreeScanner().glob("*.xml").scan("test", root)));
+		assertEquals(expected, relativePaths(new LocalTreeScanner().glob("*.xml").parallelism(3).scan("test", root)));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testMissingRoot() {
+		new LocalTreeScanner().parallelism(2).scan("test", root.resolve("missing"));
+	}
+}
@@ -0,0 +1,24 @@
+package com.capgemini.ftp.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
+import org.junit.Test;
+
+public class RemoteTreeWalkerTest {
+
+	@Test
+	public void testMlsdEntriesForTheDirectoryAndItsParentAreSkippedWhateverTheirNames() {
+		assertTrue(RemoteTreeWalker.isSelfOrParent(MLSxEntryParser.parseEntry("type=cdir;modify=20160314100000;perm=el; /partners/tmp")));
+		assertTrue(RemoteTreeWalker.isSelfOrParent(MLSxEntryParser.parseEntry("type=pdir;modify=20160314100000;perm=el; /partners")));
+		assertTrue(RemoteTreeWalker.isSelfOrParent(MLSxEntryParser.parseEntry("modify=20160314100000;Type=CDIR; tmp")));
+		assertTrue(RemoteTreeWalker.isSelfOrParent(MLSxEntryParser.parseEntry("type=dir;modify=20160314100000; ..")));
+	}
+
+	@Test
+	public void testMlsdSubdirectoriesAndFilesAreWalked() {
+		assertFalse(RemoteTreeWalker.isSelfOrParent(MLSxEntryParser.parseEntry("type=dir;modify=20160314100000;perm=el; tmp")));
+		assertFalse(RemoteTreeWalker.isSelfOrParent(MLSxEntryParser.parseEntry("type=file;size=7406;modify=20160314100000; cdir")));
+	}
+}
@@ -0,0 +1,377 @@
+package com.capgemini.ftp.client.apache.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.After;
+import org.junit.Test;
+
+import com.capgemini.ftp.client.apache.parser.ListingFilter;
+
+/**
+ * Tests of the session handling of {@link EnhancedFTPClient} against servers
+ * that misbehave in ways the embedded server does not.
+ */
+public class EnhancedFTPClientTest {
+
+	// MODE B descriptor of the last block of a file
+	private static final int BLOCK_EOF = 0x40;
+
+	private ScriptedFTPServer server;
+
+	private EnhancedFTPClient client;
+
+	@After
+	public void tearDown() throws Exception {
+		if (client != null && client.isConnected()) {
+			client.disconnect();
+		}
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private void connect(ScriptedFTPServer.Script script) throws Exception {
+		server = new ScriptedFTPServer(script);
+		client = new EnhancedFTPClient();
+		client.connect("127.0.0.1", server.getPort());
+	}
+
+	@Test
+	public void testLatePipeliningProbeReplyIsRead() throws Exception {
+		final int[] noops = new int[1];
+		connect((command, args, session) -> {
+			if ("NOOP".equals(command) && ++noops[0] == 2) {
+				Thread.sleep(500);
+				session.reply("200 Late NOOP");
+				return true;
+			}
+			return false;
+		});
+		client.setSoTimeout(5000);
+		client.setPipelineProbeTimeout(100);
+		assertFalse(client.isPipeliningSupported());
+		// the next reply belongs to the next command, not to the probe
+		assertEquals(215, client.sendCommand("SYST"));
+		assertEquals("215 UNIX Type: L8", client.getReplyString().trim());
+		assertNull(server.getFailure());
+	}
+
+	@Test
+	public void testUnansweredPipeliningProbeDisconnects() throws Exception {
+		final int[] noops = new int[1];
+		connect((command, args, session) -> "NOOP".equals(command) && ++noops[0] == 2);
+		client.setSoTimeout(300);
+		client.setPipelineProbeTimeout(100);
+		try {
+			client.isPipeliningSupported();
+			fail("The session should have been closed");
+		} catch (FTPConnectionClosedException e) {
+			assertFalse(client.isConnected());
+		}
+	}
+
+	@Test
+	public void testStatReplyWithoutEntriesFallsBackToList() throws Exception {
+		final int[] stats = new int[1];
+		connect((command, args, session) -> {
+			if (!"STAT".equals(command)) {
+				return false;
+			}
+			if (++stats[0] == 1) {
+				session.reply("213-Status of " + args + ":\r\n total 0\r\n213 End of status");
+			} else {
+				session.reply("213-Status of " + args + ":\r\n -rw-r--r--   1 user group     7406 Mar 14  2016 file1.xml\r\n213 End of status");
+			}
+			return true;
+		});
+		client.login("user", "password");
+		// an unparseable reply is not taken as an empty listing, nor as lack of support
+		assertNull(client.statListFiles(null, ListingFilter.all()));
+		FTPFile[] files = client.statListFiles(null, ListingFilter.all());
+		assertNotNull(files);
+		assertEquals(1, files.length);
+		assertEquals("file1.xml", files[0].getName());
+		assertEquals(2, stats[0]);
+	}
+
+	@Test
+	public void testStatStaysInUseAfterFailuresAndForEmptyDirectories() throws Exception {
+		final int[] stats = new int[1];
+		connect((command, args, session) -> {
+			if ("STAT".equals(command)) {
+				stats[0]++;
+				if ("missing".equals(args)) {
+					session.reply("550 No such directory");
+				} else if ("empty".equals(args)) {
+					session.reply("213-Status of empty:\r\n total 0\r\n213 End of status");
+				} else {
+					session.reply("213-Status of " + args + ":\r\n -rw-r--r--   1 user group     7406 Mar 14  2016 file1.xml\r\n213 End of status");
+				}
+				return true;
+			}
+			// no data connection is expected: LIST would fail the test
+			if ("PASV".equals(command) || "EPSV".equals(command) || "LIST".equals(command)) {
+				throw new IllegalStateException("Unexpected " + command);
+			}
+			return false;
+		});
+		client.login("user", "password");
+		// a missing directory does not turn STAT off
+		assertNull(client.statListFiles("missing", ListingFilter.all()));
+		assertEquals(1, client.statListFiles("full", ListingFilter.all()).length);
+		// once STAT is known to list, an empty reply is an empty directory
+		FTPFile[] files = client.statListFiles("empty", ListingFilter.all());
+		assertNotNull(files);
+		assertEquals(0, files.length);
+		assertEquals(3, stats[0]);
+		assertNull(server.getFailure());
+	}
+
+	@Test
+	public void testBlockModeConnectionIsKeptOnlyAfterCompletedTransfer() throws Exception {
+		final int[] passives = new int[1];
+		final int[] retrievals = new int[1];
+		final Socket[] data = new Socket[1];
+		connect((command, args, session) -> {
+			if ("PASV".equals(command)) {
+				passives[0]++;
+				try (ServerSocket dataServer = session.passive()) {
+					data[0] = dataServer.accept();
+				}
+				return true;
+			}
+			if ("RETR".equals(command)) {
+				session.reply("150 Opening data connection");
+				if (++retrievals[0] == 2) {
+					// the client closes the stream early: the transfer is aborted
+					writeBlock(data[0].getOutputStream(), 0, "content");
+					data[0].getInputStream().read();
+					data[0].close();
+					session.reply("426 Connection closed; transfer aborted");
+				} else {
+					writeBlock(data[0].getOutputStream(), BLOCK_EOF, "content");
+					session.reply("226 Transfer complete");
+				}
+				return true;
+			}
+			return false;
+		});
+		client.setSoTimeout(5000);
+		client.enterLocalPassiveMode();
+		assertTrue(client.setFileTransferMode(FTP.BLOCK_TRANSFER_MODE));
+
+		assertEquals("content", retrieve());
+		assertTrue(client.completePendingCommand());
+
+		InputStream input = client.retrieveFileStream("file1.xml");
+		assertEquals('c', input.read());
+		input.close();
+		assertFalse(client.completePendingCommand());
+		assertEquals(1, passives[0]);
+
+		assertEquals("content", retrieve());
+		assertTrue(client.completePendingCommand());
+		assertEquals(2, passives[0]);
+		assertNull(server.getFailure());
+	}
+
+	@Test
+	public void testEpsvIsOnlyRecordedAsUnsupportedWhenRefused() throws Exception {
+		final int[] epsvs = new int[1];
+		final Socket[] data = new Socket[1];
+		connect((command, args, session) -> {
+			switch (command) {
+			case "EPSV":
+				session.reply(++epsvs[0] == 1 ? "425 Cannot open data connection" : "502 Command not implemented");
+				return true;
+			case "PASV":
+				try (ServerSocket dataServer = session.passive()) {
+					data[0] = dataServer.accept();
+				}
+				return true;
+			case "NLST":
+				session.reply("150 Opening data connection");
+				data[0].getOutputStream().write("file1.xml\r\n".getBytes(StandardCharsets.US_ASCII));
+				data[0].close();
+				session.reply("226 Transfer complete");
+				return true;
+			default:
+				return false;
+			}
+		});
+		client.setSoTimeout(5000);
+		client.enterLocalPassiveMode();
+		client.setUseEPSVwithIPv4(true);
+		assertEquals(1, client.listNames().length);
+		assertNull(client.getServerCapabilities().get(ServerCapabilities.ServerCapability.EPSV));
+		assertEquals(1, client.listNames().length);
+		assertEquals(Boolean.FALSE, client.getServerCapabilities().get(ServerCapabilities.ServerCapability.EPSV));
+		assertEquals(2, epsvs[0]);
+	}
+
+	@Test
+	public void testMlstFactsAreRestoredOnlyBeforeFullListings() throws Exception {
+		final List<String> options = new ArrayList<String>();
+		final Socket[] data = new Socket[1];
+		connect((command, args, session) -> {
+			switch (command) {
+			case "FEAT":
+				session.reply("211-Features:\r\n MLST type*;size*;modify*;perm;\r\n211 End");
+				return true;
+			case "OPTS":
+				options.add(args);
+				session.reply("200 MLST OPTS " + args.substring("MLST ".length()));
+				return true;
+			case "PASV":
+				try (ServerSocket dataServer = session.passive()) {
+					data[0] = dataServer.accept();
+				}
+				return true;
+			case "MLSD":
+				session.reply("150 Opening data connection");
+				data[0].getOutputStream().write("type=file; file1.xml\r\n".getBytes(StandardCharsets.US_ASCII));
+				data[0].close();
+				session.reply("226 Transfer complete");
+				return true;
+			default:
+				return false;
+			}
+		});
+		assertTrue(client.login("user", "password"));
+		client.enterLocalPassiveMode();
+		assertEquals(Arrays.asList("file1.xml"), client.listFileNames(null));
+		assertEquals(Arrays.asList("file1.xml"), client.listFileNames(null));
+		// the type-only option is sent once, and the defaults are not asked back between name listings
+		assertEquals(Arrays.asList("MLST type;"), options);
+		assertEquals(1, client.mlistDir().length);
+		assertEquals(Arrays.asList("MLST type;", "MLST type;size;modify;"), options);
+		assertNull(server.getFailure());
+	}
+
+	@Test
+	public void testFeaturesAreReadAgainAfterLogin() throws Exception {
+		final boolean[] loggedIn = new boolean[1];
+		connect((command, args, session) -> {
+			if ("PASS".equals(command)) {
+				loggedIn[0] = true;
+				return false;
+			}
+			if ("FEAT".equals(command)) {
+				session.reply(loggedIn[0] ? "211-Features:\r\n MLST type*;size*;\r\n211 End" : "530 Please login with USER and PASS");
+				return true;
+			}
+			return false;
+		});
+		assertFalse(client.hasFeature("MLST"));
+		assertNull(client.getServerCapabilities().get(ServerCapabilities.ServerCapability.MLST));
+		assertTrue(client.login("user", "password"));
+		assertTrue(client.hasFeature("MLST"));
+		assertEquals(Boolean.TRUE, client.getServerCapabilities().get(ServerCapabilities.ServerCapability.MLST));
+	}
+
+	@Test
+	public void testReplyBufferedWithTheGreetingIsDecoded() throws Exception {
+		// the reply to SYST arrives with the greeting, so the line reader of commons-net buffers it
+		server = new ScriptedFTPServer("220 Scripted server ready\r\n215 UNIX Type: L8",
+				(command, args, session) -> "SYST".equals(command));
+		client = new EnhancedFTPClient();
+		client.setByteReplyDecoding(true);
+		client.setDefaultTimeout(5000);
+		client.connect("127.0.0.1", server.getPort());
+		assertEquals(215, client.sendCommand("SYST"));
+		assertEquals(200, client.sendCommand("NOOP"));
+	}
+
+	@Test
+	public void testKeepAliveRepliesAreReadAfterFailedTransfer() throws Exception {
+		final Socket[] data = new Socket[1];
+		connect((command, args, session) -> {
+			if ("PASV".equals(command)) {
+				try (ServerSocket dataServer = session.passive()) {
+					data[0] = dataServer.accept();
+				}
+				return true;
+			}
+			if ("RETR".equals(command)) {
+				session.reply("150 Opening data connection");
+				OutputStream output = data[0].getOutputStream();
+				output.write('a');
+				output.flush();
+				// long enough for the client to send a keep-alive NOOP
+				Thread.sleep(1500);
+				output.write('b');
+				output.flush();
+				data[0].getInputStream().read();
+				data[0].close();
+				session.reply("426 Connection closed; transfer aborted");
+				return true;
+			}
+			return false;
+		});
+		client.setSoTimeout(5000);
+		client.enterLocalPassiveMode();
+		client.setControlKeepAliveTimeout(1);
+		final int[] writes = new int[1];
+		OutputStream local = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (++writes[0] == 2) {
+					throw new IOException("Disk full");
+				}
+			}
+		};
+		try {
+			client.retrieveFile("file1.xml", local);
+			fail("The local write failure should have been reported");
+		} catch (IOException e) {
+			// expected
+		}
+		assertTrue(client.getControlKeepAlivesSent() > 0);
+		// neither the 426 nor the NOOP reply is taken for the reply to SYST
+		assertEquals(215, client.sendCommand("SYST"));
+		assertNull(server.getFailure());
+	}
+
+	private String retrieve() throws IOException {
+		try (InputStream input = client.retrieveFileStream("file1.xml")) {
+			StringBuilder content = new StringBuilder();
+			int ch;
+			while ((ch = input.read()) != -1) {
+				content.append((char) ch);
+			}
+			return content.toString();
+		}
+	}
+
+	private static void writeBlock(OutputStream output, int descriptor, String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+		output.write(descriptor);
+		output.write(bytes.length >> 8);
+		output.write(bytes.length & 0xff);
+		output.write(bytes);
+		output.flush();
+	}
+}
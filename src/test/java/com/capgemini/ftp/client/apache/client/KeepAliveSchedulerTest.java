@@ -0,0 +1,45 @@
+package com.capgemini.ftp.client.apache.client;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class KeepAliveSchedulerTest {
+
+	@Test
+	public void testTaskRunsRepeatedly() throws InterruptedException {
+		final CountDownLatch runs = new CountDownLatch(3);
+		ScheduledFuture<?> future = KeepAliveScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				runs.countDown();
+			}
+		}, 10);
+		try {
+			assertTrue(runs.await(5, TimeUnit.SECONDS));
+		} finally {
+			future.cancel(false);
+		}
+	}
+
+	@Test
+	public void testTaskKeepsRunningAfterException() throws InterruptedException {
+		final CountDownLatch runs = new CountDownLatch(2);
+		ScheduledFuture<?> future = KeepAliveScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				runs.countDown();
+				throw new IllegalStateException("connection lost");
+			}
+		}, 10);
+		try {
+			assertTrue(runs.await(5, TimeUnit.SECONDS));
+		} finally {
+			future.cancel(false);
+		}
+	}
+}
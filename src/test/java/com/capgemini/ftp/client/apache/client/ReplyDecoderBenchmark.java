@@ -0,0 +1,108 @@
+package com.capgemini.ftp.client.apache.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.net.io.CRLFLineReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares reading 10,000 control connection replies (NOOP, SIZE, MDTM,
+ * RNFR/RNTO and PASV, as a chatty session would see them) the way commons-net
+ * does, through a <code>CRLFLineReader</code> with the PASV tuple matched by
+ * a regular expression, with {@link ReplyDecoder}.
+ * <p>
+ * Not run as part of the unit tests; start it from the IDE via
+ * {@link #main(String[])} or with the JMH runner on the test classpath. Run
+ * with <code>-prof gc</code> to compare the allocation rate too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReplyDecoderBenchmark {
+
+	private static final int REPLIES = 10000;
+
+	private static final int REPLY_CODE_LEN = 3;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final Pattern PARMS_PAT = Pattern.compile("(\\d{1,3},\\d{1,3},\\d{1,3},\\d{1,3}),(\\d{1,3}),(\\d{1,3})");
+
+	private static final String[] SAMPLES = { "200 NOOP ok.", "213 7406", "213 20170302101500", "350 Requested file action pending further information.",
+			"250 Requested file action okay, file renamed.", "227 Entering Passive Mode (192,168,1,10,195,80)" };
+
+	private byte[] replies;
+
+	@Setup
+	public void setUp() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < REPLIES; i++) {
+			text.append(SAMPLES[i % SAMPLES.length]).append("\r\n");
+		}
+		replies = text.toString().getBytes(ISO_8859_1);
+	}
+
+	@Benchmark
+	public void commonsNet(Blackhole blackhole) throws IOException {
+		CRLFLineReader reader = new CRLFLineReader(new InputStreamReader(new ByteArrayInputStream(replies), ISO_8859_1));
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < REPLIES; i++) {
+			lines.clear();
+			String line = reader.readLine();
+			int code = Integer.parseInt(line.substring(0, REPLY_CODE_LEN));
+			lines.add(line);
+			if (code == 227) {
+				Matcher m = PARMS_PAT.matcher(line);
+				m.find();
+				blackhole.consume(m.group(1).replace(',', '.'));
+				blackhole.consume((Integer.parseInt(m.group(2)) << 8) | Integer.parseInt(m.group(3)));
+			}
+			blackhole.consume(code);
+		}
+	}
+
+	@Benchmark
+	public void replyDecoder(Blackhole blackhole) throws IOException {
+		ReplyDecoder decoder = new ReplyDecoder(new ByteArrayInputStream(replies));
+		List<String> lines = new ArrayList<String>();
+		int[] tuple = new int[6];
+		for (int i = 0; i < REPLIES; i++) {
+			lines.clear();
+			int code = decoder.readReply(lines, ISO_8859_1, false);
+			if (code == 227) {
+				ReplyDecoder.parsePassiveTuple(lines.get(0), tuple);
+				blackhole.consume(tuple[0] + "." + tuple[1] + "." + tuple[2] + "." + tuple[3]);
+				blackhole.consume((tuple[4] << 8) | tuple[5]);
+			}
+			blackhole.consume(code);
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ReplyDecoderBenchmark.class.getSimpleName()).build()).run();
+	}
+}
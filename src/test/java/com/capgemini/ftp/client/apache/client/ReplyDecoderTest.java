@@ -0,0 +1,156 @@
+package com.capgemini.ftp.client.apache.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.net.MalformedServerReplyException;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.junit.Test;
+
+public class ReplyDecoderTest {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String REPLIES = "200 NOOP ok\r\n"
+			+ "211-Features:\r\n MLST type*;size*;\r\n UTF8\r\n211 End\r\n"
+			+ "257 \"/a\nb\" created\r\n";
+
+	@Test
+	public void testRepliesAreDecodedAcrossReads() throws Exception {
+		for (InputStream input : Arrays.asList(stream(REPLIES), new TrickleInputStream(REPLIES.getBytes(ISO_8859_1)))) {
+			ReplyDecoder decoder = new ReplyDecoder(input);
+			List<String> lines = new ArrayList<String>();
+			assertEquals(200, decoder.readReply(lines, ISO_8859_1, false));
+			assertEquals(Arrays.asList("200 NOOP ok"), lines);
+			lines.clear();
+			assertEquals(211, decoder.readReply(lines, ISO_8859_1, false));
+			assertEquals(Arrays.asList("211-Features:", " MLST type*;size*;", " UTF8", "211 End"), lines);
+			lines.clear();
+			// a bare LF does not end a line
+			assertEquals(257, decoder.readReply(lines, ISO_8859_1, false));
+			assertEquals(Arrays.asList("257 \"/a\nb\" created"), lines);
+		}
+	}
+
+	@Test
+	public void testStrictMultilineReplyEndsAtItsOwnCode() throws Exception {
+		String reply = "220-Welcome\r\n221 not the end\r\n220-still going\r\n220 ready\r\n";
+		List<String> lines = new ArrayList<String>();
+		assertEquals(220, new ReplyDecoder(stream(reply)).readReply(lines, ISO_8859_1, true));
+		assertEquals(4, lines.size());
+		lines.clear();
+		new ReplyDecoder(stream(reply)).readReply(lines, ISO_8859_1, false);
+		assertEquals(2, lines.size());
+	}
+
+	@Test
+	public void testBufferedInputIsReported() throws Exception {
+		ReplyDecoder decoder = new ReplyDecoder(stream("200 NOOP ok\r\n200 NOOP ok\r\n"));
+		List<String> lines = new ArrayList<String>();
+		decoder.readReply(lines, ISO_8859_1, false);
+		assertTrue(decoder.hasBufferedInput());
+		decoder.readReply(lines, ISO_8859_1, false);
+		assertFalse(decoder.hasBufferedInput());
+	}
+
+	@Test
+	public void testLinesAreDecodedWithTheControlEncoding() throws Exception {
+		String reply = "257 \"/r\u00e9pertoire\" created\r\n";
+		List<String> lines = new ArrayList<String>();
+		new ReplyDecoder(new ByteArrayInputStream(reply.getBytes(UTF_8))).readReply(lines, UTF_8, false);
+		assertEquals("257 \"/r\u00e9pertoire\" created", lines.get(0));
+	}
+
+	@Test
+	public void testLongLineGrowsTheLineBuffer() throws Exception {
+		StringBuilder text = new StringBuilder("550 ");
+		for (int i = 0; i < 10000; i++) {
+			text.append((char) ('a' + i % 26));
+		}
+		List<String> lines = new ArrayList<String>();
+		assertEquals(550, new ReplyDecoder(stream(text + "\r\n")).readReply(lines, ISO_8859_1, false));
+		assertEquals(text.toString(), lines.get(0));
+	}
+
+	@Test
+	public void testMalformedAndClosedReplies() throws Exception {
+		assertFailure("20\r\n", MalformedServerReplyException.class);
+		assertFailure("2x0 bad\r\n", MalformedServerReplyException.class);
+		assertFailure("", FTPConnectionClosedException.class);
+		assertFailure("211-Features:\r\n UTF8\r\n", FTPConnectionClosedException.class);
+	}
+
+	@Test
+	public void testParsePassiveTuple() {
+		int[] values = new int[6];
+		assertTrue(ReplyDecoder.parsePassiveTuple("227 Entering Passive Mode (192,168,1,10,195,80).", values));
+		assertArrayEquals(new int[] { 192, 168, 1, 10, 195, 80 }, values);
+		// as with the former regex, the tuple may start inside a longer number
+		assertTrue(ReplyDecoder.parsePassiveTuple("227 =1234,5,6,7,8,9", values));
+		assertArrayEquals(new int[] { 234, 5, 6, 7, 8, 9 }, values);
+		assertTrue(ReplyDecoder.parsePassiveTuple("227 10,0,0,1,4,1", values));
+		assertArrayEquals(new int[] { 10, 0, 0, 1, 4, 1 }, values);
+		assertFalse(ReplyDecoder.parsePassiveTuple("227 Entering Passive Mode (192,168,1,10,195).", values));
+		assertFalse(ReplyDecoder.parsePassiveTuple("227 Entering Passive Mode", values));
+	}
+
+	@Test
+	public void testParseExtendedPassivePort() {
+		assertEquals(6446, ReplyDecoder.parseExtendedPassivePort("229 Entering Extended Passive Mode (|||6446|)"));
+		assertEquals(21, ReplyDecoder.parseExtendedPassivePort("229 Entering Extended Passive Mode ( !!!21! )"));
+		assertEquals(-1, ReplyDecoder.parseExtendedPassivePort("229 Entering Extended Passive Mode (||6446|)"));
+		assertEquals(-1, ReplyDecoder.parseExtendedPassivePort("229 Entering Extended Passive Mode (|||64x6|)"));
+		assertEquals(-1, ReplyDecoder.parseExtendedPassivePort("229 Entering Extended Passive Mode (|||99999|)"));
+		assertEquals(-1, ReplyDecoder.parseExtendedPassivePort("229 Entering Extended Passive Mode |||6446|"));
+	}
+
+	@Test
+	public void testParsePathname() {
+		assertEquals("/home/user", EnhancedFTPClient.__parsePathname("257 \"/home/user\" is current directory"));
+		assertEquals("/a \"quoted\" dir", EnhancedFTPClient.__parsePathname("257 \"/a \"\"quoted\"\" dir\" created"));
+		assertEquals("/ends/with\"", EnhancedFTPClient.__parsePathname("257 \"/ends/with\"\"\""));
+		assertEquals("/no/quotes", EnhancedFTPClient.__parsePathname("257 /no/quotes"));
+		assertEquals("\"/unterminated", EnhancedFTPClient.__parsePathname("257 \"/unterminated"));
+	}
+
+	private void assertFailure(String replies, Class<? extends IOException> expected) throws Exception {
+		try {
+			new ReplyDecoder(stream(replies)).readReply(new ArrayList<String>(), ISO_8859_1, false);
+			fail("expected " + expected.getSimpleName());
+		} catch (IOException e) {
+			assertEquals(expected, e.getClass());
+		}
+	}
+
+	private static InputStream stream(String text) {
+		return new ByteArrayInputStream(text.getBytes(ISO_8859_1));
+	}
+
+	/**
+	 * Returns at most one byte per read, as a slow network might.
+	 */
+	private static class TrickleInputStream extends ByteArrayInputStream {
+
+		TrickleInputStream(byte[] bytes) {
+			super(bytes);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, 1));
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.capgemini.ftp.client.apache.client;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single connection FTP server for tests that need replies the embedded
+ * server cannot give, e.g. late, missing or malformed ones. Each command is
+ * handed to the {@link Script}; commands it does not answer get the usual
+ * replies to log in, and 502 otherwise.
+ */
+public class ScriptedFTPServer implements Closeable {
+
+	public interface Script {
+
+		/**
+		 * @return true if the command was answered.
+		 */
+		boolean handle(String command, String args, Session session) throws Exception;
+	}
+
+	private final ServerSocket serverSocket;
+
+	private final Thread thread;
+
+	private volatile Exception failure;
+
+	public ScriptedFTPServer(Script script) throws IOException {
+		this("220 Scripted server ready", script);
+	}
+
+	/**
+	 * @param greeting
+	 *            sent as is on connecting; may hold further lines.
+	 */
+	public ScriptedFTPServer(final String greeting, final Script script) throws IOException {
+		serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		thread = new Thread(() -> {
+			try (Socket socket = serverSocket.accept()) {
+				Session session = new Session(socket);
+				session.reply(greeting);
+				String line;
+				while ((line = session.reader.readLine()) != null) {
+					int space = line.indexOf(' ');
+					String command = (space < 0 ? line : line.substring(0, space)).toUpperCase();
+					String args = space < 0 ? null : line.substring(space + 1);
+					if (!script.handle(command, args, session)) {
+						session.defaultReply(command);
+					}
+					if ("QUIT".equals(command)) {
+						break;
+					}
+				}
+			} catch (Exception e) {
+				if (!serverSocket.isClosed()) {
+					failure = e;
+				}
+			}
+		}, "scripted-ftp-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the error that ended the session early, or null.
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static class Session {
+
+		private final Socket socket;
+
+		private final BufferedReader reader;
+
+		private final OutputStream output;
+
+		Session(Socket socket) throws IOException {
+			this.socket = socket;
+			this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			this.output = socket.getOutputStream();
+		}
+
+		public void reply(String reply) throws IOException {
+			output.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+		}
+
+		/**
+		 * Reply 227 with a new passive port and return its server socket.
+		 */
+		public ServerSocket passive() throws IOException {
+			ServerSocket dataServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			int port = dataServer.getLocalPort();
+			reply("227 Entering Passive Mode (127,0,0,1," + (port >> 8) + "," + (port & 0xff) + ")");
+			return dataServer;
+		}
+
+		public Socket getSocket() {
+			return socket;
+		}
+
+		public void defaultReply(String command) throws IOException {
+			switch (command) {
+			case "USER":
+				reply("331 Password required");
+				break;
+			case "PASS":
+				reply("230 Logged in");
+				break;
+			case "SYST":
+				reply("215 UNIX Type: L8");
+				break;
+			case "TYPE":
+			case "MODE":
+			case "NOOP":
+				reply("200 OK");
+				break;
+			case "QUIT":
+				reply("221 Bye");
+				break;
+			default:
+				reply("502 Command not implemented");
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.capgemini.ftp.client.apache.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.capgemini.ftp.client.apache.client.ServerCapabilities.ServerCapability;
+
+public class ServerCapabilitiesTest {
+
+	@Test
+	public void testCapabilitiesAreSharedPerServer() {
+		ServerCapabilities capabilities = ServerCapabilities.forServer("shared.example.com", 21);
+		capabilities.set(ServerCapability.EPSV, false);
+		assertSame(capabilities, ServerCapabilities.forServer("shared.example.com", 21));
+		assertNull(ServerCapabilities.forServer("shared.example.com", 2121).get(ServerCapability.EPSV));
+		assertEquals(Boolean.FALSE, ServerCapabilities.forServer("shared.example.com", 21).get(ServerCapability.EPSV));
+	}
+
+	@Test
+	public void testInvalidateForgetsTheServer() {
+		ServerCapabilities capabilities = ServerCapabilities.forServer("invalidated.example.com", 21);
+		capabilities.set(ServerCapability.EPSV, true);
+		ServerCapabilities.invalidate("invalidated.example.com", 21);
+		ServerCapabilities relearned = ServerCapabilities.forServer("invalidated.example.com", 21);
+		assertNotSame(capabilities, relearned);
+		assertNull(relearned.get(ServerCapability.EPSV));
+	}
+
+	@Test
+	public void testFeaturesAreRecorded() {
+		Map<String, Set<String>> features = new HashMap<String, Set<String>>();
+		features.put("MLST", Collections.singleton("type*;size*;modify*;"));
+		features.put("UTF8", Collections.singleton(""));
+		ServerCapabilities capabilities = new ServerCapabilities();
+		capabilities.set(ServerCapability.MODE_Z, true);
+		capabilities.setFeatures(features);
+		assertEquals(Boolean.TRUE, capabilities.get(ServerCapability.MLST));
+		assertEquals(Boolean.TRUE, capabilities.get(ServerCapability.UTF8));
+		// MODE Z is often supported without being announced
+		assertEquals(Boolean.TRUE, capabilities.get(ServerCapability.MODE_Z));
+		assertNull(capabilities.get(ServerCapability.EPSV));
+	}
+}
@@ -0,0 +1,54 @@
+package com.capgemini.ftp.client.apache.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ServerDiscoveryTest {
+
+	@Test
+	public void testResultsAreSharedUntilTheyExpire() throws Exception {
+		assertNull(ServerDiscovery.forServer("expiring.example.com", 21));
+		ServerDiscovery discovery = ServerDiscovery.forStoring("expiring.example.com", 21, 50);
+		discovery.setSystemType("UNIX Type: L8");
+		assertSame(discovery, ServerDiscovery.forStoring("expiring.example.com", 21, 50));
+		assertEquals("UNIX Type: L8", ServerDiscovery.forServer("expiring.example.com", 21).getSystemType());
+		Thread.sleep(100);
+		assertNull(ServerDiscovery.forServer("expiring.example.com", 21));
+	}
+
+	@Test
+	public void testInvalidateForgetsTheServer() {
+		ServerDiscovery.forStoring("invalidated.example.com", 21, 60000).setSystemType("UNIX Type: L8");
+		ServerDiscovery.invalidate("invalidated.example.com", 21);
+		assertNull(ServerDiscovery.forServer("invalidated.example.com", 21));
+	}
+
+	@Test
+	public void testFeaturesAreCopiedAndUnmodifiable() {
+		Map<String, Set<String>> features = new HashMap<String, Set<String>>();
+		Set<String> mlst = new HashSet<String>();
+		mlst.add("type*;size*;");
+		features.put("MLST", mlst);
+		ServerDiscovery discovery = new ServerDiscovery();
+		discovery.setFeatures(features);
+		mlst.add("modify*;");
+		features.clear();
+		assertEquals(1, discovery.getFeatures().get("MLST").size());
+		assertTrue(discovery.getFeatures().containsKey("MLST"));
+		try {
+			discovery.getFeatures().put("UTF8", new HashSet<String>());
+			fail("features must not be modifiable");
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+}
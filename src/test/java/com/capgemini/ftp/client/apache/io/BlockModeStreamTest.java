@@ -0,0 +1,97 @@
+package com.capgemini.ftp.client.apache.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class BlockModeStreamTest {
+
+	@Test
+	public void testRoundTripOfSeveralFilesOnOneConnection() throws Exception {
+		byte[] first = data(70000);
+		byte[] second = data(10);
+		ByteArrayOutputStream connection = new ByteArrayOutputStream();
+		BlockModeOutputStream output = new BlockModeOutputStream(connection);
+		output.write(first);
+		output.close();
+		assertTrue(output.isEndOfFile());
+		output = new BlockModeOutputStream(connection, 4);
+		output.write(second, 0, 3);
+		output.write(second[3]);
+		output.write(second, 4, 6);
+		output.close();
+
+		InputStream in = new ByteArrayInputStream(connection.toByteArray());
+		BlockModeInputStream input = new BlockModeInputStream(in);
+		assertArrayEquals(first, readAll(input));
+		assertTrue(input.isEndOfFile());
+		input = new BlockModeInputStream(in);
+		assertArrayEquals(second, readAll(input));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testEmptyFile() throws Exception {
+		ByteArrayOutputStream connection = new ByteArrayOutputStream();
+		new BlockModeOutputStream(connection).close();
+		assertArrayEquals(new byte[] { 0x40, 0, 0 }, connection.toByteArray());
+		BlockModeInputStream input = new BlockModeInputStream(new ByteArrayInputStream(connection.toByteArray()));
+		assertEquals(-1, input.read());
+		assertTrue(input.isEndOfFile());
+	}
+
+	@Test
+	public void testRestartMarkersAreSkipped() throws Exception {
+		byte[] blocks = { 0, 0, 2, 'a', 'b', 0x10, 0, 3, '9', '9', '9', 0x40, 0, 1, 'c' };
+		BlockModeInputStream input = new BlockModeInputStream(new ByteArrayInputStream(blocks));
+		assertArrayEquals(new byte[] { 'a', 'b', 'c' }, readAll(input));
+	}
+
+	@Test
+	public void testCloseSkipsToEndOfFile() throws Exception {
+		byte[] blocks = { 0, 0, 2, 'a', 'b', 0x40, 0, 1, 'c', 0x40, 0, 1, 'd' };
+		InputStream in = new ByteArrayInputStream(blocks);
+		BlockModeInputStream input = new BlockModeInputStream(in);
+		assertEquals('a', input.read());
+		input.close();
+		assertTrue(input.isEndOfFile());
+		assertEquals('d', readAll(new BlockModeInputStream(in))[0]);
+	}
+
+	@Test(expected = IOException.class)
+	public void testConnectionClosedBeforeEndOfFile() throws Exception {
+		byte[] blocks = { 0, 0, 2, 'a', 'b' };
+		BlockModeInputStream input = new BlockModeInputStream(new ByteArrayInputStream(blocks));
+		try {
+			readAll(input);
+		} finally {
+			assertFalse(input.isEndOfFile());
+		}
+	}
+
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int count;
+		while ((count = input.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toByteArray();
+	}
+}
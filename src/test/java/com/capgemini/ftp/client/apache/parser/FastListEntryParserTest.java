@@ -0,0 +1,110 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.Test;
+
+public class FastListEntryParserTest {
+
+	private final FastListEntryParser parser = new FastListEntryParser(TimeZone.getTimeZone("GMT"));
+
+	@Test
+	public void testUnixFileWithYear() {
+		FTPFile file = parser.parseFTPEntry("-rw-r--r--   1 ftpuser  ftpgroup     7406 Mar 14  2016 file1.xml");
+		assertNotNull(file);
+		assertTrue(file.isFile());
+		assertEquals("file1.xml", file.getName());
+		assertEquals(7406, file.getSize());
+		assertEquals("ftpuser", file.getUser());
+		assertEquals("ftpgroup", file.getGroup());
+		assertEquals(1, file.getHardLinkCount());
+		Calendar timestamp = file.getTimestamp();
+		assertEquals(2016, timestamp.get(Calendar.YEAR));
+		assertEquals(Calendar.MARCH, timestamp.get(Calendar.MONTH));
+		assertEquals(14, timestamp.get(Calendar.DAY_OF_MONTH));
+		assertTrue(file.hasPermission(FTPFile.USER_ACCESS, FTPFile.WRITE_PERMISSION));
+		assertFalse(file.hasPermission(FTPFile.GROUP_ACCESS, FTPFile.WRITE_PERMISSION));
+	}
+
+	@Test
+	public void testUnixDirectoryWithTimeAndSpacesInName() {
+		FTPFile file = parser.parseFTPEntry("drwxr-xr-x   2 user group     4096 Jan  3 10:15 my archive");
+		assertNotNull(file);
+		assertTrue(file.isDirectory());
+		assertEquals("my archive", file.getName());
+		assertEquals(10, file.getTimestamp().get(Calendar.HOUR_OF_DAY));
+		assertEquals(15, file.getTimestamp().get(Calendar.MINUTE));
+	}
+
+	@Test
+	public void testUnixSymbolicLink() {
+		FTPFile file = parser.parseFTPEntry("lrwxrwxrwx   1 user group       11 Feb 28  2015 current -> file1.xml");
+		assertNotNull(file);
+		assertTrue(file.isSymbolicLink());
+		assertEquals("current", file.getName());
+		assertEquals("file1.xml", file.getLink());
+	}
+
+	@Test
+	public void testWindowsEntries() {
+		FTPFile file = parser.parseFTPEntry("03-14-16  01:05PM                 7406 file1.xml");
+		assertNotNull(file);
+		assertTrue(file.isFile());
+		assertEquals("file1.xml", file.getName());
+		assertEquals(7406, file.getSize());
+		assertEquals(13, file.getTimestamp().get(Calendar.HOUR_OF_DAY));
+
+		FTPFile dir = parser.parseFTPEntry("03-14-2016  12:00AM       <DIR>          archive");
+		assertNotNull(dir);
+		assertTrue(dir.isDirectory());
+		assertEquals("archive", dir.getName());
+		assertEquals(0, dir.getTimestamp().get(Calendar.HOUR_OF_DAY));
+	}
+
+	@Test
+	public void testLeadingSpacesInNamesAreKept() {
+		assertEquals(" file1.xml", parser.parseFTPEntry("-rw-r--r--   1 user group     7406 Mar 14  2016  file1.xml").getName());
+		assertEquals("  notes", parser.parseFTPEntry("drwxr-xr-x   2 user group     4096 Jan  3 10:15   notes").getName());
+		assertEquals(" file1.xml", parser.parseFTPEntry("03-14-16  01:05PM                 7406  file1.xml").getName());
+		assertEquals(" archive", parser.parseFTPEntry("03-14-2016  12:00AM       <DIR>           archive").getName());
+		assertEquals("archive", parser.parseFTPEntry("03-14-2016  12:00AM <DIR> archive").getName());
+	}
+
+	@Test
+	public void testFailedScanLeavesDateAlone() {
+		RawListEntry entry = new RawListEntry();
+		assertTrue(parser.scan("-rw-r--r--   1 ftpuser  ftpgroup     7406 Mar 14  2016 file1.xml", entry));
+		assertFalse(parser.scan("-rw-r--r--   1 ftpuser  ftpgroup     7406 Jan  3 10:1x file2.xml", entry));
+		assertFalse(parser.scan("01-02-17  11:30AM                 7406", entry));
+		assertEquals(2016, entry.year);
+		assertEquals(Calendar.MARCH, entry.month);
+		assertEquals(14, entry.day);
+		assertEquals(0, entry.hour);
+		assertEquals(0, entry.minute);
+	}
+
+	@Test
+	public void testUnparseableLines() {
+		assertNull(parser.parseFTPEntry("total 24"));
+		assertNull(parser.parseFTPEntry("this is not a listing line"));
+		assertNull(parser.parseFTPEntry(null));
+	}
+
+	@Test
+	public void testScanDoesNotCreateFields() {
+		RawListEntry entry = new RawListEntry();
+		assertTrue(parser.scan("-rw-r--r--   1 ftpuser  ftpgroup     7406 Mar 14  2016 file1.XML", entry));
+		assertEquals(7406, entry.getSize());
+		assertTrue(entry.isFile());
+		assertTrue(entry.nameEndsWithIgnoreCase(".xml"));
+		assertEquals("file1.XML", entry.getName());
+	}
+}
@@ -0,0 +1,103 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
+import org.apache.commons.net.ftp.parser.NTFTPEntryParser;
+import org.apache.commons.net.ftp.parser.UnixFTPEntryParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the commons-net LIST parsers with {@link FastListEntryParser} on a
+ * synthetic listing of 10,000 entries.
+ * <p>
+ * Not run as part of the unit tests; start it from the IDE via
+ * {@link #main(String[])} or with the JMH runner on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ListParserBenchmark {
+
+	private static final int ENTRIES = 10000;
+
+	@Param({ "UNIX", "WINDOWS" })
+	public String format;
+
+	private List<String> lines;
+
+	private FTPFileEntryParser commonsParser;
+
+	private FastListEntryParser fastParser;
+
+	@Setup
+	public void setUp() {
+		lines = new ArrayList<String>(ENTRIES);
+		for (int i = 0; i < ENTRIES; i++) {
+			if ("UNIX".equals(format)) {
+				lines.add(String.format("-rw-r--r--   1 ftpuser  ftpgroup %8d %s %2d %s file%05d.xml", 1000 + i, i % 2 == 0 ? "Mar" : "Nov", 1 + i % 28, i % 3 == 0 ? " 2016" : "10:15", i));
+			} else {
+				lines.add(String.format("%02d-%02d-16  %02d:%02dPM %20d file%05d.xml", 1 + i % 12, 1 + i % 28, 1 + i % 12, i % 60, 1000 + i, i));
+			}
+		}
+		commonsParser = "UNIX".equals(format) ? new UnixFTPEntryParser() : new NTFTPEntryParser();
+		fastParser = new FastListEntryParser(TimeZone.getDefault());
+	}
+
+	@Benchmark
+	public void commonsNet(Blackhole blackhole) {
+		for (String line : lines) {
+			blackhole.consume(commonsParser.parseFTPEntry(line));
+		}
+	}
+
+	@Benchmark
+	public void fast(Blackhole blackhole) {
+		for (String line : lines) {
+			blackhole.consume(fastParser.parseFTPEntry(line));
+		}
+	}
+
+	@Benchmark
+	public void fastWithTimestamp(Blackhole blackhole) {
+		for (String line : lines) {
+			FTPFile file = fastParser.parseFTPEntry(line);
+			blackhole.consume(file.getTimestamp());
+		}
+	}
+
+	@Benchmark
+	public void fastScanOnly(Blackhole blackhole) {
+		RawListEntry entry = new RawListEntry();
+		for (String line : lines) {
+			if (fastParser.scan(line, entry)) {
+				blackhole.consume(entry.getSize());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ListParserBenchmark.class.getSimpleName()).build()).run();
+	}
+}
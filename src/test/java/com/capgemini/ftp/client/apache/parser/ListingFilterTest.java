@@ -0,0 +1,80 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.capgemini.ftp.client.apache.parser.ListingFilter.EntryType;
+
+public class ListingFilterTest {
+
+	private static final String XML_FILE = "-rw-r--r--   1 ftpuser  ftpgroup     7406 Mar 14  2016 file1.xml";
+	private static final String ZIP_FILE = "-rw-r--r--   1 ftpuser  ftpgroup   120000 Mar 14  2016 archive_2016.zip";
+	private static final String DIRECTORY = "drwxr-xr-x   2 ftpuser  ftpgroup     4096 Mar 14  2016 archive.xml";
+
+	private final FastListEntryParser parser = new FastListEntryParser(TimeZone.getTimeZone("GMT"));
+
+	private final RawListEntry entry = new RawListEntry();
+
+	@Test
+	public void testGlob() {
+		ListingFilter filter = ListingFilter.glob("*.xml");
+		assertTrue(accepts(filter, XML_FILE));
+		assertFalse(accepts(filter, ZIP_FILE));
+		assertTrue(accepts(ListingFilter.glob("file?.x*"), XML_FILE));
+		assertTrue(accepts(ListingFilter.glob("*_*.zip"), ZIP_FILE));
+		assertFalse(accepts(ListingFilter.glob("file?"), XML_FILE));
+	}
+
+	@Test
+	public void testRegex() {
+		assertTrue(accepts(ListingFilter.regex("archive_\\d{4}\\.zip"), ZIP_FILE));
+		assertFalse(accepts(ListingFilter.regex("archive"), ZIP_FILE));
+	}
+
+	@Test
+	public void testType() {
+		ListingFilter filter = ListingFilter.glob("*.xml").type(EntryType.FILE);
+		assertTrue(accepts(filter, XML_FILE));
+		assertFalse(accepts(filter, DIRECTORY));
+		assertTrue(accepts(ListingFilter.all().type(EntryType.DIRECTORY), DIRECTORY));
+	}
+
+	@Test
+	public void testSizeAndTime() {
+		assertFalse(accepts(ListingFilter.all().minSize(10000), XML_FILE));
+		assertTrue(accepts(ListingFilter.all().minSize(10000), ZIP_FILE));
+		assertFalse(accepts(ListingFilter.all().maxSize(10000), ZIP_FILE));
+
+		long march2016 = new GregorianCalendar(2016, Calendar.MARCH, 1).getTimeInMillis();
+		long april2016 = new GregorianCalendar(2016, Calendar.APRIL, 1).getTimeInMillis();
+		assertTrue(accepts(ListingFilter.all().modifiedAfter(march2016).modifiedBefore(april2016), XML_FILE));
+		assertFalse(accepts(ListingFilter.all().modifiedAfter(april2016), XML_FILE));
+	}
+
+	@Test
+	public void testFilterOnParsedFile() {
+		ListingFilter filter = ListingFilter.glob("*.xml").type(EntryType.FILE);
+		assertTrue(filter.accept(parser.parseFTPEntry(XML_FILE)));
+		assertFalse(filter.accept(parser.parseFTPEntry(DIRECTORY)));
+	}
+
+	@Test
+	public void testServerGlob() {
+		assertNull(ListingFilter.glob("*.xml").getServerGlob());
+		assertEquals("*.xml", ListingFilter.glob("*.xml").passGlobToServer(true).getServerGlob());
+		assertNull(ListingFilter.regex(".*").passGlobToServer(true).getServerGlob());
+	}
+
+	private boolean accepts(ListingFilter filter, String line) {
+		assertTrue(parser.scan(line, entry));
+		return filter.accept(entry);
+	}
+}
@@ -0,0 +1,47 @@
+package com.capgemini.ftp.client.apache.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class NameListReaderTest {
+
+	@Test
+	public void testNlstLines() throws Exception {
+		NameListReader reader = new NameListReader(new StringReader("file1.xml\r\nfile2.xml\r\nlast.xml"), new char[4]);
+		assertTrue(reader.next());
+		assertEquals("file1.xml", reader.getName());
+		assertTrue(reader.next());
+		assertEquals("file2.xml", reader.getName());
+		assertTrue(reader.next());
+		assertEquals("last.xml", reader.getName());
+		assertFalse(reader.next());
+		assertTrue(reader.getLineBuffer().length >= "file1.xml".length());
+	}
+
+	@Test
+	public void testMlsdLines() throws Exception {
+		NameListReader reader = new NameListReader(new StringReader(
+				"type=file; file 1.xml\r\n"
+				+ "Type=dir; archive\r\n"
+				+ "size=7406;type=FILE;modify=20160314120000; file2.xml\r\n"
+				+ "type=cdir; .\r\n"
+				+ "no facts here\r\n"), null);
+		assertTrue(reader.next());
+		assertEquals("file 1.xml", reader.getMlsdFileName());
+		assertTrue(reader.next());
+		assertNull(reader.getMlsdFileName());
+		assertTrue(reader.next());
+		assertEquals("file2.xml", reader.getMlsdFileName());
+		assertTrue(reader.next());
+		assertNull(reader.getMlsdFileName());
+		assertTrue(reader.next());
+		assertNull(reader.getMlsdFileName());
+		assertFalse(reader.next());
+	}
+}
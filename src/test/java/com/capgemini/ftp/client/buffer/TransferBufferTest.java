@@ -0,0 +1,71 @@
+package com.capgemini.ftp.client.buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TransferBufferTest {
+
+	private static byte[] content(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+	@Test
+	public void testContentSpanningChunksStaysInMemory() throws IOException {
+		ByteBufferPool pool = new ByteBufferPool(16, 10, 100, null);
+		byte[] content = content(40);
+		try (TransferBuffer buffer = pool.newBuffer()) {
+			buffer.getOutputStream().write(content, 0, 30);
+			buffer.getOutputStream().write(content[30]);
+			buffer.getOutputStream().write(content, 31, 9);
+			assertTrue(buffer.isInMemory());
+			assertEquals(40, buffer.size());
+			assertArrayEquals(content, buffer.toByteArray());
+		}
+		assertEquals(3, pool.getPooledCount());
+	}
+
+	@Test
+	public void testSpillsAboveCeiling() throws IOException {
+		ByteBufferPool pool = new ByteBufferPool(16, 10, 32, null);
+		byte[] content = content(100);
+		try (TransferBuffer buffer = pool.newBuffer()) {
+			buffer.getOutputStream().write(content, 0, 20);
+			assertTrue(buffer.isInMemory());
+			buffer.getOutputStream().write(content, 20, 80);
+			assertFalse(buffer.isInMemory());
+			assertArrayEquals(content, buffer.toByteArray());
+			// read more than once
+			assertArrayEquals(content, buffer.toByteArray());
+			assertEquals(2, pool.getPooledCount());
+		}
+	}
+
+	@Test
+	public void testChunksReused() throws IOException {
+		ByteBufferPool pool = new ByteBufferPool(16, 1, 100, null);
+		try (TransferBuffer buffer = pool.newBuffer()) {
+			buffer.getOutputStream().write(content(40));
+		}
+		assertEquals(1, pool.getPooledCount());
+		try (TransferBuffer buffer = pool.newBuffer()) {
+			buffer.getOutputStream().write(content(10));
+			assertEquals(0, pool.getPooledCount());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testClosedBuffer() throws IOException {
+		TransferBuffer buffer = new ByteBufferPool(16, 1, 100, null).newBuffer();
+		buffer.close();
+		buffer.getInputStream();
+	}
+}
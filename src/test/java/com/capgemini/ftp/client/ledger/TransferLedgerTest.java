@@ -0,0 +1,171 @@
+package com.capgemini.ftp.client.ledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransferLedgerTest {
+
+	private static final String SERVER = "ftp.example.com:21";
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("transfer-ledger-test");
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : dir.toFile().listFiles()) {
+			file.delete();
+		}
+		dir.toFile().delete();
+	}
+
+	private static TransferKey key(int i) {
+		return new TransferKey(SERVER, "/outbound/file" + i + ".xml", 7406, 1488449700000L + i);
+	}
+
+	@Test
+	public void testStatesSurviveReopen() throws IOException {
+		TransferLedger ledger = TransferLedger.open(dir);
+		ledger.record(key(1), TransferState.DISCOVERED);
+		ledger.record(key(1), TransferState.DOWNLOADING);
+		ledger.record(key(2), TransferState.DOWNLOADING);
+		ledger.record(key(2), TransferState.DOWNLOADED);
+		ledger.record(key(3), TransferState.ARCHIVED);
+		assertEquals(TransferState.DOWNLOADED, ledger.getState(key(2)));
+		ledger.close();
+
+		ledger = TransferLedger.open(dir);
+		try {
+			assertEquals(3, ledger.size());
+			assertEquals(TransferState.DOWNLOADING, ledger.getState(key(1)));
+			assertTrue(ledger.needsDownload(key(1)));
+			assertFalse(ledger.needsDownload(key(2)));
+			assertFalse(ledger.needsDownload(key(3)));
+			assertTrue(ledger.needsDownload(key(4)));
+			assertEquals(Arrays.asList(key(2)), ledger.getKeys(TransferState.DOWNLOADED));
+		} finally {
+			ledger.close();
+		}
+	}
+
+	@Test
+	public void testSyncWritesToTheMappedLog() throws IOException {
+		TransferLedger ledger = TransferLedger.open(dir);
+		try {
+			ledger.recordDurably(key(1), TransferState.DOWNLOADED);
+			// a second instance sees the records through the same file, as a restart after a crash would
+			TransferLedger reader = TransferLedger.open(dir);
+			assertEquals(TransferState.DOWNLOADED, reader.getState(key(1)));
+			reader.close();
+		} finally {
+			ledger.close();
+		}
+	}
+
+	@Test
+	public void testKeyIncludesSizeAndModificationTime() throws IOException {
+		TransferLedger ledger = TransferLedger.open(dir);
+		try {
+			ledger.record(key(1), TransferState.ARCHIVED);
+			assertNull(ledger.getState(new TransferKey(SERVER, key(1).getPath(), 7407, key(1).getModificationTime())));
+			assertNull(ledger.getState(new TransferKey(SERVER, key(1).getPath(), 7406, -1)));
+			assertNull(ledger.getState(new TransferKey("other:21", key(1).getPath(), 7406, key(1).getModificationTime())));
+		} finally {
+			ledger.close();
+		}
+	}
+
+	@Test
+	public void testCompactionWhenLogIsFull() throws IOException {
+		TransferLedger ledger = TransferLedger.open(dir, 512);
+		for (int i = 0; i < 100; i++) {
+			ledger.record(key(i % 10), TransferState.values()[i % TransferState.values().length]);
+		}
+		ledger.close();
+		assertTrue(Files.exists(dir.resolve(TransferLedger.INDEX_FILE)));
+
+		ledger = TransferLedger.open(dir, 512);
+		try {
+			assertEquals(10, ledger.size());
+			for (int i = 90; i < 100; i++) {
+				assertEquals(TransferState.values()[i % TransferState.values().length], ledger.getState(key(i % 10)));
+			}
+		} finally {
+			ledger.close();
+		}
+	}
+
+	@Test
+	public void testForgottenFilesAreNotReadBack() throws IOException {
+		TransferLedger ledger = TransferLedger.open(dir);
+		ledger.record(key(1), TransferState.ARCHIVED);
+		ledger.record(key(2), TransferState.DOWNLOADED);
+		ledger.record(key(3), TransferState.ARCHIVED);
+		assertEquals(2, ledger.forget(TransferState.ARCHIVED));
+		assertNull(ledger.getState(key(1)));
+		ledger.record(key(4), TransferState.ARCHIVED);
+		ledger.sync();
+		assertEquals(2, ledger.size());
+		ledger.close();
+
+		ledger = TransferLedger.open(dir);
+		try {
+			assertEquals(2, ledger.size());
+			assertNull(ledger.getState(key(1)));
+			assertNull(ledger.getState(key(3)));
+			assertEquals(TransferState.DOWNLOADED, ledger.getState(key(2)));
+			assertEquals(TransferState.ARCHIVED, ledger.getState(key(4)));
+			assertEquals(0, ledger.forget(TransferState.FAILED));
+		} finally {
+			ledger.close();
+		}
+	}
+
+	@Test
+	public void testTornRecordIsIgnored() throws IOException {
+		TransferLedger ledger = TransferLedger.open(dir);
+		ledger.record(key(1), TransferState.DOWNLOADED);
+		ledger.record(key(2), TransferState.DOWNLOADED);
+		ledger.close();
+
+		int recordSize = TransferLedger.RECORD_HEADER_SIZE + 1 + 8 + 8 + 4 + SERVER.length() + 4 + key(1).getPath().getBytes(StandardCharsets.UTF_8).length;
+		try (FileChannel channel = FileChannel.open(dir.resolve(TransferLedger.LOG_FILE), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), TransferLedger.LOG_HEADER_SIZE + 2 * recordSize - 1);
+		}
+
+		ledger = TransferLedger.open(dir);
+		try {
+			assertEquals(TransferState.DOWNLOADED, ledger.getState(key(1)));
+			assertNull(ledger.getState(key(2)));
+			// the next record overwrites the torn one
+			ledger.record(key(3), TransferState.DISCOVERED);
+		} finally {
+			ledger.close();
+		}
+		ledger = TransferLedger.open(dir);
+		try {
+			assertEquals(TransferState.DISCOVERED, ledger.getState(key(3)));
+		} finally {
+			ledger.close();
+		}
+	}
+}
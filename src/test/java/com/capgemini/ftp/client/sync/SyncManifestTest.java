@@ -0,0 +1,89 @@
+package com.capgemini.ftp.client.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyncManifestTest {
+
+	private Path dir;
+
+	private Path path;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("sync-manifest-test");
+		path = dir.resolve("manifest");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void testMissingFileLoadsEmpty() throws IOException {
+		SyncManifest manifest = SyncManifest.load(path);
+		assertEquals(0, manifest.size());
+		assertFalse(manifest.isModified());
+		manifest.save();
+		assertFalse(Files.exists(path));
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		SyncManifest manifest = SyncManifest.load(path);
+		manifest.put(new ManifestEntry("file1.xml", 7406, 1488449700000L, 1490868000000L, 0xcafebabeL));
+		manifest.put(new ManifestEntry("name\twith tab.xml", 0, -1, 1490868000000L, 0));
+		assertTrue(manifest.isModified());
+		manifest.save();
+		assertFalse(manifest.isModified());
+
+		SyncManifest loaded = SyncManifest.load(path);
+		assertEquals(2, loaded.size());
+		ManifestEntry entry = loaded.get("file1.xml");
+		assertEquals(7406, entry.getSize());
+		assertEquals(1488449700000L, entry.getRemoteModificationTime());
+		assertEquals(1490868000000L, entry.getLocalModificationTime());
+		assertEquals(0xcafebabeL, entry.getChecksum());
+		assertEquals(-1, loaded.get("name\twith tab.xml").getRemoteModificationTime());
+	}
+
+	@Test
+	public void testRemove() throws IOException {
+		SyncManifest manifest = SyncManifest.load(path);
+		manifest.put(new ManifestEntry("a", 1, 1, 1, 1));
+		manifest.put(new ManifestEntry("b", 1, 1, 1, 1));
+		manifest.save();
+		manifest.removeAll(Arrays.asList("a", "unknown"));
+		assertTrue(manifest.isModified());
+		manifest.save();
+		SyncManifest loaded = SyncManifest.load(path);
+		assertNull(loaded.get("a"));
+		assertEquals(1, loaded.size());
+	}
+
+	@Test
+	public void testNotAManifest() throws IOException {
+		Files.write(path, "file1.xml\n".getBytes(StandardCharsets.UTF_8));
+		try {
+			SyncManifest.load(path);
+			fail("Expected IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Not a sync manifest"));
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.capgemini.ftp.client.watch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.capgemini.ftp.client.RemoteFileAttributes;
+
+public class FileStabilityGateTest {
+
+	private static List<RemoteFileAttributes> listing(RemoteFileAttributes... files) {
+		return Arrays.asList(files);
+	}
+
+	@Test
+	public void testObservations() {
+		FileStabilityGate gate = FileStabilityGate.observations(2);
+		assertTrue(gate.observe(listing(new RemoteFileAttributes("a.xml", 100, 1000)), 0).isEmpty());
+		assertEquals(1, gate.getPendingCount());
+		// still growing
+		assertTrue(gate.observe(listing(new RemoteFileAttributes("a.xml", 200, 2000)), 1).isEmpty());
+		assertEquals(Collections.singleton("a.xml"), gate.observe(listing(new RemoteFileAttributes("a.xml", 200, 2000)), 2));
+		assertEquals(0, gate.getPendingCount());
+		// stays stable
+		assertEquals(Collections.singleton("a.xml"), gate.observe(listing(new RemoteFileAttributes("a.xml", 200, 2000)), 3));
+	}
+
+	@Test
+	public void testModificationTimeChangeResets() {
+		FileStabilityGate gate = FileStabilityGate.observations(2);
+		gate.observe(listing(new RemoteFileAttributes("a.xml", 100, 1000)), 0);
+		assertTrue(gate.observe(listing(new RemoteFileAttributes("a.xml", 100, 1500)), 1).isEmpty());
+	}
+
+	@Test
+	public void testQuietPeriod() {
+		FileStabilityGate gate = FileStabilityGate.quietPeriod(5000);
+		assertTrue(gate.observe(listing(new RemoteFileAttributes("a.xml", 100, -1)), 0).isEmpty());
+		assertTrue(gate.observe(listing(new RemoteFileAttributes("a.xml", 100, -1)), 4999).isEmpty());
+		assertEquals(Collections.singleton("a.xml"), gate.observe(listing(new RemoteFileAttributes("a.xml", 100, -1)), 5000));
+	}
+
+	@Test
+	public void testFirstCriterionWins() {
+		FileStabilityGate gate = new FileStabilityGate(3, 1000);
+		gate.observe(listing(new RemoteFileAttributes("a.xml", 1, 1), new RemoteFileAttributes("b.xml", 1, 1)), 0);
+		assertEquals(Collections.singleton("a.xml"),
+				gate.observe(listing(new RemoteFileAttributes("a.xml", 1, 1), new RemoteFileAttributes("b.xml", 2, 2)), 1000));
+		// b.xml changed at 1000, and is seen unchanged for the third time long before it has been quiet for 1000 ms
+		assertEquals(Collections.singleton("a.xml"),
+				gate.observe(listing(new RemoteFileAttributes("a.xml", 1, 1), new RemoteFileAttributes("b.xml", 2, 2)), 1001));
+		assertEquals(new HashSet<String>(Arrays.asList("a.xml", "b.xml")),
+				gate.observe(listing(new RemoteFileAttributes("a.xml", 1, 1), new RemoteFileAttributes("b.xml", 2, 2)), 1002));
+	}
+
+	@Test
+	public void testMissingFilesAreForgotten() {
+		FileStabilityGate gate = FileStabilityGate.observations(2);
+		gate.observe(listing(new RemoteFileAttributes("a.xml", 1, 1)), 0);
+		gate.observe(listing(), 1);
+		assertTrue(gate.observe(listing(new RemoteFileAttributes("a.xml", 1, 1)), 2).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoCriterion() {
+		new FileStabilityGate(0, 0);
+	}
+}
@@ -0,0 +1,102 @@
+package com.capgemini.ftp.client.watch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.capgemini.ftp.client.RemoteFileAttributes;
+
+public class IncrementalPickupTest {
+
+	private Path dir;
+
+	private Path watermark;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("pickup");
+		watermark = dir.resolve("transfer.watermark");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(watermark);
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void testEverythingIsNewWithoutWatermark() throws IOException {
+		IncrementalPickup pickup = IncrementalPickup.load(watermark);
+		assertTrue(pickup.isNew(new RemoteFileAttributes("a.xml", 1, 0)));
+		assertFalse(Files.exists(watermark));
+	}
+
+	@Test
+	public void testSelectOrdersByModificationTimeThenName() throws IOException {
+		IncrementalPickup pickup = IncrementalPickup.load(watermark);
+		List<RemoteFileAttributes> selected = pickup.select(Arrays.asList(new RemoteFileAttributes("c.xml", 1, 2000),
+				new RemoteFileAttributes("b.xml", 1, 1000), new RemoteFileAttributes("a.xml", 1, 1000)));
+		assertEquals("a.xml", selected.get(0).getFileName());
+		assertEquals("b.xml", selected.get(1).getFileName());
+		assertEquals("c.xml", selected.get(2).getFileName());
+	}
+
+	@Test
+	public void testFilesSharingTheWatermarkTimeAreNewUntilProcessed() throws IOException {
+		IncrementalPickup pickup = IncrementalPickup.load(watermark);
+		pickup.advance(new RemoteFileAttributes("b.xml", 1, 1000));
+		// arrived after b.xml with the same time, so not processed yet
+		assertTrue(pickup.isNew(new RemoteFileAttributes("a.xml", 1, 1000)));
+		assertFalse(pickup.isNew(new RemoteFileAttributes("b.xml", 1, 1000)));
+		assertTrue(pickup.isNew(new RemoteFileAttributes("c.xml", 1, 1000)));
+		assertFalse(pickup.isNew(new RemoteFileAttributes("z.xml", 1, 999)));
+		assertTrue(pickup.isNew(new RemoteFileAttributes("a.xml", 1, 1001)));
+
+		pickup.advance(new RemoteFileAttributes("a.xml", 1, 1000));
+		IncrementalPickup reloaded = IncrementalPickup.load(watermark);
+		assertEquals(new TreeSet<String>(Arrays.asList("a.xml", "b.xml")), reloaded.getFileNames());
+		assertFalse(reloaded.isNew(new RemoteFileAttributes("a.xml", 1, 1000)));
+		assertTrue(reloaded.isNew(new RemoteFileAttributes("c.xml", 1, 1000)));
+
+		// a newer time starts the names again
+		reloaded.advance(new RemoteFileAttributes("c.xml", 1, 2000));
+		assertEquals(Collections.singleton("c.xml"), reloaded.getFileNames());
+	}
+
+	@Test
+	public void testKnownModificationTimeIsForgottenWhenTheListingChanges() throws IOException {
+		IncrementalPickup pickup = IncrementalPickup.load(watermark);
+		// listed with the times LIST shows, to the minute
+		RemoteFileAttributes listed = new RemoteFileAttributes("a.xml", 10, 60000);
+		pickup.setKnownModificationTimes(Arrays.asList(listed, new RemoteFileAttributes("b.xml", 1, 60000)),
+				Collections.singletonMap("a.xml", 61000L));
+		assertEquals(Long.valueOf(61000), pickup.getKnownModificationTime(new RemoteFileAttributes("a.xml", 10, 60000)));
+		assertNull(pickup.getKnownModificationTime(new RemoteFileAttributes("a.xml", 11, 60000)));
+		assertNull(pickup.getKnownModificationTime(new RemoteFileAttributes("a.xml", 10, 120000)));
+		assertNull(pickup.getKnownModificationTime(new RemoteFileAttributes("b.xml", 1, 60000)));
+	}
+
+	@Test
+	public void testWatermarkIsPersistedAndNeverMovesBack() throws IOException {
+		IncrementalPickup pickup = IncrementalPickup.load(watermark);
+		pickup.advance(new RemoteFileAttributes("b.xml", 1, 2000));
+		pickup.advance(new RemoteFileAttributes("a.xml", 1, 1000));
+		IncrementalPickup reloaded = IncrementalPickup.load(watermark);
+		assertEquals(2000, reloaded.getModificationTime());
+		assertEquals(Collections.singleton("b.xml"), reloaded.getFileNames());
+		assertEquals(1, pickup.select(Arrays.asList(new RemoteFileAttributes("b.xml", 1, 2000), new RemoteFileAttributes("c.xml", 1, 3000))).size());
+	}
+}
@@ -0,0 +1,105 @@
+package com.capgemini.ftp.client.watch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.capgemini.ftp.client.FileTransferBean;
+import com.capgemini.ftp.client.RemoteFileAttributes;
+import com.capgemini.ftp.client.watch.RemoteFileEvent.Type;
+
+public class RemoteDirectoryWatcherTest {
+
+	private static Map<String, RemoteFileAttributes> listing(RemoteFileAttributes... files) {
+		Map<String, RemoteFileAttributes> listing = new HashMap<String, RemoteFileAttributes>();
+		for (RemoteFileAttributes file : files) {
+			listing.put(file.getFileName(), file);
+		}
+		return listing;
+	}
+
+	private static Map<String, Type> types(List<RemoteFileEvent> events) {
+		Map<String, Type> types = new HashMap<String, Type>();
+		for (RemoteFileEvent event : events) {
+			types.put(event.getFileName(), event.getType());
+		}
+		return types;
+	}
+
+	@Test
+	public void testDiff() {
+		Map<String, RemoteFileAttributes> previous = listing(new RemoteFileAttributes("same.xml", 10, 1000), new RemoteFileAttributes("grown.xml", 10, 1000),
+				new RemoteFileAttributes("touched.xml", 10, 1000), new RemoteFileAttributes("gone.xml", 10, 1000));
+		Map<String, RemoteFileAttributes> current = listing(new RemoteFileAttributes("same.xml", 10, 1000), new RemoteFileAttributes("grown.xml", 20, 1000),
+				new RemoteFileAttributes("touched.xml", 10, 2000), new RemoteFileAttributes("new.xml", 5, 3000));
+		Map<String, Type> types = types(RemoteDirectoryWatcher.diff(previous, current));
+		assertEquals(4, types.size());
+		assertEquals(Type.MODIFIED, types.get("grown.xml"));
+		assertEquals(Type.MODIFIED, types.get("touched.xml"));
+		assertEquals(Type.CREATED, types.get("new.xml"));
+		assertEquals(Type.DELETED, types.get("gone.xml"));
+	}
+
+	@Test
+	public void testDiffWithReplacedFile() {
+		// as many files as before, but one of them is new
+		Map<String, RemoteFileAttributes> previous = listing(new RemoteFileAttributes("a.xml", 1, 1), new RemoteFileAttributes("b.xml", 1, 1));
+		Map<String, RemoteFileAttributes> current = listing(new RemoteFileAttributes("a.xml", 1, 1), new RemoteFileAttributes("c.xml", 1, 1));
+		Map<String, Type> types = types(RemoteDirectoryWatcher.diff(previous, current));
+		assertEquals(Type.CREATED, types.get("c.xml"));
+		assertEquals(Type.DELETED, types.get("b.xml"));
+		assertEquals(2, types.size());
+	}
+
+	@Test
+	public void testListenersAreCalledWithoutTheWatcherLock() throws Exception {
+		final Map<String, RemoteFileAttributes> listing = listing(new RemoteFileAttributes("a.xml", 1, 1));
+		// a bean without a server: no session, and the same listing every time
+		FileTransferBean fileTransferBean = (FileTransferBean) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { FileTransferBean.class },
+				(proxy, method, args) -> "getRemoteDirFileAttributes".equals(method.getName()) ? listing : null);
+		final RemoteDirectoryWatcher watcher = new RemoteDirectoryWatcher("correlationid", fileTransferBean, null, null);
+		final ExecutorService other = Executors.newSingleThreadExecutor();
+		final long[] seen = new long[1];
+		try {
+			watcher.addListener(events -> {
+				try {
+					// deadlocks if the listener is called under the lock of the watcher
+					seen[0] = other.submit(() -> watcher.getPollInterval()).get(5, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			assertEquals(1, watcher.poll().size());
+			assertEquals(watcher.getPollInterval(), seen[0]);
+		} finally {
+			other.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMinPollIntervalMustBePositive() {
+		new RemoteDirectoryWatcher("correlationid", null, null, null).setMinPollInterval(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxPollIntervalMustBePositive() {
+		new RemoteDirectoryWatcher("correlationid", null, null, null).setMaxPollInterval(-1);
+	}
+
+	@Test
+	public void testNoChanges() {
+		Map<String, RemoteFileAttributes> previous = listing(new RemoteFileAttributes("a.xml", 1, 1));
+		assertTrue(RemoteDirectoryWatcher.diff(previous, listing(new RemoteFileAttributes("a.xml", 1, 1))).isEmpty());
+		assertEquals(Type.DELETED, RemoteDirectoryWatcher.diff(previous, Collections.<String, RemoteFileAttributes> emptyMap()).get(0).getType());
+	}
+}